@@ -0,0 +1,356 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Sweeps a circuit across a range of frequencies (for Bode plots). Every battery is treated as a sine-wave source with
+ * an amplitude equal to its voltage, all in phase. At each frequency, a resistor has admittance 1/R, a capacitor
+ * j(omega)C, and an inductor adds -j(omega)L to its voltage equation, giving a system of complex equations. Circuits
+ * with diodes are not accepted, since a diode is not linear and has no single admittance.
+ *
+ * The numbering of unknowns, the frequency-independent part of the matrix and the list of entries that grow with
+ * omega are worked out once, from the circuit's NodalAnalysis, and shared by every frequency. The frequencies are then
+ * divided among the threads of a pool; each thread keeps one set of matrix and constant buffers, refills it for each of
+ * its frequencies, and writes its results straight into the primitive arrays of an ACSweepResult.
+ */
+public class ACAnalysis
+{
+    private static final double SINGULAR = 1e-12;   // smallest pivot accepted, relative to the largest entry
+
+    private NodalAnalysis analysis;
+    private List<Component> components;
+    private double[] values;
+    private double[] base;          // the real part of the matrix, row by row; it does not depend on frequency
+    private int[] reactive;         // places in the matrix whose imaginary part is omega times the matching weight
+    private double[] weights;
+    private double[] constants;     // battery amplitudes
+    private int size;
+    private int numThreads;
+
+    /**
+     * Sets up an AC analysis of a circuit. The circuit's components and their values are read once, here.
+     * @param circ  The circuit to analyze
+     * @throws IllegalArgumentException  If the circuit has diodes
+     */
+    public ACAnalysis(Circuit circ)
+    {
+        if (circ.hasDiodes())
+        {
+            throw new IllegalArgumentException("AC analysis cannot sweep circuits with diodes");
+        }
+        analysis = new NodalAnalysis(circ);
+        components = analysis.getComponents();
+        values = analysis.getValues();
+        constants = analysis.buildConstants(values);
+        size = analysis.size();
+        numThreads = Runtime.getRuntime().availableProcessors();
+
+        double[][] matrix = analysis.buildMatrix(values);
+        base = new double[size * size];
+        for (int r = 0; r < size; r++)
+        {
+            System.arraycopy(matrix[r], 0, base, r * size, size);
+        }
+        List<Integer> places = new ArrayList<Integer>();
+        List<Double> amounts = new ArrayList<Double>();
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            int[] ends = analysis.getEnds(k);
+            if (c instanceof Capacitor)
+            {
+                // The capacitor's admittance j(omega)C replaces the tiny steady-state conductance stamped by NodalAnalysis
+                double g = NodalAnalysis.GMIN;
+                add(base, ends[0], ends[0], -g);
+                add(base, ends[1], ends[1], -g);
+                add(base, ends[0], ends[1], g);
+                add(base, ends[1], ends[0], g);
+                addReactive(places, amounts, ends[0], ends[0], values[k]);
+                addReactive(places, amounts, ends[1], ends[1], values[k]);
+                addReactive(places, amounts, ends[0], ends[1], -values[k]);
+                addReactive(places, amounts, ends[1], ends[0], -values[k]);
+            }
+            else if (c instanceof Inductor)
+            {
+                int s = analysis.getSourceRow(k);
+                addReactive(places, amounts, s, s, -values[k]);    // V(a) - V(b) - j(omega)L i = 0
+            }
+        }
+        reactive = new int[places.size()];
+        weights = new double[places.size()];
+        for (int i = 0; i < reactive.length; i++)
+        {
+            reactive[i] = places.get(i);
+            weights[i] = amounts.get(i);
+        }
+    }
+
+    private void addReactive(List<Integer> places, List<Double> amounts, int row, int col, double weight)
+    {
+        if (row >= 0 && col >= 0)
+        {
+            places.add(row * size + col);
+            amounts.add(weight);
+        }
+    }
+
+    /**
+     * @param threads  The number of threads used to solve frequencies in parallel (defaults to the number of cores)
+     */
+    public void setNumThreads(int threads)
+    {
+        numThreads = Math.max(threads, 1);
+    }
+
+    /**
+     * Solves the circuit at each frequency.
+     * @param frequencies  The frequencies to solve, in hertz
+     * @return  The amplitude and phase of every component's current at every frequency
+     * @throws CancellationException  If the calling thread is interrupted during the sweep; the sweep's threads are
+     *                                stopped, no partial result is returned, and the thread's interrupt flag is left set
+     */
+    public ACSweepResult sweep(final double[] frequencies)
+    {
+        final ACSweepResult result = new ACSweepResult(frequencies, components.size());
+        final int numTasks = Math.max(Math.min(numThreads, frequencies.length), 1);
+        ExecutorService pool = Executors.newFixedThreadPool(numTasks);
+        try
+        {
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            for (int t = 0; t < numTasks; t++)
+            {
+                final int first = t;
+                tasks.add(new Callable<Void>()
+                    {
+                        public Void call()
+                        {
+                            // Every numTasks'th frequency, all in the same buffers
+                            double[] re = new double[size * size];
+                            double[] im = new double[size * size];
+                            double[] bRe = new double[size];
+                            double[] bIm = new double[size];
+                            for (int f = first; f < frequencies.length; f += numTasks)
+                            {
+                                if (Thread.currentThread().isInterrupted())
+                                {
+                                    return null;
+                                }
+                                solveFrequency(f, frequencies[f], result, re, im, bRe, bIm);
+                            }
+                            return null;
+                        }
+                    });
+            }
+            for (Future<Void> done : pool.invokeAll(tasks))
+            {
+                done.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("The frequency sweep was interrupted");
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        return result;
+    }
+
+    /**
+     * Builds and solves the complex equations at one frequency, storing the component currents in result.
+     * @param re  Room for the real parts of the matrix, row by row; im for the imaginary parts, and bRe and bIm for
+     *            the constants. Their old contents are overwritten.
+     */
+    private void solveFrequency(int f, double freq, ACSweepResult result, double[] re, double[] im, double[] bRe,
+        double[] bIm)
+    {
+        double omega = 2 * Math.PI * freq;
+        System.arraycopy(base, 0, re, 0, base.length);
+        Arrays.fill(im, 0);
+        for (int i = 0; i < reactive.length; i++)
+        {
+            im[reactive[i]] += omega * weights[i];
+        }
+        System.arraycopy(constants, 0, bRe, 0, size);
+        Arrays.fill(bIm, 0);
+
+        if (!solveComplex(re, im, bRe, bIm))
+        {
+            result.setUnsolvable(f);
+            return;
+        }
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            int[] ends = analysis.getEnds(k);
+            int s = analysis.getSourceRow(k);
+            if (s >= 0)
+            {
+                result.set(f, k, bRe[s], bIm[s]);
+            }
+            else
+            {
+                double vRe = entry(bRe, ends[0]) - entry(bRe, ends[1]);
+                double vIm = entry(bIm, ends[0]) - entry(bIm, ends[1]);
+                if (c instanceof Capacitor)
+                {
+                    result.set(f, k, -omega * values[k] * vIm, omega * values[k] * vRe);   // i = j(omega)C v
+                }
+                else
+                {
+                    result.set(f, k, vRe / values[k], vIm / values[k]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gaussian elimination with partial pivoting on a complex matrix. The solution replaces the constants (bRe, bIm).
+     * The matrix is taken as singular if a pivot is smaller than SINGULAR times its largest entry.
+     * @return  False if the matrix is singular
+     */
+    private boolean solveComplex(double[] re, double[] im, double[] bRe, double[] bIm)
+    {
+        int n = size;
+        double largest = 0;     // squared magnitude of the largest entry, to compare the pivots (also squared) with
+        for (int i = 0; i < n * n; i++)
+        {
+            largest = Math.max(largest, re[i] * re[i] + im[i] * im[i]);
+        }
+        double tiny = SINGULAR * SINGULAR * largest;
+        for (int col = 0; col < n; col++)
+        {
+            // Find pivot row
+            int pivot = col;
+            double biggest = 0;
+            for (int r = col; r < n; r++)
+            {
+                double mag = re[r * n + col] * re[r * n + col] + im[r * n + col] * im[r * n + col];
+                if (mag > biggest)
+                {
+                    biggest = mag;
+                    pivot = r;
+                }
+            }
+            if (biggest <= tiny)
+            {
+                return false;
+            }
+            if (pivot != col)
+            {
+                swapRows(re, pivot, col);
+                swapRows(im, pivot, col);
+                swap(bRe, pivot, col);
+                swap(bIm, pivot, col);
+            }
+            // 1 / pivot
+            double pRe = re[col * n + col];
+            double pIm = im[col * n + col];
+            double invRe = pRe / biggest;
+            double invIm = -pIm / biggest;
+            for (int r = col + 1; r < n; r++)
+            {
+                double aRe = re[r * n + col];
+                double aIm = im[r * n + col];
+                if (aRe == 0 && aIm == 0)
+                {
+                    continue;
+                }
+                double mRe = aRe * invRe - aIm * invIm;     // multiplier = a / pivot
+                double mIm = aRe * invIm + aIm * invRe;
+                for (int c = col; c < n; c++)
+                {
+                    double xRe = re[col * n + c];
+                    double xIm = im[col * n + c];
+                    re[r * n + c] -= mRe * xRe - mIm * xIm;
+                    im[r * n + c] -= mRe * xIm + mIm * xRe;
+                }
+                double yRe = bRe[col];
+                double yIm = bIm[col];
+                bRe[r] -= mRe * yRe - mIm * yIm;
+                bIm[r] -= mRe * yIm + mIm * yRe;
+            }
+        }
+        // Back substitution
+        for (int r = n - 1; r >= 0; r--)
+        {
+            double sRe = bRe[r];
+            double sIm = bIm[r];
+            for (int c = r + 1; c < n; c++)
+            {
+                sRe -= re[r * n + c] * bRe[c] - im[r * n + c] * bIm[c];
+                sIm -= re[r * n + c] * bIm[c] + im[r * n + c] * bRe[c];
+            }
+            double dRe = re[r * n + r];
+            double dIm = im[r * n + r];
+            double mag = dRe * dRe + dIm * dIm;
+            bRe[r] = (sRe * dRe + sIm * dIm) / mag;
+            bIm[r] = (sIm * dRe - sRe * dIm) / mag;
+        }
+        return true;
+    }
+
+    private void swapRows(double[] matrix, int r1, int r2)
+    {
+        for (int c = 0; c < size; c++)
+        {
+            double temp = matrix[r1 * size + c];
+            matrix[r1 * size + c] = matrix[r2 * size + c];
+            matrix[r2 * size + c] = temp;
+        }
+    }
+
+    private void swap(double[] vector, int i, int j)
+    {
+        double temp = vector[i];
+        vector[i] = vector[j];
+        vector[j] = temp;
+    }
+
+    private void add(double[] matrix, int row, int col, double value)
+    {
+        if (row >= 0 && col >= 0)
+        {
+            matrix[row * size + col] += value;
+        }
+    }
+
+    private double entry(double[] x, int i)
+    {
+        if (i < 0)
+        {
+            return 0;
+        }
+        return x[i];
+    }
+
+    /**
+     * Makes a list of frequencies evenly spaced on a logarithmic scale, as used for Bode plots.
+     * @param start  The first frequency, in hertz (must be greater than 0)
+     * @param stop  The last frequency, in hertz
+     * @param count  How many frequencies to make
+     */
+    public static double[] logSpace(double start, double stop, int count)
+    {
+        double[] freqs = new double[count];
+        for (int i = 0; i < count; i++)
+        {
+            double fraction = count > 1 ? i / (double)(count - 1) : 0;
+            freqs[i] = start * Math.pow(stop / start, fraction);
+        }
+        return freqs;
+    }
+}
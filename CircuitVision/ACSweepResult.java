@@ -0,0 +1,98 @@
+
+/**
+ * Holds the results of an ACAnalysis frequency sweep: the amplitude and phase of the current through every component
+ * at every frequency. The results are stored in two flat arrays (frequency-major) rather than in the components, so a
+ * sweep of hundreds of frequencies does not create any per-component objects.
+ */
+public class ACSweepResult
+{
+    private double[] frequencies;
+    private int numComponents;
+    private double[] magnitude;     // magnitude[f * numComponents + k]
+    private double[] phase;         // in radians
+
+    /**
+     * @param freqs  The frequencies (in hertz) that will be solved
+     * @param components  The number of components in the circuit
+     */
+    public ACSweepResult(double[] freqs, int components)
+    {
+        frequencies = freqs.clone();
+        numComponents = components;
+        magnitude = new double[frequencies.length * numComponents];
+        phase = new double[frequencies.length * numComponents];
+    }
+
+    /**
+     * Stores the complex current through component k at frequency number f. Called by ACAnalysis, possibly from
+     * several threads at once; each thread writes only its own frequencies.
+     */
+    void set(int f, int k, double re, double im)
+    {
+        magnitude[f * numComponents + k] = Math.sqrt(re * re + im * im);
+        phase[f * numComponents + k] = Math.atan2(im, re);
+    }
+
+    /**
+     * Marks a frequency at which the circuit could not be solved (for example, at the resonance of an LC loop with
+     * no resistance).
+     */
+    void setUnsolvable(int f)
+    {
+        for (int k = 0; k < numComponents; k++)
+        {
+            magnitude[f * numComponents + k] = Double.NaN;
+            phase[f * numComponents + k] = Double.NaN;
+        }
+    }
+
+    /**
+     * @return  The amplitude of the current (in amps) through component k at frequency number f, or NaN if the
+     *          circuit could not be solved at that frequency. Components are numbered as in circuit.getComponents().
+     */
+    public double getMagnitude(int f, int k)
+    {
+        return magnitude[f * numComponents + k];
+    }
+
+    /**
+     * @return  The phase (in radians) of the current through component k at frequency number f, relative to the
+     *          batteries. Positive current flows from endPt1 to endPt2.
+     */
+    public double getPhase(int f, int k)
+    {
+        return phase[f * numComponents + k];
+    }
+
+    /**
+     * @return  The magnitude in decibels (20 log10 of the amplitude), as plotted on a Bode plot.
+     */
+    public double getDecibels(int f, int k)
+    {
+        return 20 * Math.log10(getMagnitude(f, k));
+    }
+
+    /**
+     * @return  Frequency number f, in hertz
+     */
+    public double getFrequency(int f)
+    {
+        return frequencies[f];
+    }
+
+    /**
+     * @return  The number of frequencies in the sweep
+     */
+    public int numFrequencies()
+    {
+        return frequencies.length;
+    }
+
+    /**
+     * @return  The number of components
+     */
+    public int numComponents()
+    {
+        return numComponents;
+    }
+}
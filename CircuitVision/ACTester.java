@@ -0,0 +1,110 @@
+import java.util.concurrent.CancellationException;
+
+/**
+ * Checks ACAnalysis against the closed-form current in a series RC and a series RL circuit across a Bode sweep, with one
+ * thread and with several. Then checks that a circuit with a diode is turned away, and that an interrupted sweep throws
+ * a CancellationException and leaves the thread's interrupt flag set, rather than returning a partial result.
+ */
+public class ACTester
+{
+    public static void main(String[] args)
+    {
+        double[] freqs = ACAnalysis.logSpace(10, 100000, 60);
+        double r = 1000;
+        double farads = 1e-7;
+        double henries = 0.1;
+        for (int threads : new int[] {1, 4})
+        {
+            ACAnalysis rc = new ACAnalysis(loop(new Resistor((int)r), new Capacitor(farads)));
+            rc.setNumThreads(threads);
+            ACSweepResult result = rc.sweep(freqs);
+            double worstMag = 0;
+            double worstPhase = 0;
+            for (int f = 0; f < freqs.length; f++)
+            {
+                // |I| = V / sqrt(R^2 + (1 / omega C)^2), leading the battery by atan(1 / omega R C)
+                double omega = 2 * Math.PI * freqs[f];
+                double x = 1 / (omega * farads);
+                worstMag = Math.max(worstMag, relative(result.getMagnitude(f, 1), 1 / Math.sqrt(r * r + x * x)));
+                worstPhase = Math.max(worstPhase, Math.abs(result.getPhase(f, 1) - Math.atan(x / r)));
+            }
+            System.out.println("Series RC, " + threads + " thread(s): largest relative error in amplitude " + worstMag
+                + ", in phase " + worstPhase + " rad");
+
+            ACAnalysis rl = new ACAnalysis(loop(new Resistor((int)r), new Inductor(henries)));
+            rl.setNumThreads(threads);
+            result = rl.sweep(freqs);
+            worstMag = 0;
+            worstPhase = 0;
+            for (int f = 0; f < freqs.length; f++)
+            {
+                // |I| = V / sqrt(R^2 + (omega L)^2), lagging the battery by atan(omega L / R)
+                double x = 2 * Math.PI * freqs[f] * henries;
+                worstMag = Math.max(worstMag, relative(result.getMagnitude(f, 1), 1 / Math.sqrt(r * r + x * x)));
+                worstPhase = Math.max(worstPhase, Math.abs(result.getPhase(f, 1) + Math.atan(x / r)));
+            }
+            System.out.println("Series RL, " + threads + " thread(s): largest relative error in amplitude " + worstMag
+                + ", in phase " + worstPhase + " rad");
+        }
+
+        Circuit withDiode = loop(new Resistor((int)r), new Diode());
+        try
+        {
+            new ACAnalysis(withDiode);
+            System.out.println("Circuit with a diode accepted: FAILED");
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println("Circuit with a diode rejected: " + e.getMessage());
+        }
+
+        ACAnalysis big = new ACAnalysis(ladder(40));
+        big.setNumThreads(2);
+        Thread.currentThread().interrupt();
+        try
+        {
+            big.sweep(ACAnalysis.logSpace(10, 100000, 400));
+            System.out.println("Interrupted sweep returned a result: FAILED");
+        }
+        catch (CancellationException e)
+        {
+            System.out.println("Interrupted sweep throws: " + e.getMessage() + "; interrupt flag still set: "
+                + Thread.interrupted());
+        }
+    }
+
+    private static double relative(double value, double expected)
+    {
+        return Math.abs(value - expected) / Math.abs(expected);
+    }
+
+    /**
+     * @return  A 2 x 2 circuit: a 1 V battery from (1, 0) up to (0, 0), then first from (0, 0) to (0, 1), second from
+     *          (0, 1) to (1, 1), and a wire back to (1, 0). Components are numbered battery, first, second, wire.
+     */
+    private static Circuit loop(Component first, Component second)
+    {
+        Circuit circ = new Circuit(2, 2);
+        circ.addBattery(new Battery(1), 1, 0, 0, 0, 0, 0);
+        circ.addComponent(first, 0, 0, 0, 1);
+        circ.addComponent(second, 0, 1, 1, 1);
+        circ.addComponent(new Wire(), 1, 1, 1, 0);
+        return circ;
+    }
+
+    /**
+     * @return  An RC ladder along two rows of terminals: resistors along the top, capacitors down to the bottom row
+     */
+    private static Circuit ladder(int length)
+    {
+        Circuit circ = new Circuit(2, length);
+        circ.addBattery(new Battery(1), 1, 0, 0, 0, 0, 0);
+        for (int c = 0; c + 1 < length; c++)
+        {
+            circ.addComponent(new Resistor(100), 0, c, 0, c + 1);
+            circ.addComponent(new Capacitor(1e-6), 0, c + 1, 1, c + 1);
+            circ.addComponent(new Wire(), 1, c, 1, c + 1);
+        }
+        return circ;
+    }
+}
@@ -27,13 +27,17 @@ public class Animation
     private boolean rotationEnabled;
     private int gridSpacing;
     private PApplet win2;
-    private Circuit circuit;
+    private CircuitSnapshot circuit;    // the circuit and its solution, which no one else will change
     private List<Tower> towers;
     private List<Wall> walls;
     private int numRows;
     private int numCols;
+    private TransientRecording recording;   // time series being replayed, or null
+    private Tower[] firstEnds;      // the tower at each component's endPt1, which recorded currents are measured from
+    private int replayStep;
+    private int stepsPerFrame;
 
-    public Animation(PApplet animationWindow, Circuit circ, int terminalSpacing, int terminalRows, int terminalCols, boolean scaleV, int voltScale, boolean scaleA, double ampScale, boolean rotatable)
+    public Animation(PApplet animationWindow, CircuitSnapshot circ, int terminalSpacing, int terminalRows, int terminalCols, boolean scaleV, int voltScale, boolean scaleA, double ampScale, boolean rotatable)
     {
         win2 = animationWindow;
         circuit = circ;
@@ -51,26 +55,22 @@ public class Animation
         if (autoScaleVolts)
         {
             double maxPotential = 0;
-            for (int row = 0; row < numRows; row++)
+            for (int i = 0; i < circuit.numConnected(); i++)
             {
-                for (int col = 0; col < numCols; col++)
+                double v = circuit.getPotentialAt(circuit.getConnected(i));
+                if (v < Double.MAX_VALUE && v > maxPotential)
                 {
-                    Terminal term = circuit.getTerminal(row, col);
-                    double v = term.getPotential();
-                    if (v < Double.MAX_VALUE && v > maxPotential)
-                    {
-                        maxPotential = term.getPotential();
-                    }
+                    maxPotential = v;
                 }
             }
             double maxBattVolts = 0;
-            for (Component c : circuit.getComponents())
+            for (int k = 0; k < circuit.size(); k++)
             {
-                if (c instanceof Battery)
+                if (circuit.getKind(k) == CompactCircuit.BATTERY)
                 {
-                    if ( ((Battery)c).getVoltage() > maxBattVolts)
+                    if (circuit.getValue(k) > maxBattVolts)
                     {
-                        maxBattVolts = ((Battery)c).getVoltage();
+                        maxBattVolts = circuit.getValue(k);
                     }
                 }
             }
@@ -87,51 +87,42 @@ public class Animation
         {
             // Find max current
             double maxCurrent = 0;
-            for (Component c : circuit.getComponents())
-            {
-                maxCurrent = Math.max(maxCurrent, Math.abs(c.getCurrent()));
-            }
-            SPEED = (float)(1.5 / maxCurrent);
-            // Truncate SPEED to 5 figures (plus a decimal point)
-            String speed = Float.toString(SPEED);
-            if (speed.length() > 6)
+            for (int k = 0; k < circuit.size(); k++)
             {
-                speed = speed.substring(0, 6);
+                maxCurrent = Math.max(maxCurrent, Math.abs(circuit.getCurrent(k)));
             }
-            SPEED = Float.parseFloat(speed);
+            scaleSpeed(maxCurrent);
         }
         else
         {
             SPEED = (float)ampScale;
         }   
 
-        // Construct arrayList of Towers
-        for (int row = 0; row < numRows; row++)
+        // Construct arrayList of Towers, one for each terminal that has a component connected to it
+        for (int i = 0; i < circuit.numConnected(); i++)
         {
-            for (int col = 0; col < numCols; col++)
-            {
-                Terminal term = circuit.getTerminal(row, col);
-                // construct tower if the terminal is connected to anything
-                if (term.getConnections().size() > 0)
-                {
-                    towers.add(new Tower(win2, getTermX(term), getTermZ(term), getTermHeight(term)));
-                }
-            }
+            int t = circuit.getConnected(i);
+            int row = circuit.getTerminalRow(t);
+            int col = circuit.getTerminalCol(t);
+            towers.add(new Tower(win2, col * gridSpacing, row * gridSpacing, getHeight(circuit.getPotentialAt(t))));
         }
 
         // Construct arrayList of Walls
-        for (Component c : circuit.getComponents())
+        firstEnds = new Tower[circuit.size()];
+        for (int k = 0; k < circuit.size(); k++)
         {
             // Set downstream end of component to term2 and upstream end to term1
-            Terminal term1 = c.getEndPt1();
-            Terminal term2 = c.getEndPt2();
-            double current = c.getCurrent();
-            if (term1.equals(c.getCurrentDirection()) && current > 0 || term2.equals(c.getCurrentDirection()) && current < 0)
+            double current = circuit.getCurrent(k);     // from endPt1 to endPt2
+            Tower term1 = findTowerAtLocation(circuit.getRow1(k), circuit.getCol1(k));
+            Tower term2 = findTowerAtLocation(circuit.getRow2(k), circuit.getCol2(k));
+            firstEnds[k] = term1;
+            if (current < 0)
             {
-                term1 = c.getEndPt2();
-                term2 = c.getEndPt1();
+                Tower upstream = term2;
+                term2 = term1;
+                term1 = upstream;
             }
-            walls.add(new Wall(win2, findTowerAtLocation(term1.getRow(), term1.getCol()), findTowerAtLocation(term2.getRow(), term2.getCol()), current));
+            walls.add(new Wall(win2, term1, term2, current));
         }
 
         // Construct balls on each wall
@@ -148,26 +139,35 @@ public class Animation
             }
         }
 
+        // Light up the walls of LEDs that have enough current through them
+        for (int k = 0; k < walls.size(); k++)
+        {
+            if (circuit.getGlow(k) != 0)
+            {
+                walls.get(k).addLight(circuit.getGlow(k));
+            }
+        }
+
         // Construct water wheels for each resistor and SkiLift for each battery
-        for (Component c : circuit.getComponents())
+        for (int k = 0; k < circuit.size(); k++)
         {
-            if (c instanceof Resistor || c instanceof Battery)
+            int kind = circuit.getKind(k);
+            if (kind == CompactCircuit.RESISTOR || kind == CompactCircuit.BATTERY)
             {
                 // Find corresponding wall
-                Tower t1 = findTowerAtLocation(c.getEndPt1().getRow(), c.getEndPt1().getCol());
-                Tower t2 = findTowerAtLocation(c.getEndPt2().getRow(), c.getEndPt2().getCol());
+                Tower t1 = findTowerAtLocation(circuit.getRow1(k), circuit.getCol1(k));
+                Tower t2 = findTowerAtLocation(circuit.getRow2(k), circuit.getCol2(k));
                 for (Wall w : walls)
                 {
                     if (w.getT1().equals(t1) && w.getT2().equals(t2) || w.getT2().equals(t1) && w.getT1().equals(t2))
                     {
-                        if (c instanceof Resistor)
+                        if (kind == CompactCircuit.RESISTOR)
                         {
                             w.addWheel();
                         }
                         else
                         {
-                            Tower posEnd = findTowerAtLocation( ((Battery)c).getPosEnd().getRow(), ((Battery)c).getPosEnd().getCol() );
-                            w.addSkiLift(posEnd);
+                            w.addSkiLift(circuit.isFlipped(k) ? t2 : t1);
                         }
                         break;
                     }
@@ -176,8 +176,85 @@ public class Animation
         }
     }
 
+    /**
+     * Replays the results of a TransientAnalysis: on each frame the walls' currents and the towers' heights are set from
+     * the next time step(s) of the recording, so that, for example, the balls slow down as a capacitor charges.
+     * Each wall turns to match the direction of its current at every step. With amps autoscaled, SPEED is set from the
+     * largest current anywhere in the recording rather than from the steady state, in which a capacitor's current
+     * (and so often every current) is 0. Once the end of the recording is reached, the last step is held.
+     * @param rec  The recorded time steps, solved for the same circuit this Animation was built from
+     * @param steps  The number of time steps to advance per frame of animation
+     */
+    public void replay(TransientRecording rec, int steps)
+    {
+        recording = rec;
+        replayStep = 0;
+        stepsPerFrame = Math.max(steps, 1);
+        if (autoScaleAmps)
+        {
+            double peak = 0;
+            for (int i = 0; i < rec.numSteps(); i++)
+            {
+                for (double current : rec.getCurrents(i))
+                {
+                    peak = Math.max(peak, Math.abs(current));
+                }
+            }
+            scaleSpeed(peak);
+        }
+    }
+
+    /**
+     * Sets SPEED so that the largest current moves balls at a set pace, truncated to 5 figures (plus a decimal point).
+     * Left as it is if no current flows, since any speed then looks the same.
+     */
+    private void scaleSpeed(double maxCurrent)
+    {
+        if (!(maxCurrent > 0))
+        {
+            return;
+        }
+        SPEED = (float)(1.5 / maxCurrent);
+        String speed = Float.toString(SPEED);
+        if (speed.length() > 6)
+        {
+            speed = speed.substring(0, 6);
+        }
+        SPEED = Float.parseFloat(speed);
+    }
+
+    /**
+     * Updates walls and towers from the current step of the recording being replayed, then moves on to the next step.
+     */
+    private void showReplayStep()
+    {
+        double[] currents = recording.getCurrents(replayStep);
+        double[] potentials = recording.getPotentials(replayStep);
+        for (int k = 0; k < walls.size(); k++)
+        {
+            // The recording's currents run from endPt1 to endPt2; the wall's, from whichever tower is now upstream
+            Wall wall = walls.get(k);
+            wall.setCurrent(wall.getT1() == firstEnds[k] ? currents[k] : -currents[k]);
+        }
+        for (int i = 0; i < circuit.numConnected(); i++)
+        {
+            int t = circuit.getConnected(i);
+            Tower tower = findTowerAtLocation(circuit.getTerminalRow(t), circuit.getTerminalCol(t));
+            double v = potentials[t];
+            if (tower != null && v < Double.MAX_VALUE)
+            {
+                tower.setHeight(getHeight(v));
+            }
+        }
+        replayStep = Math.min(replayStep + stepsPerFrame, recording.numSteps() - 1);
+    }
+
     public void displayAnimation()
     {
+        if (recording != null && recording.numSteps() > 0)
+        {
+            showReplayStep();
+        }
         ORIGIN_X = win2.width / 4;
         ORIGIN_Y = win2.height / 2;
         win2.translate(ORIGIN_X, ORIGIN_Y, ORIGIN_Z);
@@ -219,18 +296,11 @@ public class Animation
         return null;
     }
 
-    private int getTermX(Terminal t)
-    {
-        return t.getCol() * gridSpacing;
-    }
-
-    private int getTermHeight(Terminal t)
-    {
-        return -1 * (int)(t.getPotential() * VOLT_SCALE);
-    }
-
-    private int getTermZ(Terminal t)
+    /**
+     * @return  The height of a tower for a terminal at the given potential
+     */
+    private int getHeight(double potential)
     {
-        return t.getRow() * gridSpacing;
+        return -1 * (int)(potential * VOLT_SCALE);
     }
 }
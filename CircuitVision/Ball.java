@@ -78,5 +78,13 @@ public class Ball
     {
         return x;
     }
+
+    /**
+     * Keeps the ball where it is when its wall is turned around, by measuring x from the other end.
+     */
+    public void turnAround()
+    {
+        x = Animation.WALL_LEN + Animation.WALL_WID - x;
+    }
 }
 
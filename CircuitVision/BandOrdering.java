@@ -0,0 +1,100 @@
+/**
+ * Orderings of the unknowns of a sparse system that keep its nonzero entries near the diagonal, so that it can be
+ * factored as a band (BandedLU) or a skyline without filling in the rest of the matrix. A graph is given as the
+ * neighbors of each vertex side by side: those of vertex v are adjacent[adjacentStart[v]] up to (not including)
+ * adjacent[adjacentStart[v + 1]].
+ */
+public class BandOrdering
+{
+    /**
+     * Orders the vertices of a graph so that each is numbered close to its neighbors: a breadth-first search from a
+     * vertex at the edge of each connected piece, visiting neighbors in order of degree, then reversed.
+     * @return  The place of each vertex in the order
+     */
+    public static int[] reverseCuthillMcKee(int n, int[] adjacentStart, int[] adjacent)
+    {
+        int[] order = new int[n];
+        int[] mark = new int[n];    // the search that last reached each vertex, from 1; 0 if none yet
+        int searches = 0;
+        int placed = 0;
+        for (int s = 0; s < n; s++)
+        {
+            if (mark[s] != 0)
+            {
+                continue;
+            }
+            // A vertex at the edge: the last one reached searching from s, then the last one reached from that
+            int start = s;
+            for (int pass = 0; pass < 2; pass++)
+            {
+                searches++;
+                start = lastReached(start, adjacentStart, adjacent, mark, searches, order, placed);
+            }
+            searches++;
+            mark[start] = searches;
+            order[placed] = start;
+            int head = placed;
+            int tail = placed + 1;
+            while (head < tail)
+            {
+                int v = order[head];
+                head++;
+                int added = tail;
+                for (int j = adjacentStart[v]; j < adjacentStart[v + 1]; j++)
+                {
+                    int w = adjacent[j];
+                    if (mark[w] != searches)
+                    {
+                        mark[w] = searches;
+                        // Insert in order of degree among the neighbors added from v
+                        int degree = adjacentStart[w + 1] - adjacentStart[w];
+                        int at = tail;
+                        while (at > added && adjacentStart[order[at - 1] + 1] - adjacentStart[order[at - 1]] > degree)
+                        {
+                            order[at] = order[at - 1];
+                            at--;
+                        }
+                        order[at] = w;
+                        tail++;
+                    }
+                }
+            }
+            placed = tail;
+        }
+        int[] position = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            position[order[i]] = n - 1 - i;
+        }
+        return position;
+    }
+
+    /**
+     * A breadth-first search from a vertex, using order[from...] as its queue.
+     * @return  The last vertex reached
+     */
+    private static int lastReached(int start, int[] adjacentStart, int[] adjacent, int[] mark, int search, int[] order,
+        int from)
+    {
+        mark[start] = search;
+        order[from] = start;
+        int head = from;
+        int tail = from + 1;
+        while (head < tail)
+        {
+            int v = order[head];
+            head++;
+            for (int j = adjacentStart[v]; j < adjacentStart[v + 1]; j++)
+            {
+                int w = adjacent[j];
+                if (mark[w] != search)
+                {
+                    mark[w] = search;
+                    order[tail] = w;
+                    tail++;
+                }
+            }
+        }
+        return order[tail - 1];
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * LU factorization, with partial pivoting, of a matrix whose nonzero entries all lie near the diagonal: entry (i, j)
+ * may be nonzero only if j - i is between -lower and upper. Nodal equations are like this once their unknowns are put
+ * in reverse Cuthill-McKee order (see BandOrdering), with the band about as wide as the circuit's narrower side.
+ *
+ * Rows are swapped as in LAPACK's dgbtrf: a swap can push the nonzero entries of U out to lower + upper places right of
+ * the diagonal, so each row keeps room for that. The multipliers of L are kept apart, each step's side by side. An
+ * n x n matrix takes n (3 lower + upper + 1) numbers instead of n^2, about 2 n lower (lower + upper) operations to
+ * factor instead of 2/3 n^3, and about 2 n (2 lower + upper) to solve.
+ */
+public class BandedLU
+{
+    private static final double SINGULAR = 1e-11;   // smallest pivot accepted, as in LUDecomposition
+
+    private int n;
+    private int lower;
+    private int upper;          // of U after row swaps: lower + the matrix's upper bandwidth
+    private int width;          // numbers kept for each row
+    private double[] entries;   // entry (i, j) at i * width + j - i + lower; after factor(), the rows of U
+    private double[] multipliers;   // of L, from step k at k * lower + i - k - 1, so that solve() reads them in order
+    private int[] pivot;        // row swapped with row k at step k
+    private int[] reach;        // the last column in each row that may be nonzero; after factor(), in U
+    private int[] lastMultiplier;   // the last row with a nonzero multiplier at each step
+
+    /**
+     * Makes an n x n matrix of zeros.
+     * @param size  n
+     * @param lowerBandwidth  How far left of the diagonal nonzero entries can be
+     * @param upperBandwidth  How far right of the diagonal nonzero entries can be
+     */
+    public BandedLU(int size, int lowerBandwidth, int upperBandwidth)
+    {
+        n = size;
+        lower = lowerBandwidth;
+        upper = lowerBandwidth + upperBandwidth;
+        width = lower + upper + 1;
+        entries = new double[n * width];
+        multipliers = new double[n * lower];
+        pivot = new int[n];
+        reach = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            reach[i] = i;
+        }
+        lastMultiplier = new int[n];
+    }
+
+    /**
+     * Adds to entry (i, j), which must be within the bands given to the constructor. Only before factor().
+     */
+    public void add(int i, int j, double value)
+    {
+        entries[i * width + j - i + lower] += value;
+        reach[i] = Math.max(reach[i], j);
+    }
+
+    /**
+     * Factors the matrix in place. Work is only done as far right in each row as there are nonzero entries, which in
+     * nodal equations is usually well short of the room kept for row swaps.
+     * @return  False if it is singular (a pivot smaller than 1e-11 turned up), in which case it cannot be solved with.
+     */
+    public boolean factor()
+    {
+        for (int k = 0; k < n; k++)
+        {
+            int last = Math.min(n - 1, k + lower);
+            int p = k;
+            double largest = Math.abs(entries[k * width + lower]);
+            for (int i = k + 1; i <= last; i++)
+            {
+                double size = Math.abs(entries[i * width + k - i + lower]);
+                if (size > largest)
+                {
+                    largest = size;
+                    p = i;
+                }
+            }
+            pivot[k] = p;
+            if (largest <= SINGULAR)
+            {
+                return false;
+            }
+            int rowK = k * width - k + lower;   // entries[rowK + j] is entry (k, j)
+            if (p != k)
+            {
+                int rowP = p * width - p + lower;
+                int swapEnd = Math.max(reach[k], reach[p]);
+                for (int j = k; j <= swapEnd; j++)
+                {
+                    double swap = entries[rowK + j];
+                    entries[rowK + j] = entries[rowP + j];
+                    entries[rowP + j] = swap;
+                }
+                int swap = reach[k];
+                reach[k] = reach[p];
+                reach[p] = swap;
+            }
+            int end = reach[k];
+            double diagonal = entries[rowK + k];
+            lastMultiplier[k] = k;
+            for (int i = k + 1; i <= last; i++)
+            {
+                int rowI = i * width - i + lower;
+                double m = entries[rowI + k] / diagonal;
+                entries[rowI + k] = 0;
+                multipliers[k * lower + i - k - 1] = m;
+                if (m != 0)
+                {
+                    for (int j = k + 1; j <= end; j++)
+                    {
+                        entries[rowI + j] -= m * entries[rowK + j];
+                    }
+                    reach[i] = Math.max(reach[i], end);
+                    lastMultiplier[k] = i;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Solves A x = b with the factored matrix, overwriting b with x. Leading zeros in b are skipped, as far as row swaps
+     * allow.
+     */
+    public void solve(double[] b)
+    {
+        int first = 0;
+        while (first < n && b[first] == 0)
+        {
+            first++;
+        }
+        for (int k = Math.max(0, first - lower); k < n; k++)
+        {
+            int p = pivot[k];
+            if (p != k)
+            {
+                double swap = b[k];
+                b[k] = b[p];
+                b[p] = swap;
+            }
+            double bk = b[k];
+            if (bk != 0)
+            {
+                int last = lastMultiplier[k];
+                int from = k * lower - k - 1;
+                for (int i = k + 1; i <= last; i++)
+                {
+                    b[i] -= multipliers[from + i] * bk;
+                }
+            }
+        }
+        for (int k = n - 1; k >= 0; k--)
+        {
+            int rowK = k * width - k + lower;
+            int end = reach[k];
+            double sum = b[k];
+            for (int j = k + 1; j <= end; j++)
+            {
+                sum -= entries[rowK + j] * b[j];
+            }
+            b[k] = sum / entries[rowK + k];
+        }
+    }
+
+    /**
+     * @return  The number of numbers kept for the factors
+     */
+    public int getStorage()
+    {
+        return entries.length + multipliers.length;
+    }
+}
@@ -0,0 +1,435 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.BufferedWriter;
+import java.io.Writer;
+import java.io.IOException;
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Solves every circuit file in a directory tree, without any windows, for grading a class's circuits in one go. Run as
+ *
+ *     java BatchSolver directory [-out file] [-format csv|jsonl] [-threads n] [-ext .circuit]
+ *
+ * Each file is a circuit written as CircuitFormat describes, and is solved the way the main window solves a circuit
+ * (Circuit.solve()), so a short circuit or a circuit with no complete loop fails here just as it would there.
+ *
+ * One thread walks the tree, a solver thread for each core solves, and the calling thread writes the results (to the
+ * output file, or to System.out) in the order they finish. The threads hand files and results to each other through
+ * small bounded queues, so the walk never gets far ahead of the solvers and a slow disk holds the solvers back rather
+ * than filling memory. A line of results is written for every file:
+ *
+ *     csv:    file,status,ms,currents          e.g.  lab3/ann.circuit,ok,0.42,0.09 0.09 -0.09
+ *     jsonl:  {"file":"lab3/ann.circuit","status":"ok","ms":0.42,"rows":3,"cols":3,"currents":[...],"potentials":[...]}
+ *
+ * with the status one of ok, short circuit, incomplete, unreadable, or failed (the solver threw an exception), with the
+ * reason for the last two in the JSON as "error". The currents are one per component, in the order of the file, from
+ * each component's first end to its second. A summary of throughput and failures is printed to System.err at the end.
+ */
+public class BatchSolver
+{
+    public static final String OK = "ok";
+    public static final String SHORT_CIRCUIT = "short circuit";
+    public static final String INCOMPLETE = "incomplete";
+    public static final String UNREADABLE = "unreadable";
+    public static final String FAILED = "failed";
+
+    private static final File NO_MORE_FILES = new File("");
+    private static final String SOLVER_DONE = "";
+
+    private File root;
+    private boolean json;
+    private int numThreads;
+    private String extension;
+
+    // Guarded by this
+    private int numSolved;
+    private int numShort;
+    private int numIncomplete;
+    private int numUnreadable;
+    private int numFailed;
+
+    /**
+     * @param directory  The top of the tree of circuit files
+     * @param jsonLines  True to write JSON lines, false for CSV
+     * @param threads  How many circuits to solve at once
+     * @param ext  The ending of the names of circuit files; other files are skipped
+     */
+    public BatchSolver(File directory, boolean jsonLines, int threads, String ext)
+    {
+        root = directory;
+        json = jsonLines;
+        numThreads = Math.max(threads, 1);
+        extension = ext;
+    }
+
+    /**
+     * Solves every circuit file under the directory, writing a line for each as it finishes.
+     * @return  The number of files solved (successfully or not)
+     */
+    public int run(Writer out) throws IOException, InterruptedException
+    {
+        final BlockingQueue<File> files = new ArrayBlockingQueue<File>(4 * numThreads);
+        final BlockingQueue<String> lines = new ArrayBlockingQueue<String>(4 * numThreads);
+        final IOException[] walkFailure = new IOException[1];
+        Thread walker = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    walk(root, files);
+                }
+                catch (IOException e)
+                {
+                    walkFailure[0] = e;
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
+                try
+                {
+                    for (int i = 0; i < numThreads; i++)
+                    {
+                        files.put(NO_MORE_FILES);
+                    }
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+        }, "Walker");
+        walker.setDaemon(true);
+        walker.start();
+        List<Thread> solvers = new ArrayList<Thread>();
+        for (int i = 0; i < numThreads; i++)
+        {
+            Thread solver = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        File file = files.take();
+                        while (file != NO_MORE_FILES)
+                        {
+                            lines.put(solve(file));
+                            file = files.take();
+                        }
+                        lines.put(SOLVER_DONE);
+                    }
+                    catch (InterruptedException e)
+                    {
+                    }
+                }
+            }, "Solver " + (i + 1));
+            solver.setDaemon(true);
+            solvers.add(solver);
+            solver.start();
+        }
+
+        int count = 0;
+        int running = numThreads;
+        try
+        {
+            if (!json)
+            {
+                out.write("file,status,ms,currents\n");
+            }
+            while (running > 0)
+            {
+                String line = lines.take();
+                if (line == SOLVER_DONE)
+                {
+                    running--;
+                }
+                else
+                {
+                    out.write(line);
+                    out.write('\n');
+                    count++;
+                }
+            }
+            out.flush();
+        }
+        finally
+        {
+            // If writing failed, stop the others rather than leave them blocked on full queues
+            walker.interrupt();
+            for (Thread solver : solvers)
+            {
+                solver.interrupt();
+            }
+        }
+        if (walkFailure[0] != null)
+        {
+            throw walkFailure[0];
+        }
+        return count;
+    }
+
+    /**
+     * Queues the circuit files under a directory, in order of name, each directory's files before its subdirectories.
+     */
+    private void walk(File directory, BlockingQueue<File> files) throws IOException, InterruptedException
+    {
+        File[] entries = directory.listFiles();
+        if (entries == null)
+        {
+            throw new IOException("Cannot list " + directory);
+        }
+        Arrays.sort(entries);
+        for (File f : entries)
+        {
+            if (f.isFile() && f.getName().endsWith(extension))
+            {
+                files.put(f);
+            }
+        }
+        for (File f : entries)
+        {
+            if (f.isDirectory())
+            {
+                walk(f, files);
+            }
+        }
+    }
+
+    /**
+     * Reads and solves one circuit file.
+     * @return  Its line of results
+     */
+    private String solve(File file)
+    {
+        long start = System.nanoTime();
+        String name = root.toURI().relativize(file.toURI()).getPath();
+        CompactCircuit compact;
+        try
+        {
+            compact = CircuitFormat.parse(read(file));
+        }
+        catch (IOException e)
+        {
+            return line(name, UNREADABLE, start, e.getMessage(), null, null);
+        }
+        catch (IllegalArgumentException e)
+        {
+            return line(name, UNREADABLE, start, e.getMessage(), null, null);
+        }
+        try
+        {
+            Circuit circ = compact.toCircuit();
+            if (circ.getComponents().size() < compact.size())
+            {
+                // The editor allows one component between two terminals; toCircuit() left out the others
+                return line(name, UNREADABLE, start, "Two components between the same terminals", null, null);
+            }
+            if (circ.solve() == null)
+            {
+                return line(name, circ.hasShortCircuit() ? SHORT_CIRCUIT : INCOMPLETE, start, null, null, null);
+            }
+            CircuitSnapshot snap = CircuitSnapshot.of(circ);
+            double[] currents = new double[snap.size()];
+            for (int k = 0; k < currents.length; k++)
+            {
+                currents[k] = snap.getCurrent(k);
+            }
+            SolveResult result = new SolveResult(currents, circ.getResult().getPotentials(), circ.getCols());
+            return line(name, OK, start, null, compact, result);
+        }
+        catch (RuntimeException e)
+        {
+            // One odd circuit should not stop the rest of the batch
+            return line(name, FAILED, start, e.toString(), null, null);
+        }
+    }
+
+    /**
+     * Makes a line of results, and counts it in the summary.
+     * @param error  Why the file could not be read, or null
+     * @param result  The currents and potentials, or null if it was not solved
+     */
+    private String line(String name, String status, long start, String error, CompactCircuit circ, SolveResult result)
+    {
+        synchronized (this)
+        {
+            if (status.equals(OK))
+            {
+                numSolved++;
+            }
+            else if (status.equals(SHORT_CIRCUIT))
+            {
+                numShort++;
+            }
+            else if (status.equals(INCOMPLETE))
+            {
+                numIncomplete++;
+            }
+            else if (status.equals(UNREADABLE))
+            {
+                numUnreadable++;
+            }
+            else
+            {
+                numFailed++;
+            }
+        }
+        double ms = Math.round((System.nanoTime() - start) / 1e4) / 100.0;
+        if (json)
+        {
+            String line = "{\"file\":" + SolveServer.quote(name) + ",\"status\":\"" + status + "\",\"ms\":" + ms;
+            if (error != null)
+            {
+                line += ",\"error\":" + SolveServer.quote(error);
+            }
+            if (result != null)
+            {
+                return line + "," + SolveServer.toJson(circ, result).substring(1);
+            }
+            return line + "}";
+        }
+        StringBuilder line = new StringBuilder(csvField(name)).append(',').append(status).append(',').append(ms)
+            .append(',');
+        if (result != null)
+        {
+            double[] currents = result.getCurrents();
+            for (int k = 0; k < currents.length; k++)
+            {
+                line.append(k > 0 ? " " : "").append(currents[k]);
+            }
+        }
+        return line.toString();
+    }
+
+    /**
+     * @return  The text as a CSV field, in quotes if it has a comma, quote or line break
+     */
+    private static String csvField(String text)
+    {
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.indexOf('\n') < 0)
+        {
+            return text;
+        }
+        return "\"" + text.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String read(File file) throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0)
+            {
+                bytes.write(buffer, 0, n);
+            }
+            return bytes.toString("UTF-8");
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    public synchronized int getNumSolved()
+    {
+        return numSolved;
+    }
+
+    public synchronized int getNumShortCircuits()
+    {
+        return numShort;
+    }
+
+    public synchronized int getNumIncomplete()
+    {
+        return numIncomplete;
+    }
+
+    public synchronized int getNumUnreadable()
+    {
+        return numUnreadable;
+    }
+
+    public synchronized int getNumFailed()
+    {
+        return numFailed;
+    }
+
+    /**
+     * @return  One line: how many files were solved, how fast, and how many failed for each reason
+     */
+    public String summary(long nanos)
+    {
+        int total = getNumSolved() + getNumShortCircuits() + getNumIncomplete() + getNumUnreadable() + getNumFailed();
+        double seconds = nanos / 1e9;
+        return total + " circuits in " + Math.round(seconds * 100) / 100.0 + " s (" + Math.round(total / seconds)
+            + " per second) on " + numThreads + " threads: " + getNumSolved() + " solved, " + getNumShortCircuits()
+            + " short circuits, " + getNumIncomplete() + " incomplete, " + getNumUnreadable() + " unreadable"
+            + (getNumFailed() > 0 ? ", " + getNumFailed() + " failed" : "");
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        if (args.length == 0)
+        {
+            System.err.println("Usage: java BatchSolver directory [-out file] [-format csv|jsonl] [-threads n] "
+                + "[-ext .circuit]");
+            System.exit(2);
+        }
+        String outName = null;
+        boolean jsonLines = false;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String ext = ".circuit";
+        for (int i = 1; i < args.length; i += 2)
+        {
+            if (i + 1 == args.length)
+            {
+                System.err.println("No value given for " + args[i]);
+                System.exit(2);
+            }
+            else if (args[i].equals("-out"))
+            {
+                outName = args[i + 1];
+            }
+            else if (args[i].equals("-format"))
+            {
+                jsonLines = args[i + 1].equalsIgnoreCase("jsonl");
+            }
+            else if (args[i].equals("-threads"))
+            {
+                threads = Integer.parseInt(args[i + 1]);
+            }
+            else if (args[i].equals("-ext"))
+            {
+                ext = args[i + 1];
+            }
+            else
+            {
+                System.err.println("Unknown option " + args[i]);
+                System.exit(2);
+            }
+        }
+        OutputStream stream = outName == null ? System.out : new FileOutputStream(outName);
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"));
+        BatchSolver batch = new BatchSolver(new File(args[0]), jsonLines, threads, ext);
+        long start = System.nanoTime();
+        batch.run(out);
+        if (outName != null)
+        {
+            out.close();
+        }
+        System.err.println(batch.summary(System.nanoTime() - start));
+    }
+}
@@ -0,0 +1,90 @@
+import java.util.Random;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringWriter;
+import java.io.IOException;
+
+/**
+ * Writes a directory tree of circuit files like a class's (most solvable, some short circuits, some with no complete
+ * loop, some that are not circuits at all), runs BatchSolver over it with one thread and then with one per core (at
+ * least four), and checks that every file gets a line and is given the right status.
+ * Run with the number of files as an argument (default 2000).
+ */
+public class BatchSolverTester
+{
+    public static void main(String[] args) throws IOException, InterruptedException
+    {
+        int numFiles = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        File root = new File(System.getProperty("java.io.tmpdir"), "BatchSolverTester");
+        delete(root);
+        Random random = new Random(numFiles);
+        int[] expected = new int[4];    // ok, short circuit, incomplete, unreadable
+        for (int i = 0; i < numFiles; i++)
+        {
+            File dir = new File(root, "lab" + (i % 5) + File.separator + "section" + (i % 3));
+            dir.mkdirs();
+            int size = 3 + random.nextInt(4);
+            StringBuilder text = new StringBuilder("# student " + i + "\ngrid " + size + " " + size + "\n");
+            // A ladder: a battery across the top, a rail of resistors down the left, a wire down the right, resistor rungs
+            text.append("B 0 0 0 1 9\n");
+            for (int r = 0; r + 1 < size; r++)
+            {
+                text.append("R " + r + " 0 " + (r + 1) + " 0 " + (1 + random.nextInt(100)) + "\n");
+                text.append("W " + r + " 1 " + (r + 1) + " 1\n");
+                text.append("R " + (r + 1) + " 0 " + (r + 1) + " 1 " + (1 + random.nextInt(100)) + "\n");
+            }
+            int kind = i % 20 == 0 ? 1 + i / 20 % 3 : 0;
+            if (kind == 1)
+            {
+                text.append("W 0 0 1 1\n");   // closes a loop of wires through the battery
+            }
+            else if (kind == 2)
+            {
+                text = new StringBuilder("grid 2 2\nB 0 0 0 1 9\nR 0 1 1 1 10\n");    // goes nowhere
+            }
+            else if (kind == 3)
+            {
+                text.append("R 1 0 2 1 ten ohms\n");
+            }
+            expected[kind]++;
+            FileWriter out = new FileWriter(new File(dir, "student" + i + ".circuit"));
+            out.write(text.toString());
+            out.close();
+        }
+        System.out.println("Wrote " + numFiles + " files under " + root + ": " + expected[0] + " solvable, " + expected[1]
+            + " short circuits, " + expected[2] + " incomplete, " + expected[3] + " unreadable");
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        int[] threads = {1, Math.max(cores, 4)};    // several threads even on one core, to check the hand-offs
+        for (int t : threads)
+        {
+            BatchSolver batch = new BatchSolver(root, t % 2 == 0, t, ".circuit");
+            StringWriter out = new StringWriter();
+            long start = System.nanoTime();
+            int lines = batch.run(out);
+            System.out.println(batch.summary(System.nanoTime() - start));
+            String[] written = out.toString().split("\n");
+            System.out.println("  " + (t % 2 == 0 ? "JSON lines" : "CSV") + ", first line: " + written[t % 2 == 0 ? 0 : 1]
+                .substring(0, Math.min(100, written[t % 2 == 0 ? 0 : 1].length())) + "...");
+            System.out.println("  A line for every file: " + (lines == numFiles) + "; statuses as expected: "
+                + (batch.getNumSolved() == expected[0] && batch.getNumShortCircuits() == expected[1]
+                    && batch.getNumIncomplete() == expected[2] && batch.getNumUnreadable() == expected[3]));
+        }
+    }
+
+    /**
+     * Deletes a file, or a directory and everything in it.
+     */
+    private static void delete(File file)
+    {
+        File[] entries = file.listFiles();
+        if (entries != null)
+        {
+            for (File f : entries)
+            {
+                delete(f);
+            }
+        }
+        file.delete();
+    }
+}
@@ -18,12 +18,18 @@ public class Battery extends Component
     }
     
     /**
-     * Mutator to set which end of a battery is the positive terminal.
+     * Mutator to set which end of a battery is the positive terminal. If that turns the battery around, the circuit it
+     * is in is told.
      * @param posTerminal  The Terminal connected to the positive end of the battery.
      */
     public void setPosEnd(Terminal posTerminal)
     {
+        boolean flipped = positiveEnd != null && !positiveEnd.equals(posTerminal);
         positiveEnd = posTerminal;
+        if (flipped)
+        {
+            changed(CircuitEvent.Type.BATTERY_FLIPPED);
+        }
     }
     
     /**
@@ -35,11 +41,12 @@ public class Battery extends Component
     }
     
     /**
-     * @param  Voltage across a component.
+     * @param  Voltage across a component. The circuit it is in is told.
      */
     public void setVoltage(double v)
     {
         battVoltage = v;
+        changed(CircuitEvent.Type.VOLTAGE_CHANGED);
     }
 
     /**
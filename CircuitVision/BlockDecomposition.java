@@ -0,0 +1,580 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.IdentityHashMap;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Solves a circuit by splitting it into blocks: the pieces that are joined to the rest of the circuit only through a
+ * single terminal (a cut terminal). No net current can flow from one block into another through a single terminal,
+ * since it would have no way back, so the currents in each block depend only on that block's own batteries. Each
+ * block is therefore solved as a small circuit of its own, on a separate fork/join task, and the potentials of the
+ * blocks are then shifted to agree at the cut terminals they share.
+ *
+ * The blocks are the biconnected components of the graph whose vertices are terminals and whose edges are components,
+ * found with Tarjan's algorithm. Factoring many small matrices costs far less than factoring one large one, and the
+ * blocks can be factored in parallel. Circuit.solve() uses this for any circuit with more than one block. With diodes,
+ * only the blocks that contain diodes need Newton-Raphson iteration, and each block's copy and OperatingPoint are kept
+ * between solves so that it is warm-started after a small edit, as a whole-circuit OperatingPoint would be.
+ */
+public class BlockDecomposition
+{
+    private Circuit circuit;
+    private List<Component> components;
+    private Map<Component, Integer> indexOf;    // position of each component in components
+    private int cols;
+    private long[] terminalKeys;                // of a sparse circuit, which number its terminals; null if not sparse
+    private int numTerminals;
+    private List<List<Component>> blocks;      // the components (of circuit) in each block
+    private List<int[]> blockTerminals;         // the index of every terminal touched by each block, each listed once
+    private List<Integer> cutTerminals;         // terminal index (see Circuit.getTerminalIndex()) of each cut terminal
+    private double[] currents;                  // current through each component, from endPt1 to endPt2
+    private double[] potentials;                // potential at each terminal, indexed as Circuit.getTerminalIndex()
+    private Circuit[] parts;                    // each block copied into a circuit of its own, made on the first solve
+    private int[] rowShift;                     // where each part's (0, 0) is in circuit
+    private int[] colShift;
+    private OperatingPoint[] operatingPoints;   // kept for the blocks with diodes, so they can be warm-started
+    private ForkJoinPool pool;
+
+    /**
+     * Finds the blocks of a circuit. The topology is captured here; component values are read when solve() is called.
+     * @param circ  The circuit to solve
+     */
+    public BlockDecomposition(Circuit circ)
+    {
+        circuit = circ;
+        components = new ArrayList<Component>(circ.getComponents());
+        indexOf = new IdentityHashMap<Component, Integer>();
+        for (int k = 0; k < components.size(); k++)
+        {
+            indexOf.put(components.get(k), k);
+        }
+        cols = circ.getCols();
+        terminalKeys = circ.getTerminalKeys();
+        numTerminals = circ.getNumTerminals();
+        pool = ForkJoinPool.commonPool();
+        findBlocks();
+
+        int[] lastBlock = new int[numTerminals];
+        for (int i = 0; i < lastBlock.length; i++)
+        {
+            lastBlock[i] = -1;
+        }
+        blockTerminals = new ArrayList<int[]>();
+        for (int b = 0; b < blocks.size(); b++)
+        {
+            List<Integer> found = new ArrayList<Integer>();
+            for (Component c : blocks.get(b))
+            {
+                int[] ends = {terminalIndex(c.getEndPt1()), terminalIndex(c.getEndPt2())};
+                for (int t : ends)
+                {
+                    if (lastBlock[t] != b)
+                    {
+                        lastBlock[t] = b;
+                        found.add(t);
+                    }
+                }
+            }
+            int[] terminals = new int[found.size()];
+            for (int j = 0; j < terminals.length; j++)
+            {
+                terminals[j] = found.get(j);
+            }
+            blockTerminals.add(terminals);
+        }
+        parts = new Circuit[blocks.size()];
+        rowShift = new int[blocks.size()];
+        colShift = new int[blocks.size()];
+        operatingPoints = new OperatingPoint[blocks.size()];
+    }
+
+    /**
+     * @return  True if circ still has exactly the components (in the same order) these blocks were found for, so that
+     *          they can be reused. Values, and which way round batteries and diodes are, may have changed.
+     */
+    public boolean matches(Circuit circ)
+    {
+        if (circ != circuit || circ.getComponents().size() != components.size())
+        {
+            return false;
+        }
+        for (int k = 0; k < components.size(); k++)
+        {
+            if (circ.getComponents().get(k) != components.get(k))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tarjan's algorithm for biconnected components, without recursion so that large circuits do not overflow the
+     * stack. Components are pushed onto a stack as they are followed; when a terminal is found that nothing below it
+     * can get around (low[w] >= disc[v]), the components above the one that led to it form a block.
+     */
+    private void findBlocks()
+    {
+        int[] disc = new int[numTerminals];        // order in which each terminal was reached (0 = not yet)
+        int[] low = new int[numTerminals];         // earliest terminal reachable from below, without going back up
+        int[] parentEdge = new int[numTerminals];
+        int[] nextEdge = new int[numTerminals];    // how far through its connections each terminal has got
+        boolean[] isCut = new boolean[numTerminals];
+        int[] terminalStack = new int[numTerminals];
+        int[] edgeStack = new int[components.size()];
+        int edgeTop = 0;
+        int time = 0;
+        blocks = new ArrayList<List<Component>>();
+        cutTerminals = new ArrayList<Integer>();
+
+        for (Terminal start : circuit.getConnectedTerminals())
+        {
+            int root = terminalIndex(start);
+            if (disc[root] != 0 || start.numConnections() == 0)
+            {
+                continue;
+            }
+            int top = 0;
+            int rootChildren = 0;
+            terminalStack[top] = root;
+            time++;
+            disc[root] = time;
+            low[root] = time;
+            parentEdge[root] = -1;
+            nextEdge[root] = 0;
+            while (top >= 0)
+            {
+                int v = terminalStack[top];
+                List<Component> connections = terminalAt(v).getConnections();
+                if (nextEdge[v] < connections.size())
+                {
+                    Component c = connections.get(nextEdge[v]);
+                    nextEdge[v]++;
+                    int e = indexOf.get(c);
+                    if (e == parentEdge[v])
+                    {
+                        continue;
+                    }
+                    int w = otherEnd(c, v);
+                    if (disc[w] == 0)
+                    {
+                        edgeStack[edgeTop] = e;
+                        edgeTop++;
+                        time++;
+                        disc[w] = time;
+                        low[w] = time;
+                        parentEdge[w] = e;
+                        nextEdge[w] = 0;
+                        top++;
+                        terminalStack[top] = w;
+                        if (v == root)
+                        {
+                            rootChildren++;
+                        }
+                    }
+                    else if (disc[w] < disc[v])
+                    {
+                        edgeStack[edgeTop] = e;
+                        edgeTop++;
+                        low[v] = Math.min(low[v], disc[w]);
+                    }
+                }
+                else
+                {
+                    // Finished with w = v; go back up to its parent
+                    top--;
+                    if (top >= 0)
+                    {
+                        int w = v;
+                        int u = terminalStack[top];
+                        low[u] = Math.min(low[u], low[w]);
+                        if (low[w] >= disc[u])
+                        {
+                            if (u != root)
+                            {
+                                isCut[u] = true;
+                            }
+                            List<Component> block = new ArrayList<Component>();
+                            int e;
+                            do
+                            {
+                                edgeTop--;
+                                e = edgeStack[edgeTop];
+                                block.add(components.get(e));
+                            }
+                            while (e != parentEdge[w]);
+                            blocks.add(block);
+                        }
+                    }
+                }
+            }
+            if (rootChildren > 1)
+            {
+                isCut[root] = true;
+            }
+        }
+        for (Terminal t : circuit.getConnectedTerminals())
+        {
+            if (isCut[terminalIndex(t)])
+            {
+                cutTerminals.add(terminalIndex(t));
+            }
+        }
+    }
+
+    /**
+     * Solves every block in parallel, then joins their potentials at the cut terminals.
+     * @return  True if every block could be solved; false if any block has a short circuit.
+     */
+    public boolean solve()
+    {
+        final double[][] blockCurrents = new double[blocks.size()][];
+        final double[][] blockPotentials = new double[blocks.size()][];
+        final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for (int b = 0; b < blocks.size(); b++)
+        {
+            final int blockNum = b;
+            tasks.add(new RecursiveAction()
+                {
+                    protected void compute()
+                    {
+                        solveBlock(blockNum, blockCurrents, blockPotentials);
+                    }
+                });
+        }
+        pool.invoke(new RecursiveAction()
+            {
+                protected void compute()
+                {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+
+        currents = new double[components.size()];
+        for (int b = 0; b < blocks.size(); b++)
+        {
+            if (blockCurrents[b] == null)
+            {
+                currents = null;
+                potentials = null;
+                return false;
+            }
+            List<Component> block = blocks.get(b);
+            for (int k = 0; k < block.size(); k++)
+            {
+                currents[indexOf.get(block.get(k))] = blockCurrents[b][k];
+            }
+        }
+        stitchPotentials(blockPotentials);
+        return true;
+    }
+
+    /**
+     * Solves one block in the circuit it was copied into (with a Newton-Raphson solve if it contains diodes), after
+     * bringing the copy's values up to date. The currents are stored in the block's component order, and the potentials
+     * in the order of blockTerminals.
+     */
+    private void solveBlock(int b, double[][] blockCurrents, double[][] blockPotentials)
+    {
+        List<Component> block = blocks.get(b);
+        int[] terminals = blockTerminals.get(b);
+        boolean reshaped = parts[b] == null ? copyBlock(b) : updateBlock(b);
+        Circuit part = parts[b];
+        double[] blockCurrent = new double[block.size()];
+        double[] partPotentials;
+        if (part.hasDiodes())
+        {
+            if (operatingPoints[b] == null || reshaped)
+            {
+                operatingPoints[b] = new OperatingPoint(part);
+            }
+            OperatingPoint op = operatingPoints[b];
+            if (op.solve() == null)
+            {
+                return;
+            }
+            for (int k = 0; k < block.size(); k++)
+            {
+                blockCurrent[k] = op.getCurrent(k);
+            }
+            partPotentials = op.getPotentials();
+        }
+        else
+        {
+            NodalAnalysis analysis = new NodalAnalysis(part);
+            double[] values = analysis.getValues();
+            double[] x = analysis.solve(values);
+            if (x == null)
+            {
+                return;
+            }
+            for (int k = 0; k < block.size(); k++)
+            {
+                blockCurrent[k] = analysis.getCurrent(x, values, k);
+            }
+            partPotentials = analysis.getPotentials(x);
+        }
+        double[] blockPotential = new double[terminals.length];
+        for (int j = 0; j < terminals.length; j++)
+        {
+            long key = keyOf(terminals[j]);
+            Terminal copy = part.getTerminal((int)(key / cols) - rowShift[b], (int)(key % cols) - colShift[b]);
+            blockPotential[j] = partPotentials[part.getTerminalIndex(copy)];
+        }
+        blockCurrents[b] = blockCurrent;
+        blockPotentials[b] = blockPotential;
+    }
+
+    /**
+     * Copies a block into a circuit of its own, just big enough to hold it, and sparse if circuit is.
+     * @return  True, since the copy is new
+     */
+    private boolean copyBlock(int b)
+    {
+        int minRow = Integer.MAX_VALUE;
+        int maxRow = 0;
+        int minCol = Integer.MAX_VALUE;
+        int maxCol = 0;
+        for (int t : blockTerminals.get(b))
+        {
+            int row = (int)(keyOf(t) / cols);
+            int col = (int)(keyOf(t) % cols);
+            minRow = Math.min(minRow, row);
+            maxRow = Math.max(maxRow, row);
+            minCol = Math.min(minCol, col);
+            maxCol = Math.max(maxCol, col);
+        }
+        Circuit part = new Circuit(maxRow - minRow + 1, maxCol - minCol + 1, circuit.isSparse());
+        for (Component c : blocks.get(b))
+        {
+            part.addCopyOf(c, -minRow, -minCol);
+        }
+        rowShift[b] = minRow;
+        colShift[b] = minCol;
+        parts[b] = part;
+        return true;
+    }
+
+    /**
+     * Copies any values changed since the last solve from a block's components to their copies.
+     * @return  True if a change means the block's equations have to be set up again: a battery or diode turned around,
+     *          or a resistance changed to or from 0 ohms
+     */
+    private boolean updateBlock(int b)
+    {
+        Circuit part = parts[b];
+        List<Component> block = blocks.get(b);
+        boolean reshaped = false;
+        for (int k = 0; k < block.size(); k++)
+        {
+            Component orig = block.get(k);
+            Component copy = part.getComponents().get(k);
+            if (orig instanceof Resistor && copy.getResistance() != orig.getResistance())
+            {
+                reshaped = reshaped || (copy.getResistance() == 0) != (orig.getResistance() == 0);
+                part.setResistance(copy, orig.getResistance());
+            }
+            else if (orig instanceof Battery)
+            {
+                Battery battery = (Battery)orig;
+                Battery batteryCopy = (Battery)copy;
+                if (batteryCopy.getVoltage() != battery.getVoltage())
+                {
+                    part.setVoltage(batteryCopy, battery.getVoltage());
+                }
+                Terminal posEnd = copiedTerminal(b, battery.getPosEnd());
+                if (!posEnd.equals(batteryCopy.getPosEnd()))
+                {
+                    part.setPosEnd(batteryCopy, posEnd);
+                    reshaped = true;
+                }
+            }
+            else if (orig instanceof Diode)
+            {
+                Terminal anode = copiedTerminal(b, ((Diode)orig).getAnode());
+                if (!anode.equals(((Diode)copy).getAnode()))
+                {
+                    ((Diode)copy).setAnode(anode);
+                    reshaped = true;
+                }
+            }
+        }
+        return reshaped;
+    }
+
+    /**
+     * @return  The terminal of block b's copy that stands for a terminal of circuit
+     */
+    private Terminal copiedTerminal(int b, Terminal t)
+    {
+        return parts[b].getTerminal(t.getRow() - rowShift[b], t.getCol() - colShift[b]);
+    }
+
+    /**
+     * Walks from block to block through the cut terminals, shifting each block's potentials so that it agrees with the
+     * block it was reached from at their shared terminal. Each separate piece of the circuit is then shifted so its
+     * lowest potential is 0 V, as in Circuit.solve().
+     */
+    private void stitchPotentials(double[][] blockPotentials)
+    {
+        potentials = new double[numTerminals];
+        boolean[] placed = new boolean[numTerminals];
+        boolean[] blockPlaced = new boolean[blocks.size()];
+        int[] piece = new int[numTerminals];
+        List<List<Integer>> blocksAt = new ArrayList<List<Integer>>();
+        for (int i = 0; i < numTerminals; i++)
+        {
+            potentials[i] = Double.MAX_VALUE;
+            piece[i] = -1;
+            blocksAt.add(new ArrayList<Integer>());
+        }
+        for (int b = 0; b < blocks.size(); b++)
+        {
+            for (int t : blockTerminals.get(b))
+            {
+                blocksAt.get(t).add(b);
+            }
+        }
+
+        List<Double> lowest = new ArrayList<Double>();
+        List<Integer> queue = new ArrayList<Integer>();
+        for (int start = 0; start < blocks.size(); start++)
+        {
+            if (blockPlaced[start])
+            {
+                continue;
+            }
+            int pieceNum = lowest.size();
+            lowest.add(Double.MAX_VALUE);
+            blockPlaced[start] = true;
+            queue.clear();
+            queue.add(start);
+            for (int q = 0; q < queue.size(); q++)
+            {
+                int b = queue.get(q);
+                int[] terminals = blockTerminals.get(b);
+                // Shift so the block agrees with any terminal already placed (its cut terminal toward the start)
+                double offset = 0;
+                for (int j = 0; j < terminals.length; j++)
+                {
+                    if (placed[terminals[j]])
+                    {
+                        offset = potentials[terminals[j]] - blockPotentials[b][j];
+                        break;
+                    }
+                }
+                for (int j = 0; j < terminals.length; j++)
+                {
+                    int t = terminals[j];
+                    if (!placed[t])
+                    {
+                        potentials[t] = blockPotentials[b][j] + offset;
+                        placed[t] = true;
+                        piece[t] = pieceNum;
+                        lowest.set(pieceNum, Math.min(lowest.get(pieceNum), potentials[t]));
+                    }
+                    for (int other : blocksAt.get(t))
+                    {
+                        if (!blockPlaced[other])
+                        {
+                            blockPlaced[other] = true;
+                            queue.add(other);
+                        }
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < numTerminals; i++)
+        {
+            if (piece[i] >= 0)
+            {
+                potentials[i] -= lowest.get(piece[i]);
+            }
+        }
+    }
+
+    /**
+     * @return  The current through component k (numbered as in circuit.getComponents()) from endPt1 to endPt2, found
+     *          by the last solve()
+     */
+    public double getCurrent(int k)
+    {
+        return currents[k];
+    }
+
+    /**
+     * @return  The potential at each terminal (indexed as circuit.getTerminalIndex() numbered them when the blocks were
+     *          found) from the last solve(), with the lowest potential in each separate piece of the circuit at 0 V.
+     *          Unconnected terminals are Double.MAX_VALUE.
+     */
+    public double[] getPotentials()
+    {
+        return potentials;
+    }
+
+    /**
+     * @return  The components in each block
+     */
+    public List<List<Component>> getBlocks()
+    {
+        return blocks;
+    }
+
+    /**
+     * @return  The terminals that join two or more blocks
+     */
+    public List<Terminal> getCutTerminals()
+    {
+        List<Terminal> result = new ArrayList<Terminal>();
+        for (int i : cutTerminals)
+        {
+            result.add(terminalAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * @param p  The pool used to solve the blocks (defaults to the common fork/join pool)
+     */
+    public void setPool(ForkJoinPool p)
+    {
+        pool = p;
+    }
+
+    private int otherEnd(Component c, int t)
+    {
+        int a = terminalIndex(c.getEndPt1());
+        if (a == t)
+        {
+            return terminalIndex(c.getEndPt2());
+        }
+        return a;
+    }
+
+    private int terminalIndex(Terminal t)
+    {
+        long key = (long)t.getRow() * cols + t.getCol();
+        if (terminalKeys == null)
+        {
+            return (int)key;
+        }
+        return Arrays.binarySearch(terminalKeys, key);
+    }
+
+    /**
+     * @return  The position (row * cols + col) of the terminal with index i
+     */
+    private long keyOf(int i)
+    {
+        return terminalKeys == null ? i : terminalKeys[i];
+    }
+
+    private Terminal terminalAt(int i)
+    {
+        return circuit.getTerminal((int)(keyOf(i) / cols), (int)(keyOf(i) % cols));
+    }
+}
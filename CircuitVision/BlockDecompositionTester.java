@@ -0,0 +1,200 @@
+import java.util.Random;
+
+/**
+ * Checks BlockDecomposition against solving the whole circuit at once (NodalAnalysis, or OperatingPoint when there are
+ * diodes), on staircases of loops that each share one corner with the next, joined here and there by a dangling
+ * resistor. Then checks that Circuit.solve() gives the same currents and potentials when it solves a circuit with diodes
+ * block by block, including after values are changed and a battery is turned around, and times it against one
+ * OperatingPoint for the whole circuit.
+ */
+public class BlockDecompositionTester
+{
+    public static void main(String[] args)
+    {
+        for (boolean diodes : new boolean[] {false, true})
+        {
+            double worstCurrent = 0;
+            double worstPotential = 0;
+            int numBlocks = 0;
+            for (int seed = 1; seed <= 5; seed++)
+            {
+                Circuit circ = staircase(12, diodes, new Random(seed));
+                BlockDecomposition blocks = new BlockDecomposition(circ);
+                blocks.solve();
+                numBlocks = blocks.getBlocks().size();
+                double[] currents = new double[circ.getComponents().size()];
+                double[] potentials;
+                if (diodes)
+                {
+                    OperatingPoint op = new OperatingPoint(circ);
+                    op.solve();
+                    for (int k = 0; k < currents.length; k++)
+                    {
+                        currents[k] = op.getCurrent(k);
+                    }
+                    potentials = op.getPotentials();
+                }
+                else
+                {
+                    NodalAnalysis analysis = new NodalAnalysis(circ);
+                    double[] values = analysis.getValues();
+                    double[] x = analysis.solve(values);
+                    for (int k = 0; k < currents.length; k++)
+                    {
+                        currents[k] = analysis.getCurrent(x, values, k);
+                    }
+                    potentials = analysis.getPotentials(x);
+                }
+                for (int k = 0; k < currents.length; k++)
+                {
+                    worstCurrent = Math.max(worstCurrent, Math.abs(blocks.getCurrent(k) - currents[k]));
+                }
+                worstPotential = Math.max(worstPotential, largestDifference(blocks.getPotentials(), potentials));
+            }
+            System.out.println((diodes ? "Diode" : "Linear") + " blocks (" + numBlocks + " in each circuit), against "
+                + (diodes ? "OperatingPoint" : "NodalAnalysis") + ": currents off by at most " + worstCurrent
+                + " A, potentials by at most " + worstPotential + " V");
+        }
+
+        Circuit circ = staircase(12, true, new Random(6));
+        Battery battery = null;
+        for (Component c : circ.getComponents())
+        {
+            if (c instanceof Battery)
+            {
+                battery = (Battery)c;
+            }
+        }
+        String[] edits = {"first solve", "after changing a resistance", "after turning a battery around"};
+        for (int e = 0; e < edits.length; e++)
+        {
+            if (e == 1)
+            {
+                circ.setResistance(circ.getComponents().get(1), 7);
+            }
+            else if (e == 2)
+            {
+                Terminal other = battery.getPosEnd().equals(battery.getEndPt1()) ? battery.getEndPt2() : battery.getEndPt1();
+                circ.setPosEnd(battery, other);
+            }
+            circ.solve();
+            System.out.println("Circuit.solve() by blocks, " + edits[e] + ": " + compareSolve(circ));
+        }
+
+        Circuit big = staircase(300, true, new Random(7));
+        big.solve();
+        long start = System.nanoTime();
+        for (int i = 0; i < 5; i++)
+        {
+            big.setResistance(big.getComponents().get(1), 10 + i);
+            big.solve();
+        }
+        double blockMs = (System.nanoTime() - start) / 5e6;
+        start = System.nanoTime();
+        OperatingPoint whole = new OperatingPoint(big);
+        for (int i = 0; i < 5; i++)
+        {
+            big.setResistance(big.getComponents().get(1), 20 + i);
+            whole.solve();
+        }
+        double wholeMs = (System.nanoTime() - start) / 5e6;
+        System.out.println("300 loops with diodes (" + big.getComponents().size() + " components): Circuit.solve() by "
+            + "blocks " + Math.round(blockMs) + " ms per edit, one OperatingPoint for the whole circuit "
+            + Math.round(wholeMs) + " ms");
+    }
+
+    /**
+     * @return  How far Circuit.solve()'s currents (from endPt1 to endPt2) and potentials are from OperatingPoint's
+     */
+    private static String compareSolve(Circuit circ)
+    {
+        OperatingPoint op = new OperatingPoint(circ);
+        op.solve();
+        double worstCurrent = 0;
+        for (int k = 0; k < circ.getComponents().size(); k++)
+        {
+            Component c = circ.getComponents().get(k);
+            double current = c.getCurrent();
+            if (c.getCurrentDirection() != null && c.getCurrentDirection().equals(c.getEndPt1()))
+            {
+                current = -current;
+            }
+            worstCurrent = Math.max(worstCurrent, Math.abs(current - op.getCurrent(k)));
+        }
+        double[] potentials = new double[circ.getRows() * circ.getCols()];
+        for (int r = 0; r < circ.getRows(); r++)
+        {
+            for (int c = 0; c < circ.getCols(); c++)
+            {
+                potentials[r * circ.getCols() + c] = circ.getTerminal(r, c).getPotential();
+            }
+        }
+        return "currents off by at most " + worstCurrent + " A, potentials by at most "
+            + largestDifference(potentials, op.getPotentials()) + " V";
+    }
+
+    /**
+     * @return  The largest difference between two arrays of potentials, skipping unconnected terminals
+     */
+    private static double largestDifference(double[] a, double[] b)
+    {
+        double worst = 0;
+        for (int i = 0; i < a.length; i++)
+        {
+            if (a[i] < Double.MAX_VALUE && b[i] < Double.MAX_VALUE)
+            {
+                worst = Math.max(worst, Math.abs(a[i] - b[i]));
+            }
+            else if (a[i] != b[i])
+            {
+                worst = Double.POSITIVE_INFINITY;
+            }
+        }
+        return worst;
+    }
+
+    /**
+     * @return  A staircase of square loops down the diagonal of a grid, each sharing its bottom-right corner with the
+     *          next loop's top-left corner. Each loop has resistors of 1 to 100 ohms, a battery of 1 to 9 V (turned
+     *          either way) on its left side in most loops, and, if wanted, a diode (turned either way) on its right
+     *          side. Every fourth loop also has a resistor hanging off its top-right corner, which carries no current.
+     */
+    private static Circuit staircase(int loops, boolean diodes, Random random)
+    {
+        Circuit circ = new Circuit(loops + 1, loops + 2);
+        for (int i = 0; i < loops; i++)
+        {
+            circ.addComponent(new Resistor(1 + random.nextInt(100)), i, i, i, i + 1);
+            circ.addComponent(new Resistor(1 + random.nextInt(100)), i + 1, i, i + 1, i + 1);
+            if (random.nextInt(10) < 7)
+            {
+                int posRow = random.nextBoolean() ? i : i + 1;
+                circ.addBattery(new Battery(1 + random.nextInt(9)), i, i, i + 1, i, posRow, i);
+            }
+            else
+            {
+                circ.addComponent(new Resistor(1 + random.nextInt(100)), i, i, i + 1, i);
+            }
+            if (diodes)
+            {
+                if (random.nextBoolean())
+                {
+                    circ.addComponent(new Diode(), i, i + 1, i + 1, i + 1);
+                }
+                else
+                {
+                    circ.addComponent(new Diode(), i + 1, i + 1, i, i + 1);
+                }
+            }
+            else
+            {
+                circ.addComponent(new Resistor(1 + random.nextInt(100)), i, i + 1, i + 1, i + 1);
+            }
+            if (i % 4 == 0)
+            {
+                circ.addComponent(new Resistor(1 + random.nextInt(100)), i, i + 1, i, i + 2);
+            }
+        }
+        return circ;
+    }
+}
@@ -0,0 +1,44 @@
+
+/**
+ * Capacitors store charge on two plates. Once a circuit has settled, no current flows through a capacitor, so solve()
+ * treats it as a break in the circuit. TransientAnalysis follows the capacitor as it charges.
+ */
+public class Capacitor extends Component
+{
+    private double capacitance;     // in farads
+
+    /**
+     * Constructs a Capacitor with the specified capacitance.
+     * @param farads  Capacitance of the capacitor
+     */
+    public Capacitor(double farads)
+    {
+        super();
+        capacitance = farads;
+    }
+
+    /**
+     * @param farads  The new capacitance. The circuit it is in is told.
+     */
+    public void setCapacitance(double farads)
+    {
+        capacitance = farads;
+        changed(CircuitEvent.Type.CAPACITANCE_CHANGED);
+    }
+
+    /**
+     * @return  The capacitance in farads
+     */
+    public double getCapacitance()
+    {
+        return capacitance;
+    }
+
+    /**
+     * @return  Adds to the component's toString() the capacitance value
+     */
+    public String toString()
+    {
+        return super.toString() + "Capacitor " + capacitance + " F\t";
+    }
+}
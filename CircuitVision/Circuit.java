@@ -1,21 +1,54 @@
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 import org.apache.commons.math3.linear.*;
 
 /**
  * Holds the components and terminals for an electric circuit. The solve() method finds the current through
- * and voltage across each component of the circuit. Handles dead-end branches of a circuit correctly,
- * but may not work correctly if circuit fragments or more than one complete circuit are present.
+ * and voltage across each component of the circuit. Handles dead-end branches of a circuit correctly. If the grid
+ * holds several separate circuits (fragments that are not connected to each other), each one is solved on its own,
+ * in parallel, with its own lowest potential set to 0 V.
+ *
+ * A circuit can be made sparse (see the constructor), for a huge grid that holds only a few components. Its
+ * terminals are then made only when something is first connected to them, and kept in a TerminalMap instead of a 2-D
+ * array; and the arrays of potentials (in SolveResult, NodalAnalysis and CompactCircuit) have one entry for each
+ * connected terminal, in the order of getTerminalKeys(), instead of one for every position in the grid.
  * Set the instance variable "verbose" to true to display results of intermediate calculations.
  */
 public class Circuit
 {
-    private Terminal[][] terminals;
+    private Terminal[][] terminals;     // null in a sparse circuit
+    private TerminalMap terminalMap;    // the terminals of a sparse circuit, keyed by row * cols + col; null otherwise
+    private long[] terminalKeys;        // sorted keys of a sparse circuit's terminals, found when first needed
     private List<Component> components;
+    private List<SubcircuitInstance> subcircuits;
     private int rows;
     private int cols;
     private int numBranches;
     private boolean verbose = false;
+    private OperatingPoint operatingPoint;  // kept between solves so circuits with diodes can be warm-started
+    private BlockDecomposition blockDecomposition;  // kept between solves of circuits solved block by block
+
+    // Factored equations kept for getThevenin() until the circuit changes
+    private NodalAnalysis theveninAnalysis;
+    private DecompositionSolver theveninSolver;
+    private double[] theveninValues;
+    private double[] theveninSolution;
+    private boolean theveninKnown;              // false until getThevenin() is first called
+    private long theveninStructuralVersion;     // the versions the Thevenin equations were factored at
+    private long theveninValueVersion;
+    private Map<Long, TheveninEquivalent> theveninCache = new HashMap<Long, TheveninEquivalent>();
+    private IncrementalAnalysis incremental;  // listens for adds and removes once solveIncremental() is used
+    private List<CircuitListener> listeners = new ArrayList<CircuitListener>();
+    private long structuralVersion;
+    private long valueVersion;
+    private SolveResult result;     // currents and potentials from the last solve, read by Component and Terminal
+    private SolutionPublisher publisher;  // made by getSolutionPublisher() when first wanted
 
     /**
      * Constructs a new Circuit object with a grid of terminals with particular dimensions
@@ -23,19 +56,40 @@ public class Circuit
      * @param col The number of columns of terminals in the circuit
      */
     public Circuit(int row, int col)
+    {
+        this(row, col, false);
+    }
+
+    /**
+     * Constructs a new Circuit, which may be sparse. A sparse circuit makes each Terminal only when a component or a
+     * subcircuit's port is first connected to it, and drops it when the last one is removed, so a 10,000 x 10,000 grid
+     * holding a few thousand components takes memory only for those, and the searches for junctions and potentials only
+     * look at the terminals in use. getTerminal() still works anywhere in the grid, but at a position with nothing
+     * connected it returns a new Terminal each time, so terminals should be compared with equals() rather than ==.
+     * @param row The number of rows of terminals in the circuit
+     * @param col The number of columns of terminals in the circuit
+     * @param sparse  True to make terminals only as they are used
+     */
+    public Circuit(int row, int col, boolean sparse)
     {
         rows = row;
         cols = col;
-        terminals = new Terminal[rows][cols];
         components = new ArrayList<Component>();
+        subcircuits = new ArrayList<SubcircuitInstance>();
         numBranches = 0;
+        if (sparse)
+        {
+            terminalMap = new TerminalMap();
+            return;
+        }
+        terminals = new Terminal[rows][cols];
 
         // initialize Terminals                                                
         for (int r = 0; r < rows; r++)
         {
             for (int c = 0; c < cols; c++)
             {
-                terminals[r][c] = new Terminal(r, c);
+                terminals[r][c] = new Terminal(r, c, this);
             }
         }
     }
@@ -48,53 +102,142 @@ public class Circuit
      */
     public Circuit(Circuit origCircuit)
     {
-        this(origCircuit.getRows(), origCircuit.getCols());
+        this(origCircuit.getRows(), origCircuit.getCols(), origCircuit.isSparse());
 
         for (Component comp : origCircuit.getComponents())
         {
-            // get endpoint row and column for component in original circuit
-            int r1 = comp.getEndPt1().getRow();
-            int c1 = comp.getEndPt1().getCol();
-            int r2 = comp.getEndPt2().getRow();
-            int c2 = comp.getEndPt2().getCol();
+            addCopyOf(comp);
+        }
+        for (SubcircuitInstance sub : origCircuit.getSubcircuits())
+        {
+            int[] portRows = new int[sub.numPorts()];
+            int[] portCols = new int[sub.numPorts()];
+            for (int p = 0; p < sub.numPorts(); p++)
+            {
+                portRows[p] = sub.getPort(p).getRow();
+                portCols[p] = sub.getPort(p).getCol();
+            }
+            addSubcircuit(sub.getDefinition(), portRows, portCols);
+        }
+    }
+
+    /**
+     * Adds a new component with the same type, value and location as a component from another circuit (with the same
+     * number of rows and columns). Used to copy a whole circuit, or just part of one.
+     * @param comp  The component to copy
+     * @return  The new component, or null if a component already exists at that location
+     */
+    public Component addCopyOf(Component comp)
+    {
+        return addCopyOf(comp, 0, 0);
+    }
 
-            if (comp instanceof Resistor)
+    /**
+     * Like addCopyOf(comp), but moves the copy by a number of rows and columns, so that part of a large circuit can be
+     * copied into a smaller one.
+     * @param comp  The component to copy
+     * @param rowShift  Added to the row of each end (and of a battery's positive end or a diode's anode)
+     * @param colShift  Added to the column of each end
+     * @return  The new component, or null if a component already exists at that location
+     */
+    public Component addCopyOf(Component comp, int rowShift, int colShift)
+    {
+        // get endpoint row and column for component in original circuit
+        int r1 = comp.getEndPt1().getRow() + rowShift;
+        int c1 = comp.getEndPt1().getCol() + colShift;
+        int r2 = comp.getEndPt2().getRow() + rowShift;
+        int c2 = comp.getEndPt2().getCol() + colShift;
+
+        Component copy = null;
+        boolean added = false;
+        if (comp instanceof Resistor)
+        {
+            copy = new Resistor(comp.getResistance());
+            added = addComponent(copy, r1, c1, r2, c2);
+        }
+        else if (comp instanceof Wire)
+        {
+            copy = new Wire();
+            added = addComponent(copy, r1, c1, r2, c2);
+        }
+        else if (comp instanceof Battery)
+        {
+            copy = new Battery(((Battery)comp).getVoltage());
+            Terminal posEnd = ((Battery)comp).getPosEnd();
+            added = addBattery((Battery)copy, r1, c1, r2, c2, posEnd.getRow() + rowShift, posEnd.getCol() + colShift);
+        }
+        else if (comp instanceof Capacitor)
+        {
+            copy = new Capacitor(((Capacitor)comp).getCapacitance());
+            added = addComponent(copy, r1, c1, r2, c2);
+        }
+        else if (comp instanceof Inductor)
+        {
+            copy = new Inductor(((Inductor)comp).getInductance());
+            added = addComponent(copy, r1, c1, r2, c2);
+        }
+        else if (comp instanceof Diode)
+        {
+            Diode d = (Diode)comp;
+            Diode diodeCopy;
+            if (comp instanceof LED)
             {
-                addComponent(new Resistor(comp.getResistance()), r1, c1, r2, c2);
+                diodeCopy = new LED(((LED)comp).getColor());
             }
-            else if (comp instanceof Wire)
+            else
             {
-                addComponent(new Wire(), r1, c1, r2, c2);
+                diodeCopy = new Diode(d.getSaturationCurrent(), d.getEmissionCoefficient());
             }
-            else if (comp instanceof Battery)
+            copy = diodeCopy;
+            added = addComponent(diodeCopy, r1, c1, r2, c2);
+            if (added)
             {
-                Battery batt = new Battery(((Battery)comp).getVoltage());
-                addBattery(batt, r1, c1, r2, c2, ((Battery)comp).getPosEnd().getRow(), ((Battery)comp).getPosEnd().getCol());
+                diodeCopy.setAnode(getTerminal(d.getAnode().getRow() + rowShift, d.getAnode().getCol() + colShift));
             }
         }
+        if (!added)
+        {
+            return null;
+        }
+        return copy;
     }
 
     /**
      * This method uses several helper methods to solve a circuit via Kirchhoff's rules and linear algebra. 
      * After running it, each component will have been assigned a branch number, current, and a current direction;
-     * each Terminal will have a potential.
+     * each Terminal will have a potential. Separate fragments of the circuit are solved separately (see solveFragments()),
+     * and so are the blocks of a fragment that falls into pieces joined only at single terminals (see solveBlocks()).
      * @return  Returns an array of currents. Each current is indexed by its branch number within the circuit. Returns null if short circuit or no complete circuit.
      */
     public double[] solve()
     {
-        // Re-initialize component values and terminal potentials
+        double[] currents = solveCircuit();
+        solved();
+        return currents;
+    }
+
+    /**
+     * The body of solve(), without telling the solution publisher, for the solves that fall back to it.
+     */
+    private double[] solveCircuit()
+    {
+        // Re-initialize branches; until a new result is published, components read 0 A and terminals Double.MAX_VALUE
         for (Component c : components)
         {
             c.setBranch(-1);
-            c.setCurrent(0);
             c.setCurrentDirection(null);
         }
-        for (int r = 0; r < rows; r++)
+        result = null;
+
+        if (subcircuits.size() > 0)
         {
-            for (int c = 0; c < cols; c++)
-            {
-                terminals[r][c].setPotential(Double.MAX_VALUE);
-            }
+            return solveWithSubcircuits();
+        }
+
+        List<List<Component>> fragments = findFragments();
+        if (fragments.size() > 1)
+        {
+            return solveFragments(fragments);
         }
 
         List<Terminal> nodes = new ArrayList<Terminal>();
@@ -116,6 +259,15 @@ public class Circuit
             return null;
         }
 
+        if (hasDiodes())
+        {
+            return solveNonlinear();
+        }
+        if (inBlocks())
+        {
+            return solveBlocks();
+        }
+
         if (verbose)
         {
             System.out.println("The stored loops are:\n");
@@ -277,41 +429,530 @@ public class Circuit
         }
         //***************************************************************
 
-        // Update component currents
+        // Publish the currents; each component reads currents[branch], and the potentials are found when first needed
+        final List<List<Component>> solvedLoops = loops;
+        final long[] solvedKeys = getTerminalKeys();
+        result = new SolveResult(currents, solvedKeys, null, cols)
+        {
+            protected double[] computePotentials()
+            {
+                return calculatePotentials(solvedLoops, getCurrents(), solvedKeys);
+            }
+        };
+        if (verbose)
+        {
+            System.out.println(this);
+        }
+        if (verbose)
+        {
+            System.out.println("Terminal potentials:");
+            for (Terminal t : getConnectedTerminals())
+            {
+                System.out.println(t + "\t" + t.getPotential());
+            }
+            System.out.println();
+        }
+        return currents;
+    }
+
+    /**
+     * Used by solve() in place of Kirchhoff's rules when subcircuits have been placed in the circuit, since their ports
+     * can complete loops that the branch and loop search cannot see. The circuit is solved by nodal analysis, with each
+     * subcircuit adding only its reduced port equations (see SubcircuitDefinition). Every component is given a branch
+     * of its own (its index in the components list), with its current direction set to endPt2; the current is
+     * negative if it actually flows toward endPt1.
+     * @return  The current through each component, or null if the circuit cannot be solved.
+     */
+    private double[] solveWithSubcircuits()
+    {
+        double[] potentials;
+        double[] currents = new double[components.size()];
+        if (hasDiodes())
+        {
+            if (operatingPoint == null || !operatingPoint.matches(this))
+            {
+                operatingPoint = new OperatingPoint(this);
+            }
+            if (operatingPoint.solve() == null)
+            {
+                return null;
+            }
+            for (int k = 0; k < components.size(); k++)
+            {
+                currents[k] = operatingPoint.getCurrent(k);
+            }
+            potentials = operatingPoint.getPotentials();
+        }
+        else
+        {
+            NodalAnalysis analysis = new NodalAnalysis(this);
+            double[] values = analysis.getValues();
+            double[] x = analysis.solve(values);
+            if (x == null)
+            {
+                return null;
+            }
+            for (int k = 0; k < components.size(); k++)
+            {
+                currents[k] = analysis.getCurrent(x, values, k);
+            }
+            potentials = analysis.getPotentials(x);
+        }
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            c.setBranch(k);
+            c.setCurrentDirection(c.getEndPt2());
+        }
+        numBranches = components.size();
+        result = new SolveResult(currents, getTerminalKeys(), potentials, cols);
+        for (SubcircuitInstance sub : subcircuits)
+        {
+            double[] portPotentials = new double[sub.numPorts()];
+            for (int p = 0; p < sub.numPorts(); p++)
+            {
+                portPotentials[p] = sub.getPort(p).getPotential();
+            }
+            sub.setPortPotentials(portPotentials);
+        }
+        if (verbose)
+        {
+            System.out.println("Solved with " + subcircuits.size() + " subcircuits");
+        }
+        return currents;
+    }
+
+    /**
+     * Solves the circuit with buffers kept in a SolveWorkspace, so that solving it again after changing only values
+     * (resistances, voltages, which end of a battery is positive) allocates nothing. The first solve, and the first
+     * after a component is added or removed, goes through solve(); circuits with diodes or subcircuits always do.
+     * @return  The current in each branch, as solve() returns them, or null if the circuit cannot be solved. The array
+     *          belongs to the workspace and is refilled by its next solve.
+     */
+    public double[] solve(SolveWorkspace workspace)
+    {
+        if (workspace.isReadyFor(this) && workspace.solve())
+        {
+            result = workspace.getResult();
+            solved();
+            return workspace.getCurrents();
+        }
+        double[] currents = solveCircuit();
+        double[] reused = workspace.prepare(this, currents);
+        if (reused == null)
+        {
+            solved();
+            return currents;
+        }
+        result = workspace.getResult();
+        solved();
+        return reused;
+    }
+
+    /**
+     * A faster solve for large circuits that are edited a little at a time. The first call factors the circuit's nodal
+     * equations; after that, the circuit keeps them up to date as components are added, removed or changed, and each
+     * call only corrects the old factorization for the edits (see IncrementalAnalysis). Values are re-read on every call, so
+     * they may be changed with either Component's or Circuit's setters. As in solveWithSubcircuits(),
+     * every component is given a branch of its own, with its current direction set to endPt2. Circuits with diodes or
+     * subcircuits are passed to solve().
+     * @return  The current through each component, indexed by its position in the components list, or null if the
+     *          circuit cannot be solved.
+     */
+    public double[] solveIncremental()
+    {
+        if (hasDiodes() || subcircuits.size() > 0)
+        {
+            if (incremental != null)
+            {
+                removeCircuitListener(incremental);
+                incremental = null;
+            }
+            return solve();
+        }
+        if (incremental == null)
+        {
+            incremental = new IncrementalAnalysis(this);
+            addCircuitListener(incremental);
+        }
+        if (incremental.solve() == null)
+        {
+            solved();
+            return null;
+        }
+        double[] currents = new double[components.size()];
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            currents[k] = incremental.getCurrent(c);
+            c.setBranch(k);
+            c.setCurrentDirection(c.getEndPt2());
+        }
+        numBranches = components.size();
+        result = new SolveResult(currents, getTerminalKeys(), incremental.getPotentials(), cols);
+        solved();
+        return currents;
+    }
+
+    /**
+     * Finds the separate fragments of the circuit: groups of components that are connected to each other, but not to
+     * any component in another group.
+     * @return  The components in each fragment, in the order they appear in the components list
+     */
+    private List<List<Component>> findFragments()
+    {
+        long[] keys = getTerminalKeys();
+        int[] parent = new int[getNumTerminals()];
+        for (int i = 0; i < parent.length; i++)
+        {
+            parent[i] = i;
+        }
         for (Component c : components)
         {
-            if (c.getBranch() < 999)
+            int a = find(parent, index(c.getEndPt1(), keys));
+            int b = find(parent, index(c.getEndPt2(), keys));
+            parent[Math.max(a, b)] = Math.min(a, b);
+        }
+        List<List<Component>> fragments = new ArrayList<List<Component>>();
+        Map<Integer, List<Component>> fragmentOf = new HashMap<Integer, List<Component>>();
+        for (Component c : components)
+        {
+            int root = find(parent, index(c.getEndPt1(), keys));
+            List<Component> fragment = fragmentOf.get(root);
+            if (fragment == null)
+            {
+                fragment = new ArrayList<Component>();
+                fragmentOf.put(root, fragment);
+                fragments.add(fragment);
+            }
+            fragment.add(c);
+        }
+        return fragments;
+    }
+
+    private static int find(int[] parent, int i)
+    {
+        while (parent[i] != i)
+        {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Used by solve() when the grid holds more than one separate fragment. Each fragment is copied into a circuit of
+     * its own (just big enough to hold it) and solved there, with all the fragments solved at the same time on a
+     * fork/join pool. The results are then copied back: branches are numbered fragment by fragment, and each fragment's
+     * lowest potential is 0 V. A fragment with no complete circuit carries no current, but still gets potentials (from
+     * any batteries in it), so a stray wire or resistor does not stop the other fragments from being solved.
+     * @return  The current in each branch, or null if any fragment has a short circuit or no fragment has a complete
+     *          circuit.
+     */
+    private double[] solveFragments(List<List<Component>> fragments)
+    {
+        if (verbose)
+        {
+            System.out.println("Number of fragments: " + fragments.size());
+        }
+        final Circuit[] parts = new Circuit[fragments.size()];
+        final double[][] partCurrents = new double[fragments.size()][];
+        int[] rowShift = new int[fragments.size()];
+        int[] colShift = new int[fragments.size()];
+        final List<RecursiveAction> tasks = new ArrayList<RecursiveAction>();
+        for (int f = 0; f < fragments.size(); f++)
+        {
+            int minRow = rows;
+            int maxRow = 0;
+            int minCol = cols;
+            int maxCol = 0;
+            for (Component c : fragments.get(f))
+            {
+                minRow = Math.min(minRow, Math.min(c.getEndPt1().getRow(), c.getEndPt2().getRow()));
+                maxRow = Math.max(maxRow, Math.max(c.getEndPt1().getRow(), c.getEndPt2().getRow()));
+                minCol = Math.min(minCol, Math.min(c.getEndPt1().getCol(), c.getEndPt2().getCol()));
+                maxCol = Math.max(maxCol, Math.max(c.getEndPt1().getCol(), c.getEndPt2().getCol()));
+            }
+            rowShift[f] = minRow;
+            colShift[f] = minCol;
+            parts[f] = new Circuit(maxRow - minRow + 1, maxCol - minCol + 1, isSparse());
+            parts[f].verbose = verbose;
+            for (Component c : fragments.get(f))
             {
-                c.setCurrent(currents[c.getBranch()]);
+                parts[f].addCopyOf(c, -minRow, -minCol);
+            }
+            final int partNum = f;
+            tasks.add(new RecursiveAction()
+                {
+                    protected void compute()
+                    {
+                        partCurrents[partNum] = parts[partNum].solve();
+                    }
+                });
+        }
+        ForkJoinPool.commonPool().invoke(new RecursiveAction()
+            {
+                protected void compute()
+                {
+                    ForkJoinTask.invokeAll(tasks);
+                }
+            });
+
+        List<Double> currents = new ArrayList<Double>();
+        long[] keys = getTerminalKeys();
+        double[] potentials = new double[getNumTerminals()];
+        Arrays.fill(potentials, Double.MAX_VALUE);
+        for (int f = 0; f < fragments.size(); f++)
+        {
+            Circuit part = parts[f];
+            List<Component> fragment = fragments.get(f);
+            if (partCurrents[f] == null && part.getNumBranches() > 0)   // Short circuit
+            {
+                return null;
+            }
+            if (partCurrents[f] == null)    // No complete circuit in this fragment
+            {
+                for (Component c : fragment)
+                {
+                    c.setBranch(999);
+                }
+                NodalAnalysis analysis = new NodalAnalysis(part);
+                double[] x = analysis.solve(analysis.getValues());
+                if (x != null)
+                {
+                    double[] partPotentials = analysis.getPotentials(x);
+                    for (Terminal t : part.getConnectedTerminals())
+                    {
+                        t.setPotential(partPotentials[part.getTerminalIndex(t)]);
+                    }
+                }
             }
             else
             {
-                c.setCurrent(0);
+                int offset = currents.size();
+                for (double current : partCurrents[f])
+                {
+                    currents.add(current);
+                }
+                for (int k = 0; k < fragment.size(); k++)
+                {
+                    Component orig = fragment.get(k);
+                    Component copy = part.getComponents().get(k);
+                    orig.setBranch(copy.getBranch() < 999 ? copy.getBranch() + offset : 999);
+                    if (copy.getCurrentDirection() != null)
+                    {
+                        orig.setCurrentDirection(getTerminal(copy.getCurrentDirection().getRow() + rowShift[f], copy.getCurrentDirection().getCol() + colShift[f]));
+                    }
+                }
+            }
+            for (Component c : fragment)
+            {
+                Terminal[] ends = {c.getEndPt1(), c.getEndPt2()};
+                for (Terminal t : ends)
+                {
+                    double potential = part.getTerminal(t.getRow() - rowShift[f], t.getCol() - colShift[f]).getPotential();
+                    if (potential >= Double.MAX_VALUE / 10)
+                    {
+                        potential = 0;      // could not be solved (for example, a loop of wires with no battery)
+                    }
+                    potentials[index(t, keys)] = potential;
+                }
             }
         }
+        if (currents.size() == 0)   // No complete circuit anywhere
+        {
+            return null;
+        }
+        numBranches = currents.size();
+        double[] allCurrents = new double[numBranches];
+        for (int i = 0; i < numBranches; i++)
+        {
+            allCurrents[i] = currents.get(i);
+        }
+        result = new SolveResult(allCurrents, keys, potentials, cols);
+        return allCurrents;
+    }
+
+    /**
+     * @return  True if the circuit contains any diodes (or LEDs), which need a nonlinear solve.
+     */
+    public boolean hasDiodes()
+    {
+        for (Component c : components)
+        {
+            if (c instanceof Diode)
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Used by solve() in place of Kirchhoff's rules when the circuit contains diodes. Branches and current directions
+     * have already been labeled; the currents and potentials come from a Newton-Raphson solve (see OperatingPoint),
+     * which starts from the previous solution if the circuit's components have not changed since the last solve. If
+     * the circuit falls into more than one block (pieces joined only at single terminals), each block is solved on its
+     * own instead (see BlockDecomposition), so only the blocks with diodes are iterated.
+     * @return  The current in each branch, or null if no solution was found.
+     */
+    private double[] solveNonlinear()
+    {
+        if (inBlocks())
+        {
+            return solveBlocks();
+        }
+        if (operatingPoint == null || !operatingPoint.matches(this))
+        {
+            operatingPoint = new OperatingPoint(this);
+        }
+        if (operatingPoint.solve() == null)
+        {
+            return null;
+        }
         if (verbose)
         {
-            System.out.println(this);
+            System.out.println("Newton-Raphson iterations: " + operatingPoint.getIterations());
+        }
+        double[] currents = new double[numBranches];
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            if (c.getBranch() < 999)
+            {
+                double current = operatingPoint.getCurrent(k);     // from endPt1 to endPt2
+                if (c.getCurrentDirection().equals(c.getEndPt1()))
+                {
+                    current = -current;
+                }
+                currents[c.getBranch()] = current;
+            }
+        }
+        result = new SolveResult(currents, getTerminalKeys(), operatingPoint.getPotentials(), cols);
+        return currents;
+    }
+
+    /**
+     * Finds the circuit's blocks (see BlockDecomposition), or keeps the ones found for an earlier solve if the
+     * components are the same.
+     * @return  True if there is more than one block
+     */
+    private boolean inBlocks()
+    {
+        if (blockDecomposition == null || !blockDecomposition.matches(this))
+        {
+            blockDecomposition = new BlockDecomposition(this);
+        }
+        return blockDecomposition.getBlocks().size() > 1;
+    }
+
+    /**
+     * Used by solve() for a circuit with more than one block, with or without diodes. Branches and current directions
+     * have already been labeled.
+     * @return  The current in each branch, or null if any block could not be solved.
+     */
+    private double[] solveBlocks()
+    {
+        if (!blockDecomposition.solve())
+        {
+            return null;
         }
-        calculatePotentials(loops, nodes);
         if (verbose)
         {
-            System.out.println("Terminal potentials:");
-            for (int r = 0; r < rows; r++)
+            System.out.println("Solved in " + blockDecomposition.getBlocks().size() + " blocks");
+        }
+        double[] currents = new double[numBranches];
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            if (c.getBranch() < 999)
             {
-                for (int c  = 0; c < cols; c++)
+                double current = blockDecomposition.getCurrent(k);     // from endPt1 to endPt2
+                if (c.getCurrentDirection().equals(c.getEndPt1()))
                 {
-                    System.out.print(terminals[r][c].getPotential() + "\t");
+                    current = -current;
                 }
-                System.out.println();
+                currents[c.getBranch()] = current;
             }
-            System.out.println();
         }
+        result = new SolveResult(currents, getTerminalKeys(), blockDecomposition.getPotentials(), cols);
         return currents;
     }
 
     /**
-     * Identifies if a short circuit exists: complete loop with no resistors and at least one battery.
+     * Finds the Thevenin equivalent of the circuit between two terminals, which tells how much current a component
+     * would carry if it were added between them. The circuit's equations are factored and solved once and kept, along
+     * with every equivalent found since, until a component is added or removed or a value is changed (as counted by
+     * getStructuralVersion() and getValueVersion()); after that, each new pair of terminals needs only one more solve
+     * with the factored equations, and a pair that was already asked for needs none. Component currents and terminal
+     * potentials are not changed.
+     * @return  The equivalent, with V_th the potential of (r1, c1) minus that of (r2, c2); or null if the circuit cannot
+     *          be solved (short circuit) or contains diodes, which have no single linear equivalent.
+     */
+    public TheveninEquivalent getThevenin(int r1, int c1, int r2, int c2)
+    {
+        if (!theveninIsCurrent())
+        {
+            theveninCache.clear();
+            theveninSolver = null;
+            theveninSolution = null;
+            theveninValues = null;
+            theveninKnown = true;
+            theveninStructuralVersion = structuralVersion;
+            theveninValueVersion = valueVersion;
+            if (hasDiodes())
+            {
+                return null;
+            }
+            if (theveninAnalysis == null || !theveninAnalysis.matches(this))
+            {
+                theveninAnalysis = new NodalAnalysis(this);
+            }
+            theveninValues = theveninAnalysis.getValues();
+            theveninSolver = theveninAnalysis.factor(theveninValues);
+            if (theveninSolver != null)
+            {
+                theveninSolution = theveninAnalysis.solve(theveninSolver, theveninAnalysis.buildConstants(theveninValues));
+            }
+        }
+        if (theveninValues == null)
+        {
+            return null;    // the circuit has diodes
+        }
+        Terminal a = getTerminal(r1, c1);
+        Terminal b = getTerminal(r2, c2);
+        if (theveninAnalysis.getGroup(a) < 0 || theveninAnalysis.getGroup(a) != theveninAnalysis.getGroup(b))
+        {
+            return new TheveninEquivalent(0, Double.POSITIVE_INFINITY);    // adding a component here completes no loop
+        }
+        if (theveninSolver == null)
+        {
+            return null;
+        }
+        Long key = ((long)r1 * cols + c1) * rows * cols + (long)r2 * cols + c2;
+        TheveninEquivalent equivalent = theveninCache.get(key);
+        if (equivalent == null)
+        {
+            double volts = theveninAnalysis.getPotential(theveninSolution, a) - theveninAnalysis.getPotential(theveninSolution, b);
+            double ohms = theveninAnalysis.getResistanceBetween(theveninSolver, a, b);
+            equivalent = new TheveninEquivalent(volts, ohms);
+            theveninCache.put(key, equivalent);
+        }
+        return equivalent;
+    }
+
+    /**
+     * @return  True if the components and their values are the same as when the Thevenin equations were last factored.
+     *          Only the versions are compared, so this is cheap enough to ask on every frame of the hover preview.
+     */
+    private boolean theveninIsCurrent()
+    {
+        return theveninKnown && theveninStructuralVersion == structuralVersion && theveninValueVersion == valueVersion;
+    }
+
+    /**
+     * Identifies if a short circuit exists: complete loop with no resistors and at least one battery. Capacitors
+     * break a loop, since no steady current flows through them.
      * @return True if short circuit exists; false otherwise.
      */
     private boolean shortCircuit()
@@ -322,7 +963,7 @@ public class Circuit
         {
             Component c = copy.getComponents().get(i);
             {
-                if (c instanceof Resistor)
+                if (c instanceof Resistor || c instanceof Capacitor)
                 {
                     copy.removeComponent(c);
                 }
@@ -347,6 +988,15 @@ public class Circuit
         return shortCirc;
     }
 
+    /**
+     * Tells why solve() returned null: a short circuit, rather than no complete circuit.
+     * @return True if a loop with no resistors or capacitors runs through a battery; false otherwise.
+     */
+    public boolean hasShortCircuit()
+    {
+        return shortCircuit();
+    }
+
     /**
      * This method uses helper methods to: 
      *     (1) populate the ArrayList of nodes (junctions) for a circuit;
@@ -370,16 +1020,23 @@ public class Circuit
         Circuit equationCopy = new Circuit(this);
         equationCopy.findNodes(nodes);
         equationCopy.labelBranches(nodes);
-        Component deadEnd = equationCopy.getComponents().get(0); // just to be not null
-        while (deadEnd != null)    // Remove one dangling component at a time, until there are no more
+        // No steady current flows through a capacitor, so capacitors are trimmed off along with the dead-ends
+        for (int i = equationCopy.getComponents().size() - 1; i >= 0; i--)
         {
-            deadEnd = equationCopy.removeDangler();
-            if (deadEnd != null)
+            Component c = equationCopy.getComponents().get(i);
+            if (c instanceof Capacitor)
             {
-                Component orig = equationCopy.findCorrespondingComponent(this, deadEnd);
-                orig.setBranch(999);
+                findCorrespondingComponent(this, c).setBranch(999);
+                equationCopy.removeComponent(c);
             }
         }
+        Component deadEnd = equationCopy.removeDangler();
+        while (deadEnd != null)    // Remove one dangling component at a time, until there are no more
+        {
+            Component orig = equationCopy.findCorrespondingComponent(this, deadEnd);
+            orig.setBranch(999);
+            deadEnd = equationCopy.removeDangler();
+        }
         
         equationCopy.findNodes(nodes);  // The nodes list is now properly updated for writing circuit equations.
         equationCopy.labelBranches(nodes);
@@ -473,7 +1130,9 @@ public class Circuit
      */
     private Component findCorrespondingComponent(Circuit circ, Component givenComp)
     {
-        for (Component comp : circ.getComponents())
+        // Any such component is connected to the terminal at givenComp's endPt1, so only that terminal's list is searched
+        Terminal end = circ.getTerminal(givenComp.getEndPt1().getRow(), givenComp.getEndPt1().getCol());
+        for (Component comp : end.getConnections())
         {
             if ( (comp.getEndPt1().equals(givenComp.getEndPt1()) && comp.getEndPt2().equals(givenComp.getEndPt2())) || (comp.getEndPt1().equals(givenComp.getEndPt2()) && comp.getEndPt2().equals(givenComp.getEndPt1())) )
             {
@@ -509,21 +1168,18 @@ public class Circuit
     }
 
     /**
-     * Searches the 2-D array of terminals for a circuit to find junctions. Adds any terminals that have three or more connections
+     * Searches the connected terminals of a circuit to find junctions. Adds any terminals that have three or more connections
      * to a List of nodes. The provided list of nodes is first cleared, and then repopulated.
      * @param nodes  A reference to a List of terminals.
      */
     private void findNodes(List<Terminal> nodes)
     {
         nodes.clear();
-        for (int r = 0; r < getRows(); r++)
+        for (Terminal t : getConnectedTerminals())
         {
-            for (int c = 0; c < getCols(); c++)
+            if (t.numConnections() > 2)
             {
-                if (getTerminals()[r][c].numConnections() > 2)
-                {
-                    nodes.add(getTerminals()[r][c]);
-                }
+                nodes.add(t);
             }
         }
     }
@@ -641,16 +1297,22 @@ public class Circuit
     }
 
     /**
-     * Finds the potential at each terminal in the circuit. Disconnected terminals are left at their default potental
-     * of Double.MAX_VALUE.
+     * Finds the potential at each terminal in the circuit, from the currents found by solve(). Disconnected terminals are
+     * left at their default potental of Double.MAX_VALUE. Called through the SolveResult the first time a potential is
+     * asked for.
      * @param loops  A List of the ArrayLists of components in each circuit loop
-     * @param nodes  A List of the circuit nodes/junctions
+     * @param currents  The current in each branch
+     * @param keys  The sorted keys of the terminals in a sparse circuit when it was solved, or null
+     * @return  The potential at each terminal, indexed by row * cols + col (or in the order of keys)
      */
-    private void calculatePotentials(List<List<Component>> loops, List<Terminal> nodes)
+    private double[] calculatePotentials(List<List<Component>> loops, double[] currents, long[] keys)
     {
+        double[] potentials = new double[keys == null ? rows * cols : keys.length];
+        Arrays.fill(potentials, Double.MAX_VALUE);
+
         // Find a terminal in a loop; assign it potential 0
         Component comp = loops.get(0).get(0);
-        comp.getEndPt1().setPotential(0);
+        potentials[index(comp.getEndPt1(), keys)] = 0;
 
         // Make a copy of the circuit components. Loop through all copied components finding those that have a potential set at only one end.
         // Then calculate and set potential for the other end and remove that component from the copy List.
@@ -660,6 +1322,9 @@ public class Circuit
             componentsCopy.add(c);
         }
 
+        // A capacitor can hold any voltage, so potentials are only carried across one (as if it were uncharged)
+        // when there is no other way to reach the terminal at its far end.
+        boolean useCapacitors = false;
         boolean updateOccurred = true;
         while (updateOccurred)
         {
@@ -667,28 +1332,33 @@ public class Circuit
             for (int i  = 0; i < componentsCopy.size(); i++)
             {
                 Component c = componentsCopy.get(i);
-                double potential1 = c.getEndPt1().getPotential();
-                double potential2 = c.getEndPt2().getPotential(); 
+                if (c instanceof Capacitor && !useCapacitors)
+                {
+                    continue;
+                }
+                double potential1 = potentials[index(c.getEndPt1(), keys)];
+                double potential2 = potentials[index(c.getEndPt2(), keys)];
                 if (potential1 < Double.MAX_VALUE / 10 && potential2 >= Double.MAX_VALUE / 10 || potential2 < Double.MAX_VALUE / 10 && potential1 >= Double.MAX_VALUE / 10)
                 {
                     // Other end's potential is known end's potential + component's voltage gain
                     Terminal knownEnd = c.getEndPt1();
                     Terminal otherEnd = c.getEndPt2();
-                    if (knownEnd.getPotential() >= Double.MAX_VALUE / 10)
+                    if (potential1 >= Double.MAX_VALUE / 10)
                     {
                         knownEnd = c.getEndPt2();
                         otherEnd = c.getEndPt1();
                     }
+                    double known = potentials[index(knownEnd, keys)];
 
                     if (c instanceof Battery)
                     {
                         if (knownEnd.equals( ((Battery)c).getPosEnd() ))
                         {
-                            otherEnd.setPotential(knownEnd.getPotential() - ((Battery)c).getVoltage());
+                            potentials[index(otherEnd, keys)] = known - ((Battery)c).getVoltage();
                         }
                         else
                         {
-                            otherEnd.setPotential(knownEnd.getPotential() + ((Battery)c).getVoltage());
+                            potentials[index(otherEnd, keys)] = known + ((Battery)c).getVoltage();
                         }
                     }
                     else
@@ -697,58 +1367,69 @@ public class Circuit
                         {
                             if (c.getCurrentDirection() != null && c.getCurrentDirection().equals(knownEnd))    
                             {
-                                otherEnd.setPotential(knownEnd.getPotential() + c.getResistance() * c.getCurrent());
+                                potentials[index(otherEnd, keys)] = known + c.getResistance() * currents[c.getBranch()];
                             }
                             else
                             {
-                                otherEnd.setPotential(knownEnd.getPotential() - c.getResistance() * c.getCurrent());
+                                potentials[index(otherEnd, keys)] = known - c.getResistance() * currents[c.getBranch()];
                             }
                         }
                         else
                         {
-                            otherEnd.setPotential(knownEnd.getPotential());
+                            potentials[index(otherEnd, keys)] = known;
                         }
                     }
                     updateOccurred = true;
+                    useCapacitors = false;
                     componentsCopy.remove(i);
                     break;
                 }
             }
+            if (!updateOccurred && !useCapacitors)
+            {
+                useCapacitors = true;
+                updateOccurred = true;
+            }
         }
 
         // Add or subtract to all the potentials so that the minimum potential is 0 Volts
-        double minVolts = terminals[0][0].getPotential();
-        for (int r = 0; r < rows; r++)
+        double minVolts = potentials[0];
+        for (double p : potentials)
         {
-            for (int c = 0; c < cols; c++)
-            {
-                if (terminals[r][c].getPotential() < minVolts)
-                {
-                    minVolts = terminals[r][c].getPotential();
-                }
-            }
+            minVolts = Math.min(minVolts, p);
         }
-        for (int r = 0; r < rows; r++)
+        for (int i = 0; i < potentials.length; i++)
         {
-            for (int c = 0; c < cols; c++)
+            if (potentials[i] != Double.MAX_VALUE)
             {
-                if (terminals[r][c].getPotential() != Double.MAX_VALUE)
-                {
-                    terminals[r][c].setPotential(terminals[r][c].getPotential() - minVolts);
-                }
+                potentials[i] -= minVolts;
             }
         }
         // Loop through any remaining components in componentsCopy. If their terminal potentials are still Double.MAX_VALUE,
-        // set them to 0. These would be components not connected to any complete circuit.
-        // This may not be correct, since these components may include a battery, or even a separate complete circuit...
+        // set them to 0. Separate fragments of the circuit are solved on their own by solveFragments(), so every
+        // terminal here should already have been reached; this is only a safeguard.
         for (Component c : componentsCopy)
         {
-            if (c.getEndPt1().getPotential() >= Double.MAX_VALUE / 10)
+            if (potentials[index(c.getEndPt1(), keys)] >= Double.MAX_VALUE / 10)
             {
-                c.getEndPt1().setPotential(0);
-                c.getEndPt2().setPotential(0);
+                potentials[index(c.getEndPt1(), keys)] = 0;
+                potentials[index(c.getEndPt2(), keys)] = 0;
             }
-        }       
+        }
+        return potentials;
+    }
+
+    /**
+     * @param keys  The sorted keys of a sparse circuit's terminals, or null
+     * @return  The index of a terminal in a SolveResult's potentials: row * cols + col, or its place in keys
+     */
+    private int index(Terminal t, long[] keys)
+    {
+        if (keys == null)
+        {
+            return t.getRow() * cols + t.getCol();
+        }
+        return Arrays.binarySearch(keys, (long)t.getRow() * cols + t.getCol());
     }
 
     /**
@@ -756,7 +1437,7 @@ public class Circuit
      * the circuit. If a different component already exists at the specified location, this method has no effect. 
      * Updates the endpoints of the component so that it knows what terminals it is connected to. Updates those
      * terminals so that they know they are connected to this component. If the component is a battery, this method defaults to
-     * making endPoint1 the positive terminal of the battery.
+     * making endPoint1 the positive terminal of the battery; if it is a diode, endPoint1 becomes the anode.
      * @param c  The component to be added
      * @param r1  Endpoint 1's row
      * @param c1  Endpoint 1's column
@@ -766,20 +1447,29 @@ public class Circuit
      */
     public boolean addComponent(Component c, int r1, int c1, int r2, int c2)
     {
-        c.setEndPt1(terminals[r1][c1]);
-        c.setEndPt2(terminals[r2][c2]);
+        c.setEndPt1(getTerminal(r1, c1));
+        c.setEndPt2(getTerminal(r2, c2));
         // Check wheter a component already exists at this location
         if (findCorrespondingComponent(this, c) != null)
         {
             return false;
         }
+        c.setEndPt1(useTerminal(r1, c1));
+        c.setEndPt2(useTerminal(r2, c2));
         components.add(c);
-        terminals[r1][c1].connect(c);
-        terminals[r2][c2].connect(c);
+        c.getEndPt1().connect(c);
+        c.getEndPt2().connect(c);
         if (c instanceof Battery)
         {
-            ((Battery)c).setPosEnd(terminals[r1][c1]);
+            ((Battery)c).setPosEnd(c.getEndPt1());
+        }
+        if (c instanceof Diode)
+        {
+            ((Diode)c).setAnode(c.getEndPt1());
         }
+        c.setCircuit(this);     // only now, so that setting its ends is not taken for a change to its value
+        structuralVersion++;
+        fire(CircuitEvent.Type.COMPONENT_ADDED, c, null);
         return true;
     }
 
@@ -796,20 +1486,181 @@ public class Circuit
      */
     public boolean addBattery(Battery b, int r1, int c1, int r2, int c2, int posEndRow, int posEndCol)
     {
-        b.setEndPt1(terminals[r1][c1]);
-        b.setEndPt2(terminals[r2][c2]);
+        b.setEndPt1(getTerminal(r1, c1));
+        b.setEndPt2(getTerminal(r2, c2));
         // Check wheter a component already exists at this location
         if (findCorrespondingComponent(this, b) != null)
         {
             return false;
         }
+        b.setEndPt1(useTerminal(r1, c1));
+        b.setEndPt2(useTerminal(r2, c2));
         components.add(b);
-        terminals[r1][c1].connect(b);
-        terminals[r2][c2].connect(b);
-        b.setPosEnd(terminals[posEndRow][posEndCol]);
+        b.getEndPt1().connect(b);
+        b.getEndPt2().connect(b);
+        b.setPosEnd(b.getEndPt1().equals(getTerminal(posEndRow, posEndCol)) ? b.getEndPt1() : b.getEndPt2());
+        b.setCircuit(this);
+        structuralVersion++;
+        fire(CircuitEvent.Type.COMPONENT_ADDED, b, null);
         return true;
     }
 
+    /**
+     * Places a copy of a subcircuit in the circuit, with its ports connected to the given terminals. Its components
+     * are not added to the components list; solve() takes account of it through its reduced port equations.
+     * @param def  The subcircuit to place
+     * @param portRows  The row of the terminal each port connects to, in port order
+     * @param portCols  The column of the terminal each port connects to
+     * @return  The placed copy, which reports the current through each of its ports after a solve
+     */
+    public SubcircuitInstance addSubcircuit(SubcircuitDefinition def, int[] portRows, int[] portCols)
+    {
+        Terminal[] ports = new Terminal[portRows.length];
+        for (int p = 0; p < ports.length; p++)
+        {
+            ports[p] = useTerminal(portRows[p], portCols[p]);
+        }
+        SubcircuitInstance sub = new SubcircuitInstance(def, ports);
+        subcircuits.add(sub);
+        structuralVersion++;
+        fire(CircuitEvent.Type.SUBCIRCUIT_ADDED, null, sub);
+        return sub;
+    }
+
+    /**
+     * Removes a placed subcircuit from the circuit.
+     */
+    public void removeSubcircuit(SubcircuitInstance sub)
+    {
+        if (subcircuits.remove(sub))
+        {
+            for (int p = 0; p < sub.numPorts(); p++)
+            {
+                releaseTerminal(sub.getPort(p));
+            }
+            structuralVersion++;
+            fire(CircuitEvent.Type.SUBCIRCUIT_REMOVED, null, sub);
+        }
+    }
+
+    /**
+     * Changes the resistance of a component in this circuit and tells the circuit's listeners. The same as calling
+     * Component.setResistance(), which tells the circuit itself.
+     */
+    public void setResistance(Component c, int ohms)
+    {
+        c.setResistance(ohms);
+    }
+
+    /**
+     * Changes the voltage of a battery in this circuit and tells the circuit's listeners.
+     */
+    public void setVoltage(Battery b, double volts)
+    {
+        b.setVoltage(volts);
+    }
+
+    /**
+     * Makes one end of a battery in this circuit its positive terminal, and tells the circuit's listeners if that
+     * flipped the battery.
+     * @param posTerminal  One of the battery's endpoints
+     */
+    public void setPosEnd(Battery b, Terminal posTerminal)
+    {
+        b.setPosEnd(posTerminal);
+    }
+
+    /**
+     * Called by a component in this circuit when one of its values is changed: raises the value version, expires the
+     * current result and tells the listeners.
+     */
+    void componentChanged(Component c, CircuitEvent.Type type)
+    {
+        valueVersion++;
+        fire(type, c, null);
+    }
+
+    /**
+     * @param listener  Will be told about every later change made through this circuit's methods
+     */
+    public void addCircuitListener(CircuitListener listener)
+    {
+        listeners.add(listener);
+    }
+
+    public void removeCircuitListener(CircuitListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @return  Tells its subscribers which currents and potentials changed after each solve of this circuit (by any of
+     *          the solve methods, or SolveCache). It is made when first asked for, and the circuit then does one pass
+     *          over its components and terminals after each solve to find what changed.
+     */
+    public SolutionPublisher getSolutionPublisher()
+    {
+        if (publisher == null)
+        {
+            publisher = new SolutionPublisher();
+        }
+        return publisher;
+    }
+
+    /**
+     * Called once at the end of each public solve, with the new result in place.
+     */
+    private void solved()
+    {
+        if (publisher != null)
+        {
+            publisher.publish(this);
+        }
+    }
+
+    /**
+     * @return  A number that goes up each time a component or subcircuit is added or removed, so anything worked out
+     *          from the circuit's parts can be reused while it stays the same.
+     */
+    public long getStructuralVersion()
+    {
+        return structuralVersion;
+    }
+
+    /**
+     * @return  A number that goes up each time a component's value is changed, through its own setters or this
+     *          circuit's
+     */
+    public long getValueVersion()
+    {
+        return valueVersion;
+    }
+
+    private void fire(CircuitEvent.Type type, Component c, SubcircuitInstance sub)
+    {
+        if (result != null)
+        {
+            result.expire();
+        }
+        if (listeners.size() == 0)
+        {
+            return;
+        }
+        CircuitEvent event = new CircuitEvent(this, type, c, sub);
+        for (CircuitListener listener : new ArrayList<CircuitListener>(listeners))
+        {
+            listener.circuitChanged(event);
+        }
+    }
+
+    /**
+     * @return  Returns a reference to the List of subcircuits placed in the circuit
+     */
+    public List<SubcircuitInstance> getSubcircuits()
+    {
+        return subcircuits;
+    }
+
     /**
      * Removes a component from a specified location within a circuit. This can be used in the process 
      * of desiging a circuit. It also gets used on a copy of the original circuit while identifying independent loops.
@@ -822,10 +1673,15 @@ public class Circuit
     {
         Component c = getComponent(r1, c1, r2, c2);
         components.remove(c);
+        c.setCircuit(null);
         c.setEndPt1(null);
         c.setEndPt2(null);
-        terminals[r1][c1].disconnect(c);
-        terminals[r2][c2].disconnect(c);
+        getTerminal(r1, c1).disconnect(c);
+        getTerminal(r2, c2).disconnect(c);
+        releaseTerminal(getTerminal(r1, c1));
+        releaseTerminal(getTerminal(r2, c2));
+        structuralVersion++;
+        fire(CircuitEvent.Type.COMPONENT_REMOVED, c, null);
     }
 
     /**
@@ -837,9 +1693,14 @@ public class Circuit
     {
         c.getEndPt1().disconnect(c);
         c.getEndPt2().disconnect(c);
+        releaseTerminal(c.getEndPt1());
+        releaseTerminal(c.getEndPt2());
         components.remove(c);
+        c.setCircuit(null);
         c.setEndPt1(null);
         c.setEndPt2(null);
+        structuralVersion++;
+        fire(CircuitEvent.Type.COMPONENT_REMOVED, c, null);
     }
 
     /**
@@ -852,9 +1713,11 @@ public class Circuit
      */
     public Component getComponent(int r1, int c1, int r2, int c2)
     {
-        for (Component c : components)
+        Terminal a = getTerminal(r1, c1);
+        Terminal b = getTerminal(r2, c2);
+        for (Component c : a.getConnections())
         {
-            if ( c.getEndPt1().equals(terminals[r1][c1]) && c.getEndPt2().equals(terminals[r2][c2]) || c.getEndPt2().equals(terminals[r1][c1]) && c.getEndPt1().equals(terminals[r2][c2]) )
+            if ( c.getEndPt1().equals(a) && c.getEndPt2().equals(b) || c.getEndPt2().equals(a) && c.getEndPt1().equals(b) )
             {
                 return c;
             }
@@ -865,11 +1728,148 @@ public class Circuit
     /**
      * @param row  The row of the desired terminal
      * @param col  The column of the desired terminal.
-     * @return  Returns the teminal at the specified location.
+     * @return  Returns the teminal at the specified location. In a sparse circuit, a position with nothing connected
+     *          gives a new Terminal that is not kept.
      */
     public Terminal getTerminal(int row, int col)
     {
-        return terminals[row][col];
+        if (terminalMap == null)
+        {
+            return terminals[row][col];
+        }
+        if (row < 0 || row >= rows || col < 0 || col >= cols)
+        {
+            throw new ArrayIndexOutOfBoundsException("No terminal at (" + col + ", " + row + ")");
+        }
+        Terminal t = terminalMap.get((long)row * cols + col);
+        if (t == null)
+        {
+            return new Terminal(row, col, this);
+        }
+        return t;
+    }
+
+    /**
+     * @return  The terminal at a position, which in a sparse circuit is made and kept if it was not there, since
+     *          something is about to be connected to it
+     */
+    private Terminal useTerminal(int row, int col)
+    {
+        Terminal t = getTerminal(row, col);
+        if (terminalMap != null && terminalMap.get((long)row * cols + col) == null)
+        {
+            terminalMap.put((long)row * cols + col, t);
+            terminalKeys = null;
+        }
+        return t;
+    }
+
+    /**
+     * Drops a terminal from a sparse circuit once nothing is connected to it.
+     */
+    private void releaseTerminal(Terminal t)
+    {
+        if (terminalMap == null || t.numConnections() > 0 || isPort(t))
+        {
+            return;
+        }
+        terminalMap.remove((long)t.getRow() * cols + t.getCol());
+        terminalKeys = null;
+    }
+
+    /**
+     * @return  True if a port of a placed subcircuit is at this terminal
+     */
+    private boolean isPort(Terminal t)
+    {
+        for (SubcircuitInstance sub : subcircuits)
+        {
+            for (int p = 0; p < sub.numPorts(); p++)
+            {
+                if (sub.getPort(p).equals(t))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return  True if the circuit was made sparse, so that its terminals are made only as they are used
+     */
+    public boolean isSparse()
+    {
+        return terminalMap != null;
+    }
+
+    /**
+     * @return  Every terminal with a component or a subcircuit's port connected to it, in order by row and then by
+     *          column. Only the terminals in use are looked at in a sparse circuit.
+     */
+    public List<Terminal> getConnectedTerminals()
+    {
+        List<Terminal> connected = new ArrayList<Terminal>();
+        if (terminalMap != null)
+        {
+            for (long key : getTerminalKeys())
+            {
+                connected.add(terminalMap.get(key));
+            }
+            return connected;
+        }
+        for (int r = 0; r < rows; r++)
+        {
+            for (int c = 0; c < cols; c++)
+            {
+                if (terminals[r][c].numConnections() > 0 || subcircuits.size() > 0 && isPort(terminals[r][c]))
+                {
+                    connected.add(terminals[r][c]);
+                }
+            }
+        }
+        return connected;
+    }
+
+    /**
+     * @return  For a sparse circuit, the key (row * cols + col) of each terminal in use, in increasing order; a terminal's
+     *          place in this array is its index in arrays of potentials. Null for a circuit that is not sparse, whose
+     *          potentials are indexed by row * cols + col. The returned array must not be changed.
+     */
+    public long[] getTerminalKeys()
+    {
+        if (terminalMap == null)
+        {
+            return null;
+        }
+        if (terminalKeys == null)
+        {
+            long[] keys = terminalMap.keys();
+            Arrays.sort(keys);
+            terminalKeys = keys;
+        }
+        return terminalKeys;
+    }
+
+    /**
+     * @return  The index of a terminal in arrays of potentials (see getTerminalKeys()), or -1 if it is not in use in a
+     *          sparse circuit
+     */
+    public int getTerminalIndex(Terminal t)
+    {
+        return Math.max(index(t, getTerminalKeys()), -1);
+    }
+
+    /**
+     * @return  The length of arrays of potentials: rows * cols, or the number of terminals in use in a sparse circuit
+     */
+    public int getNumTerminals()
+    {
+        if (terminalMap == null)
+        {
+            return rows * cols;
+        }
+        return terminalMap.size();
     }
 
     /**
@@ -896,11 +1896,44 @@ public class Circuit
         return numBranches;
     }
 
+    /**
+     * @return  The currents and potentials found by the last solve, which components and terminals read their values
+     *          from; or null if the circuit has not been solved, or the last solve found no solution.
+     */
+    public SolveResult getResult()
+    {
+        return result;
+    }
+
+    /**
+     * Used by SolveCache to put back a stored solution.
+     * @param solved  The currents and potentials to use, with the branches already set to match; or null for none
+     */
+    public void setResult(SolveResult solved)
+    {
+        result = solved;
+        solved();
+    }
+
+    /**
+     * Used by SolveCache when it copies a stored solution back into the circuit.
+     * @param n  The number of branches found by solve()
+     */
+    public void setNumBranches(int n)
+    {
+        numBranches = n;
+    }
+
     /**
      * @return  Returns a reference to the 2D array of terminals in the circuit
+     * @throws UnsupportedOperationException  For a sparse circuit, which has no such array (see getConnectedTerminals())
      */
     public Terminal[][] getTerminals()
     {
+        if (terminalMap != null)
+        {
+            throw new UnsupportedOperationException("A sparse circuit has no array of terminals");
+        }
         return terminals;
     }
 
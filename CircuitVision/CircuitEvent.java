@@ -0,0 +1,107 @@
+
+/**
+ * Describes one change to a Circuit, for its CircuitListeners. Changes to the parts of the circuit (adding or removing
+ * a component or subcircuit) raise its structural version; changes to a component's value (a resistance, a battery's
+ * voltage, which end of a battery or diode is which, a capacitance or an inductance) raise its value version, whether
+ * made with the circuit's setters or the component's own. The event carries both versions as they are just after the
+ * change.
+ */
+public class CircuitEvent
+{
+    /**
+     * The kinds of change. The first four are structural changes, the rest are value changes.
+     */
+    public enum Type
+    {
+        COMPONENT_ADDED, COMPONENT_REMOVED, SUBCIRCUIT_ADDED, SUBCIRCUIT_REMOVED,
+        RESISTANCE_CHANGED, VOLTAGE_CHANGED, BATTERY_FLIPPED, DIODE_FLIPPED, CAPACITANCE_CHANGED, INDUCTANCE_CHANGED
+    }
+
+    private Circuit circuit;
+    private Type type;
+    private Component component;
+    private SubcircuitInstance subcircuit;
+    private long structuralVersion;
+    private long valueVersion;
+
+    /**
+     * @param circ  The circuit that changed
+     * @param kind  What changed
+     * @param comp  The component that was added, removed or changed, or null for a subcircuit change
+     * @param sub  The subcircuit that was added or removed, or null for a component change
+     */
+    public CircuitEvent(Circuit circ, Type kind, Component comp, SubcircuitInstance sub)
+    {
+        circuit = circ;
+        type = kind;
+        component = comp;
+        subcircuit = sub;
+        structuralVersion = circ.getStructuralVersion();
+        valueVersion = circ.getValueVersion();
+    }
+
+    /**
+     * @return  The circuit that changed
+     */
+    public Circuit getCircuit()
+    {
+        return circuit;
+    }
+
+    /**
+     * @return  What changed
+     */
+    public Type getType()
+    {
+        return type;
+    }
+
+    /**
+     * @return  True if a component or subcircuit was added or removed, rather than a value changed
+     */
+    public boolean isStructural()
+    {
+        return type.ordinal() <= Type.SUBCIRCUIT_REMOVED.ordinal();
+    }
+
+    /**
+     * @return  The component that was added, removed or changed, or null if a subcircuit was added or removed. A removed
+     *          component's endpoints have already been set to null.
+     */
+    public Component getComponent()
+    {
+        return component;
+    }
+
+    /**
+     * @return  The subcircuit that was added or removed, or null
+     */
+    public SubcircuitInstance getSubcircuit()
+    {
+        return subcircuit;
+    }
+
+    /**
+     * @return  The circuit's structural version just after the change
+     */
+    public long getStructuralVersion()
+    {
+        return structuralVersion;
+    }
+
+    /**
+     * @return  The circuit's value version just after the change
+     */
+    public long getValueVersion()
+    {
+        return valueVersion;
+    }
+
+    /**
+     * @return  Returns the type of change and the component involved
+     */
+    public String toString()
+    {
+        return type + " " + (component != null ? component.toString() : String.valueOf(subcircuit));
+    }
+}
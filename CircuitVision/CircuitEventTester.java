@@ -0,0 +1,164 @@
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Makes each kind of change to a circuit and checks the events its listeners are told about: one event of the right
+ * type for each change, with the component or subcircuit involved and the circuit's versions just after the change; the
+ * structural version raised only by adds and removes, and the value version only by value changes; and no event (and
+ * no new version) for an add that fails or a battery set to the end that is already positive. A component's own
+ * setters must tell its circuit just as the circuit's setters do (and expire a result still waiting to find its
+ * potentials), but not once it has been removed. Also checks that a listener removed while being told about a change
+ * hears nothing more, while the others still do.
+ */
+public class CircuitEventTester
+{
+    private static int failures;
+    private static int countBefore;     // events heard before the last change
+
+    public static void main(String[] args)
+    {
+        Circuit circ = new Circuit(3, 3);
+        final List<CircuitEvent> heard = new ArrayList<CircuitEvent>();
+        circ.addCircuitListener(new CircuitListener()
+        {
+            public void circuitChanged(CircuitEvent event)
+            {
+                heard.add(event);
+            }
+        });
+
+        Resistor r = new Resistor(10);
+        circ.addComponent(r, 0, 0, 0, 1);
+        check("addComponent", circ, heard, CircuitEvent.Type.COMPONENT_ADDED, r, 1, 0);
+        circ.addComponent(new Resistor(20), 0, 1, 0, 0);
+        check("addComponent where there already is one", circ, heard, null, null, 1, 0);
+        Battery b = new Battery(9);
+        circ.addBattery(b, 0, 1, 1, 1, 0, 1);
+        check("addBattery", circ, heard, CircuitEvent.Type.COMPONENT_ADDED, b, 2, 0);
+        circ.setResistance(r, 30);
+        check("setResistance", circ, heard, CircuitEvent.Type.RESISTANCE_CHANGED, r, 2, 1);
+        circ.setVoltage(b, 6);
+        check("setVoltage", circ, heard, CircuitEvent.Type.VOLTAGE_CHANGED, b, 2, 2);
+        circ.setPosEnd(b, b.getEndPt1());
+        check("setPosEnd to the end already positive", circ, heard, null, null, 2, 2);
+        circ.setPosEnd(b, b.getEndPt2());
+        check("setPosEnd to the other end", circ, heard, CircuitEvent.Type.BATTERY_FLIPPED, b, 2, 3);
+
+        // The components' own setters tell the circuit just the same, and expire a result still waiting for potentials
+        circ.addComponent(new Wire(), 1, 1, 1, 0);
+        circ.addComponent(new Resistor(40), 1, 0, 0, 0);
+        countBefore = heard.size();
+        circ.solve();
+        SolveResult waiting = circ.getResult();
+        boolean lazy = !waiting.hasPotentials();
+        r.setResistance(50);
+        check("Component.setResistance", circ, heard, CircuitEvent.Type.RESISTANCE_CHANGED, r, 4, 4);
+        System.out.println("result waiting for potentials expired by it: " + (lazy && waiting.potentialsLost()));
+        if (!lazy || !waiting.potentialsLost())
+        {
+            failures++;
+        }
+        b.setVoltage(3);
+        check("Battery.setVoltage", circ, heard, CircuitEvent.Type.VOLTAGE_CHANGED, b, 4, 5);
+        b.setPosEnd(b.getEndPt1());
+        check("Battery.setPosEnd", circ, heard, CircuitEvent.Type.BATTERY_FLIPPED, b, 4, 6);
+        Diode d = new Diode();
+        circ.addComponent(d, 2, 2, 1, 2);
+        check("addComponent of a diode", circ, heard, CircuitEvent.Type.COMPONENT_ADDED, d, 5, 6);
+        d.setAnode(d.getEndPt2());
+        check("Diode.setAnode", circ, heard, CircuitEvent.Type.DIODE_FLIPPED, d, 5, 7);
+        Capacitor cap = new Capacitor(1e-6);
+        circ.addComponent(cap, 2, 2, 2, 1);
+        countBefore = heard.size();
+        cap.setCapacitance(2e-6);
+        check("Capacitor.setCapacitance", circ, heard, CircuitEvent.Type.CAPACITANCE_CHANGED, cap, 6, 8);
+        circ.removeComponent(cap);
+        circ.removeComponent(d);
+        circ.removeComponent(1, 1, 1, 0);
+        circ.removeComponent(1, 0, 0, 0);
+        countBefore = heard.size();
+        cap.setCapacitance(3e-6);
+        check("Capacitor.setCapacitance once removed", circ, heard, null, null, 10, 8);
+
+        Circuit inner = new Circuit(1, 2);
+        inner.addComponent(new Resistor(5), 0, 0, 0, 1);
+        SubcircuitDefinition def = new SubcircuitDefinition("resistor", inner, inner.getTerminal(0, 0),
+            inner.getTerminal(0, 1));
+        SubcircuitInstance sub = circ.addSubcircuit(def, new int[] {2, 2}, new int[] {0, 1});
+        check("addSubcircuit", circ, heard, CircuitEvent.Type.SUBCIRCUIT_ADDED, null, 11, 8);
+        boolean rightSubcircuit = heard.get(heard.size() - 1).getSubcircuit() == sub;
+        circ.removeSubcircuit(sub);
+        check("removeSubcircuit", circ, heard, CircuitEvent.Type.SUBCIRCUIT_REMOVED, null, 12, 8);
+        rightSubcircuit &= heard.get(heard.size() - 1).getSubcircuit() == sub;
+        System.out.println("subcircuit events carry the subcircuit: " + rightSubcircuit);
+        if (!rightSubcircuit)
+        {
+            failures++;
+        }
+
+        circ.removeComponent(r);
+        check("removeComponent(Component)", circ, heard, CircuitEvent.Type.COMPONENT_REMOVED, r, 13, 8);
+        circ.removeComponent(0, 1, 1, 1);
+        check("removeComponent(r1, c1, r2, c2)", circ, heard, CircuitEvent.Type.COMPONENT_REMOVED, b, 14, 8);
+        boolean detached = r.getEndPt1() == null && b.getEndPt1() == null;
+        System.out.println("removed components' endpoints already null when heard: " + detached);
+        if (!detached)
+        {
+            failures++;
+        }
+
+        // A listener that removes itself while it is being told about a change
+        final List<CircuitEvent> once = new ArrayList<CircuitEvent>();
+        final Circuit target = circ;
+        circ.addCircuitListener(new CircuitListener()
+        {
+            public void circuitChanged(CircuitEvent event)
+            {
+                once.add(event);
+                target.removeCircuitListener(this);
+            }
+        });
+        circ.addComponent(new Resistor(1), 2, 0, 2, 1);
+        circ.addComponent(new Resistor(2), 2, 1, 2, 2);
+        boolean removedItself = once.size() == 1 && heard.size() == countBefore + 2;
+        System.out.println("listener removed during an event: heard " + once.size() + " of 2 events, the other listener "
+            + (heard.size() - countBefore) + ": " + (removedItself ? "ok" : "WRONG"));
+        if (!removedItself)
+        {
+            failures++;
+        }
+        System.out.println(failures == 0 ? "All events as expected" : failures + " checks failed");
+    }
+
+    /**
+     * Checks that the last change raised the event expected (or none, if type is null) and left the circuit at the
+     * versions given, and prints the result.
+     */
+    private static void check(String change, Circuit circ, List<CircuitEvent> heard, CircuitEvent.Type type,
+        Component comp, long structural, long value)
+    {
+        CircuitEvent last = heard.size() == 0 ? null : heard.get(heard.size() - 1);
+        boolean ok = circ.getStructuralVersion() == structural && circ.getValueVersion() == value;
+        String what;
+        if (type == null)
+        {
+            ok &= heard.size() == countBefore;
+            what = "no event";
+        }
+        else
+        {
+            boolean structuralType = type.ordinal() <= CircuitEvent.Type.SUBCIRCUIT_REMOVED.ordinal();
+            ok &= heard.size() == countBefore + 1 && last.getType() == type && last.getComponent() == comp
+                && last.getCircuit() == circ && last.isStructural() == structuralType
+                && last.getStructuralVersion() == structural && last.getValueVersion() == value;
+            what = last.getType() + " at versions " + last.getStructuralVersion() + "/" + last.getValueVersion();
+        }
+        countBefore = heard.size();
+        System.out.println(change + ": " + what + ", circuit at " + circ.getStructuralVersion() + "/"
+            + circ.getValueVersion() + ": " + (ok ? "ok" : "WRONG"));
+        if (!ok)
+        {
+            failures++;
+        }
+    }
+}
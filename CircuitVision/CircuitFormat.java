@@ -0,0 +1,225 @@
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Reads and writes circuits as plain text, for programs that send circuits to CircuitVision rather than drawing them
+ * (see SolveServer). The first line gives the size of the grid, and each line after it one component, with its two
+ * terminals as row and column:
+ *
+ *     grid 3 3
+ *     B 0 0 2 0 9          battery of 9 V, positive end first
+ *     R 0 0 0 2 100        resistor of 100 ohms
+ *     W 0 2 2 2            wire
+ *     C 2 2 2 0 0.000001   capacitor, in farads
+ *     L 1 1 1 2 0.01       inductor, in henries
+ *     D 1 0 1 1 1e-14 1    diode, anode first, with saturation current and emission coefficient (both optional)
+ *     LED 1 1 2 1 FF00FF00 LED, anode first, with color as hex 0xAARRGGBB (optional)
+ *
+ * Lines may also be separated by semicolons, so a circuit fits on one line. Blank lines and anything after a # are
+ * ignored. Terminals are numbered row * cols + col, as in a CompactCircuit made from a full grid.
+ */
+public class CircuitFormat
+{
+    /**
+     * Reads a circuit.
+     * @throws IllegalArgumentException  If the text is not a circuit, naming the line at fault
+     */
+    public static CompactCircuit parse(String text)
+    {
+        int rows = 0;
+        int cols = 0;
+        List<Byte> kinds = new ArrayList<Byte>();
+        List<Integer> ends = new ArrayList<Integer>();
+        List<Double> values = new ArrayList<Double>();
+        List<Double> emission = new ArrayList<Double>();
+        List<Integer> colors = new ArrayList<Integer>();
+        boolean diodes = false;
+        String[] lines = text.split("[\n;]");
+        for (int i = 0; i < lines.length; i++)
+        {
+            String line = lines[i];
+            int comment = line.indexOf('#');
+            if (comment >= 0)
+            {
+                line = line.substring(0, comment);
+            }
+            line = line.trim();
+            if (line.length() == 0)
+            {
+                continue;
+            }
+            String[] words = line.split("\\s+");
+            try
+            {
+                if (rows == 0)
+                {
+                    if (!words[0].equalsIgnoreCase("grid") || words.length != 3)
+                    {
+                        throw new IllegalArgumentException("expected 'grid rows cols' first");
+                    }
+                    rows = Integer.parseInt(words[1]);
+                    cols = Integer.parseInt(words[2]);
+                    if (rows < 1 || cols < 1 || (long)rows * cols > Integer.MAX_VALUE)
+                    {
+                        throw new IllegalArgumentException("bad grid size");
+                    }
+                    continue;
+                }
+                String type = words[0].toUpperCase();
+                if (words.length < 5)
+                {
+                    throw new IllegalArgumentException("expected a type and two terminals");
+                }
+                int r1 = Integer.parseInt(words[1]);
+                int c1 = Integer.parseInt(words[2]);
+                int r2 = Integer.parseInt(words[3]);
+                int c2 = Integer.parseInt(words[4]);
+                if (r1 < 0 || r1 >= rows || c1 < 0 || c1 >= cols || r2 < 0 || r2 >= rows || c2 < 0 || c2 >= cols)
+                {
+                    throw new IllegalArgumentException("terminal off the grid");
+                }
+                if (r1 == r2 && c1 == c2)
+                {
+                    throw new IllegalArgumentException("both ends at the same terminal");
+                }
+                byte kind;
+                double value = 0;
+                double n = 0;
+                int color = 0;
+                if (type.equals("R"))
+                {
+                    kind = CompactCircuit.RESISTOR;
+                    value = number(words, 5);
+                }
+                else if (type.equals("W"))
+                {
+                    kind = CompactCircuit.WIRE;
+                }
+                else if (type.equals("B"))
+                {
+                    kind = CompactCircuit.BATTERY;
+                    value = number(words, 5);
+                }
+                else if (type.equals("C"))
+                {
+                    kind = CompactCircuit.CAPACITOR;
+                    value = number(words, 5);
+                }
+                else if (type.equals("L"))
+                {
+                    kind = CompactCircuit.INDUCTOR;
+                    value = number(words, 5);
+                }
+                else if (type.equals("D"))
+                {
+                    kind = CompactCircuit.DIODE;
+                    value = words.length > 5 ? number(words, 5) : 1e-14;
+                    n = words.length > 6 ? number(words, 6) : 1;
+                    diodes = true;
+                }
+                else if (type.equals("LED"))
+                {
+                    kind = CompactCircuit.LED;
+                    value = 1e-17;  // as an LED is made
+                    n = 2;
+                    color = words.length > 5 ? (int)Long.parseLong(words[5], 16) : 0xFFFF0000;
+                    diodes = true;
+                }
+                else
+                {
+                    throw new IllegalArgumentException("unknown component type " + words[0]);
+                }
+                kinds.add(kind);
+                ends.add(r1 * cols + c1);
+                ends.add(r2 * cols + c2);
+                values.add(value);
+                emission.add(n);
+                colors.add(color);
+            }
+            catch (NumberFormatException e)
+            {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": bad number in '" + line + "'");
+            }
+            catch (IllegalArgumentException e)
+            {
+                throw new IllegalArgumentException("Line " + (i + 1) + ": " + e.getMessage() + " in '" + line + "'");
+            }
+        }
+        if (rows == 0)
+        {
+            throw new IllegalArgumentException("No 'grid rows cols' line");
+        }
+
+        int m = kinds.size();
+        byte[] kindArray = new byte[m];
+        int[] endArray = new int[2 * m];
+        double[] valueArray = new double[m];
+        double[] emissionArray = diodes ? new double[m] : null;
+        int[] colorArray = diodes ? new int[m] : null;
+        for (int k = 0; k < m; k++)
+        {
+            kindArray[k] = kinds.get(k);
+            endArray[2 * k] = ends.get(2 * k);
+            endArray[2 * k + 1] = ends.get(2 * k + 1);
+            valueArray[k] = values.get(k);
+            if (diodes)
+            {
+                emissionArray[k] = emission.get(k);
+                colorArray[k] = colors.get(k);
+            }
+        }
+        return new CompactCircuit(rows, cols, kindArray, endArray, valueArray, emissionArray, colorArray);
+    }
+
+    /**
+     * Writes a circuit in the form parse() reads, one component per line.
+     */
+    public static String format(CompactCircuit circ)
+    {
+        int cols = circ.getCols();
+        StringBuilder text = new StringBuilder("grid " + circ.getRows() + " " + cols + "\n");
+        for (int k = 0; k < circ.size(); k++)
+        {
+            long a = circ.getTerminalKey(circ.getEnd1(k));
+            long b = circ.getTerminalKey(circ.getEnd2(k));
+            if (circ.isFlipped(k))
+            {
+                // Positive end or anode first
+                long swap = a;
+                a = b;
+                b = swap;
+            }
+            int kind = circ.getKind(k);
+            String[] names = {"R", "W", "B", "C", "L", "D", "LED"};
+            text.append(names[kind]).append(' ').append(a / cols).append(' ').append(a % cols).append(' ')
+                .append(b / cols).append(' ').append(b % cols);
+            if (kind == CompactCircuit.DIODE)
+            {
+                text.append(' ').append(circ.getValue(k)).append(' ').append(circ.getEmissionCoefficient(k));
+            }
+            else if (kind == CompactCircuit.LED)
+            {
+                text.append(' ').append(Integer.toHexString(circ.getColor(k)).toUpperCase());
+            }
+            else if (kind != CompactCircuit.WIRE)
+            {
+                text.append(' ').append(circ.getValue(k));
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return  The number at words[i]
+     * @throws IllegalArgumentException  If there is none
+     */
+    private static double number(String[] words, int i)
+    {
+        if (words.length <= i)
+        {
+            throw new IllegalArgumentException("missing value");
+        }
+        return Double.parseDouble(words[i]);
+    }
+}
@@ -0,0 +1,11 @@
+
+/**
+ * Receives a CircuitEvent each time a Circuit it has been added to is changed (see Circuit.addCircuitListener()).
+ */
+public interface CircuitListener
+{
+    /**
+     * Called just after the change has been made.
+     */
+    void circuitChanged(CircuitEvent event);
+}
@@ -0,0 +1,316 @@
+import java.util.List;
+import java.util.Arrays;
+
+/**
+ * An unchangeable copy of a circuit's parts and its latest solution, for drawing on another thread. The main window
+ * edits and solves its Circuit on its own thread while the animation window draws on another; reading Components
+ * and Terminals directly, the animation could see a circuit halfway through being changed or solved. Instead, the
+ * main window takes a snapshot each time it changes or solves the circuit and publishes it through one
+ * AtomicReference (see CircuitVisionRunner). A reader takes the reference once per frame and then reads only plain
+ * arrays that no one will ever change, so it needs no locks.
+ *
+ * Components are described as in CompactCircuit (a kind, with FLIPPED added if a battery's positive end or a diode's
+ * anode is its second end, and a value), along with their two terminals and their current. Potentials are numbered
+ * like the circuit's terminals (row * cols + col, or for a sparse circuit their place in its sorted terminal keys).
+ */
+public class CircuitSnapshot
+{
+    private final int rows;
+    private final int cols;
+    private final long structuralVersion;
+    private final long valueVersion;
+    private final byte[] kinds;
+    private final int[] ends;           // row and column of endPt1, then of endPt2, for each component
+    private final double[] values;
+    private final double[] currents;    // current from endPt1 to endPt2 of each component; null if not solved
+    private final int[] glow;           // color of each lit LED, 0 for every other component; null if there are no LEDs
+    private final long[] keys;          // sorted keys of the terminals, for a sparse circuit; null for a full grid
+    private final double[] potentials;  // null if not solved
+    private final int[] connected;      // the terminals that have components, in order of row then column
+
+    private CircuitSnapshot(Circuit circ, long structural, long value)
+    {
+        rows = circ.getRows();
+        cols = circ.getCols();
+        structuralVersion = structural;
+        valueVersion = value;
+        List<Component> components = circ.getComponents();
+        int n = components.size();
+        kinds = new byte[n];
+        ends = new int[4 * n];
+        values = new double[n];
+        boolean solved = circ.getResult() != null;
+        currents = solved ? new double[n] : null;
+        int[] lit = null;
+        for (int k = 0; k < n; k++)
+        {
+            Component c = components.get(k);
+            ends[4 * k] = c.getEndPt1().getRow();
+            ends[4 * k + 1] = c.getEndPt1().getCol();
+            ends[4 * k + 2] = c.getEndPt2().getRow();
+            ends[4 * k + 3] = c.getEndPt2().getCol();
+            if (c instanceof Battery)
+            {
+                kinds[k] = CompactCircuit.BATTERY;
+                values[k] = ((Battery)c).getVoltage();
+                if (!c.getEndPt1().equals(((Battery)c).getPosEnd()))
+                {
+                    kinds[k] += CompactCircuit.FLIPPED;
+                }
+            }
+            else if (c instanceof Diode)
+            {
+                kinds[k] = c instanceof LED ? CompactCircuit.LED : CompactCircuit.DIODE;
+                values[k] = ((Diode)c).getSaturationCurrent();
+                if (!c.getEndPt1().equals(((Diode)c).getAnode()))
+                {
+                    kinds[k] += CompactCircuit.FLIPPED;
+                }
+                if (c instanceof LED)
+                {
+                    if (lit == null)
+                    {
+                        lit = new int[n];
+                    }
+                    if (((LED)c).isLit())
+                    {
+                        lit[k] = ((LED)c).getColor();
+                    }
+                }
+            }
+            else if (c instanceof Capacitor)
+            {
+                kinds[k] = CompactCircuit.CAPACITOR;
+                values[k] = ((Capacitor)c).getCapacitance();
+            }
+            else if (c instanceof Inductor)
+            {
+                kinds[k] = CompactCircuit.INDUCTOR;
+                values[k] = ((Inductor)c).getInductance();
+            }
+            else if (c instanceof Wire)
+            {
+                kinds[k] = CompactCircuit.WIRE;
+            }
+            else
+            {
+                kinds[k] = CompactCircuit.RESISTOR;
+                values[k] = c.getResistance();
+            }
+            if (solved)
+            {
+                // getCurrent() is toward currentDirection; keep it from endPt1 to endPt2 instead
+                double current = c.getCurrent();
+                if (c.getCurrentDirection() != null && c.getCurrentDirection().equals(c.getEndPt1()))
+                {
+                    current = -current;
+                }
+                currents[k] = current;
+            }
+        }
+        glow = lit;
+        long[] terminalKeys = circ.getTerminalKeys();
+        keys = terminalKeys == null ? null : terminalKeys.clone();
+        double[] found = solved ? circ.getResult().getPotentials() : null;
+        potentials = found == null ? null : found.clone();
+        List<Terminal> terminals = circ.getConnectedTerminals();
+        int[] used = new int[terminals.size()];
+        int m = 0;
+        for (Terminal t : terminals)
+        {
+            if (t.numConnections() > 0)
+            {
+                used[m] = circ.getTerminalIndex(t);
+                m++;
+            }
+        }
+        connected = Arrays.copyOf(used, m);
+    }
+
+    /**
+     * Takes a snapshot of a circuit as it is now. Must be called on the thread that changes and solves the circuit.
+     */
+    public static CircuitSnapshot of(Circuit circ)
+    {
+        return new CircuitSnapshot(circ, circ.getStructuralVersion(), circ.getValueVersion());
+    }
+
+    /**
+     * Takes a snapshot of a copy of a circuit (solved on another thread, for example), labeled with the versions the
+     * original had when the copy was made.
+     */
+    public static CircuitSnapshot of(Circuit copy, long structuralVersion, long valueVersion)
+    {
+        return new CircuitSnapshot(copy, structuralVersion, valueVersion);
+    }
+
+    public int getRows()
+    {
+        return rows;
+    }
+
+    public int getCols()
+    {
+        return cols;
+    }
+
+    /**
+     * @return  The circuit's structural version when the snapshot was taken
+     */
+    public long getStructuralVersion()
+    {
+        return structuralVersion;
+    }
+
+    /**
+     * @return  The circuit's value version when the snapshot was taken
+     */
+    public long getValueVersion()
+    {
+        return valueVersion;
+    }
+
+    /**
+     * @return  The number of components
+     */
+    public int size()
+    {
+        return kinds.length;
+    }
+
+    /**
+     * @return  The kind of component k, as in CompactCircuit, without FLIPPED
+     */
+    public int getKind(int k)
+    {
+        return kinds[k] & ~CompactCircuit.FLIPPED;
+    }
+
+    /**
+     * @return  True if component k's second end is its positive end (for a battery) or its anode (for a diode)
+     */
+    public boolean isFlipped(int k)
+    {
+        return (kinds[k] & CompactCircuit.FLIPPED) != 0;
+    }
+
+    public int getRow1(int k)
+    {
+        return ends[4 * k];
+    }
+
+    public int getCol1(int k)
+    {
+        return ends[4 * k + 1];
+    }
+
+    public int getRow2(int k)
+    {
+        return ends[4 * k + 2];
+    }
+
+    public int getCol2(int k)
+    {
+        return ends[4 * k + 3];
+    }
+
+    /**
+     * @return  The resistance, voltage, capacitance, inductance or saturation current of component k
+     */
+    public double getValue(int k)
+    {
+        return values[k];
+    }
+
+    /**
+     * @return  True if the circuit had a solution when the snapshot was taken
+     */
+    public boolean isSolved()
+    {
+        return currents != null;
+    }
+
+    /**
+     * @return  The current through component k from its first end to its second (negative if it flows the other way),
+     *          or 0 if there was no solution
+     */
+    public double getCurrent(int k)
+    {
+        return currents == null ? 0 : currents[k];
+    }
+
+    /**
+     * @return  The color of component k if it is a lit LED, otherwise 0
+     */
+    public int getGlow(int k)
+    {
+        return glow == null ? 0 : glow[k];
+    }
+
+    /**
+     * @return  The potential at a terminal, or Double.MAX_VALUE if it is unknown or the terminal is not connected
+     */
+    public double getPotential(int row, int col)
+    {
+        int t = getTerminalIndex(row, col);
+        if (potentials == null || t < 0)
+        {
+            return Double.MAX_VALUE;
+        }
+        return potentials[t];
+    }
+
+    /**
+     * @return  The terminal's number, as the circuit numbered them when the snapshot was taken, or -1 if a sparse circuit
+     *          had nothing there
+     */
+    public int getTerminalIndex(int row, int col)
+    {
+        if (keys == null)
+        {
+            return row * cols + col;
+        }
+        int t = Arrays.binarySearch(keys, (long)row * cols + col);
+        return t < 0 ? -1 : t;
+    }
+
+    /**
+     * @return  The number of terminals that have components connected to them
+     */
+    public int numConnected()
+    {
+        return connected.length;
+    }
+
+    /**
+     * @return  The number (see getTerminalIndex()) of the i-th terminal that has components connected to it
+     */
+    public int getConnected(int i)
+    {
+        return connected[i];
+    }
+
+    /**
+     * @return  The row of a terminal, given its number
+     */
+    public int getTerminalRow(int t)
+    {
+        return (int)((keys == null ? t : keys[t]) / cols);
+    }
+
+    /**
+     * @return  The column of a terminal, given its number
+     */
+    public int getTerminalCol(int t)
+    {
+        return (int)((keys == null ? t : keys[t]) % cols);
+    }
+
+    /**
+     * @return  The potential at a terminal, given its number, or Double.MAX_VALUE if it is unknown
+     */
+    public double getPotentialAt(int t)
+    {
+        return potentials == null ? Double.MAX_VALUE : potentials[t];
+    }
+}
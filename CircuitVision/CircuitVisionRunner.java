@@ -14,6 +14,9 @@
 
 import javax.swing.JOptionPane;
 import java.awt.*;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 import processing.core.*;   // library for the Processing language, developed by Casey Reas and Ben Fry
 // See processing.org for more info
 import controlP5.*; // libary for making buttons (and more); see www.sojamo.de/libraries/controlP5
@@ -28,11 +31,27 @@ import controlP5.*; // libary for making buttons (and more); see www.sojamo.de/l
  * 
  * This class and the "Animation" class use a set of Model classes, that represent the circuit components
  * and solve the circuit to find currents and potentials at each point. These classes include: "Circuit",
- * "Component" (with its sub-classes "Resistor", "Battery", and "Wire") and "Terminal".
+ * "Component" (with its sub-classes "Resistor", "Battery", and "Wire") and "Terminal". A circuit with capacitors or
+ * inductors is also followed through time from the moment it is switched on (see TransientAnalysis), and the
+ * animation replays that instead of standing still at the steady state.
  */
 public class CircuitVisionRunner extends PApplet
 {
     private Circuit circuit;    // holds the circuit model
+    private SolveCache solveCache = new SolveCache(32);   // so flipping the toggles does not solve the same circuit again
+    private SolverService solver;       // solves on its own thread, so the window keeps drawing during a long solve
+    private volatile boolean solveFailed;   // set by the solver's thread when the newest version has no solution
+    private long animatedStructure = -1;    // the circuit's versions when the current Animation was made
+    private long animatedValues = -1;
+    private volatile Replay replay;     // the circuit being animated followed through time, or null if it has no
+                                        // capacitors or inductors
+    private static final int REPLAY_STEPS = 300;    // one per frame: ten seconds at 30 frames a second
+    // The circuit and its latest solution, republished after every change and solve; the schematic and the animation
+    // window (which draws on its own thread) read only this, never the Circuit itself
+    private AtomicReference<CircuitSnapshot> snapshot = new AtomicReference<CircuitSnapshot>();
+    private PersistentCircuit version;  // the circuit as it is now; the versions before and after it are kept for undo
+    private List<PersistentCircuit> undoVersions = new ArrayList<PersistentCircuit>();
+    private List<PersistentCircuit> redoVersions = new ArrayList<PersistentCircuit>();
     private static int terminalRows = 4;
     private static int terminalCols = 4;
     private static int gridX = 200;    // the x and y for the upper left terminal (Dot) on the screen
@@ -41,8 +60,8 @@ public class CircuitVisionRunner extends PApplet
 
     private ControlP5 cp5;
     private boolean windowLocationSet;
-    private boolean newAnimation;
-    private boolean animating;
+    private volatile boolean newAnimation;  // set here, read by the animation window's thread
+    private volatile boolean animating;
     private boolean showVolts;
     private boolean showAmps;
     private int circuitMode;    // 1: add resistor; 2: add wire; 3: add battery; 4: remove component; 0: no mode selected
@@ -94,6 +113,28 @@ public class CircuitVisionRunner extends PApplet
 
         // make new Circuit object
         circuit = new Circuit(terminalRows, terminalCols);
+        version = new PersistentCircuit(terminalRows, terminalCols, false);
+        circuit.addCircuitListener(new CircuitListener()
+        {
+            public void circuitChanged(CircuitEvent event)
+            {
+                if (!event.isStructural())  // a value was changed while the results might be showing
+                {
+                    ((Toggle)cp5.getController("showVolts")).setState(false);
+                    ((Toggle)cp5.getController("showAmps")).setState(false);
+                    ((Toggle)cp5.getController("animateModel")).setState(false);
+                }
+                snapshot.set(CircuitSnapshot.of(circuit));
+        solver = new SolverService(solveCache, new SolverListener()
+        {
+            public void solved(CircuitSnapshot result)
+            {
+                publishSolved(result);
+            }
+        });
+            }
+        });
+        snapshot.set(CircuitSnapshot.of(circuit));
 
         // Initialize dots
         for (int r = 0; r < terminalRows; r++)
@@ -218,6 +259,15 @@ public class CircuitVisionRunner extends PApplet
             frame.setLocation(550, 0);
             windowLocationSet = true;
         }
+        if (solveFailed)    // the solver found a short circuit or no complete circuit
+        {
+            solveFailed = false;
+            animating = false;
+            ((Toggle)cp5.getController("showVolts")).setState(false);
+            ((Toggle)cp5.getController("showAmps")).setState(false);
+            ((Toggle)cp5.getController("animateModel")).setState(false);
+            shortCircuitWarning = true;
+        }
         background(150);
         drawCircuit();
     }
@@ -250,41 +300,25 @@ public class CircuitVisionRunner extends PApplet
             animating = false;
         }
         // Determine two terminals (row and column) that click was between
-        Dot closest = dots[0][0];
-        Dot nextClosest = dots[0][0];
-        float minDist = gridSpacing;
-        float minDist2 = gridSpacing;
-        for (int r = 0; r < terminalRows; r++)
-        {
-            for (int c = 0; c < terminalCols; c++)
-            {
-                float dist = dots[r][c].distanceToMouse();
-                if (dist < minDist)
-                {
-                    nextClosest = closest;
-                    minDist2 = minDist;
-                    closest = dots[r][c];
-                    minDist = dist;
-                }
-                else if (dist < minDist2)
-                {
-                    nextClosest = dots[r][c];
-                    minDist2 = dist;
-                }                
-            }
-        }
-        int r1 = closest.getRow();
-        int c1 = closest.getCol();
-        int r2 = nextClosest.getRow();
-        int c2 = nextClosest.getCol();
-        // Add component to circuit model
-        if (minDist < gridSpacing && minDist2 < gridSpacing)
+        Dot[] nearest = findNearestDots();
+        if (nearest != null)
         {
+            Dot closest = nearest[0];
+            Dot nextClosest = nearest[1];
+            float minDist = closest.distanceToMouse();
+            float minDist2 = nextClosest.distanceToMouse();
+            int r1 = closest.getRow();
+            int c1 = closest.getCol();
+            int r2 = nextClosest.getRow();
+            int c2 = nextClosest.getCol();
+            // Add component to circuit model
             // get component between those terminals (null if none)
             Component c = circuit.getComponent(r1, c1, r2, c2);
+            PersistentCircuit before = version;
             if (c != null && circuitMode == 4)
             {
                 circuit.removeComponent(c);
+                version = version.without(r1, c1, r2, c2);
             }
             else if (c != null)
             {
@@ -305,10 +339,8 @@ public class CircuitVisionRunner extends PApplet
                         }
                         if (r > 0)
                         {
-                            c.setResistance (r);
-                            ((Toggle)cp5.getController("showVolts")).setState(false);
-                            ((Toggle)cp5.getController("showAmps")).setState(false); 
-                            ((Toggle)cp5.getController("animateModel")).setState(false);
+                            circuit.setResistance(c, r);
+                            version = version.with(c);
                         }
                     }
                 }
@@ -331,16 +363,15 @@ public class CircuitVisionRunner extends PApplet
                             }
                             if (v > 0)
                             {
-                                ((Battery)c).setVoltage(v);
-                                ((Toggle)cp5.getController("showVolts")).setState(false);
-                                ((Toggle)cp5.getController("showAmps")).setState(false);   
-                                ((Toggle)cp5.getController("animateModel")).setState(false);
+                                circuit.setVoltage((Battery)c, v);
+                                version = version.with(c);
                             }
                         }
                     }
                     else    // If you click near the end of the battery...
                     {
-                        ((Battery)c).setPosEnd(circuit.getTerminal(r1, c1));    // ...that end becomes the positive terminal
+                        circuit.setPosEnd((Battery)c, circuit.getTerminal(r1, c1));    // ...that end becomes the positive terminal
+                        version = version.with(c);
                     }
                 }
             }
@@ -358,10 +389,148 @@ public class CircuitVisionRunner extends PApplet
                 {
                     circuit.addBattery(new Battery(6), r1, c1, r2, c2, r1, c1);  // pos end is dot closest to click 
                 }
+                c = circuit.getComponent(r1, c1, r2, c2);
+                if (c != null)
+                {
+                    version = version.with(c);
+                }
+            }
+            if (version != before)  // something was changed, so it can be undone
+            {
+                undoVersions.add(before);
+                redoVersions.clear();
+                if (showVolts || showAmps || animating)
+                {
+                    requestSolve();
+                }
             }
         }
     }
 
+    /**
+     * Ctrl-Z (or Z) undoes the last change to the circuit, and Ctrl-Y (or Y) redoes it. Only the components that differ
+     * between the two versions are touched, so the rest of the circuit keeps its Component objects.
+     */
+    public void keyPressed()
+    {
+        if ((key == 'z' || key == 'Z' || key == 26) && !undoVersions.isEmpty())
+        {
+            PersistentCircuit previous = undoVersions.remove(undoVersions.size() - 1);
+            previous.applyTo(circuit, version);
+            redoVersions.add(version);
+            version = previous;
+            if (showVolts || showAmps || animating)
+            {
+                requestSolve();
+            }
+        }
+        else if ((key == 'y' || key == 'Y' || key == 25) && !redoVersions.isEmpty())
+        {
+            PersistentCircuit next = redoVersions.remove(redoVersions.size() - 1);
+            next.applyTo(circuit, version);
+            undoVersions.add(version);
+            version = next;
+            if (showVolts || showAmps || animating)
+            {
+                requestSolve();
+            }
+        }
+    }
+
+    /**
+     * Finds the two Dots nearest the mouse, which are the terminals a click would put a component between.
+     * @return  The closest Dot and the next closest, or null if the mouse is not within gridSpacing of two Dots.
+     */
+    private Dot[] findNearestDots()
+    {
+        Dot closest = dots[0][0];
+        Dot nextClosest = dots[0][0];
+        float minDist = gridSpacing;
+        float minDist2 = gridSpacing;
+        for (int r = 0; r < terminalRows; r++)
+        {
+            for (int c = 0; c < terminalCols; c++)
+            {
+                float dist = dots[r][c].distanceToMouse();
+                if (dist < minDist)
+                {
+                    nextClosest = closest;
+                    minDist2 = minDist;
+                    closest = dots[r][c];
+                    minDist = dist;
+                }
+                else if (dist < minDist2)
+                {
+                    nextClosest = dots[r][c];
+                    minDist2 = dist;
+                }                
+            }
+        }
+        if (minDist < gridSpacing && minDist2 < gridSpacing)
+        {
+            return new Dot[] {closest, nextClosest};
+        }
+        return null;
+    }
+
+    /**
+     * While adding resistors, wires or batteries, shows next to the mouse how much current the new component would
+     * carry if it were clicked into place. Uses the circuit's cached Thevenin equivalents, so no solve is needed as
+     * the mouse moves around.
+     */
+    private void drawPreview()
+    {
+        if (circuitMode < 1 || circuitMode > 3)
+        {
+            return;
+        }
+        Dot[] nearest = findNearestDots();
+        if (nearest == null)
+        {
+            return;
+        }
+        int r1 = nearest[0].getRow();
+        int c1 = nearest[0].getCol();
+        int r2 = nearest[1].getRow();
+        int c2 = nearest[1].getCol();
+        if (circuit.getComponent(r1, c1, r2, c2) != null)
+        {
+            return;
+        }
+        TheveninEquivalent thevenin = circuit.getThevenin(r1, c1, r2, c2);
+        if (thevenin == null)
+        {
+            return;
+        }
+        double current;
+        if (circuitMode == 1)
+        {
+            current = thevenin.currentThroughResistor(10);  // same resistance as a new resistor gets in mouseClicked()
+        }
+        else if (circuitMode == 2)
+        {
+            current = thevenin.currentThroughResistor(0);
+        }
+        else
+        {
+            current = thevenin.currentThroughBattery(6);    // pos end is dot closest to mouse
+        }
+        String label;
+        if (Double.isNaN(current))
+        {
+            label = "Short Circuit!";
+        }
+        else
+        {
+            current = (int)(Math.abs(current) * 10000 + 0.5) / 10000.0;   // 4 decimal places on current
+            label = Double.toString(current) + " A";
+        }
+        fill(255, 255, 0);
+        textSize(10);
+        textAlign(LEFT);
+        text(label, mouseX + 12, mouseY - 6);
+    }
+
     public void resistorMode(boolean on)
     {
         if (on)
@@ -439,19 +608,8 @@ public class CircuitVisionRunner extends PApplet
             ((Toggle)cp5.getController("resistorMode")).setState(false);
             ((Toggle)cp5.getController("batteryMode")).setState(false);
             ((Toggle)cp5.getController("removeMode")).setState(false);
-
-            double[] currents = circuit.solve();
-            if (currents == null)
-            {
-                animating = false;
-                showVolts = false;
-                ((Toggle)cp5.getController("showVolts")).setState(false);
-                shortCircuitWarning = true;
-            }
-            else 
-            {
-                showVolts = true;
-            }
+            showVolts = true;
+            requestSolve();
         }
         else
         {
@@ -468,19 +626,8 @@ public class CircuitVisionRunner extends PApplet
             ((Toggle)cp5.getController("resistorMode")).setState(false);
             ((Toggle)cp5.getController("batteryMode")).setState(false);
             ((Toggle)cp5.getController("removeMode")).setState(false);
-
-            double[] currents = circuit.solve();
-            if (currents == null)
-            {
-                animating = false;
-                showAmps = false;
-                ((Toggle)cp5.getController("showAmps")).setState(false);
-                shortCircuitWarning = true;
-            }
-            else 
-            {
-                showAmps = true;
-            }
+            showAmps = true;
+            requestSolve();
         }
         else
         {
@@ -497,18 +644,13 @@ public class CircuitVisionRunner extends PApplet
             ((Toggle)cp5.getController("resistorMode")).setState(false);
             ((Toggle)cp5.getController("batteryMode")).setState(false);
             ((Toggle)cp5.getController("removeMode")).setState(false);
-            double[] currents = circuit.solve();
-            if (currents == null)
+            if (circuit.getStructuralVersion() != animatedStructure || circuit.getValueVersion() != animatedValues)
             {
-                animating = false;
-                ((Toggle)cp5.getController("animateModel")).setState(false);
-                shortCircuitWarning = true;
-            }
-            else 
-            {
-                newAnimation = true;
-                animating = true;
+                replay = record(circuit);
+                newAnimation = true;    // otherwise the old animation carries on where it left off
             }
+            animating = true;   // the animation window waits for the solution before building the new animation
+            requestSolve();
         }
         else
         {
@@ -516,8 +658,106 @@ public class CircuitVisionRunner extends PApplet
         }
     }
 
+    /**
+     * A transient recording of the circuit, and the versions of the circuit it was made for.
+     */
+    private static class Replay
+    {
+        private long structuralVersion;
+        private long valueVersion;
+        private TransientRecording recording;
+    }
+
+    /**
+     * Follows a circuit with capacitors or inductors from the moment it is switched on, for the animation to replay:
+     * REPLAY_STEPS steps across five of its slowest time constants. A capacitor's time constant is its capacitance
+     * times the resistance it sees (the Thevenin resistance between its ends), and an inductor's is its inductance over
+     * the resistance it sees with it taken out.
+     * @return  The recording, or null if the circuit has neither, or cannot be solved
+     */
+    private static Replay record(Circuit circ)
+    {
+        double slowest = 0;
+        for (Component c : circ.getComponents())
+        {
+            int r1 = c.getEndPt1().getRow();
+            int c1 = c.getEndPt1().getCol();
+            int r2 = c.getEndPt2().getRow();
+            int c2 = c.getEndPt2().getCol();
+            if (c instanceof Capacitor)
+            {
+                TheveninEquivalent seen = circ.getThevenin(r1, c1, r2, c2);
+                if (seen != null)
+                {
+                    slowest = Math.max(slowest, ((Capacitor)c).getCapacitance() * seen.getResistance());
+                }
+            }
+            else if (c instanceof Inductor)
+            {
+                Circuit opened = new Circuit(circ);
+                opened.removeComponent(r1, c1, r2, c2);
+                TheveninEquivalent seen = opened.getThevenin(r1, c1, r2, c2);
+                if (seen != null && seen.getResistance() > 0)
+                {
+                    slowest = Math.max(slowest, ((Inductor)c).getInductance() / seen.getResistance());
+                }
+            }
+        }
+        if (!(slowest > 0) || Double.isInfinite(slowest))
+        {
+            return null;
+        }
+        Replay result = new Replay();
+        result.structuralVersion = circ.getStructuralVersion();
+        result.valueVersion = circ.getValueVersion();
+        result.recording = new TransientRecording();
+        if (!new TransientAnalysis(circ).run(5 * slowest / REPLAY_STEPS, REPLAY_STEPS, result.recording))
+        {
+            return null;
+        }
+        return result;
+    }
+
+    /**
+     * Asks the solver for the circuit as it is now, unless the published snapshot already has its solution. The
+     * solution is published when it is ready (see publishSolved()); until then the schematic shows "Solving...".
+     */
+    private void requestSolve()
+    {
+        CircuitSnapshot shown = snapshot.get();
+        if (!shown.isSolved() || shown.getStructuralVersion() != circuit.getStructuralVersion()
+            || shown.getValueVersion() != circuit.getValueVersion())
+        {
+            solver.submit(version, circuit.getStructuralVersion(), circuit.getValueVersion());
+        }
+    }
+
+    /**
+     * Called on the solver's thread with a new solution. It replaces the published snapshot only if that is still of
+     * the same version of the circuit: if the circuit has been changed since, a newer snapshot (and a newer solve)
+     * is already on its way, and this solution is dropped.
+     */
+    private void publishSolved(CircuitSnapshot result)
+    {
+        CircuitSnapshot shown = snapshot.get();
+        while (shown.getStructuralVersion() == result.getStructuralVersion()
+            && shown.getValueVersion() == result.getValueVersion())
+        {
+            if (snapshot.compareAndSet(shown, result))
+            {
+                if (!result.isSolved())
+                {
+                    solveFailed = true;
+                }
+                return;
+            }
+            shown = snapshot.get();
+        }
+    }
+
     public void drawCircuit()
     {
+        CircuitSnapshot shown = snapshot.get();
         // Draw terminals
         for (int row = 0; row < terminalRows; row++)
         {
@@ -527,22 +767,23 @@ public class CircuitVisionRunner extends PApplet
                 {
                     textAlign(LEFT);
                 }
-                dots[row][col].display(circuit, showVolts);
+                dots[row][col].display(shown, showVolts);
             }
         }
         // Draw Components
-        for (Component c : circuit.getComponents())
+        for (int k = 0; k < shown.size(); k++)
         {
-            int x1 = gridX + c.getEndPt1().getCol() * gridSpacing;
-            int y1 = gridY + c.getEndPt1().getRow() * gridSpacing;
-            int x2 = gridX + c.getEndPt2().getCol() * gridSpacing;
-            int y2 = gridY + c.getEndPt2().getRow() * gridSpacing;
-            if (c instanceof Wire)
+            int kind = shown.getKind(k);
+            int x1 = gridX + shown.getCol1(k) * gridSpacing;
+            int y1 = gridY + shown.getRow1(k) * gridSpacing;
+            int x2 = gridX + shown.getCol2(k) * gridSpacing;
+            int y2 = gridY + shown.getRow2(k) * gridSpacing;
+            if (kind == CompactCircuit.WIRE)
             {
                 stroke(0);
                 line(x1, y1, x2, y2);
             }
-            else if (c instanceof Resistor)
+            else if (kind == CompactCircuit.RESISTOR)
             {
                 if (y1 == y2) // horizontal resistor
                 {
@@ -551,7 +792,7 @@ public class CircuitVisionRunner extends PApplet
                     textAlign(CENTER);
                     textSize(12);
                     fill(0);
-                    text(c.getResistance(), startX + 13, y1 - 10);
+                    text((int)shown.getValue(k), startX + 13, y1 - 10);
 
                     // Draw resistor
                     stroke(0);
@@ -570,7 +811,7 @@ public class CircuitVisionRunner extends PApplet
                     textAlign(RIGHT);
                     textSize(12);
                     fill(0);
-                    text(c.getResistance(), x1 - 8, startY + 17);
+                    text((int)shown.getValue(k), x1 - 8, startY + 17);
                     stroke(0);
                     line(x1, startY, x1 - 5, startY + 3);
                     line(x1 - 5, startY + 3, x1 + 5, startY + 8);
@@ -582,8 +823,10 @@ public class CircuitVisionRunner extends PApplet
                     line(x1, Math.max(y1, y2), x1, startY + 26);                    
                 }
             }
-            else if (c instanceof Battery)
+            else if (kind == CompactCircuit.BATTERY)
             {
+                int posRow = shown.isFlipped(k) ? shown.getRow2(k) : shown.getRow1(k);
+                int posCol = shown.isFlipped(k) ? shown.getCol2(k) : shown.getCol1(k);
                 pushMatrix();
                 // translate to middle of battery and rotate to get pos end on right
                 if (y1 == y2) // horizontal battery
@@ -594,9 +837,9 @@ public class CircuitVisionRunner extends PApplet
                     textAlign(CENTER);
                     textSize(12);
                     fill(0);
-                    text( Double.toString( ((Battery)c).getVoltage() ), 0, -12 );
+                    text( Double.toString(shown.getValue(k)), 0, -12 );
 
-                    if (Math.min(c.getEndPt1().getCol(), c.getEndPt2().getCol()) == ((Battery)c).getPosEnd().getCol())
+                    if (Math.min(shown.getCol1(k), shown.getCol2(k)) == posCol)
                     {
                         rotate(PI);
                     }
@@ -609,9 +852,9 @@ public class CircuitVisionRunner extends PApplet
                     textAlign(RIGHT);
                     textSize(12);
                     fill(0);
-                    text( Double.toString( ((Battery)c).getVoltage() ), -11, 4 );
+                    text( Double.toString(shown.getValue(k)), -11, 4 );
 
-                    if (Math.min(c.getEndPt1().getRow(), c.getEndPt2().getRow()) == ((Battery)c).getPosEnd().getRow())
+                    if (Math.min(shown.getRow1(k), shown.getRow2(k)) == posRow)
                     {
                         rotate(-PI / 2);
                     }
@@ -629,30 +872,20 @@ public class CircuitVisionRunner extends PApplet
                 popMatrix();
             }
             // Show current
-            if (showAmps && Math.abs(c.getCurrent()) > .00000001)
+            if (showAmps && Math.abs(shown.getCurrent(k)) > .00000001)
             {
-                boolean end1Arrow = true;     // arrow end closer to EndPoint1
+                boolean end1Arrow = shown.getCurrent(k) < 0;     // arrow end closer to EndPoint1 (current flows toward it)
                 int biggerEnd2 = 1;   // = -1 if x1 > x2
-                int left = 1;   // if left = -1: arrow points right/down; if left = 1, arrow points left/up
-                if (c.getCurrentDirection().equals(c.getEndPt2()))
-                {
-                    end1Arrow = !end1Arrow;
-                    left *= -1;
-                }
+                int left = end1Arrow ? 1 : -1;   // if left = -1: arrow points right/down; if left = 1, arrow points left/up
                 if (x1 > x2 || y1 > y2)
                 {
                     biggerEnd2 *= -1;
                     left *=-1;
                 }
-                if (c.getCurrent() < 0)
-                {
-                    end1Arrow = !end1Arrow;
-                    left *= -1;
-                }
                 stroke(255);
                 fill(255);
                 textSize(10);
-                double current = Math.abs(c.getCurrent());
+                double current = Math.abs(shown.getCurrent(k));
                 current = (int)(current * 10000 + 0.5) / 10000.0;   // 4 decimal places on current
                 if (y1 == y2)   // a horizontal component
                 {
@@ -692,6 +925,13 @@ public class CircuitVisionRunner extends PApplet
                 }
             }
         }
+        if ((showVolts || showAmps || animating) && !shown.isSolved() && !shortCircuitWarning)
+        {
+            textSize(12);
+            fill(255);
+            textAlign(LEFT);
+            text("Solving...", 20, 30);
+        }
         if (shortCircuitWarning)
         {
             textSize(18);
@@ -699,6 +939,7 @@ public class CircuitVisionRunner extends PApplet
             textAlign(LEFT);
             text("Short Circuit or Incomplete Circuit!", 150, 150);
         }
+        drawPreview();
     }
 
     int win2width = 500;
@@ -734,17 +975,29 @@ public class CircuitVisionRunner extends PApplet
             //background(100);
             if (animating)
             {
-                if (newAnimation)
+                CircuitSnapshot shown = snapshot.get();     // read once, so the whole frame comes from one solution
+                if (newAnimation && shown.isSolved())
                 {
-                    anim = new Animation(this, circuit, gridSpacing, terminalRows, terminalCols, scaleVolts, voltScale, scaleAmps, ampScale, rotationEnabled);
+                    anim = new Animation(this, shown, gridSpacing, terminalRows, terminalCols, scaleVolts, voltScale, scaleAmps, ampScale, rotationEnabled);
+                    Replay recorded = replay;
+                    if (recorded != null && recorded.structuralVersion == shown.getStructuralVersion()
+                        && recorded.valueVersion == shown.getValueVersion())
+                    {
+                        anim.replay(recorded.recording, 1);     // before reading SPEED, which it may rescale
+                    }
                     voltScale = anim.VOLT_SCALE;
                     ampScale = Double.parseDouble(Float.toString(anim.SPEED));  // Necessary to keep the string representation of ampScale the same as anim.SPEED
                     newAnimation = false;
+                    animatedStructure = shown.getStructuralVersion();
+                    animatedValues = shown.getValueVersion();
+                }
+                if (anim != null)
+                {
+                    ortho();
+                    background(100);
+                    fill(255);
+                    anim.displayAnimation();
                 }
-                ortho();
-                background(100);
-                fill(255);
-                anim.displayAnimation();
                 //redraw();
             }
         }
@@ -0,0 +1,485 @@
+import java.util.List;
+import java.util.Arrays;
+
+/**
+ * A circuit stored as a few flat arrays instead of a Component object (and a Terminal object with its own list) for
+ * every part. Component k is described by kinds[k], its two terminals ends[2k] and ends[2k + 1], and values[k].
+ * Terminals are numbered row * cols + col; or, for a copy of a sparse Circuit, by their place in a sorted array of
+ * the keys (row * cols + col) of the terminals in use, so nothing is kept for the empty part of the grid. The
+ * components at each terminal are listed in compressed sparse row form: the components touching terminal t are
+ * adjacent[adjacentStart[t]] up to adjacent[adjacentStart[t + 1] - 1].
+ *
+ * On a large grid of resistors a Circuit takes about 115 bytes per component (the Component, its places in the
+ * components list and in its terminals' lists, and its share of the Terminals); a CompactCircuit takes 27 (25 for
+ * each component and 4 for each terminal). See CompactTester. Reading the arrays in order also keeps the processor's
+ * cache full of useful data, rather than following a pointer to each object. NodalAnalysis, OperatingPoint and KernelCompiler can all work from a CompactCircuit directly, and solve()
+ * uses them to solve it without ever making Component objects.
+ *
+ * Subcircuits are not stored. The arrays are used as given (not copied), so changing values[] (or calling setValue())
+ * changes the circuit.
+ */
+public class CompactCircuit
+{
+    // Kinds of component
+    public static final byte RESISTOR = 0;      // value is the resistance in ohms (0 ohms acts as a wire)
+    public static final byte WIRE = 1;          // value is unused
+    public static final byte BATTERY = 2;       // value is the voltage
+    public static final byte CAPACITOR = 3;     // value is the capacitance in farads
+    public static final byte INDUCTOR = 4;      // value is the inductance in henries
+    public static final byte DIODE = 5;         // value is the saturation current Is in amps
+    public static final byte LED = 6;           // like DIODE
+    // Added to the kind of a battery whose positive end (or a diode whose anode) is the second end, not the first
+    public static final byte FLIPPED = 16;
+
+    private int rows;
+    private int cols;
+    private long[] terminalKeys;    // key of each terminal, for a sparse circuit; null if terminals are row * cols + col
+    private byte[] kinds;
+    private int[] ends;
+    private double[] values;
+    private double[] emission;      // emission coefficient n of each diode; null if there are no diodes
+    private int[] colors;           // color of each LED; null if there are no LEDs
+    private int[] adjacentStart;
+    private int[] adjacent;
+
+    /**
+     * Makes a circuit of linear components (no diodes) from its arrays.
+     * @param numRows  Rows of terminals in the grid
+     * @param numCols  Columns of terminals in the grid
+     * @param kinds  The kind of each component, such as RESISTOR or BATTERY + FLIPPED
+     * @param ends  The terminals of component k at 2k and 2k + 1, numbered row * numCols + col
+     * @param values  The value of each component
+     */
+    public CompactCircuit(int numRows, int numCols, byte[] kinds, int[] ends, double[] values)
+    {
+        this(numRows, numCols, kinds, ends, values, null, null);
+    }
+
+    /**
+     * Makes a circuit from its arrays.
+     * @param emission  The emission coefficient of each diode (other entries are unused), or null if there are none
+     * @param colors  The color of each LED (other entries are unused), or null if there are none
+     */
+    public CompactCircuit(int numRows, int numCols, byte[] kinds, int[] ends, double[] values, double[] emission,
+        int[] colors)
+    {
+        this(numRows, numCols, null, kinds, ends, values, emission, colors);
+    }
+
+    /**
+     * Makes a sparse circuit from its arrays.
+     * @param keys  The key (row * numCols + col) of each terminal in use, in increasing order; ends holds places in this
+     *              array. Null to number the terminals row * numCols + col instead.
+     */
+    public CompactCircuit(int numRows, int numCols, long[] keys, byte[] kinds, int[] ends, double[] values,
+        double[] emission, int[] colors)
+    {
+        rows = numRows;
+        cols = numCols;
+        terminalKeys = keys;
+        this.kinds = kinds;
+        this.ends = ends;
+        this.values = values;
+        this.emission = emission;
+        this.colors = colors;
+        for (int k = 0; k < kinds.length; k++)
+        {
+            int kind = getKind(k);
+            if ((kind == DIODE || kind == LED) && emission == null)
+            {
+                throw new IllegalArgumentException("A diode needs an emission coefficient");
+            }
+        }
+
+        // Count the components at each terminal, turn the counts into starting places, then fill them in
+        int numTerminals = numTerminals();
+        adjacentStart = new int[numTerminals + 1];
+        for (int i = 0; i < ends.length; i++)
+        {
+            adjacentStart[ends[i] + 1]++;
+        }
+        for (int t = 0; t < numTerminals; t++)
+        {
+            adjacentStart[t + 1] += adjacentStart[t];
+        }
+        adjacent = new int[ends.length];
+        int[] next = new int[numTerminals];
+        System.arraycopy(adjacentStart, 0, next, 0, numTerminals);
+        for (int i = 0; i < ends.length; i++)
+        {
+            adjacent[next[ends[i]]] = i / 2;
+            next[ends[i]]++;
+        }
+    }
+
+    /**
+     * Copies the components of a Circuit (in the same order as circ.getComponents()) into a CompactCircuit, numbering
+     * the terminals as circ.getTerminalIndex() does. Any subcircuits placed in circ are left out, but the terminals
+     * their ports connect to are kept.
+     */
+    public static CompactCircuit fromCircuit(Circuit circ)
+    {
+        List<Component> components = circ.getComponents();
+        int n = components.size();
+        int cols = circ.getCols();
+        byte[] kinds = new byte[n];
+        int[] ends = new int[2 * n];
+        double[] values = new double[n];
+        double[] emission = null;
+        int[] colors = null;
+        for (int k = 0; k < n; k++)
+        {
+            Component c = components.get(k);
+            ends[2 * k] = circ.getTerminalIndex(c.getEndPt1());
+            ends[2 * k + 1] = circ.getTerminalIndex(c.getEndPt2());
+            if (c instanceof Battery)
+            {
+                kinds[k] = BATTERY;
+                values[k] = ((Battery)c).getVoltage();
+                if (!c.getEndPt1().equals(((Battery)c).getPosEnd()))
+                {
+                    kinds[k] += FLIPPED;
+                }
+            }
+            else if (c instanceof Diode)
+            {
+                Diode d = (Diode)c;
+                kinds[k] = DIODE;
+                values[k] = d.getSaturationCurrent();
+                if (emission == null)
+                {
+                    emission = new double[n];
+                }
+                emission[k] = d.getEmissionCoefficient();
+                if (c instanceof LED)
+                {
+                    kinds[k] = LED;
+                    if (colors == null)
+                    {
+                        colors = new int[n];
+                    }
+                    colors[k] = ((LED)c).getColor();
+                }
+                if (!c.getEndPt1().equals(d.getAnode()))
+                {
+                    kinds[k] += FLIPPED;
+                }
+            }
+            else if (c instanceof Capacitor)
+            {
+                kinds[k] = CAPACITOR;
+                values[k] = ((Capacitor)c).getCapacitance();
+            }
+            else if (c instanceof Inductor)
+            {
+                kinds[k] = INDUCTOR;
+                values[k] = ((Inductor)c).getInductance();
+            }
+            else if (c instanceof Wire)
+            {
+                kinds[k] = WIRE;
+            }
+            else
+            {
+                kinds[k] = RESISTOR;
+                values[k] = c.getResistance();
+            }
+        }
+        return new CompactCircuit(circ.getRows(), cols, circ.getTerminalKeys(), kinds, ends, values, emission, colors);
+    }
+
+    /**
+     * Makes a Circuit with a Component for each component here, added in the same order. Resistances are rounded to
+     * whole ohms, since Resistor holds an int. The Circuit is sparse if this is a copy of a sparse one.
+     */
+    public Circuit toCircuit()
+    {
+        Circuit circ = new Circuit(rows, cols, terminalKeys != null);
+        for (int k = 0; k < kinds.length; k++)
+        {
+            long a = getTerminalKey(ends[2 * k]);
+            long b = getTerminalKey(ends[2 * k + 1]);
+            int r1 = (int)(a / cols);
+            int c1 = (int)(a % cols);
+            int r2 = (int)(b / cols);
+            int c2 = (int)(b % cols);
+            int kind = getKind(k);
+            if (kind == BATTERY)
+            {
+                if (isFlipped(k))
+                {
+                    circ.addBattery(new Battery(values[k]), r1, c1, r2, c2, r2, c2);
+                }
+                else
+                {
+                    circ.addBattery(new Battery(values[k]), r1, c1, r2, c2, r1, c1);
+                }
+                continue;
+            }
+            Component c;
+            if (kind == DIODE)
+            {
+                c = new Diode(values[k], emission[k]);
+            }
+            else if (kind == LED)
+            {
+                c = new LED(colors == null ? 0xFFFF0000 : colors[k]);
+            }
+            else if (kind == CAPACITOR)
+            {
+                c = new Capacitor(values[k]);
+            }
+            else if (kind == INDUCTOR)
+            {
+                c = new Inductor(values[k]);
+            }
+            else if (kind == WIRE)
+            {
+                c = new Wire();
+            }
+            else
+            {
+                c = new Resistor((int)Math.round(values[k]));
+            }
+            circ.addComponent(c, r1, c1, r2, c2);
+            if (isFlipped(k))
+            {
+                ((Diode)c).setAnode(circ.getTerminal(r2, c2));
+            }
+        }
+        return circ;
+    }
+
+    /**
+     * Solves the circuit: with NodalAnalysis if it is linear, or OperatingPoint if it has diodes.
+     * @return  The currents and potentials, or null for a short circuit or if the diodes do not converge. The
+     *          "branches" of the result are the components: getCurrent(k) is the current through component k from
+     *          its first end to its second.
+     */
+    public SolveResult solve()
+    {
+        double[] currents = new double[kinds.length];
+        double[] potentials;
+        if (emission != null)
+        {
+            OperatingPoint op = new OperatingPoint(this);
+            if (op.solve() == null)
+            {
+                return null;
+            }
+            for (int k = 0; k < currents.length; k++)
+            {
+                currents[k] = op.getCurrent(k);
+            }
+            potentials = op.getPotentials();
+        }
+        else
+        {
+            NodalAnalysis analysis = new NodalAnalysis(this);
+            double[] x = analysis.solve(values);
+            if (x == null)
+            {
+                return null;
+            }
+            for (int k = 0; k < currents.length; k++)
+            {
+                currents[k] = analysis.getCurrent(x, values, k);
+            }
+            potentials = analysis.getPotentials(x);
+        }
+        return new SolveResult(currents, terminalKeys, potentials, cols);
+    }
+
+    /**
+     * @return  The number of components
+     */
+    public int size()
+    {
+        return kinds.length;
+    }
+
+    public int getRows()
+    {
+        return rows;
+    }
+
+    public int getCols()
+    {
+        return cols;
+    }
+
+    /**
+     * @return  The number of terminals: rows * cols, or the number in use for a copy of a sparse circuit
+     */
+    public int numTerminals()
+    {
+        if (terminalKeys == null)
+        {
+            return rows * cols;
+        }
+        return terminalKeys.length;
+    }
+
+    /**
+     * @return  The keys of the terminals (row * cols + col) in increasing order, for a copy of a sparse circuit; or
+     *          null if terminal t is simply at row t / cols and column t % cols
+     */
+    public long[] getTerminalKeys()
+    {
+        return terminalKeys;
+    }
+
+    /**
+     * @return  The key (row * cols + col) of terminal t
+     */
+    public long getTerminalKey(int t)
+    {
+        if (terminalKeys == null)
+        {
+            return t;
+        }
+        return terminalKeys[t];
+    }
+
+    /**
+     * @return  The number of the terminal at a position, or -1 if a sparse circuit has no terminal there
+     */
+    public int terminalIndex(int row, int col)
+    {
+        if (terminalKeys == null)
+        {
+            return row * cols + col;
+        }
+        return Math.max(Arrays.binarySearch(terminalKeys, (long)row * cols + col), -1);
+    }
+
+    /**
+     * @return  The kind of component k, such as RESISTOR, without FLIPPED
+     */
+    public int getKind(int k)
+    {
+        return kinds[k] & ~FLIPPED;
+    }
+
+    /**
+     * @return  True if component k is a battery whose positive end is its second end, or a diode whose anode is
+     */
+    public boolean isFlipped(int k)
+    {
+        return (kinds[k] & FLIPPED) != 0;
+    }
+
+    /**
+     * @return  True for diodes and LEDs
+     */
+    public boolean isDiode(int k)
+    {
+        return getKind(k) == DIODE || getKind(k) == LED;
+    }
+
+    /**
+     * @return  The terminal at the first end of component k
+     */
+    public int getEnd1(int k)
+    {
+        return ends[2 * k];
+    }
+
+    /**
+     * @return  The terminal at the second end of component k
+     */
+    public int getEnd2(int k)
+    {
+        return ends[2 * k + 1];
+    }
+
+    public double getValue(int k)
+    {
+        return values[k];
+    }
+
+    public void setValue(int k, double value)
+    {
+        values[k] = value;
+    }
+
+    /**
+     * @return  A copy of every component's value, in the layout NodalAnalysis.getValues() uses
+     */
+    public double[] getValues()
+    {
+        return values.clone();
+    }
+
+    /**
+     * @return  The emission coefficient of diode k
+     */
+    public double getEmissionCoefficient(int k)
+    {
+        return emission[k];
+    }
+
+    /**
+     * @return  The color of LED k, as 0xAARRGGBB
+     */
+    public int getColor(int k)
+    {
+        return colors == null ? 0xFFFF0000 : colors[k];
+    }
+
+    /**
+     * @return  True if any component is a diode or LED
+     */
+    public boolean hasDiodes()
+    {
+        return emission != null;
+    }
+
+    /**
+     * @param t  A terminal
+     * @return  The number of components connected to it
+     */
+    public int numConnections(int t)
+    {
+        return adjacentStart[t + 1] - adjacentStart[t];
+    }
+
+    /**
+     * @param t  A terminal
+     * @param i  Which of its components, from 0 to numConnections(t) - 1
+     * @return  The index of the i'th component connected to the terminal
+     */
+    public int getConnection(int t, int i)
+    {
+        return adjacent[adjacentStart[t] + i];
+    }
+
+    /**
+     * @return  The terminal at the other end of component k from terminal t
+     */
+    public int otherEnd(int k, int t)
+    {
+        return ends[2 * k] == t ? ends[2 * k + 1] : ends[2 * k];
+    }
+
+    /**
+     * @return  The number of bytes taken by the arrays (not counting the few bytes of each array's header)
+     */
+    public long bytesUsed()
+    {
+        long bytes = kinds.length + 4L * ends.length + 8L * values.length + 4L * adjacentStart.length + 4L * adjacent.length;
+        if (emission != null)
+        {
+            bytes += 8L * emission.length;
+        }
+        if (colors != null)
+        {
+            bytes += 4L * colors.length;
+        }
+        if (terminalKeys != null)
+        {
+            bytes += 8L * terminalKeys.length;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that a CompactCircuit solves the same as the Circuit it was copied from, that it can be copied back, and
+ * measures how much memory each form takes per component on a large grid of resistors.
+ * Run with the grid size as an argument (default 300, about 180,000 components).
+ */
+public class CompactTester
+{
+    public static void main(String[] args)
+    {
+        // A small circuit with one of each kind of component, solved both ways
+        Circuit small = new Circuit(4, 4);
+        small.addComponent(new Resistor(100), 0, 0, 0, 1);
+        small.addComponent(new Resistor(220), 0, 1, 1, 1);
+        small.addComponent(new Wire(), 1, 1, 1, 0);
+        small.addBattery(new Battery(9), 1, 0, 0, 0, 0, 0);
+        small.addComponent(new Capacitor(1e-6), 0, 1, 0, 2);
+        small.addComponent(new Inductor(1e-3), 0, 2, 1, 2);
+        small.addComponent(new Resistor(330), 1, 2, 1, 1);
+        small.addComponent(new Resistor(470), 2, 0, 2, 1);
+        small.addComponent(new Diode(), 2, 1, 2, 2);
+        small.addComponent(new LED(0xFF00FF00), 3, 2, 2, 2);
+        small.addComponent(new Resistor(100), 3, 2, 3, 1);
+        small.addBattery(new Battery(5), 3, 1, 2, 0, 3, 1);
+        SolveResult result = CompactCircuit.fromCircuit(small).solve();
+        OperatingPoint op = new OperatingPoint(small);
+        op.solve();
+        double worst = 0;
+        for (int k = 0; k < small.getComponents().size(); k++)
+        {
+            worst = Math.max(worst, Math.abs(result.getCurrent(k) - op.getCurrent(k)));
+        }
+        System.out.println("Circuit with diodes: largest difference in current from OperatingPoint on the Circuit " + worst);
+
+        // Copying back and forth gives the same arrays
+        CompactCircuit compact = CompactCircuit.fromCircuit(small);
+        CompactCircuit again = CompactCircuit.fromCircuit(compact.toCircuit());
+        boolean same = again.size() == compact.size();
+        for (int k = 0; k < compact.size() && same; k++)
+        {
+            same = again.getKind(k) == compact.getKind(k) && again.isFlipped(k) == compact.isFlipped(k)
+                && again.getEnd1(k) == compact.getEnd1(k) && again.getEnd2(k) == compact.getEnd2(k)
+                && again.getValue(k) == compact.getValue(k);
+        }
+        System.out.println("Copied to a Circuit and back unchanged: " + same);
+
+        // Adjacency agrees with the terminals' connection lists
+        boolean adjacency = true;
+        for (int t = 0; t < small.getRows() * small.getCols(); t++)
+        {
+            Terminal terminal = small.getTerminal(t / small.getCols(), t % small.getCols());
+            adjacency &= compact.numConnections(t) == terminal.numConnections();
+            for (int i = 0; i < compact.numConnections(t); i++)
+            {
+                adjacency &= terminal.connectedTo(small.getComponents().get(compact.getConnection(t, i)));
+            }
+        }
+        System.out.println("Adjacency matches the terminals: " + adjacency);
+
+        // A kernel compiled from either form is the same one
+        Circuit linear = new Circuit(3, 3);
+        linear.addComponent(new Resistor(10), 0, 0, 0, 1);
+        linear.addComponent(new Resistor(20), 0, 1, 1, 1);
+        linear.addComponent(new Resistor(30), 1, 1, 1, 0);
+        linear.addBattery(new Battery(6), 1, 0, 0, 0, 1, 0);
+        check("Resistor circuit", linear);
+        KernelCompiler compiler = new KernelCompiler();
+        compiler.setUseCompiler(false);
+        SolveKernel fromCircuit = compiler.compile(linear);
+        CompactCircuit compactLinear = CompactCircuit.fromCircuit(linear);
+        SolveKernel fromCompact = compiler.compile(compactLinear);
+        double[] x = fromCompact.solve(compactLinear.getValues());
+        System.out.println("Kernel shared: " + (fromCircuit == fromCompact) + "; battery current "
+            + fromCompact.getAnalysis().getCurrent(x, compactLinear.getValues(), 3) + " A (expect -0.1)");
+
+        // Memory per component on a large grid
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        Random random = new Random(size);
+        long before = usedMemory();
+        Circuit grid = new Circuit(size, size);
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                if (c + 1 < size)
+                {
+                    grid.addComponent(new Resistor(1 + random.nextInt(1000)), r, c, r, c + 1);
+                }
+                if (r + 1 < size)
+                {
+                    grid.addComponent(new Resistor(1 + random.nextInt(1000)), r, c, r + 1, c);
+                }
+            }
+        }
+        long circuitBytes = usedMemory() - before;
+        int n = grid.getComponents().size();
+        before = usedMemory();
+        CompactCircuit compactGrid = CompactCircuit.fromCircuit(grid);
+        long compactBytes = usedMemory() - before;
+        System.out.println(size + " x " + size + " grid, " + n + " components:");
+        System.out.println("   Circuit " + circuitBytes / n + " bytes per component; CompactCircuit " + compactBytes / n
+            + " bytes per component (" + compactGrid.bytesUsed() / n + " in its arrays)");
+        System.out.println("   " + Math.round(10.0 * circuitBytes / compactBytes) / 10.0 + " times smaller");
+        if (grid.getComponents().size() != compactGrid.size())
+        {
+            System.out.println("Lost components!");
+        }
+    }
+
+    /**
+     * Solves a linear circuit through Circuit.solve() and through a copy of it as a CompactCircuit, and prints the
+     * largest difference in component currents and potentials.
+     */
+    private static void check(String name, Circuit circ)
+    {
+        CompactCircuit compact = CompactCircuit.fromCircuit(circ);
+        SolveResult result = compact.solve();
+        circ.solve();
+        double worst = 0;
+        List<Component> components = circ.getComponents();
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            double current = c.getCurrent();    // toward currentDirection
+            if (c.getCurrentDirection() != null && c.getCurrentDirection().equals(c.getEndPt1()))
+            {
+                current = -current;
+            }
+            worst = Math.max(worst, Math.abs(result.getCurrent(k) - current));
+        }
+        for (int r = 0; r < circ.getRows(); r++)
+        {
+            for (int c = 0; c < circ.getCols(); c++)
+            {
+                if (circ.getTerminal(r, c).numConnections() > 0)
+                {
+                    worst = Math.max(worst, Math.abs(result.getPotential(r, c) - circ.getTerminal(r, c).getPotential()));
+                }
+            }
+        }
+        System.out.println(name + ": largest difference from Circuit.solve() " + worst);
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
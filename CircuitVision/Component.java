@@ -12,6 +12,7 @@ abstract public class Component
     protected int branch;
     protected Terminal currentDirection;    // this will equal either endPt1 or endPt2. Current flows from 
                                             // the other end, through component, and toward this terminal.
+    private Circuit circuit;                // the circuit this component has been added to, or null
 
     /**
      * This constructor is called by all Component supclasses. When a component is added to a circuit,
@@ -69,15 +70,29 @@ abstract public class Component
     }
 
     /**
-     *  Sets a component's resistance. Used as components are added to a circuit.
+     *  Sets a component's resistance, and tells the circuit it is in (if any), as Circuit.setResistance() does.
      */
     public void setResistance(int r)
     {
         resistance = r;
+        changed(CircuitEvent.Type.RESISTANCE_CHANGED);
+    }
+
+    /**
+     * Called by the setters for the component's values, so that the circuit it is in raises its value version, forgets
+     * anything worked out from the old value, and tells its listeners.
+     */
+    protected void changed(CircuitEvent.Type type)
+    {
+        if (circuit != null)
+        {
+            circuit.componentChanged(this, type);
+        }
     }
     
     /**
-     * After a circuit has been solved, this method is used to update the components' currents.
+     * Sets the component's current, for a component that is not in a circuit or whose circuit has no solution yet.
+     * Once its circuit has been solved, the current is read from the circuit's SolveResult instead.
      */
     public void setCurrent(double i)
     {
@@ -85,13 +100,27 @@ abstract public class Component
     }
 
     /**
-     * @return  Returns the current passing through the component, as determined by solve().
+     * @return  Returns the current passing through the component, as determined by solve(): the current in its branch
+     *          of the circuit's latest SolveResult.
      */
     public double getCurrent()
     {
+        if (circuit != null && circuit.getResult() != null)
+        {
+            return circuit.getResult().getCurrent(branch);
+        }
         return current;
     }
 
+    /**
+     * Called by the circuit's addComponent() and removeComponent() methods.
+     * @param circ  The circuit the component is now part of, or null
+     */
+    public void setCircuit(Circuit circ)
+    {
+        circuit = circ;
+    }
+
     /**
      * Called by labelBranches() as part of the solve() method. The branch number corresponds to a current
      * variable: currents[branch].
@@ -131,7 +160,8 @@ abstract public class Component
 
     /**
      * @return true if both "this" component and "other" are connected between the same terminals,
-     * are both the same component sub-class, and have same value for Resistance or Voltage (if a battery).
+     * are both the same component sub-class, and have same value for Resistance, Voltage (if a battery), Capacitance or
+     * Inductance.
      */
     public boolean equals(Component other)
     {
@@ -153,6 +183,18 @@ abstract public class Component
             {
                 return true;
             }
+            else if (this instanceof Capacitor && other instanceof Capacitor && ((Capacitor)this).getCapacitance() == ((Capacitor)other).getCapacitance())
+            {
+                return true;
+            }
+            else if (this instanceof Inductor && other instanceof Inductor && ((Inductor)this).getInductance() == ((Inductor)other).getInductance())
+            {
+                return true;
+            }
+            else if (this instanceof Diode && other instanceof Diode && this.getClass() == other.getClass() && ((Diode)this).getAnode().equals( ((Diode)other).getAnode() ))
+            {
+                return true;
+            }
         }
         return false;
     }
@@ -0,0 +1,120 @@
+
+/**
+ * Diodes let current flow easily from the anode to the cathode, but hardly at all the other way. The current follows
+ * the Shockley equation, I = Is (e^(V / nVt) - 1), so a circuit containing a diode is solved by OperatingPoint rather
+ * than by a single set of linear equations.
+ */
+public class Diode extends Component
+{
+    public static final double THERMAL_VOLTAGE = 0.02585;   // kT/q at room temperature, in volts
+
+    private Terminal anode;
+    private double saturationCurrent;   // Is, in amps
+    private double emissionCoefficient; // n, between 1 and 2
+
+    /**
+     * Constructs a silicon diode (about 0.65 V drop at 1 mA).
+     */
+    public Diode()
+    {
+        this(1e-14, 1);
+    }
+
+    /**
+     * Constructs a diode with the given Shockley equation parameters.
+     * @param is  Saturation current, in amps
+     * @param n  Emission coefficient
+     */
+    public Diode(double is, double n)
+    {
+        super();
+        saturationCurrent = is;
+        emissionCoefficient = n;
+    }
+
+    /**
+     * Mutator to set which end of the diode is the anode. Current flows easily from the anode to the other end. If that
+     * turns the diode around, the circuit it is in is told.
+     * @param anodeTerminal  The Terminal connected to the anode.
+     */
+    public void setAnode(Terminal anodeTerminal)
+    {
+        boolean flipped = anode != null && !anode.equals(anodeTerminal);
+        anode = anodeTerminal;
+        if (flipped)
+        {
+            changed(CircuitEvent.Type.DIODE_FLIPPED);
+        }
+    }
+
+    /**
+     * @return  The Terminal connected to the anode
+     */
+    public Terminal getAnode()
+    {
+        return anode;
+    }
+
+    /**
+     * @return  The saturation current, Is
+     */
+    public double getSaturationCurrent()
+    {
+        return saturationCurrent;
+    }
+
+    /**
+     * @return  The emission coefficient, n
+     */
+    public double getEmissionCoefficient()
+    {
+        return emissionCoefficient;
+    }
+
+    /**
+     * @param v  Voltage from anode to cathode
+     * @return  Current from anode to cathode
+     */
+    public double currentAt(double v)
+    {
+        return currentAt(saturationCurrent, emissionCoefficient, v);
+    }
+
+    /**
+     * The Shockley equation, for a diode that is not a Diode object (as in a CompactCircuit).
+     * @param is  Saturation current, in amps
+     * @param n  Emission coefficient
+     * @param v  Voltage from anode to cathode
+     * @return  Current from anode to cathode
+     */
+    public static double currentAt(double is, double n, double v)
+    {
+        return is * (Math.exp(v / (n * THERMAL_VOLTAGE)) - 1);
+    }
+
+    /**
+     * @param v  Voltage from anode to cathode
+     * @return  The slope of the current-voltage curve (the diode's small-signal conductance) at voltage v
+     */
+    public double conductanceAt(double v)
+    {
+        return conductanceAt(saturationCurrent, emissionCoefficient, v);
+    }
+
+    /**
+     * @return  The small-signal conductance at voltage v of a diode with saturation current is and emission coefficient n
+     */
+    public static double conductanceAt(double is, double n, double v)
+    {
+        double nVt = n * THERMAL_VOLTAGE;
+        return is / nVt * Math.exp(v / nVt);
+    }
+
+    /**
+     * @return  Returns the Component's toString() with the diode's anode appended
+     */
+    public String toString()
+    {
+        return super.toString() + "Diode  Anode " + getAnode() + "\t";
+    }
+}
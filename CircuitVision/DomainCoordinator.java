@@ -0,0 +1,478 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import org.apache.commons.math3.linear.*;
+
+/**
+ * Solves lattice circuits too large for one JVM by domain decomposition. The grid of terminals is cut into strips of
+ * rows, one per worker (see DomainWorker); each worker runs in a JVM of its own on this machine and is reached over a
+ * local socket. The equations are the same as NodalAnalysis writes: a potential for each terminal, a current for each
+ * wire, battery and inductor, capacitors as GMIN, and the first terminal of each separate piece of the circuit held at
+ * 0 V.
+ *
+ * The interface is the terminals the coordinator solves for itself: the ends of every wire, battery and inductor (so
+ * no source is inside a strip), the reference terminal of each piece, and for each resistor that crosses from one strip
+ * to another, its end in the later strip. Every other terminal is in the interior of its strip, and every resistor with
+ * an interior end belongs to that strip. Each worker is sent its strip's resistors and replies with the Schur
+ * complement of its interior, the conductances its strip presents between the interface terminals it touches. The
+ * coordinator adds these up, along with the resistors between two interface terminals and the sources, and solves the
+ * much smaller interface system. Then each worker is sent its interface potentials and replies with its interior ones.
+ * For an n x n mesh cut into p strips, the interface has about (p - 1) n terminals, and each worker factors about
+ * n^2 / p terminals with a skyline about n / p wide.
+ *
+ * Workers can also run on threads of this JVM (still talking over sockets), to try the decomposition without
+ * starting processes.
+ */
+public class DomainCoordinator
+{
+    private ServerSocket server;
+    private List<Socket> sockets;
+    private List<DataInputStream> ins;
+    private List<DataOutputStream> outs;
+    private List<Process> processes;
+    private int numWorkers;
+
+    // Guarded by this
+    private int interfaceSize;
+    private long workerNanos;
+    private long interfaceNanos;
+
+    /**
+     * Starts the workers and waits for each to connect.
+     * @param workers  The number of workers, and strips to cut the grid into
+     * @param separateJvms  True to start each worker as a process running DomainWorker.main(), with the same java and
+     *                      class path as this JVM; false to run them on threads here
+     * @throws IOException  If a worker cannot be started or does not connect within a minute
+     */
+    public DomainCoordinator(int workers, boolean separateJvms) throws IOException
+    {
+        numWorkers = Math.max(workers, 1);
+        server = new ServerSocket(0, numWorkers, InetAddress.getLoopbackAddress());
+        server.setSoTimeout(60000);
+        final int port = server.getLocalPort();
+        processes = new ArrayList<Process>();
+        for (int w = 0; w < numWorkers; w++)
+        {
+            if (separateJvms)
+            {
+                String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+                ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "DomainWorker", InetAddress.getLoopbackAddress().getHostAddress(), "" + port);
+                builder.inheritIO();
+                processes.add(builder.start());
+            }
+            else
+            {
+                Thread t = new Thread(new Runnable()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            DomainWorker.serve(new Socket(InetAddress.getLoopbackAddress(), port));
+                        }
+                        catch (IOException e)
+                        {
+                            e.printStackTrace();
+                        }
+                    }
+                }, "Domain worker " + (w + 1));
+                t.setDaemon(true);
+                t.start();
+            }
+        }
+        sockets = new ArrayList<Socket>();
+        ins = new ArrayList<DataInputStream>();
+        outs = new ArrayList<DataOutputStream>();
+        try
+        {
+            for (int w = 0; w < numWorkers; w++)
+            {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                sockets.add(socket);
+                ins.add(new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16)));
+                outs.add(new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16)));
+            }
+        }
+        catch (IOException e)
+        {
+            shutdown();
+            throw e;
+        }
+    }
+
+    /**
+     * Solves a circuit of resistors, capacitors, wires, batteries and inductors.
+     * @return  The current through each component from its first end to its second, and the potential at each
+     *          terminal, shifted so the lowest in each piece of the circuit is 0 V, as CompactCircuit.solve() gives
+     *          them; or null for a short circuit
+     * @throws IllegalArgumentException  If the circuit has diodes
+     * @throws IOException  If a worker cannot be reached
+     */
+    public synchronized SolveResult solve(CompactCircuit circ) throws IOException
+    {
+        if (circ.hasDiodes())
+        {
+            throw new IllegalArgumentException("Circuits with diodes cannot be solved by domain decomposition");
+        }
+        int numTerminals = circ.numTerminals();
+        int n = circ.size();
+        int rows = circ.getRows();
+        int cols = circ.getCols();
+
+        // The separate pieces, each with its first terminal as the reference, as in NodalAnalysis
+        int[] parent = new int[numTerminals];
+        for (int t = 0; t < numTerminals; t++)
+        {
+            parent[t] = t;
+        }
+        for (int k = 0; k < n; k++)
+        {
+            int a = find(parent, circ.getEnd1(k));
+            int b = find(parent, circ.getEnd2(k));
+            parent[Math.max(a, b)] = Math.min(a, b);
+        }
+
+        // The strip of each terminal, and the interface
+        int[] strip = new int[numTerminals];
+        boolean[] onInterface = new boolean[numTerminals];
+        for (int t = 0; t < numTerminals; t++)
+        {
+            strip[t] = (int)(circ.getTerminalKey(t) / cols * numWorkers / rows);
+            onInterface[t] = circ.numConnections(t) > 0 && find(parent, t) == t;
+        }
+        boolean[] isSource = new boolean[n];
+        for (int k = 0; k < n; k++)
+        {
+            int a = circ.getEnd1(k);
+            int b = circ.getEnd2(k);
+            int kind = circ.getKind(k);
+            isSource[k] = kind == CompactCircuit.RESISTOR ? circ.getValue(k) == 0 : kind != CompactCircuit.CAPACITOR;
+            if (isSource[k])
+            {
+                onInterface[a] = true;
+                onInterface[b] = true;
+            }
+            else if (strip[a] != strip[b])
+            {
+                onInterface[strip[a] > strip[b] ? a : b] = true;
+            }
+        }
+
+        // Number the interface unknowns (the references are held at 0 V), then the source currents
+        int[] unknown = new int[numTerminals];
+        int m = 0;
+        for (int t = 0; t < numTerminals; t++)
+        {
+            unknown[t] = -1;
+            if (onInterface[t] && find(parent, t) != t)
+            {
+                unknown[t] = m;
+                m++;
+            }
+        }
+        int[] sourceRow = new int[n];
+        for (int k = 0; k < n; k++)
+        {
+            sourceRow[k] = isSource[k] ? m++ : -1;
+        }
+        double[][] matrix = new double[m][m];
+        double[] constants = new double[m];
+
+        // Hand each strip's resistors to its worker, numbered locally: interior terminals, then boundary ones
+        long start = System.nanoTime();
+        int[] owner = new int[n];
+        for (int k = 0; k < n; k++)
+        {
+            int a = circ.getEnd1(k);
+            int b = circ.getEnd2(k);
+            owner[k] = isSource[k] ? -1 : !onInterface[a] ? strip[a] : !onInterface[b] ? strip[b] : -1;
+        }
+        int[] local = new int[numTerminals];
+        int[] localOwner = new int[numTerminals];   // the worker whose numbering local[t] is, plus 1
+        List<int[]> interior = new ArrayList<int[]>();
+        List<int[]> boundary = new ArrayList<int[]>();
+        for (int w = 0; w < numWorkers; w++)
+        {
+            List<Integer> interiorTerminals = new ArrayList<Integer>();
+            List<Integer> boundaryTerminals = new ArrayList<Integer>();
+            List<Integer> owned = new ArrayList<Integer>();
+            for (int k = 0; k < n; k++)
+            {
+                if (owner[k] == w)
+                {
+                    owned.add(k);
+                    int[] ends = {circ.getEnd1(k), circ.getEnd2(k)};
+                    for (int t : ends)
+                    {
+                        if (localOwner[t] != w + 1)
+                        {
+                            localOwner[t] = w + 1;
+                            if (onInterface[t])
+                            {
+                                local[t] = -1 - boundaryTerminals.size();   // made nI + p once nI is known
+                                boundaryTerminals.add(t);
+                            }
+                            else
+                            {
+                                local[t] = interiorTerminals.size();
+                                interiorTerminals.add(t);
+                            }
+                        }
+                    }
+                }
+            }
+            int nI = interiorTerminals.size();
+            DataOutputStream out = outs.get(w);
+            out.writeInt(DomainWorker.FACTOR);
+            out.writeInt(nI);
+            out.writeInt(boundaryTerminals.size());
+            out.writeInt(owned.size());
+            for (int k : owned)
+            {
+                int a = local[circ.getEnd1(k)];
+                int b = local[circ.getEnd2(k)];
+                out.writeInt(a >= 0 ? a : nI - 1 - a);
+                out.writeInt(b >= 0 ? b : nI - 1 - b);
+                out.writeDouble(conductance(circ, k));
+            }
+            out.flush();
+            interior.add(toArray(interiorTerminals));
+            boundary.add(toArray(boundaryTerminals));
+        }
+
+        // Add up the Schur complements as the workers send them
+        for (int w = 0; w < numWorkers; w++)
+        {
+            DataInputStream in = ins.get(w);
+            int[] terminals = boundary.get(w);
+            for (int p = 0; p < terminals.length; p++)
+            {
+                for (int q = 0; q < terminals.length; q++)
+                {
+                    double s = in.readDouble();
+                    stamp(matrix, unknown[terminals[p]], unknown[terminals[q]], s);
+                }
+            }
+        }
+        long factored = System.nanoTime();
+
+        // The coordinator's own resistors and the sources, stamped as in NodalAnalysis
+        for (int k = 0; k < n; k++)
+        {
+            int a = unknown[circ.getEnd1(k)];
+            int b = unknown[circ.getEnd2(k)];
+            int s = sourceRow[k];
+            if (s >= 0)
+            {
+                stamp(matrix, a, s, 1);     // current s leaves terminal a and enters terminal b
+                stamp(matrix, b, s, -1);
+                stamp(matrix, s, a, 1);     // V(a) - V(b) = battery voltage
+                stamp(matrix, s, b, -1);
+                if (circ.getKind(k) == CompactCircuit.BATTERY)
+                {
+                    constants[s] = circ.isFlipped(k) ? -circ.getValue(k) : circ.getValue(k);
+                }
+            }
+            else if (owner[k] < 0)
+            {
+                double g = conductance(circ, k);
+                stamp(matrix, a, a, g);
+                stamp(matrix, b, b, g);
+                stamp(matrix, a, b, -g);
+                stamp(matrix, b, a, -g);
+            }
+        }
+        double[] x = new double[m];
+        boolean solvable = true;
+        if (m > 0)
+        {
+            DecompositionSolver solver = new LUDecomposition(new Array2DRowRealMatrix(matrix, false)).getSolver();
+            if (solver.isNonSingular())
+            {
+                x = solver.solve(new ArrayRealVector(constants, false)).toArray();
+            }
+            else
+            {
+                solvable = false;   // a short circuit; the workers are still sent potentials, to stay in step
+            }
+        }
+        long solved = System.nanoTime();
+
+        // Send each worker its boundary potentials and collect the interior ones
+        double[] potentials = new double[numTerminals];
+        for (int t = 0; t < numTerminals; t++)
+        {
+            potentials[t] = unknown[t] >= 0 ? x[unknown[t]] : 0;
+        }
+        for (int w = 0; w < numWorkers; w++)
+        {
+            DataOutputStream out = outs.get(w);
+            out.writeInt(DomainWorker.SOLVE);
+            for (int t : boundary.get(w))
+            {
+                out.writeDouble(potentials[t]);
+            }
+            out.flush();
+        }
+        for (int w = 0; w < numWorkers; w++)
+        {
+            DataInputStream in = ins.get(w);
+            for (int t : interior.get(w))
+            {
+                potentials[t] = in.readDouble();
+            }
+        }
+        interfaceSize = m;
+        workerNanos = factored - start + System.nanoTime() - solved;
+        interfaceNanos = solved - factored;
+        if (!solvable)
+        {
+            return null;
+        }
+
+        double[] currents = new double[n];
+        for (int k = 0; k < n; k++)
+        {
+            if (sourceRow[k] >= 0)
+            {
+                currents[k] = x[sourceRow[k]];
+            }
+            else
+            {
+                currents[k] = (potentials[circ.getEnd1(k)] - potentials[circ.getEnd2(k)]) * conductance(circ, k);
+            }
+        }
+        double[] lowest = new double[numTerminals];
+        for (int t = 0; t < numTerminals; t++)
+        {
+            lowest[t] = Double.MAX_VALUE;
+        }
+        for (int t = 0; t < numTerminals; t++)
+        {
+            if (circ.numConnections(t) > 0)
+            {
+                int root = find(parent, t);
+                lowest[root] = Math.min(lowest[root], potentials[t]);
+            }
+        }
+        for (int t = 0; t < numTerminals; t++)
+        {
+            potentials[t] = circ.numConnections(t) > 0 ? potentials[t] - lowest[find(parent, t)] : Double.MAX_VALUE;
+        }
+        return new SolveResult(currents, circ.getTerminalKeys(), potentials, cols);
+    }
+
+    /**
+     * @return  The number of workers
+     */
+    public int getNumWorkers()
+    {
+        return numWorkers;
+    }
+
+    /**
+     * @return  The number of unknowns the coordinator solved for itself in the last solve (interface potentials and
+     *          source currents)
+     */
+    public synchronized int getInterfaceSize()
+    {
+        return interfaceSize;
+    }
+
+    /**
+     * @return  The time the last solve spent on the workers' part (including sending and receiving), in nanoseconds
+     */
+    public synchronized long getWorkerNanos()
+    {
+        return workerNanos;
+    }
+
+    /**
+     * @return  The time the last solve spent solving the interface, in nanoseconds
+     */
+    public synchronized long getInterfaceNanos()
+    {
+        return interfaceNanos;
+    }
+
+    /**
+     * Tells the workers to quit and closes their connections. Worker processes that have not quit are stopped.
+     */
+    public void shutdown()
+    {
+        for (int w = 0; w < sockets.size(); w++)
+        {
+            try
+            {
+                outs.get(w).writeInt(DomainWorker.QUIT);
+                outs.get(w).flush();
+                sockets.get(w).close();
+            }
+            catch (IOException e)
+            {
+                // Already gone
+            }
+        }
+        try
+        {
+            server.close();
+        }
+        catch (IOException e)
+        {
+        }
+        for (Process p : processes)
+        {
+            p.destroy();
+        }
+    }
+
+    /**
+     * @return  The conductance of resistor or capacitor k
+     */
+    private static double conductance(CompactCircuit circ, int k)
+    {
+        if (circ.getKind(k) == CompactCircuit.CAPACITOR)
+        {
+            return NodalAnalysis.GMIN;
+        }
+        return 1.0 / circ.getValue(k);
+    }
+
+    private static void stamp(double[][] matrix, int row, int col, double value)
+    {
+        if (row >= 0 && col >= 0)
+        {
+            matrix[row][col] += value;
+        }
+    }
+
+    private static int find(int[] parent, int t)
+    {
+        while (parent[t] != t)
+        {
+            parent[t] = parent[parent[t]];
+            t = parent[t];
+        }
+        return t;
+    }
+
+    private static int[] toArray(List<Integer> list)
+    {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++)
+        {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,121 @@
+import java.util.Random;
+
+/**
+ * Checks DomainCoordinator against CompactCircuit.solve() on a small lattice with every kind of linear component, a
+ * separate piece and a short circuit, with workers on threads and in separate JVMs. Then solves a large lattice with
+ * worker processes and checks Kirchhoff's current law at every terminal.
+ * Run with the size of the large lattice and the number of worker processes as arguments (default 300 and 4).
+ */
+public class DomainTester
+{
+    public static void main(String[] args) throws Exception
+    {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+        CompactCircuit small = lattice(24, new Random(1), true);
+        SolveResult expected = small.solve();
+        for (int pass = 0; pass < 2; pass++)
+        {
+            boolean processes = pass == 1;
+            DomainCoordinator coordinator = new DomainCoordinator(processes ? workers : 3, processes);
+            SolveResult result = coordinator.solve(small);
+            System.out.println((processes ? workers + " worker processes" : "3 worker threads") + " on a 24 x 24 lattice: "
+                + "largest difference from CompactCircuit.solve() in current " + difference(result.getCurrents(),
+                    expected.getCurrents()) + ", in potential " + difference(result.getPotentials(),
+                    expected.getPotentials()) + "; interface " + coordinator.getInterfaceSize() + " unknowns");
+            CompactCircuit shorted = CircuitFormat.parse(CircuitFormat.format(small) + "W 0 0 0 1\n");
+            System.out.println("  Short circuit gives null: " + (coordinator.solve(shorted) == null)
+                + "; solves again afterwards: " + (coordinator.solve(small) != null));
+            coordinator.shutdown();
+        }
+
+        CompactCircuit large = lattice(size, new Random(2), false);
+        long start = System.nanoTime();
+        DomainCoordinator coordinator = new DomainCoordinator(workers, true);
+        double startMs = (System.nanoTime() - start) / 1e6;
+        for (int run = 1; run <= 2; run++)
+        {
+            start = System.nanoTime();
+            SolveResult result = coordinator.solve(large);
+            double ms = (System.nanoTime() - start) / 1e6;
+            System.out.println(size + " x " + size + " lattice (" + large.size() + " components), " + workers
+                + " worker processes (started in " + Math.round(startMs) + " ms), solve " + run + ": " + Math.round(ms)
+                + " ms (" + Math.round(coordinator.getWorkerNanos() / 1e6) + " ms in the workers, "
+                + Math.round(coordinator.getInterfaceNanos() / 1e6) + " ms for an interface of "
+                + coordinator.getInterfaceSize() + " unknowns); largest current imbalance at a terminal "
+                + imbalance(large, result.getCurrents()) + " A");
+        }
+        coordinator.shutdown();
+    }
+
+    /**
+     * @return  A lattice of resistors of 1 to 100 ohms, with batteries and a few wires. With extras, it also has an
+     *          inductor and a capacitor, and its last column is a separate piece with a battery of its own.
+     */
+    private static CompactCircuit lattice(int size, Random random, boolean extras)
+    {
+        StringBuilder text = new StringBuilder("grid " + size + " " + size + "\n");
+        int last = extras ? size - 1 : size;    // columns in the main piece
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < last; c++)
+            {
+                if (c + 1 < last && !(r == 0 && c == 0))
+                {
+                    text.append("R " + r + " " + c + " " + r + " " + (c + 1) + " " + (1 + random.nextInt(100)) + "\n");
+                }
+                if (r + 1 < size)
+                {
+                    text.append("R " + r + " " + c + " " + (r + 1) + " " + c + " " + (1 + random.nextInt(100)) + "\n");
+                }
+            }
+        }
+        text.append("B 0 0 0 1 9\n");
+        text.append("B " + (size - 1) + " " + (last - 1) + " " + (size / 2) + " " + (last / 2) + " 5\n");
+        text.append("W " + (size / 3) + " 1 " + (2 * size / 3) + " 2\n");
+        if (extras)
+        {
+            text.append("L 1 1 3 4 0.01\n");
+            text.append("C 2 2 5 7 0.000001\n");
+            for (int r = 0; r + 1 < size; r++)
+            {
+                text.append("R " + r + " " + last + " " + (r + 1) + " " + last + " " + (1 + random.nextInt(100)) + "\n");
+            }
+            text.append("B 0 " + last + " " + (size - 1) + " " + last + " 3\n");
+        }
+        return CircuitFormat.parse(text.toString());
+    }
+
+    /**
+     * @return  The largest total current into any terminal
+     */
+    private static double imbalance(CompactCircuit circ, double[] currents)
+    {
+        double[] net = new double[circ.numTerminals()];
+        for (int k = 0; k < circ.size(); k++)
+        {
+            net[circ.getEnd1(k)] -= currents[k];
+            net[circ.getEnd2(k)] += currents[k];
+        }
+        double worst = 0;
+        for (int t = 0; t < net.length; t++)
+        {
+            worst = Math.max(worst, Math.abs(net[t]));
+        }
+        return worst;
+    }
+
+    private static double difference(double[] a, double[] b)
+    {
+        double worst = 0;
+        for (int i = 0; i < a.length; i++)
+        {
+            if (a[i] != b[i])
+            {
+                worst = Math.max(worst, Math.abs(a[i] - b[i]));
+            }
+        }
+        return worst;
+    }
+}
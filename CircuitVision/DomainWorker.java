@@ -0,0 +1,351 @@
+import java.io.IOException;
+import java.io.EOFException;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.net.Socket;
+
+/**
+ * One worker of a DomainCoordinator: solves the interior of one subdomain of a large circuit. Runs in a JVM of its own
+ * (main() connects back to the coordinator's port), or on a thread of the coordinator's JVM.
+ *
+ * The coordinator sends the subdomain as a list of conductances between local terminals, numbered with the interior
+ * terminals first (0 to numInterior - 1) and then the boundary terminals, which the coordinator solves for. No source
+ * touches an interior terminal, so the interior equations are G_II v_I + G_IB v_B = 0, with G_II symmetric and
+ * positive definite. The worker factors G_II once and sends back the Schur complement of the interior,
+ * S = G_BB - G_BI G_II^-1 G_IB: the conductances the subdomain presents between its boundary terminals. Once the
+ * coordinator has solved for the boundary potentials, the worker is sent them and sends back the interior potentials,
+ * v_I = -G_II^-1 G_IB v_B.
+ *
+ * G_II is factored by Cholesky's method, stored as a skyline (each row kept from its first nonzero entry to the
+ * diagonal, so there is no fill outside it). The interior terminals are put in reverse Cuthill-McKee order first,
+ * which keeps the skyline narrow: for a mesh, about as wide as the mesh's narrower side.
+ *
+ * Messages on the socket are DataStream ints and doubles: a code (FACTOR, SOLVE or QUIT) and then its data.
+ */
+public class DomainWorker
+{
+    static final int QUIT = 0;
+    static final int FACTOR = 1;    // numInterior, numBoundary, n, then n of (end1, end2, conductance); replies S
+    static final int SOLVE = 2;     // the boundary potentials; replies the interior potentials
+
+    private int numInterior;
+    private int numBoundary;
+    private int[] position;         // place of each interior terminal in the elimination order
+    private int[] first;            // first column kept in each row of the factor
+    private int[] rowStart;         // where each row of the factor starts in factor[]
+    private double[] factor;        // the lower triangle L of G_II = L L^T, row by row within the skyline
+    private int[] couplingStart;    // for each boundary terminal, its entries of G_IB in couplingTerminal/Value
+    private int[] couplingTerminal; // interior terminal of each entry
+    private double[] couplingValue;
+
+    /**
+     * Connects to a coordinator and works for it until it says to quit or closes the connection.
+     * @param args  The coordinator's host and port
+     */
+    public static void main(String[] args) throws IOException
+    {
+        serve(new Socket(args[0], Integer.parseInt(args[1])));
+    }
+
+    /**
+     * Answers a coordinator's messages on a socket, then closes it.
+     */
+    static void serve(Socket socket) throws IOException
+    {
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+        DomainWorker worker = new DomainWorker();
+        try
+        {
+            int code = in.readInt();
+            while (code != QUIT)
+            {
+                if (code == FACTOR)
+                {
+                    int nI = in.readInt();
+                    int nB = in.readInt();
+                    int n = in.readInt();
+                    int[] ends = new int[2 * n];
+                    double[] conductances = new double[n];
+                    for (int k = 0; k < n; k++)
+                    {
+                        ends[2 * k] = in.readInt();
+                        ends[2 * k + 1] = in.readInt();
+                        conductances[k] = in.readDouble();
+                    }
+                    double[][] schur = worker.factor(nI, nB, ends, conductances);
+                    for (int p = 0; p < nB; p++)
+                    {
+                        for (int q = 0; q < nB; q++)
+                        {
+                            out.writeDouble(schur[p][q]);
+                        }
+                    }
+                }
+                else if (code == SOLVE)
+                {
+                    double[] boundary = new double[worker.numBoundary];
+                    for (int p = 0; p < boundary.length; p++)
+                    {
+                        boundary[p] = in.readDouble();
+                    }
+                    double[] interior = worker.solveInterior(boundary);
+                    for (int i = 0; i < interior.length; i++)
+                    {
+                        out.writeDouble(interior[i]);
+                    }
+                }
+                else
+                {
+                    throw new IOException("Unknown message " + code);
+                }
+                out.flush();
+                code = in.readInt();
+            }
+        }
+        catch (EOFException e)
+        {
+            // The coordinator has gone away
+        }
+        finally
+        {
+            socket.close();
+        }
+    }
+
+    /**
+     * Factors a subdomain's interior.
+     * @param nI  The number of interior terminals
+     * @param nB  The number of boundary terminals
+     * @param ends  Local terminals at the two ends of each conductance (at least one of them interior)
+     * @param conductances  The conductances
+     * @return  The Schur complement of the interior, numBoundary x numBoundary
+     */
+    double[][] factor(int nI, int nB, int[] ends, double[] conductances)
+    {
+        numInterior = nI;
+        numBoundary = nB;
+        int n = conductances.length;
+
+        // The interior graph, and G_IB by boundary terminal
+        int[] adjacentStart = new int[nI + 1];
+        couplingStart = new int[nB + 1];
+        for (int k = 0; k < n; k++)
+        {
+            int a = ends[2 * k];
+            int b = ends[2 * k + 1];
+            if (a < nI && b < nI)
+            {
+                adjacentStart[a + 1]++;
+                adjacentStart[b + 1]++;
+            }
+            else if (a < nI || b < nI)
+            {
+                couplingStart[Math.max(a, b) - nI + 1]++;
+            }
+        }
+        for (int i = 0; i < nI; i++)
+        {
+            adjacentStart[i + 1] += adjacentStart[i];
+        }
+        for (int p = 0; p < nB; p++)
+        {
+            couplingStart[p + 1] += couplingStart[p];
+        }
+        int[] adjacent = new int[adjacentStart[nI]];
+        double[] adjacentConductance = new double[adjacent.length];
+        int[] nextAdjacent = adjacentStart.clone();
+        couplingTerminal = new int[couplingStart[nB]];
+        couplingValue = new double[couplingStart[nB]];
+        int[] nextCoupling = couplingStart.clone();
+        double[] diagonal = new double[nI + nB];
+        for (int k = 0; k < n; k++)
+        {
+            int a = ends[2 * k];
+            int b = ends[2 * k + 1];
+            diagonal[a] += conductances[k];
+            diagonal[b] += conductances[k];
+            if (a < nI && b < nI)
+            {
+                adjacent[nextAdjacent[a]] = b;
+                adjacentConductance[nextAdjacent[a]] = conductances[k];
+                nextAdjacent[a]++;
+                adjacent[nextAdjacent[b]] = a;
+                adjacentConductance[nextAdjacent[b]] = conductances[k];
+                nextAdjacent[b]++;
+            }
+            else if (a < nI || b < nI)
+            {
+                int p = Math.max(a, b) - nI;
+                couplingTerminal[nextCoupling[p]] = Math.min(a, b);
+                couplingValue[nextCoupling[p]] = -conductances[k];
+                nextCoupling[p]++;
+            }
+        }
+
+        // The skyline of G_II in reverse Cuthill-McKee order
+        position = BandOrdering.reverseCuthillMcKee(nI, adjacentStart, adjacent);
+        first = new int[nI];
+        for (int i = 0; i < nI; i++)
+        {
+            first[position[i]] = position[i];
+        }
+        for (int i = 0; i < nI; i++)
+        {
+            for (int j = adjacentStart[i]; j < adjacentStart[i + 1]; j++)
+            {
+                int row = Math.max(position[i], position[adjacent[j]]);
+                first[row] = Math.min(first[row], Math.min(position[i], position[adjacent[j]]));
+            }
+        }
+        rowStart = new int[nI + 1];
+        for (int r = 0; r < nI; r++)
+        {
+            long end = (long)rowStart[r] + r - first[r] + 1;
+            if (end > Integer.MAX_VALUE - 8)
+            {
+                throw new IllegalArgumentException("Subdomain too large for one worker; use more workers");
+            }
+            rowStart[r + 1] = (int)end;
+        }
+        factor = new double[rowStart[nI]];
+        for (int i = 0; i < nI; i++)
+        {
+            int r = position[i];
+            factor[rowStart[r] + r - first[r]] = diagonal[i];
+            for (int j = adjacentStart[i]; j < adjacentStart[i + 1]; j++)
+            {
+                int c = position[adjacent[j]];
+                if (c < r)
+                {
+                    // Each pair is in both lists; it is added from the one that comes later in the order
+                    factor[rowStart[r] + c - first[r]] -= adjacentConductance[j];
+                }
+            }
+        }
+        choleskyInPlace();
+
+        // S = G_BB - G_BI G_II^-1 G_IB, a column at a time. Each owned conductance touches at least one interior
+        // terminal, so G_BB is diagonal.
+        double[][] schur = new double[nB][nB];
+        double[] y = new double[nI];
+        for (int p = 0; p < nB; p++)
+        {
+            schur[p][p] = diagonal[nI + p];
+            if (couplingStart[p] == couplingStart[p + 1])
+            {
+                continue;
+            }
+            int from = nI;
+            for (int e = couplingStart[p]; e < couplingStart[p + 1]; e++)
+            {
+                int r = position[couplingTerminal[e]];
+                y[r] += couplingValue[e];
+                from = Math.min(from, r);
+            }
+            solveInPlace(y, from);
+            for (int q = 0; q < nB; q++)
+            {
+                double sum = 0;
+                for (int e = couplingStart[q]; e < couplingStart[q + 1]; e++)
+                {
+                    sum += couplingValue[e] * y[position[couplingTerminal[e]]];
+                }
+                schur[q][p] -= sum;
+            }
+            for (int r = 0; r < nI; r++)
+            {
+                y[r] = 0;
+            }
+        }
+        return schur;
+    }
+
+    /**
+     * @param boundary  The potential of each boundary terminal
+     * @return  The potential of each interior terminal
+     */
+    double[] solveInterior(double[] boundary)
+    {
+        double[] y = new double[numInterior];
+        for (int p = 0; p < numBoundary; p++)
+        {
+            for (int e = couplingStart[p]; e < couplingStart[p + 1]; e++)
+            {
+                y[position[couplingTerminal[e]]] -= couplingValue[e] * boundary[p];
+            }
+        }
+        solveInPlace(y, 0);
+        double[] interior = new double[numInterior];
+        for (int i = 0; i < numInterior; i++)
+        {
+            interior[i] = y[position[i]];
+        }
+        return interior;
+    }
+
+    /**
+     * Factors the skyline into L L^T, row by row.
+     */
+    private void choleskyInPlace()
+    {
+        for (int i = 0; i < first.length; i++)
+        {
+            int fi = first[i];
+            int si = rowStart[i] - fi;    // factor[si + c] is entry (i, c)
+            for (int j = fi; j <= i; j++)
+            {
+                int sj = rowStart[j] - first[j];
+                double sum = factor[si + j];
+                for (int c = Math.max(fi, first[j]); c < j; c++)
+                {
+                    sum -= factor[si + c] * factor[sj + c];
+                }
+                if (j < i)
+                {
+                    factor[si + j] = sum / factor[sj + j];
+                }
+                else
+                {
+                    if (!(sum > 0))
+                    {
+                        throw new IllegalArgumentException("Interior of a subdomain is not connected to its boundary");
+                    }
+                    factor[si + i] = Math.sqrt(sum);
+                }
+            }
+        }
+    }
+
+    /**
+     * Solves L L^T x = b, overwriting b with x.
+     * @param from  The first nonzero entry of b
+     */
+    private void solveInPlace(double[] b, int from)
+    {
+        int n = first.length;
+        for (int i = from; i < n; i++)
+        {
+            int si = rowStart[i] - first[i];
+            double sum = b[i];
+            for (int c = Math.max(first[i], from); c < i; c++)
+            {
+                sum -= factor[si + c] * b[c];
+            }
+            b[i] = sum / factor[si + i];
+        }
+        for (int i = n - 1; i >= 0; i--)
+        {
+            int si = rowStart[i] - first[i];
+            b[i] /= factor[si + i];
+            double x = b[i];
+            for (int c = first[i]; c < i; c++)
+            {
+                b[c] -= factor[si + c] * x;
+            }
+        }
+    }
+}
@@ -32,15 +32,14 @@ public class Dot
      * Sends calls methods from the Processing library to display a dot. Defaults to a black circle
      * with 5 pixel diameter.
      */
-    public void display(Circuit circuit, boolean showValues)
+    public void display(CircuitSnapshot circuit, boolean showValues)
     {
         gui.stroke(0);
         gui.fill(0);
         gui.ellipse(x, y, 5, 5);
         if (showValues)
         {
-            Terminal term = circuit.getTerminal(row, col);
-            double potential = term.getPotential();
+            double potential = circuit.getPotential(row, col);
             if (potential < Double.MAX_VALUE / 10)
             {
                 potential = (int)(potential * 1000 + 0.5) / 1000.0;     // round to nearest thousandth
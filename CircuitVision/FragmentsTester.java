@@ -0,0 +1,156 @@
+import java.util.Random;
+
+/**
+ * Checks how Circuit.solve() handles a grid holding several separate circuits, which it solves one fragment at a time
+ * (see solveFragments()). The currents and potentials must match a NodalAnalysis of the whole grid, which also gives each
+ * separate piece its own reference, and each fragment must read the same as when it is solved on a grid of its own. Also
+ * checks a fragment with no battery, a stray resistor, and a short circuit in one fragment, and times a grid of many
+ * fragments against solving them one by one.
+ */
+public class FragmentsTester
+{
+    public static void main(String[] args)
+    {
+        // Four lattices with batteries, one without, and a stray resistor
+        Circuit circ = new Circuit(20, 20);
+        Random random = new Random(1);
+        lattice(circ, 0, 0, 6, 9, random);
+        lattice(circ, 0, 10, 6, 3, random);
+        lattice(circ, 10, 0, 8, 12, random);
+        lattice(circ, 10, 10, 5, 1.5, random);
+        lattice(circ, 16, 16, 3, 0, random);
+        circ.addComponent(new Resistor(50), 8, 8, 8, 9);
+        double[] currents = circ.solve();
+
+        NodalAnalysis analysis = new NodalAnalysis(circ);
+        double[] values = analysis.getValues();
+        double[] x = analysis.solve(values);
+        double[] potentials = analysis.getPotentials(x);
+        double worstCurrent = 0;
+        for (int k = 0; k < circ.getComponents().size(); k++)
+        {
+            worstCurrent = Math.max(worstCurrent, Math.abs(current(circ.getComponents().get(k))
+                - analysis.getCurrent(x, values, k)));
+        }
+        double worstPotential = 0;
+        for (Terminal t : circ.getConnectedTerminals())
+        {
+            worstPotential = Math.max(worstPotential, Math.abs(t.getPotential()
+                - potentials[circ.getTerminalIndex(t)]));
+        }
+        System.out.println("Six fragments, " + currents.length + " branches: against NodalAnalysis of the whole grid, "
+            + "currents off by at most " + worstCurrent + " A, potentials by at most " + worstPotential + " V");
+
+        // Each fragment on its own grid, moved to a different place so nothing depends on where it sits
+        double worstAlone = 0;
+        int[][] corners = {{0, 0}, {0, 10}, {10, 0}, {10, 10}, {16, 16}};
+        int[] sizes = {6, 6, 8, 5, 3};
+        for (int f = 0; f < corners.length; f++)
+        {
+            Circuit alone = new Circuit(sizes[f] + 2, sizes[f] + 2);
+            for (Component c : circ.getComponents())
+            {
+                if (inside(c.getEndPt1(), corners[f], sizes[f]))
+                {
+                    alone.addCopyOf(c, 2 - corners[f][0], 1 - corners[f][1]);
+                }
+            }
+            alone.solve();
+            for (int r = 0; r < sizes[f]; r++)
+            {
+                for (int c = 0; c < sizes[f]; c++)
+                {
+                    double here = circ.getTerminal(corners[f][0] + r, corners[f][1] + c).getPotential();
+                    worstAlone = Math.max(worstAlone, Math.abs(here - alone.getTerminal(2 + r, 1 + c).getPotential()));
+                }
+            }
+        }
+        System.out.println("Against each fragment solved on a grid of its own: potentials off by at most " + worstAlone
+            + " V; fragment with no battery at " + circ.getTerminal(17, 17).getPotential() + " V; stray resistor "
+            + "carries " + circ.getComponent(8, 8, 8, 9).getCurrent() + " A");
+
+        // A seventh fragment: a battery with a loop of wires across it
+        circ.addBattery(new Battery(1), 18, 0, 18, 1, 18, 0);
+        circ.addComponent(new Wire(), 18, 1, 19, 1);
+        circ.addComponent(new Wire(), 19, 1, 19, 0);
+        circ.addComponent(new Wire(), 19, 0, 18, 0);
+        System.out.println("Short circuit in one fragment: solve() returns " + circ.solve());
+
+        // Many fragments at once, against solving each on its own grid one after another
+        int pieces = 4;
+        Circuit many = new Circuit(pieces * 21, pieces * 21);
+        Circuit[] singles = new Circuit[pieces * pieces];
+        random = new Random(2);
+        for (int i = 0; i < pieces * pieces; i++)
+        {
+            singles[i] = new Circuit(20, 20);
+            long seed = random.nextLong();
+            lattice(many, i / pieces * 21, i % pieces * 21, 20, 9, new Random(seed));
+            lattice(singles[i], 0, 0, 20, 9, new Random(seed));
+        }
+        many.solve();
+        for (Circuit single : singles)
+        {
+            single.solve();
+        }
+        long start = System.nanoTime();
+        many.solve();
+        double manyMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        for (Circuit single : singles)
+        {
+            single.solve();
+        }
+        double singlesMs = (System.nanoTime() - start) / 1e6;
+        System.out.println(pieces * pieces + " separate 20 x 20 lattices on one grid: solve() " + Math.round(manyMs)
+            + " ms; each on its own grid, one after another, " + Math.round(singlesMs) + " ms ("
+            + Runtime.getRuntime().availableProcessors() + " processor(s))");
+    }
+
+    /**
+     * @return  A component's current from endPt1 to endPt2, from the current and direction Circuit.solve() gave it
+     */
+    private static double current(Component c)
+    {
+        if (c.getCurrentDirection() != null && c.getCurrentDirection().equals(c.getEndPt1()))
+        {
+            return -c.getCurrent();
+        }
+        return c.getCurrent();
+    }
+
+    private static boolean inside(Terminal t, int[] corner, int size)
+    {
+        return t.getRow() >= corner[0] && t.getRow() < corner[0] + size && t.getCol() >= corner[1]
+            && t.getCol() < corner[1] + size;
+    }
+
+    /**
+     * Adds a size x size lattice of resistors of 1 to 100 ohms, with its top-left corner at (row, col) and a battery of
+     * the given voltage in place of its first resistor (or no battery if volts is 0).
+     */
+    private static void lattice(Circuit circ, int row, int col, int size, double volts, Random random)
+    {
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                if (c + 1 < size)
+                {
+                    if (r == 0 && c == 0 && volts != 0)
+                    {
+                        circ.addBattery(new Battery(volts), row, col, row, col + 1, row, col + 1);
+                    }
+                    else
+                    {
+                        circ.addComponent(new Resistor(1 + random.nextInt(100)), row + r, col + c, row + r, col + c + 1);
+                    }
+                }
+                if (r + 1 < size)
+                {
+                    circ.addComponent(new Resistor(1 + random.nextInt(100)), row + r, col + c, row + r + 1, col + c);
+                }
+            }
+        }
+    }
+}
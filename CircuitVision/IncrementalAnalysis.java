@@ -0,0 +1,699 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Arrays;
+import org.apache.commons.math3.linear.*;
+
+/**
+ * Keeps a circuit's nodal equations factored between edits, so that adding, removing or changing a component does
+ * not mean starting over. Each terminal in use has an unknown, and each wire, battery or inductor has a slot for its
+ * current; unknowns keep their numbers until the next factorization, and a few spare slots are kept for terminals,
+ * wires and batteries that are added later. An unused slot just says its unknown is 0. Instead of holding one terminal
+ * of each separate piece at 0 V, a conductance of 1 S is connected from that terminal to ground. With only one path to
+ * ground, no current can flow through it, so that terminal is held at exactly 0 V; but moving the reference, when
+ * pieces are joined or split, only changes a diagonal entry.
+ *
+ * Each edit only changes the matrix in the rows and columns of the terminals (and current slot) it touches. The
+ * changes are collected as a small dense block D on those indices S, and the edited system is solved from the
+ * factored original M0 with the Woodbury identity:
+ *     x = y - Z (I + D Z_S)^-1 D y_S,   where y = M0^-1 b and Z = M0^-1 E_S
+ * Each column of Z costs one solve with M0 and is kept until the next factorization. Once more than maxRank indices
+ * have changed, the matrix is factored again from scratch (see setMaxRank()).
+ *
+ * M0 is factored as a band matrix (see BandedLU), with its unknowns in reverse Cuthill-McKee order. For a grid w
+ * terminals wide, with n unknowns, the band is about w wide, so factoring costs about n w^2 operations and each solve
+ * about n w, rather than n^3 and n^2 for a dense factorization.
+ */
+public class IncrementalAnalysis implements CircuitListener
+{
+    private Circuit circuit;
+    private int cols;
+    private int size;                   // terminals in use + current slots + spare slots
+    private Map<Long, Integer> unknownOf = new HashMap<Long, Integer>();    // unknown of each terminal with one, by
+                                                                            // row * cols + col
+    private long[] terminalOf;          // terminal (row * cols + col) of each unknown, or -1 for a current slot or a spare
+    private BandedLU factors;           // factors of M0, or null if it must be refactored
+    private int[] position;             // row of the band matrix for each unknown
+    private int bandwidth;
+    private Map<Component, Stamp> stamps = new IdentityHashMap<Component, Stamp>();
+    private List<Integer> freeSlots = new ArrayList<Integer>();
+    private double[] leak;              // conductance to ground now stamped on each terminal's unknown (1 for a reference)
+    private boolean topologyChanged;
+
+    // Changes since M0 was factored
+    private Map<Long, Double> delta = new HashMap<Long, Double>();
+    private List<Integer> changed = new ArrayList<Integer>();           // the indices S
+    private Map<Integer, Integer> positionOf = new HashMap<Integer, Integer>();
+    private Map<Integer, double[]> columns = new HashMap<Integer, double[]>();  // column of Z for each index in S
+
+    private int maxRank;                // 0 to choose from the bandwidth
+    private int numFactorizations;
+    private double[] x;
+    private int[] group;
+
+    /**
+     * What one component has added to the matrix: the unknowns of its two terminals, the slot for its current (-1 if it
+     * has none), and its conductance (for components without a slot).
+     */
+    private class Stamp
+    {
+        private int a;
+        private int b;
+        private int slot;
+        private double g;
+    }
+
+    /**
+     * Builds and factors the equations for a circuit. It must be added as a listener to the circuit to hear about
+     * components being added and removed; component values are re-read on every solve().
+     */
+    public IncrementalAnalysis(Circuit circ)
+    {
+        circuit = circ;
+        cols = circ.getCols();
+        refactor();
+    }
+
+    /**
+     * Numbers the terminals in use, builds M0 from every component in the circuit and factors it, clearing all
+     * collected changes.
+     */
+    private void refactor()
+    {
+        List<Component> components = circuit.getComponents();
+        unknownOf.clear();
+        int nodes = 0;
+        int sources = 0;
+        for (Component c : components)
+        {
+            Terminal[] ends = {c.getEndPt1(), c.getEndPt2()};
+            for (Terminal t : ends)
+            {
+                if (!unknownOf.containsKey(terminalKey(t)))
+                {
+                    unknownOf.put(terminalKey(t), nodes);
+                    nodes++;
+                }
+            }
+            if (isSource(c))
+            {
+                sources++;
+            }
+        }
+        size = nodes + sources + Math.max(32, (nodes + sources) / 8);
+        terminalOf = new long[size];
+        Arrays.fill(terminalOf, -1);
+        for (Map.Entry<Long, Integer> e : unknownOf.entrySet())
+        {
+            terminalOf[e.getValue()] = e.getKey();
+        }
+        stamps.clear();
+        freeSlots.clear();
+        for (int s = size - 1; s >= nodes; s--)
+        {
+            freeSlots.add(s);
+        }
+        delta.clear();
+        changed.clear();
+        positionOf.clear();
+        columns.clear();
+        for (Component c : components)
+        {
+            stamps.put(c, makeStamp(c));
+        }
+        leak = new double[size];
+        findGroups();
+        topologyChanged = false;
+
+        // Order the unknowns so that each is near the ones it shares entries with, and find the band's width
+        int[] adjacentStart = new int[size + 1];
+        for (Stamp st : stamps.values())
+        {
+            adjacentStart[st.a + 1]++;
+            adjacentStart[st.b + 1]++;
+            if (st.slot >= 0)
+            {
+                adjacentStart[st.slot + 1] += 2;
+            }
+        }
+        for (int i = 0; i < size; i++)
+        {
+            adjacentStart[i + 1] += adjacentStart[i];
+        }
+        int[] adjacent = new int[adjacentStart[size]];
+        int[] next = new int[size];
+        for (Stamp st : stamps.values())
+        {
+            if (st.slot >= 0)
+            {
+                link(st.a, st.slot, adjacentStart, adjacent, next);
+                link(st.b, st.slot, adjacentStart, adjacent, next);
+            }
+            else
+            {
+                link(st.a, st.b, adjacentStart, adjacent, next);
+            }
+        }
+        position = BandOrdering.reverseCuthillMcKee(size, adjacentStart, adjacent);
+        bandwidth = 0;
+        for (int i = 0; i < size; i++)
+        {
+            for (int j = adjacentStart[i]; j < adjacentStart[i + 1]; j++)
+            {
+                bandwidth = Math.max(bandwidth, Math.abs(position[i] - position[adjacent[j]]));
+            }
+        }
+
+        factors = new BandedLU(size, bandwidth, bandwidth);
+        for (Stamp st : stamps.values())
+        {
+            apply(st, 1, factors);
+        }
+        for (int s : freeSlots)
+        {
+            factors.add(position[s], position[s], 1);     // an unused slot just says its unknown is 0
+        }
+        for (int s = 0; s < size; s++)
+        {
+            if (leak[s] != 0)
+            {
+                factors.add(position[s], position[s], leak[s]);
+            }
+        }
+        numFactorizations++;
+        if (!factors.factor())
+        {
+            factors = null;
+        }
+    }
+
+    private static void link(int a, int b, int[] adjacentStart, int[] adjacent, int[] next)
+    {
+        adjacent[adjacentStart[a] + next[a]] = b;
+        next[a]++;
+        adjacent[adjacentStart[b] + next[b]] = a;
+        next[b]++;
+    }
+
+    /**
+     * Collects the changes for a component being added or removed. Value changes are found by solve().
+     */
+    public void circuitChanged(CircuitEvent event)
+    {
+        if (event.getType() == CircuitEvent.Type.COMPONENT_ADDED)
+        {
+            componentAdded(event.getComponent());
+        }
+        else if (event.getType() == CircuitEvent.Type.COMPONENT_REMOVED)
+        {
+            componentRemoved(event.getComponent());
+        }
+    }
+
+    private void componentAdded(Component c)
+    {
+        Stamp st = makeStamp(c);
+        if (st.slot >= 0)
+        {
+            addDelta(st.slot, st.slot, -1);   // the slot's placeholder equation is replaced by the component's
+        }
+        apply(st, 1, null);
+        stamps.put(c, st);
+        topologyChanged = true;
+    }
+
+    private void componentRemoved(Component c)
+    {
+        Stamp st = stamps.remove(c);
+        if (st == null)
+        {
+            return;
+        }
+        apply(st, -1, null);
+        if (st.slot >= 0)
+        {
+            addDelta(st.slot, st.slot, 1);
+            freeSlots.add(st.slot);
+        }
+        topologyChanged = true;
+    }
+
+    /**
+     * Solves the edited circuit.
+     * @return  The solution vector (the potential or current in each slot), or null if it cannot be solved. Use
+     *          getCurrent() and getPotentials() to read it.
+     */
+    public double[] solve()
+    {
+        if (freeSlots.size() == 0 && needsSlot())
+        {
+            factors = null;     // out of spare slots: start again with more
+        }
+        if (factors != null)
+        {
+            updateValues();
+            if (topologyChanged)
+            {
+                double[] oldLeak = leak.clone();
+                findGroups();
+                for (int s = 0; s < size; s++)
+                {
+                    if (leak[s] != oldLeak[s])
+                    {
+                        addDelta(s, s, leak[s] - oldLeak[s]);
+                    }
+                }
+                topologyChanged = false;
+            }
+        }
+        int limit = maxRank > 0 ? maxRank : Math.max(64, bandwidth);
+        if (factors == null || changed.size() > limit)
+        {
+            refactor();
+            if (factors == null)
+            {
+                x = null;
+                return null;
+            }
+        }
+
+        double[] b = buildConstants();
+        double[] y = solveBase(b);
+        int k = changed.size();
+        if (k == 0)
+        {
+            x = y;
+            return x;
+        }
+        // Capacitance matrix C = I + D Z_S, and the right side D y_S
+        double[][] d = new double[k][k];
+        for (Map.Entry<Long, Double> e : delta.entrySet())
+        {
+            int row = (int)(e.getKey() / size);
+            int col = (int)(e.getKey() % size);
+            d[positionOf.get(row)][positionOf.get(col)] += e.getValue();
+        }
+        double[][] z = new double[k][];
+        for (int j = 0; j < k; j++)
+        {
+            z[j] = column(changed.get(j));
+        }
+        double[][] cap = new double[k][k];
+        double[] rhs = new double[k];
+        for (int i = 0; i < k; i++)
+        {
+            cap[i][i] = 1;
+            for (int m = 0; m < k; m++)
+            {
+                if (d[i][m] == 0)
+                {
+                    continue;
+                }
+                int row = changed.get(m);
+                rhs[i] += d[i][m] * y[row];
+                for (int j = 0; j < k; j++)
+                {
+                    cap[i][j] += d[i][m] * z[j][row];
+                }
+            }
+        }
+        DecompositionSolver small = new LUDecomposition(new Array2DRowRealMatrix(cap, false)).getSolver();
+        if (!small.isNonSingular())
+        {
+            // The edits made the equations singular (a short circuit), or M0 was too close to singular to update
+            refactor();
+            x = factors == null ? null : solveBase(buildConstants());
+            return x;
+        }
+        double[] w = small.solve(new ArrayRealVector(rhs, false)).toArray();
+        x = y;
+        for (int j = 0; j < k; j++)
+        {
+            if (w[j] != 0)
+            {
+                for (int i = 0; i < size; i++)
+                {
+                    x[i] -= z[j][i] * w[j];
+                }
+            }
+        }
+        return x;
+    }
+
+    /**
+     * Checks every component's value against what is stamped, and collects the difference for any that changed.
+     */
+    private void updateValues()
+    {
+        List<Component> changedSources = new ArrayList<Component>();
+        for (Map.Entry<Component, Stamp> e : stamps.entrySet())
+        {
+            Component c = e.getKey();
+            Stamp st = e.getValue();
+            if ((st.slot >= 0) != isSource(c))
+            {
+                changedSources.add(c);      // a resistor changed to or from 0 ohms
+            }
+            else if (st.slot < 0 && conductance(c) != st.g)
+            {
+                double dg = conductance(c) - st.g;
+                addDelta(st.a, st.a, dg);
+                addDelta(st.b, st.b, dg);
+                addDelta(st.a, st.b, -dg);
+                addDelta(st.b, st.a, -dg);
+                st.g = conductance(c);
+            }
+        }
+        for (Component c : changedSources)
+        {
+            componentRemoved(c);
+            componentAdded(c);
+        }
+    }
+
+    /**
+     * @return  True if some component has no slot but now needs one (a resistor set to 0 ohms).
+     */
+    private boolean needsSlot()
+    {
+        for (Map.Entry<Component, Stamp> e : stamps.entrySet())
+        {
+            if (e.getValue().slot < 0 && isSource(e.getKey()))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Works out what a component adds to the matrix, taking spare slots for its current and for any terminal that has
+     * no unknown yet. If none are left, the next solve() refactors with more.
+     */
+    private Stamp makeStamp(Component c)
+    {
+        Stamp st = new Stamp();
+        st.a = unknownFor(c.getEndPt1());
+        st.b = unknownFor(c.getEndPt2());
+        st.slot = -1;
+        if (isSource(c))
+        {
+            st.slot = takeSlot();
+        }
+        else
+        {
+            st.g = conductance(c);
+        }
+        return st;
+    }
+
+    /**
+     * @return  The unknown for a terminal's potential, given a spare slot if it has none yet; or -1 if there is no
+     *          spare slot
+     */
+    private int unknownFor(Terminal t)
+    {
+        long key = terminalKey(t);
+        Integer u = unknownOf.get(key);
+        if (u == null)
+        {
+            int slot = takeSlot();
+            if (slot >= 0)
+            {
+                unknownOf.put(key, slot);
+                terminalOf[slot] = key;
+                leak[slot] = 1;     // the unused slot's 1 on the diagonal, until findGroups() moves it
+            }
+            return slot;
+        }
+        return u;
+    }
+
+    private int takeSlot()
+    {
+        if (freeSlots.size() == 0)
+        {
+            factors = null;     // refactor at the next solve(), with more spare slots
+            return -1;
+        }
+        return freeSlots.remove(freeSlots.size() - 1);
+    }
+
+    /**
+     * Adds (sign 1) or takes away (sign -1) a component's entries, in the band matrix given or (if null) in delta.
+     */
+    private void apply(Stamp st, int sign, BandedLU matrix)
+    {
+        if (st.slot >= 0)
+        {
+            put(matrix, st.a, st.slot, sign);       // current leaves terminal a and enters terminal b
+            put(matrix, st.b, st.slot, -sign);
+            put(matrix, st.slot, st.a, sign);       // V(a) - V(b) = battery voltage
+            put(matrix, st.slot, st.b, -sign);
+        }
+        else
+        {
+            double g = sign * st.g;
+            put(matrix, st.a, st.a, g);
+            put(matrix, st.b, st.b, g);
+            put(matrix, st.a, st.b, -g);
+            put(matrix, st.b, st.a, -g);
+        }
+    }
+
+    private void put(BandedLU matrix, int row, int col, double value)
+    {
+        if (matrix != null)
+        {
+            matrix.add(position[row], position[col], value);
+        }
+        else
+        {
+            addDelta(row, col, value);
+        }
+    }
+
+    private void addDelta(int row, int col, double value)
+    {
+        if (factors == null)
+        {
+            return;     // everything will be rebuilt at the next solve()
+        }
+        markChanged(row);
+        markChanged(col);
+        Long key = (long)row * size + col;
+        Double old = delta.get(key);
+        delta.put(key, old == null ? value : old + value);
+    }
+
+    private void markChanged(int i)
+    {
+        if (!positionOf.containsKey(i))
+        {
+            positionOf.put(i, changed.size());
+            changed.add(i);
+        }
+    }
+
+    /**
+     * @return  Column i of M0^-1, found with one solve the first time it is needed after each factorization.
+     */
+    private double[] column(int i)
+    {
+        double[] col = columns.get(i);
+        if (col == null)
+        {
+            double[] unit = new double[size];
+            unit[i] = 1;
+            col = solveBase(unit);
+            columns.put(i, col);
+        }
+        return col;
+    }
+
+    /**
+     * @return  M0^-1 b
+     */
+    private double[] solveBase(double[] b)
+    {
+        double[] permuted = new double[size];
+        for (int i = 0; i < size; i++)
+        {
+            permuted[position[i]] = b[i];
+        }
+        factors.solve(permuted);
+        for (int i = 0; i < size; i++)
+        {
+            b[i] = permuted[position[i]];
+        }
+        return b;
+    }
+
+    private double[] buildConstants()
+    {
+        double[] b = new double[size];
+        for (Map.Entry<Component, Stamp> e : stamps.entrySet())
+        {
+            Component c = e.getKey();
+            if (c instanceof Battery && e.getValue().slot >= 0)
+            {
+                Battery batt = (Battery)c;
+                b[e.getValue().slot] = c.getEndPt1().equals(batt.getPosEnd()) ? batt.getVoltage() : -batt.getVoltage();
+            }
+        }
+        return b;
+    }
+
+    /**
+     * Finds the separate pieces of the circuit and picks the lowest-numbered terminal of each as its reference,
+     * setting leak to 1 there and 0 on every other terminal. A terminal left with nothing connected is a piece of its own.
+     */
+    private void findGroups()
+    {
+        int[] parent = new int[size];
+        for (int i = 0; i < size; i++)
+        {
+            parent[i] = i;
+        }
+        for (Stamp st : stamps.values())
+        {
+            int a = find(parent, st.a);
+            int b = find(parent, st.b);
+            parent[Math.max(a, b)] = Math.min(a, b);
+        }
+        group = new int[size];
+        boolean[] referenced = new boolean[size];
+        for (int i = 0; i < size; i++)
+        {
+            group[i] = find(parent, i);
+        }
+        for (int u = 0; u < size; u++)
+        {
+            if (terminalOf[u] >= 0)
+            {
+                leak[u] = referenced[group[u]] ? 0 : 1;
+                referenced[group[u]] = true;
+            }
+        }
+    }
+
+    /**
+     * @return  The current through component c (in the circuit when solve() was called) from endPt1 to endPt2
+     */
+    public double getCurrent(Component c)
+    {
+        Stamp st = stamps.get(c);
+        if (st.slot >= 0)
+        {
+            return x[st.slot];
+        }
+        return (x[st.a] - x[st.b]) * st.g;
+    }
+
+    /**
+     * @return  The potential at each terminal from the last solve(), indexed as circuit.getTerminalIndex() numbers them,
+     *          with the lowest potential in each separate piece at 0 V. Unconnected terminals are Double.MAX_VALUE.
+     */
+    public double[] getPotentials()
+    {
+        double[] potentials = new double[circuit.getNumTerminals()];
+        Arrays.fill(potentials, Double.MAX_VALUE);
+        double[] lowest = new double[size];
+        Arrays.fill(lowest, Double.MAX_VALUE);
+        for (int u = 0; u < size; u++)
+        {
+            if (terminalOf[u] >= 0)
+            {
+                lowest[group[u]] = Math.min(lowest[group[u]], x[u]);
+            }
+        }
+        for (Terminal t : circuit.getConnectedTerminals())
+        {
+            Integer u = unknownOf.get(terminalKey(t));
+            if (u != null && t.numConnections() > 0)
+            {
+                potentials[circuit.getTerminalIndex(t)] = x[u] - lowest[group[u]];
+            }
+        }
+        return potentials;
+    }
+
+    /**
+     * @param rank  How many rows and columns may change before the matrix is factored again. The default (0) is the
+     *              bandwidth of the factors, but at least 64: refactoring costs about as much as that many solves.
+     */
+    public void setMaxRank(int rank)
+    {
+        maxRank = rank;
+    }
+
+    /**
+     * @return  The number of rows and columns changed since the last factorization
+     */
+    public int getRank()
+    {
+        return changed.size();
+    }
+
+    /**
+     * @return  The bandwidth of the last factorization (see BandedLU)
+     */
+    public int getBandwidth()
+    {
+        return bandwidth;
+    }
+
+    /**
+     * @return  The number of unknowns in the last factorization, including spare slots
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return  The number of times the full matrix has been factored
+     */
+    public int getNumFactorizations()
+    {
+        return numFactorizations;
+    }
+
+    /**
+     * Same rule as NodalAnalysis: wires, batteries, inductors and 0 ohm resistors get a slot for their current.
+     */
+    private boolean isSource(Component c)
+    {
+        if (c instanceof Resistor)
+        {
+            return c.getResistance() == 0;
+        }
+        return !(c instanceof Capacitor || c instanceof Diode);
+    }
+
+    private double conductance(Component c)
+    {
+        if (c instanceof Capacitor || c instanceof Diode)
+        {
+            return NodalAnalysis.GMIN;
+        }
+        return 1.0 / c.getResistance();
+    }
+
+    private long terminalKey(Terminal t)
+    {
+        return (long)t.getRow() * cols + t.getCol();
+    }
+
+    private static int find(int[] parent, int i)
+    {
+        while (parent[i] != i)
+        {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
@@ -0,0 +1,137 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Makes a series of edits to a large grid of resistors, solving after each one with Circuit.solveIncremental(), and
+ * compares the results and times with a full nodal solve of the edited circuit. Grids too large for NodalAnalysis's
+ * dense solve (about 10,000 components) are checked against a new IncrementalAnalysis instead, which factors the edited
+ * circuit from scratch.
+ */
+public class IncrementalTester
+{
+    public static void main(String[] args)
+    {
+        if (args.length > 0)
+        {
+            run(Integer.parseInt(args[0]), Integer.parseInt(args[0]) <= 40);
+        }
+        else
+        {
+            run(40, true);
+            run(71, false);
+        }
+    }
+
+    private static void run(int size, boolean checkFull)
+    {
+        Random random = new Random(1);
+        Circuit grid = new Circuit(size + 1, size);
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                if (c + 1 < size)
+                {
+                    grid.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r, c + 1);
+                }
+                if (r + 1 < size)
+                {
+                    grid.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r + 1, c);
+                }
+            }
+        }
+        grid.addBattery(new Battery(12), 0, 0, size - 1, size - 1, 0, 0);
+        System.out.println(size + " x " + size + " grid, " + grid.getComponents().size() + " components");
+
+        long start = System.nanoTime();
+        grid.solveIncremental();
+        System.out.println("first solve (factoring): " + round((System.nanoTime() - start) / 1e6) + " ms");
+
+        double worst = 0;
+        double incrementalMs = 0;
+        double fullMs = 0;
+        int edits = 100;
+        for (int e = 0; e < edits; e++)
+        {
+            edit(grid, size, random, e);
+            start = System.nanoTime();
+            double[] currents = grid.solveIncremental();
+            incrementalMs += (System.nanoTime() - start) / 1e6;
+
+            if (e % 10 != 9)
+            {
+                continue;       // a full solve of a large grid takes seconds, so only check every tenth edit
+            }
+            start = System.nanoTime();
+            if (checkFull)
+            {
+                NodalAnalysis full = new NodalAnalysis(grid);
+                double[] values = full.getValues();
+                double[] x = full.solve(values);
+                fullMs += (System.nanoTime() - start) / 1e6;
+                for (int k = 0; k < currents.length; k++)
+                {
+                    worst = Math.max(worst, Math.abs(currents[k] - full.getCurrent(x, values, k)));
+                }
+            }
+            else
+            {
+                IncrementalAnalysis fresh = new IncrementalAnalysis(grid);
+                fresh.solve();
+                fullMs += (System.nanoTime() - start) / 1e6;
+                for (int k = 0; k < currents.length; k++)
+                {
+                    worst = Math.max(worst, Math.abs(currents[k] - fresh.getCurrent(grid.getComponents().get(k))));
+                }
+            }
+        }
+        System.out.println(edits + " edits: " + round(incrementalMs / edits) + " ms per incremental solve, "
+            + round(fullMs / (edits / 10)) + " ms per " + (checkFull ? "full solve" : "new banded factorization")
+            + ", largest difference " + worst + " A");
+    }
+
+    /**
+     * Makes one edit: adds, removes or changes a resistor, adds or removes a wire, or adds a battery on the spare bottom
+     * row (a separate circuit until a resistor joins it to the grid).
+     */
+    private static void edit(Circuit grid, int size, Random random, int e)
+    {
+        int r = random.nextInt(size - 1);
+        int c = random.nextInt(size - 1);
+        List<Component> components = grid.getComponents();
+        switch (e % 6)
+        {
+            case 0:     // a diagonal resistor between two existing terminals
+                grid.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r + 1, c + 1);
+                break;
+            case 1:
+                Component victim = components.get(random.nextInt(components.size() - 1));
+                if (!(victim instanceof Battery))
+                {
+                    grid.removeComponent(victim);
+                }
+                break;
+            case 2:
+                Component changed = components.get(random.nextInt(components.size()));
+                if (changed instanceof Resistor)
+                {
+                    changed.setResistance(1 + random.nextInt(100));
+                }
+                break;
+            case 3:
+                grid.addComponent(new Wire(), r, c, r + 1, c + 1);
+                break;
+            case 4:
+                grid.addBattery(new Battery(1 + random.nextInt(9)), size, c, size, c + 1, size, c);
+                break;
+            default:
+                grid.addComponent(new Resistor(1 + random.nextInt(100)), size - 1, c, size, c);
+                break;
+        }
+    }
+
+    private static double round(double value)
+    {
+        return Math.round(value * 100) / 100.0;
+    }
+}
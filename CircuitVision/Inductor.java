@@ -0,0 +1,44 @@
+
+/**
+ * Inductors oppose changes in current. Once a circuit has settled, an inductor acts like a piece of wire, so solve()
+ * treats it as one. TransientAnalysis follows the current as it builds up.
+ */
+public class Inductor extends Component
+{
+    private double inductance;      // in henries
+
+    /**
+     * Constructs an Inductor with the specified inductance.
+     * @param henries  Inductance of the inductor
+     */
+    public Inductor(double henries)
+    {
+        super();
+        inductance = henries;
+    }
+
+    /**
+     * @param henries  The new inductance. The circuit it is in is told.
+     */
+    public void setInductance(double henries)
+    {
+        inductance = henries;
+        changed(CircuitEvent.Type.INDUCTANCE_CHANGED);
+    }
+
+    /**
+     * @return  The inductance in henries
+     */
+    public double getInductance()
+    {
+        return inductance;
+    }
+
+    /**
+     * @return  Adds to the component's toString() the inductance value
+     */
+    public String toString()
+    {
+        return super.toString() + "Inductor " + inductance + " H\t";
+    }
+}
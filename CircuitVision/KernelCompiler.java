@@ -0,0 +1,883 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Makes SolveKernels: solvers specialized to one circuit topology, for when the same circuit is solved over and over
+ * with different values (sweeps, Monte Carlo runs, sliders).
+ *
+ * The nodal equations (see NodalAnalysis) are eliminated once symbolically. Each step of the elimination that involves
+ * a nonzero entry is written down as one operation on a slot of a work array, such as w[12] -= w[3] * w[7]; entries
+ * that are always zero never appear. The pivot at each step is chosen (from the circuit's values at the time) to keep
+ * the number of new nonzero entries small (Markowitz's rule), among entries at least a tenth the size of the largest in
+ * their column. The list of operations is then written straight into the bytecode of a new class, a few instructions
+ * per operation, and loaded in memory, so the kernel runs as straight-line code that the JIT compiles like any other
+ * method. No Java compiler or temporary files are needed, and a kernel takes milliseconds rather than seconds to make.
+ * If the operations need more constants than one class file can hold, the same list is run by a small interpreter
+ * instead.
+ *
+ * Kernels are kept per topology: the grid size, and the type, terminals and polarity of each component in order. The
+ * least recently used is dropped once the cache is full. Resistors of 0 ohms are treated as wires, so changing a
+ * resistor to or from 0 ohms is a different topology. The topology is read from a CompactCircuit, which a Circuit is
+ * copied into, so a Circuit and a CompactCircuit with the same topology share a kernel. Circuits with diodes or
+ * subcircuits cannot be compiled.
+ */
+public class KernelCompiler
+{
+    // Operations: each is four ints (code, a, b, c) in the list
+    private static final int RECIPROCAL = 0;    // w[a] = 1 / v[b]
+    private static final int SET = 1;           // w[a] = constants[b]
+    private static final int ADD = 2;           // w[a] += w[b]
+    private static final int SUBTRACT = 3;      // w[a] -= w[b]
+    private static final int DIVIDE = 4;        // w[a] /= w[b]
+    private static final int MULTIPLY_SUBTRACT = 5; // w[a] -= w[b] * w[c]
+    private static final int VALUE = 6;         // w[a] = v[b]
+    private static final int NEGATIVE_VALUE = 7;    // w[a] = -v[b]
+
+    // Bytecode instructions and access flags used by compileBytecode()
+    private static final int ICONST_0 = 0x03;
+    private static final int DCONST_0 = 0x0e;
+    private static final int DCONST_1 = 0x0f;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int ALOAD_0 = 0x2a;
+    private static final int ALOAD_1 = 0x2b;
+    private static final int ALOAD_2 = 0x2c;
+    private static final int DALOAD = 0x31;
+    private static final int DASTORE = 0x52;
+    private static final int DUP2 = 0x5c;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DDIV = 0x6f;
+    private static final int DNEG = 0x77;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_PRIVATE = 0x0002;
+    private static final int ACC_PROTECTED = 0x0004;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int STATEMENTS_PER_METHOD = 300;  // keeps each generated method small enough to be JIT compiled
+    private static int numClasses;
+
+    private Map<String, SolveKernel> kernels;
+    private boolean useCompiler = true;
+    private int hits;
+    private int misses;
+
+    /**
+     * Makes a compiler that keeps up to 16 kernels.
+     */
+    public KernelCompiler()
+    {
+        this(16);
+    }
+
+    /**
+     * @param capacity  The most kernels to keep
+     */
+    public KernelCompiler(final int capacity)
+    {
+        kernels = new LinkedHashMap<String, SolveKernel>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<String, SolveKernel> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @param on  False to always use the interpreter instead of making bytecode
+     */
+    public void setUseCompiler(boolean on)
+    {
+        useCompiler = on;
+    }
+
+    /**
+     * Returns the kernel for the circuit's topology, making it if it has not been made (or has been dropped).
+     * @throws IllegalArgumentException  If the circuit has diodes or subcircuits, or cannot be solved with its present
+     *                                   values (a short circuit)
+     */
+    public SolveKernel compile(Circuit circ)
+    {
+        if (circ.getSubcircuits().size() > 0)
+        {
+            throw new IllegalArgumentException("Circuits with subcircuits cannot be compiled");
+        }
+        return compile(CompactCircuit.fromCircuit(circ), circ);
+    }
+
+    /**
+     * Returns the kernel for a CompactCircuit's topology. A kernel made for a Circuit of the same topology is shared.
+     * @throws IllegalArgumentException  If the circuit has diodes, or cannot be solved with its present values
+     */
+    public SolveKernel compile(CompactCircuit circ)
+    {
+        return compile(circ, null);
+    }
+
+    private SolveKernel compile(CompactCircuit compact, Circuit circ)
+    {
+        String key = topology(compact);
+        synchronized (this)
+        {
+            SolveKernel kernel = kernels.get(key);
+            if (kernel != null)
+            {
+                hits++;
+                return kernel;
+            }
+            misses++;
+        }
+        SolveKernel kernel = build(circ == null ? new NodalAnalysis(compact) : new NodalAnalysis(circ));
+        synchronized (this)
+        {
+            kernels.put(key, kernel);
+        }
+        return kernel;
+    }
+
+    /**
+     * @return  The number of compile() calls answered with a kernel that had already been made
+     */
+    public synchronized int getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return  The number of kernels made
+     */
+    public synchronized int getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * @return  A description of the circuit's topology, such as "4x4;0 0 1;2 1 5;1 5 4" (kind and terminal keys of each
+     *          component, as in CompactCircuit, with FLIPPED batteries as kind 18), used as the cache key and by
+     *          SolveServer to group requests
+     */
+    static String topology(CompactCircuit circ)
+    {
+        StringBuilder key = new StringBuilder(circ.getRows() + "x" + circ.getCols());
+        for (int k = 0; k < circ.size(); k++)
+        {
+            if (circ.isDiode(k))
+            {
+                throw new IllegalArgumentException("Circuits with diodes cannot be compiled");
+            }
+            int kind = circ.getKind(k);
+            if (kind == CompactCircuit.RESISTOR && circ.getValue(k) == 0)
+            {
+                kind = CompactCircuit.WIRE;
+            }
+            else if (kind == CompactCircuit.BATTERY && circ.isFlipped(k))
+            {
+                kind += CompactCircuit.FLIPPED;
+            }
+            key.append(';').append(kind).append(' ').append(circ.getTerminalKey(circ.getEnd1(k))).append(' ')
+                .append(circ.getTerminalKey(circ.getEnd2(k)));
+        }
+        return key.toString();
+    }
+
+    /**
+     * Eliminates the circuit's equations symbolically, and makes a kernel that repeats the same steps.
+     */
+    private SolveKernel build(NodalAnalysis analysis)
+    {
+        CompactCircuit circ = analysis.getCompactCircuit();
+        double[] values = analysis.getValues();
+        int n = analysis.size();
+        int m = circ.size();
+
+        List<Integer> ops = new ArrayList<Integer>();
+        List<Double> constants = new ArrayList<Double>();
+        int slots = m;      // slots 0 to m - 1 hold each resistor's conductance
+
+        // The pattern of nonzero entries, with each entry's expression: a constant plus or minus some conductances
+        int[][] slot = new int[n][n];
+        double[][] constant = new double[n][n];
+        List<List<Integer>> terms = new ArrayList<List<Integer>>();     // for each slot: +k or -(k + 1)
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                slot[i][j] = -1;
+            }
+        }
+        for (int k = 0; k < m; k++)
+        {
+            int[] ends = analysis.getEnds(k);
+            int s = analysis.getSourceRow(k);
+            int[][] entries;
+            int[] signs;
+            if (s >= 0)
+            {
+                entries = new int[][] {{ends[0], s}, {ends[1], s}, {s, ends[0]}, {s, ends[1]}};
+                signs = new int[] {1, -1, 1, -1};
+            }
+            else
+            {
+                entries = new int[][] {{ends[0], ends[0]}, {ends[1], ends[1]}, {ends[0], ends[1]}, {ends[1], ends[0]}};
+                signs = new int[] {1, 1, -1, -1};
+                if (circ.getKind(k) == CompactCircuit.RESISTOR)
+                {
+                    add(ops, RECIPROCAL, k, k, 0);
+                }
+            }
+            for (int e = 0; e < 4; e++)
+            {
+                int i = entries[e][0];
+                int j = entries[e][1];
+                if (i < 0 || j < 0)
+                {
+                    continue;   // a reference terminal
+                }
+                if (slot[i][j] < 0)
+                {
+                    slot[i][j] = slots;
+                    slots++;
+                    terms.add(new ArrayList<Integer>());
+                }
+                if (s >= 0)
+                {
+                    constant[i][j] += signs[e];
+                }
+                else if (circ.getKind(k) == CompactCircuit.CAPACITOR)
+                {
+                    constant[i][j] += signs[e] * NodalAnalysis.GMIN;
+                }
+                else
+                {
+                    terms.get(slot[i][j] - m).add(signs[e] > 0 ? k : -(k + 1));
+                }
+            }
+        }
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                if (slot[i][j] >= 0)
+                {
+                    add(ops, SET, slot[i][j], constants.size(), 0);
+                    constants.add(constant[i][j]);
+                    for (int t : terms.get(slot[i][j] - m))
+                    {
+                        if (t >= 0)
+                        {
+                            add(ops, ADD, slot[i][j], t, 0);
+                        }
+                        else
+                        {
+                            add(ops, SUBTRACT, slot[i][j], -t - 1, 0);
+                        }
+                    }
+                }
+            }
+        }
+
+        // Eliminate, choosing pivots with the circuit's present values
+        double[][] a = analysis.buildMatrix(values);
+        boolean[] rowDone = new boolean[n];
+        boolean[] colDone = new boolean[n];
+        int[] rowCount = new int[n];
+        int[] colCount = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            for (int j = 0; j < n; j++)
+            {
+                if (slot[i][j] >= 0)
+                {
+                    rowCount[i]++;
+                    colCount[j]++;
+                }
+            }
+        }
+        int[] pivotRow = new int[n];
+        int[] pivotCol = new int[n];
+        int[] stepOfCol = new int[n];
+        List<List<int[]>> multipliers = new ArrayList<List<int[]>>();   // for each step: {row, slot}
+        for (int step = 0; step < n; step++)
+        {
+            int bestRow = -1;
+            int bestCol = -1;
+            long bestCost = Long.MAX_VALUE;
+            double bestSize = 0;
+            for (int j = 0; j < n; j++)
+            {
+                if (colDone[j])
+                {
+                    continue;
+                }
+                double colMax = 0;
+                for (int i = 0; i < n; i++)
+                {
+                    if (!rowDone[i] && slot[i][j] >= 0)
+                    {
+                        colMax = Math.max(colMax, Math.abs(a[i][j]));
+                    }
+                }
+                if (colMax < 1e-12)
+                {
+                    continue;
+                }
+                for (int i = 0; i < n; i++)
+                {
+                    if (!rowDone[i] && slot[i][j] >= 0 && Math.abs(a[i][j]) >= 0.1 * colMax)
+                    {
+                        long cost = (long)(rowCount[i] - 1) * (colCount[j] - 1);
+                        double size = Math.abs(a[i][j]) / colMax;
+                        if (cost < bestCost || cost == bestCost && size > bestSize)
+                        {
+                            bestRow = i;
+                            bestCol = j;
+                            bestCost = cost;
+                            bestSize = size;
+                        }
+                    }
+                }
+            }
+            if (bestRow < 0)
+            {
+                throw new IllegalArgumentException("The circuit's equations are singular (a short circuit?)");
+            }
+            int p = bestRow;
+            int q = bestCol;
+            pivotRow[step] = p;
+            pivotCol[step] = q;
+            stepOfCol[q] = step;
+            rowDone[p] = true;
+            colDone[q] = true;
+            List<int[]> stepMultipliers = new ArrayList<int[]>();
+            for (int i = 0; i < n; i++)
+            {
+                if (rowDone[i] || slot[i][q] < 0)
+                {
+                    continue;
+                }
+                add(ops, DIVIDE, slot[i][q], slot[p][q], 0);
+                a[i][q] /= a[p][q];
+                stepMultipliers.add(new int[] {i, slot[i][q]});
+                rowCount[i]--;
+                for (int j = 0; j < n; j++)
+                {
+                    if (colDone[j] || slot[p][j] < 0)
+                    {
+                        continue;
+                    }
+                    if (slot[i][j] < 0)     // fill-in
+                    {
+                        slot[i][j] = slots;
+                        slots++;
+                        add(ops, SET, slot[i][j], constants.size(), 0);
+                        constants.add(0.0);
+                        rowCount[i]++;
+                        colCount[j]++;
+                    }
+                    add(ops, MULTIPLY_SUBTRACT, slot[i][j], slot[i][q], slot[p][j]);
+                    a[i][j] -= a[i][q] * a[p][j];
+                }
+            }
+            for (int j = 0; j < n; j++)
+            {
+                if (!colDone[j] && slot[p][j] >= 0)
+                {
+                    colCount[j]--;
+                }
+            }
+            multipliers.add(stepMultipliers);
+        }
+
+        // Constants: battery voltages, then forward and back substitution
+        int[] rhs = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            rhs[i] = slots;
+            slots++;
+            add(ops, SET, rhs[i], constants.size(), 0);
+            constants.add(0.0);
+        }
+        for (int k = 0; k < m; k++)
+        {
+            if (circ.getKind(k) == CompactCircuit.BATTERY)
+            {
+                add(ops, circ.isFlipped(k) ? NEGATIVE_VALUE : VALUE, rhs[analysis.getSourceRow(k)], k, 0);
+            }
+        }
+        for (int step = 0; step < n; step++)
+        {
+            for (int[] mult : multipliers.get(step))
+            {
+                add(ops, MULTIPLY_SUBTRACT, rhs[mult[0]], mult[1], rhs[pivotRow[step]]);
+            }
+        }
+        int[] solutionSlot = new int[n];
+        for (int step = n - 1; step >= 0; step--)
+        {
+            int p = pivotRow[step];
+            for (int j = 0; j < n; j++)
+            {
+                if (slot[p][j] >= 0 && stepOfCol[j] > step)
+                {
+                    add(ops, MULTIPLY_SUBTRACT, rhs[p], slot[p][j], solutionSlot[j]);
+                }
+            }
+            add(ops, DIVIDE, rhs[p], slot[p][pivotCol[step]], 0);
+            solutionSlot[pivotCol[step]] = rhs[p];
+        }
+
+        int[] code = new int[ops.size()];
+        for (int i = 0; i < code.length; i++)
+        {
+            code[i] = ops.get(i);
+        }
+        double[] table = new double[constants.size()];
+        for (int i = 0; i < table.length; i++)
+        {
+            table[i] = constants.get(i);
+        }
+        SolveKernel kernel = null;
+        if (useCompiler)
+        {
+            kernel = compileBytecode(code, table);
+        }
+        boolean compiled = kernel != null;
+        if (kernel == null)
+        {
+            kernel = new Interpreter(code, table);
+        }
+        kernel.setUp(analysis, slots, solutionSlot, code.length / 4, compiled);
+        return kernel;
+    }
+
+    private static void add(List<Integer> ops, int op, int a, int b, int c)
+    {
+        ops.add(op);
+        ops.add(a);
+        ops.add(b);
+        ops.add(c);
+    }
+
+    /**
+     * Writes the operations as the bytecode of a class, one method for each STATEMENTS_PER_METHOD of them, and loads it
+     * with a class loader of its own, so the class can be unloaded once the kernel is dropped and no longer used.
+     * @return  The kernel, or null if the operations need more constants than one class file can hold
+     */
+    private static SolveKernel compileBytecode(int[] code, double[] table)
+    {
+        String name;
+        synchronized (KernelCompiler.class)
+        {
+            numClasses++;
+            name = "CircuitKernel" + numClasses;
+        }
+        ClassFile file = new ClassFile(name, "SolveKernel");
+        int numMethods = (code.length / 4 + STATEMENTS_PER_METHOD - 1) / STATEMENTS_PER_METHOD;
+
+        // public CircuitKernelN() { super(); }
+        file.op(ALOAD_0);
+        file.op(INVOKESPECIAL);
+        file.u2(file.methodRef(file.getSuperClass(), "<init>", "()V"));
+        file.op(RETURN);
+        file.endMethod(ACC_PUBLIC, "<init>", "()V", 1, 1);
+
+        // protected void run(double[] v, double[] w) { part0(v, w); part1(v, w); ... }
+        for (int part = 0; part < numMethods; part++)
+        {
+            file.op(ALOAD_1);
+            file.op(ALOAD_2);
+            file.op(INVOKESTATIC);
+            file.u2(file.methodRef(file.getThisClass(), "part" + part, "([D[D)V"));
+        }
+        file.op(RETURN);
+        file.endMethod(ACC_PROTECTED, "run", "([D[D)V", 2, 3);
+
+        // private static void partN(double[] v, double[] w), with v in local 0 and w in local 1
+        for (int op = 0; op < code.length; op += 4)
+        {
+            int a = code[op + 1];
+            int b = code[op + 2];
+            file.op(ALOAD_1);
+            file.pushInt(a);
+            switch (code[op])
+            {
+                case RECIPROCAL:                // w[a] = 1.0 / v[b]
+                    file.op(DCONST_1);
+                    file.op(ALOAD_0);
+                    file.pushInt(b);
+                    file.op(DALOAD);
+                    file.op(DDIV);
+                    break;
+                case SET:                       // w[a] = constant
+                    file.pushDouble(table[b]);
+                    break;
+                case ADD:                       // w[a] += w[b]
+                case SUBTRACT:
+                case DIVIDE:
+                    file.op(DUP2);
+                    file.op(DALOAD);
+                    file.op(ALOAD_1);
+                    file.pushInt(b);
+                    file.op(DALOAD);
+                    file.op(code[op] == ADD ? DADD : code[op] == SUBTRACT ? DSUB : DDIV);
+                    break;
+                case MULTIPLY_SUBTRACT:         // w[a] -= w[b] * w[c]
+                    file.op(DUP2);
+                    file.op(DALOAD);
+                    file.op(ALOAD_1);
+                    file.pushInt(b);
+                    file.op(DALOAD);
+                    file.op(ALOAD_1);
+                    file.pushInt(code[op + 3]);
+                    file.op(DALOAD);
+                    file.op(DMUL);
+                    file.op(DSUB);
+                    break;
+                default:                        // w[a] = v[b] or -v[b]
+                    file.op(ALOAD_0);
+                    file.pushInt(b);
+                    file.op(DALOAD);
+                    if (code[op] == NEGATIVE_VALUE)
+                    {
+                        file.op(DNEG);
+                    }
+                    break;
+            }
+            file.op(DASTORE);
+            int part = (op / 4) / STATEMENTS_PER_METHOD;
+            if (op + 4 == code.length || ((op / 4) + 1) % STATEMENTS_PER_METHOD == 0)
+            {
+                file.op(RETURN);
+                file.endMethod(ACC_PRIVATE | ACC_STATIC, "part" + part, "([D[D)V", 8, 2);
+            }
+        }
+        if (file.poolSize() > 0xffff)
+        {
+            return null;
+        }
+        byte[] bytes = file.toBytes();
+        try
+        {
+            return (SolveKernel)new KernelLoader().define(name, bytes).getConstructor().newInstance();
+        }
+        catch (ReflectiveOperationException e)
+        {
+            throw new IllegalStateException("The kernel class made for this circuit could not be loaded", e);
+        }
+    }
+
+    /**
+     * Loads one kernel class from its bytecode.
+     */
+    private static class KernelLoader extends ClassLoader
+    {
+        private KernelLoader()
+        {
+            super(SolveKernel.class.getClassLoader());
+        }
+
+        private Class<?> define(String name, byte[] bytes)
+        {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Builds a class file (format version 52, Java 8) that has no fields and methods without branches, so none of its
+     * methods need stack map frames. Code for the next method is written with op(), u2(), pushInt() and pushDouble(),
+     * then finished with endMethod(). Constants are kept once each in the constant pool.
+     */
+    private static class ClassFile
+    {
+        private ByteArrayOutputStream pool = new ByteArrayOutputStream();
+        private ByteArrayOutputStream methods = new ByteArrayOutputStream();
+        private ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private Map<String, Integer> entries = new HashMap<String, Integer>();
+        private int poolSize = 1;       // entries are numbered from 1; a double takes up two numbers
+        private int numMethods;
+        private int thisClass;
+        private int superClass;
+
+        private ClassFile(String name, String superName)
+        {
+            thisClass = classRef(name);
+            superClass = classRef(superName);
+        }
+
+        private int getThisClass()
+        {
+            return thisClass;
+        }
+
+        private int getSuperClass()
+        {
+            return superClass;
+        }
+
+        /**
+         * @return  The number the next constant would get; a class file holds up to 65535
+         */
+        private int poolSize()
+        {
+            return poolSize;
+        }
+
+        private void op(int opcode)
+        {
+            code.write(opcode);
+        }
+
+        private void u2(int value)
+        {
+            u2(code, value);
+        }
+
+        private void pushInt(int value)
+        {
+            if (value >= 0 && value <= 5)
+            {
+                op(ICONST_0 + value);
+            }
+            else if (value <= Byte.MAX_VALUE)
+            {
+                op(BIPUSH);
+                op(value);
+            }
+            else if (value <= Short.MAX_VALUE)
+            {
+                op(SIPUSH);
+                u2(value);
+            }
+            else
+            {
+                op(LDC_W);
+                u2(constant("I" + value, 3, value, 4, 1));
+            }
+        }
+
+        private void pushDouble(double value)
+        {
+            long bits = Double.doubleToRawLongBits(value);
+            if (bits == 0)
+            {
+                op(DCONST_0);
+            }
+            else if (value == 1)
+            {
+                op(DCONST_1);
+            }
+            else
+            {
+                op(LDC2_W);
+                u2(constant("D" + bits, 6, bits, 8, 2));
+            }
+        }
+
+        /**
+         * Adds the code written since the last method as a method of the class.
+         */
+        private void endMethod(int access, String name, String descriptor, int maxStack, int maxLocals)
+        {
+            u2(methods, access);
+            u2(methods, utf8(name));
+            u2(methods, utf8(descriptor));
+            u2(methods, 1);                         // one attribute, its code
+            u2(methods, utf8("Code"));
+            u4(methods, 12 + code.size());
+            u2(methods, maxStack);
+            u2(methods, maxLocals);
+            u4(methods, code.size());
+            byte[] bytes = code.toByteArray();
+            methods.write(bytes, 0, bytes.length);
+            u2(methods, 0);                         // no exception handlers
+            u2(methods, 0);                         // no attributes of the code
+            code.reset();
+            numMethods++;
+        }
+
+        private int methodRef(int owner, String name, String descriptor)
+        {
+            String key = "M" + owner + " " + name + descriptor;
+            Integer index = entries.get(key);
+            if (index == null)
+            {
+                int nameAndType = nameAndType(name, descriptor);
+                index = poolSize;
+                pool.write(10);
+                u2(pool, owner);
+                u2(pool, nameAndType);
+                poolSize++;
+                entries.put(key, index);
+            }
+            return index;
+        }
+
+        private int nameAndType(String name, String descriptor)
+        {
+            String key = "N" + name + descriptor;
+            Integer index = entries.get(key);
+            if (index == null)
+            {
+                int nameIndex = utf8(name);
+                int descriptorIndex = utf8(descriptor);
+                index = poolSize;
+                pool.write(12);
+                u2(pool, nameIndex);
+                u2(pool, descriptorIndex);
+                poolSize++;
+                entries.put(key, index);
+            }
+            return index;
+        }
+
+        private int classRef(String name)
+        {
+            String key = "C" + name;
+            Integer index = entries.get(key);
+            if (index == null)
+            {
+                int nameIndex = utf8(name);
+                index = poolSize;
+                pool.write(7);
+                u2(pool, nameIndex);
+                poolSize++;
+                entries.put(key, index);
+            }
+            return index;
+        }
+
+        private int utf8(String text)
+        {
+            String key = "U" + text;
+            Integer index = entries.get(key);
+            if (index == null)
+            {
+                byte[] bytes = text.getBytes(StandardCharsets.UTF_8);   // names here are all ASCII
+                index = poolSize;
+                pool.write(1);
+                u2(pool, bytes.length);
+                pool.write(bytes, 0, bytes.length);
+                poolSize++;
+                entries.put(key, index);
+            }
+            return index;
+        }
+
+        /**
+         * @return  The pool number of an int (tag 3) or double (tag 6) constant, adding it if it is not there yet
+         */
+        private int constant(String key, int tag, long bits, int numBytes, int numbers)
+        {
+            Integer index = entries.get(key);
+            if (index == null)
+            {
+                index = poolSize;
+                pool.write(tag);
+                for (int shift = 8 * (numBytes - 1); shift >= 0; shift -= 8)
+                {
+                    pool.write((int)(bits >>> shift));
+                }
+                poolSize += numbers;
+                entries.put(key, index);
+            }
+            return index;
+        }
+
+        private byte[] toBytes()
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            u4(out, 0xcafebabe);
+            u2(out, 0);                             // minor version
+            u2(out, 52);                            // major version: Java 8
+            u2(out, poolSize);
+            byte[] constants = pool.toByteArray();
+            out.write(constants, 0, constants.length);
+            u2(out, ACC_PUBLIC | ACC_SUPER);
+            u2(out, thisClass);
+            u2(out, superClass);
+            u2(out, 0);                             // interfaces
+            u2(out, 0);                             // fields
+            u2(out, numMethods);
+            byte[] methodBytes = methods.toByteArray();
+            out.write(methodBytes, 0, methodBytes.length);
+            u2(out, 0);                             // attributes
+            return out.toByteArray();
+        }
+
+        private static void u2(ByteArrayOutputStream out, int value)
+        {
+            out.write(value >>> 8);
+            out.write(value);
+        }
+
+        private static void u4(ByteArrayOutputStream out, int value)
+        {
+            u2(out, value >>> 16);
+            u2(out, value);
+        }
+    }
+
+    /**
+     * Runs the list of operations directly, for when it cannot be compiled.
+     */
+    private static class Interpreter extends SolveKernel
+    {
+        private int[] code;
+        private double[] table;
+
+        private Interpreter(int[] ops, double[] constants)
+        {
+            code = ops;
+            table = constants;
+        }
+
+        protected void run(double[] v, double[] w)
+        {
+            for (int op = 0; op < code.length; op += 4)
+            {
+                int a = code[op + 1];
+                int b = code[op + 2];
+                switch (code[op])
+                {
+                    case RECIPROCAL:
+                        w[a] = 1.0 / v[b];
+                        break;
+                    case SET:
+                        w[a] = table[b];
+                        break;
+                    case ADD:
+                        w[a] += w[b];
+                        break;
+                    case SUBTRACT:
+                        w[a] -= w[b];
+                        break;
+                    case DIVIDE:
+                        w[a] /= w[b];
+                        break;
+                    case MULTIPLY_SUBTRACT:
+                        w[a] -= w[b] * w[code[op + 3]];
+                        break;
+                    case VALUE:
+                        w[a] = v[b];
+                        break;
+                    default:
+                        w[a] = -v[b];
+                        break;
+                }
+            }
+        }
+    }
+}
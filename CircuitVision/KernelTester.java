@@ -0,0 +1,109 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Times SolveKernels (compiled and interpreted) against NodalAnalysis on grids of resistors with a battery, solving
+ * each one many times with random resistances, and checks that they agree.
+ */
+public class KernelTester
+{
+    public static void main(String[] args)
+    {
+        int[] sizes = {3, 6, 12};
+        for (int size : sizes)
+        {
+            Random random = new Random(size);
+            Circuit grid = new Circuit(size, size);
+            for (int r = 0; r < size; r++)
+            {
+                for (int c = 0; c < size; c++)
+                {
+                    if (c + 1 < size)
+                    {
+                        grid.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r, c + 1);
+                    }
+                    if (r + 1 < size)
+                    {
+                        grid.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r + 1, c);
+                    }
+                }
+            }
+            grid.addBattery(new Battery(9), 0, 0, size - 1, size - 1, 0, 0);
+
+            KernelCompiler compiler = new KernelCompiler();
+            long start = System.nanoTime();
+            SolveKernel compiled = compiler.compile(grid);
+            double compileMs = (System.nanoTime() - start) / 1e6;
+            compiler = new KernelCompiler();
+            compiler.setUseCompiler(false);
+            start = System.nanoTime();
+            SolveKernel interpreted = compiler.compile(grid);
+            double buildMs = (System.nanoTime() - start) / 1e6;
+            NodalAnalysis generic = compiled.getAnalysis();
+            System.out.println(size + " x " + size + " grid, " + grid.getComponents().size() + " components, "
+                + generic.size() + " unknowns, " + compiled.getNumOperations() + " operations");
+            System.out.println("   made in " + round(buildMs) + " ms; compiled " + (compiled.isCompiled() ? "to bytecode" : "(too many constants for a class, interpreted)")
+                + " in " + round(compileMs) + " ms");
+
+            int solves = 20000 / size;
+            double[][] trials = new double[solves][];
+            List<Component> components = generic.getComponents();
+            for (int t = 0; t < solves; t++)
+            {
+                trials[t] = generic.getValues();
+                for (int k = 0; k < components.size(); k++)
+                {
+                    if (components.get(k) instanceof Resistor)
+                    {
+                        trials[t][k] = 1 + random.nextInt(100);
+                    }
+                }
+            }
+            double[] x = new double[generic.size()];
+            double[] work = compiled.newWorkArray();
+            double[] interpretedWork = interpreted.newWorkArray();
+            double worst = 0;
+            for (int t = 0; t < solves; t++)
+            {
+                double[] exact = generic.solve(trials[t]);
+                compiled.solve(trials[t], x, work);
+                for (int i = 0; i < x.length; i++)
+                {
+                    worst = Math.max(worst, Math.abs(x[i] - exact[i]));
+                }
+                interpreted.solve(trials[t], x, interpretedWork);
+                for (int i = 0; i < x.length; i++)
+                {
+                    worst = Math.max(worst, Math.abs(x[i] - exact[i]));
+                }
+            }
+
+            // Timed runs, after the loop above has warmed up all three
+            start = System.nanoTime();
+            for (int t = 0; t < solves; t++)
+            {
+                generic.solve(trials[t]);
+            }
+            double genericUs = (System.nanoTime() - start) / 1e3 / solves;
+            start = System.nanoTime();
+            for (int t = 0; t < solves; t++)
+            {
+                interpreted.solve(trials[t], x, interpretedWork);
+            }
+            double interpretedUs = (System.nanoTime() - start) / 1e3 / solves;
+            start = System.nanoTime();
+            for (int t = 0; t < solves; t++)
+            {
+                compiled.solve(trials[t], x, work);
+            }
+            double compiledUs = (System.nanoTime() - start) / 1e3 / solves;
+            System.out.println("   " + solves + " solves: NodalAnalysis " + round(genericUs) + " us, interpreted "
+                + round(interpretedUs) + " us, compiled " + round(compiledUs) + " us; largest difference " + worst);
+        }
+    }
+
+    private static double round(double value)
+    {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,62 @@
+
+/**
+ * A light-emitting diode. It behaves like a Diode with a larger forward voltage (about 1.8 V at 10 mA) and glows in
+ * the Animation when enough current flows through it.
+ */
+public class LED extends Diode
+{
+    public static final double LIT_CURRENT = 0.001;    // amps needed to see the LED glow
+
+    private int color;  // Processing color (0xAARRGGBB)
+
+    /**
+     * Constructs a red LED.
+     */
+    public LED()
+    {
+        this(0xFFFF0000);
+    }
+
+    /**
+     * Constructs an LED that glows with the given color.
+     * @param ledColor  Color as 0xAARRGGBB
+     */
+    public LED(int ledColor)
+    {
+        super(1e-17, 2);
+        color = ledColor;
+    }
+
+    /**
+     * @return  The color of the LED, as 0xAARRGGBB
+     */
+    public int getColor()
+    {
+        return color;
+    }
+
+    /**
+     * @return  True if the current through the LED (from the last solve) is enough to light it up.
+     */
+    public boolean isLit()
+    {
+        if (getCurrentDirection() == null)
+        {
+            return false;
+        }
+        double current = getCurrent();
+        if (!getCurrentDirection().equals(getAnode()))
+        {
+            return current > LIT_CURRENT;   // labeled direction runs anode to cathode
+        }
+        return -current > LIT_CURRENT;
+    }
+
+    /**
+     * @return  Returns the Diode's toString() with "LED" appended
+     */
+    public String toString()
+    {
+        return super.toString() + "LED\t";
+    }
+}
@@ -0,0 +1,874 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.apache.commons.math3.linear.*;
+
+/**
+ * Writes the equations for a Circuit using modified nodal analysis. There is one unknown potential for each terminal
+ * that has a component connected to it, and one unknown current for each wire, battery and inductor (a wire is treated
+ * as a battery of 0 volts). In each separate piece of the circuit, one terminal is used as the reference and is held
+ * at 0 V. For a steady (DC) solve, inductors act like wires and capacitors act like breaks in the circuit.
+ *
+ * Unlike Circuit.solve(), the resistances and voltages are passed in as an array of values (indexed the same way as
+ * circuit.getComponents()), so the same circuit can be re-solved many times with different values without copying it.
+ *
+ * Subcircuits placed in the circuit (see Circuit.addSubcircuit()) add no unknowns of their own: each one adds its
+ * reduced port equations (see SubcircuitDefinition) to the rows and columns of the terminals its ports connect to.
+ *
+ * The numbering is worked out from a CompactCircuit, so a NodalAnalysis can also be made straight from one, without
+ * Component objects. The methods that take or return Components (and getBranchCurrents()) need a Circuit.
+ */
+public class NodalAnalysis
+{
+    private Circuit circuit;
+    private List<Component> components;     // null if made from a CompactCircuit
+    private CompactCircuit compact;
+    private List<SubcircuitInstance> subcircuits;
+    private int[][] portNode;   // unknown for each port of each subcircuit (-1 for a reference terminal)
+    private int cols;
+    private int[] nodeIndex;    // unknown for each terminal (see CompactCircuit); -1 for reference and unused terminals
+    private int[] group;        // which separate piece of the circuit each terminal belongs to; -1 for unused terminals
+    private int[] end1;         // unknown for endPt1 of each component (-1 if it is a reference terminal)
+    private int[] end2;         // unknown for endPt2 of each component
+    private int[] sourceRow;    // unknown for the current through each wire, battery or inductor; -1 otherwise
+    private int[] posSign;      // +1 if endPt1 is the battery's positive end, -1 if endPt2 is
+    private int numNodes;
+    private int size;
+
+    // A tiny conductance across each capacitor keeps terminals that are only connected through capacitors from
+    // making the equations singular in a steady (DC) solve.
+    public static final double GMIN = 1e-9;
+
+    /**
+     * Numbers the unknowns for a circuit. The topology is captured when this constructor runs; if components are later
+     * added or removed, a new NodalAnalysis must be constructed.
+     * @param circ  The circuit to analyze
+     */
+    public NodalAnalysis(Circuit circ)
+    {
+        this(CompactCircuit.fromCircuit(circ), new ArrayList<SubcircuitInstance>(circ.getSubcircuits()));
+        circuit = circ;
+        components = new ArrayList<Component>(circ.getComponents());
+    }
+
+    /**
+     * Numbers the unknowns for a CompactCircuit. getValues() then reads the compact circuit's values.
+     */
+    public NodalAnalysis(CompactCircuit circ)
+    {
+        this(circ, new ArrayList<SubcircuitInstance>());
+    }
+
+    private NodalAnalysis(CompactCircuit circ, List<SubcircuitInstance> subs)
+    {
+        compact = circ;
+        subcircuits = subs;
+        cols = circ.getCols();
+        int numTerminals = circ.numTerminals();
+        int n = circ.size();
+
+        // Find the separate pieces of the circuit by joining the terminals at both ends of every component
+        int[] parent = new int[numTerminals];
+        for (int i = 0; i < numTerminals; i++)
+        {
+            parent[i] = i;
+        }
+        for (int k = 0; k < n; k++)
+        {
+            int a = find(parent, circ.getEnd1(k));
+            int b = find(parent, circ.getEnd2(k));
+            parent[Math.max(a, b)] = Math.min(a, b);
+        }
+        // Ports that are connected inside a subcircuit join their terminals in the same way
+        boolean[] isPort = new boolean[numTerminals];
+        for (SubcircuitInstance sub : subcircuits)
+        {
+            for (int p = 0; p < sub.numPorts(); p++)
+            {
+                isPort[terminalIndex(sub.getPort(p))] = true;
+                for (int q = 0; q < p; q++)
+                {
+                    if (sub.getDefinition().getPortGroup(p) == sub.getDefinition().getPortGroup(q))
+                    {
+                        int a = find(parent, terminalIndex(sub.getPort(p)));
+                        int b = find(parent, terminalIndex(sub.getPort(q)));
+                        parent[Math.max(a, b)] = Math.min(a, b);
+                    }
+                }
+            }
+        }
+
+        // The first terminal of each piece (its root) is the reference terminal
+        nodeIndex = new int[numTerminals];
+        group = new int[numTerminals];
+        numNodes = 0;
+        for (int i = 0; i < numTerminals; i++)
+        {
+            nodeIndex[i] = -1;
+            group[i] = -1;
+            if (circ.numConnections(i) > 0 || isPort[i])
+            {
+                int root = find(parent, i);
+                group[i] = root;
+                if (root != i)
+                {
+                    nodeIndex[i] = numNodes;
+                    numNodes++;
+                }
+            }
+        }
+
+        end1 = new int[n];
+        end2 = new int[n];
+        sourceRow = new int[n];
+        posSign = new int[n];
+        size = numNodes;
+        for (int k = 0; k < n; k++)
+        {
+            end1[k] = nodeIndex[circ.getEnd1(k)];
+            end2[k] = nodeIndex[circ.getEnd2(k)];
+            sourceRow[k] = -1;
+            posSign[k] = 1;
+            if (isSource(circ.getKind(k), circ.getValue(k)))
+            {
+                sourceRow[k] = size;
+                size++;
+            }
+            if (circ.getKind(k) == CompactCircuit.BATTERY && circ.isFlipped(k))
+            {
+                posSign[k] = -1;
+            }
+        }
+        portNode = new int[subcircuits.size()][];
+        for (int i = 0; i < subcircuits.size(); i++)
+        {
+            SubcircuitInstance sub = subcircuits.get(i);
+            portNode[i] = new int[sub.numPorts()];
+            for (int p = 0; p < sub.numPorts(); p++)
+            {
+                portNode[i][p] = nodeIndex[terminalIndex(sub.getPort(p))];
+            }
+        }
+    }
+
+    /**
+     * @return  An array holding each component's value: resistance for resistors, voltage for batteries, capacitance
+     *          for capacitors, inductance for inductors, and 0 for wires (saturation current for diodes, if made from a
+     *          CompactCircuit). Made from a Circuit, the values are read from its components as they are now.
+     */
+    public double[] getValues()
+    {
+        if (components == null)
+        {
+            return compact.getValues();
+        }
+        return getValues(new double[components.size()]);
+    }
+
+    /**
+     * Reads the component values into an array that is already there, as getValues() does.
+     * @param values  Where to put them; at least as long as the number of components
+     * @return  values
+     */
+    public double[] getValues(double[] values)
+    {
+        if (components == null)
+        {
+            for (int k = 0; k < compact.size(); k++)
+            {
+                values[k] = compact.getValue(k);
+            }
+            return values;
+        }
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            if (c instanceof Battery)
+            {
+                values[k] = ((Battery)c).getVoltage();
+            }
+            else if (c instanceof Capacitor)
+            {
+                values[k] = ((Capacitor)c).getCapacitance();
+            }
+            else if (c instanceof Inductor)
+            {
+                values[k] = ((Inductor)c).getInductance();
+            }
+            else
+            {
+                values[k] = c.getResistance();
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Stamps the coefficient matrix. Rows 0 to numNodes - 1 are Kirchhoff's junction rule at each terminal; the remaining
+     * rows set the potential difference across each wire and battery.
+     * @param values  Component values, as returned by getValues()
+     * @return  The square coefficient matrix
+     */
+    public double[][] buildMatrix(double[] values)
+    {
+        return buildMatrix(values, new double[size][size]);
+    }
+
+    /**
+     * Stamps the coefficient matrix into an array that is already there, clearing the top-left size() x size() block
+     * of it first. Nothing is allocated, so a SolveWorkspace can rebuild the matrix for every solve.
+     * @return  matrix
+     */
+    public double[][] buildMatrix(double[] values, double[][] matrix)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            for (int j = 0; j < size; j++)
+            {
+                matrix[i][j] = 0;
+            }
+        }
+        for (int k = 0; k < end1.length; k++)
+        {
+            int a = end1[k];
+            int b = end2[k];
+            int s = sourceRow[k];
+            if (s < 0)
+            {
+                double g = conductance(values, k);
+                stamp(matrix, a, a, g);
+                stamp(matrix, b, b, g);
+                stamp(matrix, a, b, -g);
+                stamp(matrix, b, a, -g);
+            }
+            else
+            {
+                stamp(matrix, a, s, 1);     // current s leaves terminal a and enters terminal b
+                stamp(matrix, b, s, -1);
+                stamp(matrix, s, a, 1);     // V(a) - V(b) = battery voltage
+                stamp(matrix, s, b, -1);
+            }
+        }
+        for (int i = 0; i < subcircuits.size(); i++)
+        {
+            double[][] y = subcircuits.get(i).getDefinition().getAdmittance();
+            for (int p = 0; p < y.length; p++)
+            {
+                for (int q = 0; q < y.length; q++)
+                {
+                    stamp(matrix, portNode[i][p], portNode[i][q], y[p][q]);
+                }
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * Stamps the coefficient matrix into a band matrix of zeros, with unknown i at row and column position[i] (see
+     * getBandOrder()). The band must reach at least getBandwidth(position) each side of the diagonal.
+     */
+    public void buildMatrix(double[] values, BandedLU band, int[] position)
+    {
+        for (int k = 0; k < end1.length; k++)
+        {
+            int a = end1[k];
+            int b = end2[k];
+            int s = sourceRow[k];
+            if (s < 0)
+            {
+                double g = conductance(values, k);
+                stamp(band, position, a, a, g);
+                stamp(band, position, b, b, g);
+                stamp(band, position, a, b, -g);
+                stamp(band, position, b, a, -g);
+            }
+            else
+            {
+                stamp(band, position, a, s, 1);
+                stamp(band, position, b, s, -1);
+                stamp(band, position, s, a, 1);
+                stamp(band, position, s, b, -1);
+            }
+        }
+        for (int i = 0; i < subcircuits.size(); i++)
+        {
+            double[][] y = subcircuits.get(i).getDefinition().getAdmittance();
+            for (int p = 0; p < y.length; p++)
+            {
+                for (int q = 0; q < y.length; q++)
+                {
+                    stamp(band, position, portNode[i][p], portNode[i][q], y[p][q]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Orders the unknowns so that the entries buildMatrix() writes lie near the diagonal (see BandOrdering), for
+     * factoring as a band.
+     * @return  The place of each unknown in the order
+     */
+    public int[] getBandOrder()
+    {
+        int[] pairs = couplings();
+        int[] adjacentStart = new int[size + 1];
+        for (int p = 0; p < pairs.length; p += 2)
+        {
+            adjacentStart[pairs[p] + 1]++;
+        }
+        for (int i = 0; i < size; i++)
+        {
+            adjacentStart[i + 1] += adjacentStart[i];
+        }
+        int[] next = Arrays.copyOf(adjacentStart, size);
+        int[] adjacent = new int[pairs.length / 2];
+        for (int p = 0; p < pairs.length; p += 2)
+        {
+            adjacent[next[pairs[p]]] = pairs[p + 1];
+            next[pairs[p]]++;
+        }
+        return BandOrdering.reverseCuthillMcKee(size, adjacentStart, adjacent);
+    }
+
+    /**
+     * @return  How far from the diagonal buildMatrix() can write an entry, with the unknowns in the order given
+     */
+    public int getBandwidth(int[] position)
+    {
+        int[] pairs = couplings();
+        int width = 0;
+        for (int p = 0; p < pairs.length; p += 2)
+        {
+            width = Math.max(width, Math.abs(position[pairs[p]] - position[pairs[p + 1]]));
+        }
+        return width;
+    }
+
+    /**
+     * @return  Each pair of different unknowns (row, column) that buildMatrix() can write an entry for, side by side,
+     *          both ways round
+     */
+    private int[] couplings()
+    {
+        int most = 8 * end1.length;
+        for (SubcircuitInstance sub : subcircuits)
+        {
+            most += 2 * sub.numPorts() * sub.numPorts();
+        }
+        int[] pairs = new int[most];
+        int count = 0;
+        for (int k = 0; k < end1.length; k++)
+        {
+            if (sourceRow[k] < 0)
+            {
+                count = couple(pairs, count, end1[k], end2[k]);
+            }
+            else
+            {
+                count = couple(pairs, count, end1[k], sourceRow[k]);
+                count = couple(pairs, count, end2[k], sourceRow[k]);
+            }
+        }
+        for (int i = 0; i < subcircuits.size(); i++)
+        {
+            for (int p = 0; p < portNode[i].length; p++)
+            {
+                for (int q = 0; q < p; q++)
+                {
+                    count = couple(pairs, count, portNode[i][p], portNode[i][q]);
+                }
+            }
+        }
+        return Arrays.copyOf(pairs, count);
+    }
+
+    /**
+     * Adds (a, b) and (b, a) to the pairs at count, unless a or b is a reference terminal or they are the same.
+     * @return  The new count
+     */
+    private static int couple(int[] pairs, int count, int a, int b)
+    {
+        if (a < 0 || b < 0 || a == b)
+        {
+            return count;
+        }
+        pairs[count] = a;
+        pairs[count + 1] = b;
+        pairs[count + 2] = b;
+        pairs[count + 3] = a;
+        return count + 4;
+    }
+
+    /**
+     * @param values  Component values, as returned by getValues()
+     * @return  The constant terms for the equations written by buildMatrix()
+     */
+    public double[] buildConstants(double[] values)
+    {
+        return buildConstants(values, new double[size]);
+    }
+
+    /**
+     * Writes the constant terms into an array that is already there (at least size() long), clearing it first.
+     * @return  constants
+     */
+    public double[] buildConstants(double[] values, double[] constants)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            constants[i] = 0;
+        }
+        for (int k = 0; k < end1.length; k++)
+        {
+            if (compact.getKind(k) == CompactCircuit.BATTERY)
+            {
+                constants[sourceRow[k]] = posSign[k] * values[k];
+            }
+        }
+        for (int i = 0; i < subcircuits.size(); i++)
+        {
+            double[] j = subcircuits.get(i).getDefinition().getSources();
+            for (int p = 0; p < j.length; p++)
+            {
+                if (portNode[i][p] >= 0)
+                {
+                    constants[portNode[i][p]] += j[p];
+                }
+            }
+        }
+        return constants;
+    }
+
+    /**
+     * Factors the coefficient matrix so that it can be used for any number of solves with different constants.
+     * @param values  Component values, as returned by getValues()
+     * @return  The solver, or null if the matrix is singular (for example, a short circuit).
+     */
+    public DecompositionSolver factor(double[] values)
+    {
+        if (size == 0)
+        {
+            return null;
+        }
+        DecompositionSolver solver = new LUDecomposition(new Array2DRowRealMatrix(buildMatrix(values), false)).getSolver();
+        if (!solver.isNonSingular())
+        {
+            return null;
+        }
+        return solver;
+    }
+
+    /**
+     * Solves the circuit for a particular set of component values.
+     * @param values  Component values, as returned by getValues()
+     * @return  The solution vector (terminal potentials, then wire and battery currents), or null if it cannot be solved.
+     */
+    public double[] solve(double[] values)
+    {
+        DecompositionSolver solver = factor(values);
+        if (solver == null)
+        {
+            return null;
+        }
+        return solve(solver, buildConstants(values));
+    }
+
+    /**
+     * Solves an already factored system for a given set of constants.
+     */
+    public double[] solve(DecompositionSolver solver, double[] constants)
+    {
+        return solver.solve(new ArrayRealVector(constants, false)).toArray();
+    }
+
+    /**
+     * Finds the resistance between two terminals, with every battery replaced by a wire, by solving the factored
+     * equations once more with 1 A pushed into terminal a and taken out of terminal b.
+     * @param solver  The factored equations, as returned by factor()
+     * @return  The resistance in ohms, or Double.POSITIVE_INFINITY if a and b are not in the same piece of the circuit.
+     */
+    public double getResistanceBetween(DecompositionSolver solver, Terminal a, Terminal b)
+    {
+        int groupA = getGroup(a);
+        if (groupA < 0 || groupA != getGroup(b))
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        int nodeA = getNode(a);
+        int nodeB = getNode(b);
+        double[] injected = new double[size];
+        if (nodeA >= 0)
+        {
+            injected[nodeA] = 1;
+        }
+        if (nodeB >= 0)
+        {
+            injected[nodeB] = -1;
+        }
+        double[] y = solve(solver, injected);
+        return entry(y, nodeA) - entry(y, nodeB);
+    }
+
+    /**
+     * @return  True if circ still has exactly the components (in the same order, with the same battery polarities) that
+     *          this NodalAnalysis numbered, so that it can be reused.
+     */
+    public boolean matches(Circuit circ)
+    {
+        if (circ != circuit || circ.getComponents().size() != components.size() || !circ.getSubcircuits().equals(subcircuits))
+        {
+            return false;
+        }
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            if (circ.getComponents().get(k) != c)
+            {
+                return false;
+            }
+            if (c instanceof Battery && (posSign[k] > 0) != c.getEndPt1().equals(((Battery)c).getPosEnd()))
+            {
+                return false;
+            }
+            if (c instanceof Resistor && (sourceRow[k] >= 0) != (c.getResistance() == 0))  // changed to or from 0 ohms
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param x  A solution vector returned by solve()
+     * @param values  The component values that x was solved with
+     * @param k  Index of the component in circuit.getComponents()
+     * @return  The current flowing through the component from endPt1 to endPt2
+     */
+    public double getCurrent(double[] x, double[] values, int k)
+    {
+        if (sourceRow[k] >= 0)
+        {
+            return x[sourceRow[k]];
+        }
+        return (entry(x, end1[k]) - entry(x, end2[k])) * conductance(values, k);
+    }
+
+    /**
+     * Checks a solution against the equations written by buildMatrix() and buildConstants(), without building the
+     * matrix. Each equation's residual is measured against the size of its terms (|b| + |A| |x|), so the answer does
+     * not depend on how large the values are: about 1e-16 for a solution found with good pivots, much larger when the
+     * pivots were chosen badly for these values.
+     * @param x  A solution vector for the values
+     * @param values  Component values, as returned by getValues()
+     * @return  The largest relative residual of any equation; NaN if x holds NaN
+     */
+    public double getBackwardError(double[] x, double[] values)
+    {
+        double[] residual = buildConstants(values);    // b - A x, one term at a time
+        double[] scale = new double[size];
+        for (int i = 0; i < size; i++)
+        {
+            scale[i] = Math.abs(residual[i]);
+        }
+        for (int k = 0; k < end1.length; k++)
+        {
+            int a = end1[k];
+            int b = end2[k];
+            int s = sourceRow[k];
+            if (s < 0)
+            {
+                double g = conductance(values, k);
+                double terms = Math.abs(g * entry(x, a)) + Math.abs(g * entry(x, b));
+                double current = getCurrent(x, values, k);
+                addTerm(residual, scale, a, -current, terms);
+                addTerm(residual, scale, b, current, terms);
+            }
+            else
+            {
+                addTerm(residual, scale, a, -x[s], Math.abs(x[s]));
+                addTerm(residual, scale, b, x[s], Math.abs(x[s]));
+                addTerm(residual, scale, s, entry(x, b) - entry(x, a), Math.abs(entry(x, a)) + Math.abs(entry(x, b)));
+            }
+        }
+        for (int i = 0; i < subcircuits.size(); i++)
+        {
+            double[][] y = subcircuits.get(i).getDefinition().getAdmittance();
+            for (int p = 0; p < y.length; p++)
+            {
+                for (int q = 0; q < y.length; q++)
+                {
+                    double term = y[p][q] * entry(x, portNode[i][q]);
+                    addTerm(residual, scale, portNode[i][p], -term, Math.abs(term));
+                }
+            }
+        }
+        double worst = 0;
+        for (int i = 0; i < size; i++)
+        {
+            if (Double.isNaN(residual[i]))
+            {
+                return Double.NaN;
+            }
+            if (residual[i] != 0)
+            {
+                worst = Math.max(worst, Math.abs(residual[i]) / scale[i]);
+            }
+        }
+        return worst;
+    }
+
+    private static void addTerm(double[] residual, double[] scale, int row, double term, double terms)
+    {
+        if (row >= 0)
+        {
+            residual[row] += term;
+            scale[row] += terms;
+        }
+    }
+
+    /**
+     * Finds the current in each branch, with the same branch numbers and current directions assigned by circuit.solve().
+     * @param x  A solution vector returned by solve()
+     * @param values  The component values that x was solved with
+     * @return  The current in each branch, indexed by branch number
+     */
+    public double[] getBranchCurrents(double[] x, double[] values)
+    {
+        double[] currents = new double[circuit.getNumBranches()];
+        for (int k = components.size() - 1; k >= 0; k--)
+        {
+            Component c = components.get(k);
+            if (c.getBranch() >= 0 && c.getBranch() < currents.length)
+            {
+                currents[c.getBranch()] = getCurrentInDirection(x, values, k);
+            }
+        }
+        return currents;
+    }
+
+    /**
+     * @return  The current through component k, positive when it flows toward the component's currentDirection terminal.
+     */
+    public double getCurrentInDirection(double[] x, double[] values, int k)
+    {
+        Component c = components.get(k);
+        double current = getCurrent(x, values, k);
+        if (c.getCurrentDirection() != null && c.getCurrentDirection().equals(c.getEndPt1()))
+        {
+            return -current;
+        }
+        return current;
+    }
+
+    /**
+     * Finds the potential at every terminal, shifted (separately within each piece of the circuit) so that the
+     * lowest potential is 0 V, as in Circuit.solve().
+     * @param x  A solution vector returned by solve()
+     * @return  The potential at each terminal, indexed by row * cols + col (or for a sparse circuit, in the order of its
+     *          terminal keys). Unconnected terminals are Double.MAX_VALUE.
+     */
+    public double[] getPotentials(double[] x)
+    {
+        return getPotentials(x, new double[nodeIndex.length], new double[nodeIndex.length]);
+    }
+
+    /**
+     * Finds the potentials as getPotentials(x) does, into arrays that are already there.
+     * @param potentials  Where to put them; at least as long as the number of terminals
+     * @param lowest  Room to work in, as long as potentials
+     * @return  potentials
+     */
+    public double[] getPotentials(double[] x, double[] potentials, double[] lowest)
+    {
+        for (int i = 0; i < nodeIndex.length; i++)
+        {
+            lowest[i] = Double.MAX_VALUE;
+        }
+        for (int i = 0; i < nodeIndex.length; i++)
+        {
+            if (group[i] >= 0)
+            {
+                potentials[i] = entry(x, nodeIndex[i]);
+                lowest[group[i]] = Math.min(lowest[group[i]], potentials[i]);
+            }
+        }
+        for (int i = 0; i < nodeIndex.length; i++)
+        {
+            if (group[i] >= 0)
+            {
+                potentials[i] -= lowest[group[i]];
+            }
+            else
+            {
+                potentials[i] = Double.MAX_VALUE;
+            }
+        }
+        return potentials;
+    }
+
+    /**
+     * @param x  A solution vector returned by solve()
+     * @return  The potential of a terminal measured from the reference terminal of its piece of the circuit.
+     */
+    public double getPotential(double[] x, Terminal t)
+    {
+        return entry(x, getNode(t));
+    }
+
+    /**
+     * The unknown that holds a terminal's potential.
+     * @return  The row of the solution vector, or -1 if the terminal is a reference terminal or not connected.
+     */
+    public int getNode(Terminal t)
+    {
+        int i = terminalIndex(t);
+        return i < 0 ? -1 : nodeIndex[i];
+    }
+
+    /**
+     * @return  An identifier shared by every terminal in the same separate piece of the circuit, or -1 if the
+     *          terminal is not connected to anything.
+     */
+    public int getGroup(Terminal t)
+    {
+        int i = terminalIndex(t);
+        return i < 0 ? -1 : group[i];
+    }
+
+    /**
+     * @return  The unknown for each end of component k. The first entry is endPt1; -1 means a reference terminal.
+     */
+    public int[] getEnds(int k)
+    {
+        return new int[] {end1[k], end2[k]};
+    }
+
+    /**
+     * @return  The row of the solution vector holding the current through wire, battery or inductor k, or -1 for
+     *          resistors and capacitors.
+     */
+    public int getSourceRow(int k)
+    {
+        return sourceRow[k];
+    }
+
+    /**
+     * @return  The index of a component in the values array, or -1 if it was not in the circuit when analyzed.
+     */
+    public int indexOf(Component c)
+    {
+        if (components == null)
+        {
+            return -1;
+        }
+        for (int k = 0; k < components.size(); k++)
+        {
+            if (components.get(k) == c)
+            {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return  The components, in the same order as the values array, or null if made from a CompactCircuit.
+     */
+    public List<Component> getComponents()
+    {
+        return components;
+    }
+
+    /**
+     * @return  The circuit as arrays: the kind and terminals of each component, in the same order as the values array.
+     */
+    public CompactCircuit getCompactCircuit()
+    {
+        return compact;
+    }
+
+    /**
+     * @return  The number of unknown terminal potentials.
+     */
+    public int getNumNodes()
+    {
+        return numNodes;
+    }
+
+    /**
+     * @return  The total number of unknowns (and equations).
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Wires, batteries and inductors are written as ideal voltage sources, with their current as an extra unknown.
+     * A resistor of 0 ohms is treated the same as a wire.
+     */
+    private static boolean isSource(int kind, double value)
+    {
+        if (kind == CompactCircuit.RESISTOR)
+        {
+            return value == 0;
+        }
+        return !(kind == CompactCircuit.CAPACITOR || kind == CompactCircuit.DIODE || kind == CompactCircuit.LED);
+    }
+
+    /**
+     * @return  The steady-state conductance of resistor or capacitor k. Diodes are nonlinear, so only GMIN is stamped
+     *          for them here; OperatingPoint adds the rest.
+     */
+    private double conductance(double[] values, int k)
+    {
+        if (compact.getKind(k) == CompactCircuit.CAPACITOR || compact.isDiode(k))
+        {
+            return GMIN;
+        }
+        return 1.0 / values[k];
+    }
+
+    private void stamp(double[][] matrix, int row, int col, double value)
+    {
+        if (row >= 0 && col >= 0)
+        {
+            matrix[row][col] += value;
+        }
+    }
+
+    private static void stamp(BandedLU band, int[] position, int row, int col, double value)
+    {
+        if (row >= 0 && col >= 0)
+        {
+            band.add(position[row], position[col], value);
+        }
+    }
+
+    private double entry(double[] x, int i)
+    {
+        if (i < 0)
+        {
+            return 0;
+        }
+        return x[i];
+    }
+
+    /**
+     * @return  The terminal's number in the CompactCircuit, or -1 if a sparse circuit has nothing there
+     */
+    private int terminalIndex(Terminal t)
+    {
+        return compact.terminalIndex(t.getRow(), t.getCol());
+    }
+
+    private static int find(int[] parent, int i)
+    {
+        while (parent[i] != i)
+        {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
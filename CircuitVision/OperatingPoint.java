@@ -0,0 +1,267 @@
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Finds the steady (DC) currents and potentials in a circuit that contains diodes, using Newton-Raphson iteration.
+ * Each iteration replaces every diode with the straight line that touches its current-voltage curve at the present
+ * guess (a conductance plus a current source) and solves the resulting linear equations.
+ *
+ * The order of the unknowns that keeps the equations' nonzero entries near the diagonal (see BandOrdering), and so
+ * how wide a band they need, is worked out once. Every iteration stamps the equations, with each diode's present line,
+ * into a band matrix in that order and factors it (see BandedLU): about n b^2 work for n unknowns and a band b wide,
+ * which for a circuit laid out on a grid is about its narrower side, rather than n^3 for a dense matrix. The diode
+ * voltages are limited from one iteration to the next (as in SPICE) so that the exponential does not overflow. The
+ * solution is kept between calls to solve(), so after a small edit (such as changing a resistance) the next solve
+ * starts from the previous operating point and usually converges in two or three iterations.
+ */
+public class OperatingPoint
+{
+    private Circuit circuit;        // null if made from a CompactCircuit
+    private NodalAnalysis analysis;
+    private CompactCircuit compact;
+    private int size;
+    private int[] position;         // place of each unknown in the band matrix
+    private int bandwidth;
+    private BandedLU band;          // the equations for the current iteration
+    private double[] values;
+    private int[] diodes;           // index of each diode in components
+    private int[] anode;            // unknown for each diode's anode (-1 for a reference terminal)
+    private int[] cathode;
+    private double[] saturation;    // Is of each diode
+    private double[] emission;      // n of each diode
+    private double[] diodeVoltage;  // present guess of the voltage across each diode, anode to cathode
+    private double[] x;
+    private int iterations;
+    private int maxIterations = 100;
+
+    /**
+     * Sets up the equations for a circuit. The topology is captured here; component values are re-read on every solve().
+     * @param circ  The circuit to solve
+     */
+    public OperatingPoint(Circuit circ)
+    {
+        this(new NodalAnalysis(circ));
+        circuit = circ;
+    }
+
+    /**
+     * Sets up the equations for a CompactCircuit. Its values are re-read on every solve().
+     */
+    public OperatingPoint(CompactCircuit circ)
+    {
+        this(new NodalAnalysis(circ));
+    }
+
+    private OperatingPoint(NodalAnalysis nodal)
+    {
+        analysis = nodal;
+        compact = analysis.getCompactCircuit();
+        size = analysis.size();
+        position = analysis.getBandOrder();
+        bandwidth = analysis.getBandwidth(position);
+
+        List<Integer> found = new ArrayList<Integer>();
+        for (int k = 0; k < compact.size(); k++)
+        {
+            if (compact.isDiode(k))
+            {
+                found.add(k);
+            }
+        }
+        diodes = new int[found.size()];
+        anode = new int[diodes.length];
+        cathode = new int[diodes.length];
+        saturation = new double[diodes.length];
+        emission = new double[diodes.length];
+        diodeVoltage = new double[diodes.length];
+        for (int i = 0; i < diodes.length; i++)
+        {
+            diodes[i] = found.get(i);
+            saturation[i] = compact.getValue(diodes[i]);
+            emission[i] = compact.getEmissionCoefficient(diodes[i]);
+            int[] ends = analysis.getEnds(diodes[i]);
+            if (!compact.isFlipped(diodes[i]))
+            {
+                anode[i] = ends[0];
+                cathode[i] = ends[1];
+            }
+            else
+            {
+                anode[i] = ends[1];
+                cathode[i] = ends[0];
+            }
+        }
+    }
+
+    /**
+     * @return  True if circ still has exactly the components (in the same order) this OperatingPoint was set up for,
+     *          with every battery and diode the same way round and no resistor changed to or from 0 ohms, so that it
+     *          can be reused and warm-started.
+     */
+    public boolean matches(Circuit circ)
+    {
+        if (circ != circuit || !analysis.matches(circ))
+        {
+            return false;
+        }
+        List<Component> components = analysis.getComponents();
+        for (int i = 0; i < diodes.length; i++)
+        {
+            Component c = components.get(diodes[i]);
+            if (((Diode)c).getAnode().equals(c.getEndPt1()) == compact.isFlipped(diodes[i]))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs Newton-Raphson iteration from the last solution found (or from all diodes at 0 V the first time).
+     * @return  The solution vector (see NodalAnalysis), or null if the equations are singular or do not converge.
+     */
+    public double[] solve()
+    {
+        values = analysis.getValues();
+        double[] linearConstants = analysis.buildConstants(values);
+        double[] constants = new double[size];    // in band order
+        iterations = 0;
+        boolean converged = false;
+        while (!converged && iterations < maxIterations)
+        {
+            iterations++;
+            band = new BandedLU(size, bandwidth, bandwidth);
+            analysis.buildMatrix(values, band, position);
+            for (int i = 0; i < size; i++)
+            {
+                constants[position[i]] = linearConstants[i];
+            }
+            for (int i = 0; i < diodes.length; i++)
+            {
+                double v = diodeVoltage[i];
+                double g = Diode.conductanceAt(saturation[i], emission[i], v);
+                double source = Diode.currentAt(saturation[i], emission[i], v) - g * v;     // current source in parallel with conductance g
+                stamp(anode[i], anode[i], g);
+                stamp(cathode[i], cathode[i], g);
+                stamp(anode[i], cathode[i], -g);
+                stamp(cathode[i], anode[i], -g);
+                if (anode[i] >= 0)
+                {
+                    constants[position[anode[i]]] -= source;
+                }
+                if (cathode[i] >= 0)
+                {
+                    constants[position[cathode[i]]] += source;
+                }
+            }
+
+            if (!band.factor())
+            {
+                x = null;
+                return null;
+            }
+            band.solve(constants);
+            x = new double[size];
+            for (int i = 0; i < size; i++)
+            {
+                x[i] = constants[position[i]];
+            }
+
+            converged = true;
+            for (int i = 0; i < diodes.length; i++)
+            {
+                double vNew = entry(anode[i]) - entry(cathode[i]);
+                double vLimited = limit(i, vNew, diodeVoltage[i]);
+                if (vLimited != vNew || Math.abs(vLimited - diodeVoltage[i]) > 1e-9 + 1e-6 * Math.abs(vLimited))
+                {
+                    converged = false;
+                }
+                diodeVoltage[i] = vLimited;
+            }
+        }
+        if (!converged)
+        {
+            x = null;
+        }
+        return x;
+    }
+
+    /**
+     * SPICE's junction voltage limiting: above the critical voltage, a large step in diode voltage is replaced by a
+     * logarithmic one, so the next guess of the diode current grows by a reasonable factor rather than exponentially.
+     */
+    private double limit(int i, double vNew, double vOld)
+    {
+        double vt = emission[i] * Diode.THERMAL_VOLTAGE;
+        double vCrit = vt * Math.log(vt / (Math.sqrt(2) * saturation[i]));
+        if (vNew > vCrit && Math.abs(vNew - vOld) > 2 * vt)
+        {
+            if (vOld > 0)
+            {
+                double arg = 1 + (vNew - vOld) / vt;
+                if (arg > 0)
+                {
+                    return vOld + vt * Math.log(arg);
+                }
+                return vCrit;
+            }
+            return vt * Math.log(vNew / vt);
+        }
+        return vNew;
+    }
+
+    /**
+     * @param k  Index of a component in circuit.getComponents() (or in the CompactCircuit)
+     * @return  The current through the component from endPt1 to endPt2, in the last solution
+     */
+    public double getCurrent(int k)
+    {
+        if (compact.isDiode(k))
+        {
+            double is = compact.getValue(k);
+            double n = compact.getEmissionCoefficient(k);
+            int[] ends = analysis.getEnds(k);
+            double v = entry(ends[0]) - entry(ends[1]);
+            double leakage = NodalAnalysis.GMIN * v;   // stamped by NodalAnalysis along with the linear components
+            if (!compact.isFlipped(k))
+            {
+                return Diode.currentAt(is, n, v) + leakage;
+            }
+            return -Diode.currentAt(is, n, -v) + leakage;
+        }
+        return analysis.getCurrent(x, values, k);
+    }
+
+    /**
+     * @return  The potential at each terminal in the last solution, as NodalAnalysis.getPotentials()
+     */
+    public double[] getPotentials()
+    {
+        return analysis.getPotentials(x);
+    }
+
+    /**
+     * @return  The number of Newton-Raphson iterations used by the last solve()
+     */
+    public int getIterations()
+    {
+        return iterations;
+    }
+
+    private void stamp(int row, int col, double value)
+    {
+        if (row >= 0 && col >= 0)
+        {
+            band.add(position[row], position[col], value);
+        }
+    }
+
+    private double entry(int i)
+    {
+        if (i < 0)
+        {
+            return 0;
+        }
+        return x[i];
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Checks OperatingPoint against a loop of a battery, a resistor and a diode, whose diode voltage Vd satisfies
+ * (V - Vd) / R = Is (e^(Vd / nVt) - 1) + GMIN Vd (the last term is the leakage NodalAnalysis stamps across every
+ * diode), found here by bisection. Also checks a diode turned backwards, that a small edit is warm-started from the
+ * last solution, that Circuit.solve() lights an LED, and that after a battery or diode is turned around, or a resistor
+ * set to 0 ohms, Circuit.solve() agrees with a new OperatingPoint rather than reusing the one it had.
+ */
+public class OperatingPointTester
+{
+    public static void main(String[] args)
+    {
+        double worst = 0;
+        int[] ohms = {100, 1000, 10000};
+        double[] volts = {0.3, 1, 5, 9};
+        for (int r : ohms)
+        {
+            for (double v : volts)
+            {
+                Circuit circ = loop(v, r, new Diode(), false);
+                OperatingPoint op = new OperatingPoint(circ);
+                op.solve();
+                double expected = loopCurrent(v, r, 1e-14, 1);
+                worst = Math.max(worst, Math.abs(op.getCurrent(2) - expected) / expected);
+                worst = Math.max(worst, Math.abs(op.getCurrent(1) - expected) / expected);
+            }
+        }
+        System.out.println("Diode and resistor, " + ohms.length * volts.length + " loops: largest relative error in "
+            + "the current through either " + worst);
+
+        Circuit backwards = loop(9, 1000, new Diode(), true);
+        OperatingPoint op = new OperatingPoint(backwards);
+        op.solve();
+        System.out.println("Diode turned backwards: " + op.getCurrent(2) + " A (Is = 1e-14 A, plus GMIN leakage of "
+            + 9 * NodalAnalysis.GMIN + " A)");
+
+        Circuit circ = loop(5, 1000, new Diode(), false);
+        op = new OperatingPoint(circ);
+        op.solve();
+        int cold = op.getIterations();
+        circ.setResistance(circ.getComponents().get(1), 1100);
+        op.solve();
+        double expected = loopCurrent(5, 1100, 1e-14, 1);
+        System.out.println("Iterations from 0 V: " + cold + "; after changing the resistance, warm-started: "
+            + op.getIterations() + " (current off by " + Math.abs(op.getCurrent(2) - expected) / expected + ")");
+
+        // Edits that change which way round the equations are stamped
+        circ = loop(5, 100, new Diode(), false);
+        circ.solve();
+        Battery battery = (Battery)circ.getComponents().get(0);
+        Terminal positive = battery.getPosEnd();
+        circ.setPosEnd(battery, positive.equals(battery.getEndPt1()) ? battery.getEndPt2() : battery.getEndPt1());
+        System.out.println("Battery turned around: " + compareFresh(circ));
+        circ.setPosEnd(battery, positive);
+        circ.solve();
+        Diode diode = (Diode)circ.getComponents().get(2);
+        Terminal anode = diode.getAnode();
+        diode.setAnode(anode.equals(diode.getEndPt1()) ? diode.getEndPt2() : diode.getEndPt1());
+        System.out.println("Diode turned around: " + compareFresh(circ));
+        circ = loop(0.6, 100, new Diode(), false);    // low enough that the diode alone across it draws 0.1 mA
+        circ.solve();
+        circ.setResistance(circ.getComponents().get(1), 0);
+        System.out.println("Resistor set to 0 ohms: " + compareFresh(circ));
+        circ.setResistance(circ.getComponents().get(1), 100);
+        System.out.println("And back to 100 ohms: " + compareFresh(circ));
+
+        LED led = new LED();
+        Circuit lit = loop(5, 330, led, false);
+        lit.solve();
+        System.out.println("LED with 330 ohms across 5 V: " + led.getCurrent() + " A, lit: " + led.isLit());
+    }
+
+    /**
+     * Solves the loop made by loop() with Circuit.solve(), and compares the diode's current with a new OperatingPoint's.
+     */
+    private static String compareFresh(Circuit circ)
+    {
+        circ.solve();
+        Component diode = circ.getComponents().get(2);
+        double solved = diode.getCurrentDirection().equals(diode.getEndPt2()) ? diode.getCurrent() : -diode.getCurrent();
+        OperatingPoint fresh = new OperatingPoint(circ);
+        fresh.solve();
+        double expected = fresh.getCurrent(2);
+        boolean same = Math.abs(solved - expected) <= 1e-9 * Math.abs(expected) + 1e-15;
+        return "diode current " + solved + " A, new OperatingPoint " + expected + " A: " + (same ? "ok" : "WRONG");
+    }
+
+    /**
+     * @return  The current in a loop of a battery, a resistor and a diode, found by bisection on the diode's voltage
+     */
+    private static double loopCurrent(double v, double r, double is, double n)
+    {
+        double low = 0;
+        double high = v;
+        for (int i = 0; i < 200; i++)
+        {
+            double mid = (low + high) / 2;
+            if (Diode.currentAt(is, n, mid) + NodalAnalysis.GMIN * mid > (v - mid) / r)
+            {
+                high = mid;
+            }
+            else
+            {
+                low = mid;
+            }
+        }
+        return (v - (low + high) / 2) / r;
+    }
+
+    /**
+     * @return  A 2 x 2 loop: a battery from (1, 0) up to (0, 0), a resistor to (0, 1), the diode down to (1, 1) (its
+     *          anode at (0, 1), or at (1, 1) if backwards), and a wire back. Components are numbered in that order.
+     */
+    private static Circuit loop(double volts, int ohms, Diode diode, boolean backwards)
+    {
+        Circuit circ = new Circuit(2, 2);
+        circ.addBattery(new Battery(volts), 1, 0, 0, 0, 0, 0);
+        circ.addComponent(new Resistor(ohms), 0, 0, 0, 1);
+        if (backwards)
+        {
+            circ.addComponent(diode, 1, 1, 0, 1);
+        }
+        else
+        {
+            circ.addComponent(diode, 0, 1, 1, 1);
+        }
+        circ.addComponent(new Wire(), 1, 1, 1, 0);
+        return circ;
+    }
+}
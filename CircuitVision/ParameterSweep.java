@@ -0,0 +1,357 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Sweeps the resistance of one resistor across a range and records every component's current and every terminal's
+ * potential along the way. Rather than solving at evenly spaced values, the sweep starts with a few coarse points
+ * and then repeatedly bisects only those intervals where the midpoint's actual solution differs from a straight line
+ * drawn between the interval's ends by more than the tolerance. Flat parts of the response are left coarse, while
+ * the sharp bends get most of the solves.
+ *
+ * Each round of refinement is a batch of midpoints that are solved in parallel. The sweep stops when every interval
+ * is within tolerance, or when the solve budget runs out (in which case the intervals with the largest errors are
+ * refined first).
+ *
+ * Only linear circuits can be swept: NodalAnalysis stamps a diode as nothing more than a tiny leakage conductance, so
+ * circuits with diodes are turned away rather than given wrong results.
+ */
+public class ParameterSweep
+{
+    private NodalAnalysis analysis;
+    private int varied;             // index of the resistor being swept
+    private double[] baseValues;
+    private int numComponents;
+    private double currentTolerance = 1e-4;     // amps
+    private double voltageTolerance = 1e-3;     // volts
+    private int solveBudget = 1000;
+    private double minWidth = 1e-9;             // intervals narrower than this (relative to the range) are not split
+    private boolean logarithmic = false;
+    private int numThreads;
+
+    private TreeMap<Double, double[]> points;   // resistance -> outputs (null if it could not be solved)
+    private int numSolves;
+    private double maxError;
+
+    /**
+     * An interval waiting to be checked, and the error found at its midpoint.
+     */
+    private class Interval
+    {
+        private double lo;
+        private double hi;
+        private double error;
+
+        private Interval(double low, double high, double err)
+        {
+            lo = low;
+            hi = high;
+            error = err;
+        }
+    }
+
+    /**
+     * @param circ  The circuit to sweep
+     * @param resistor  The resistor (in circ) whose resistance is swept
+     * @throws IllegalArgumentException  If resistor is not a resistor in circ, or circ has diodes
+     */
+    public ParameterSweep(Circuit circ, Component resistor)
+    {
+        if (circ.hasDiodes())
+        {
+            throw new IllegalArgumentException("Circuits with diodes cannot be swept");
+        }
+        analysis = new NodalAnalysis(circ);
+        varied = analysis.indexOf(resistor);
+        if (varied < 0 || !(resistor instanceof Resistor))
+        {
+            throw new IllegalArgumentException("The swept component must be a resistor in the circuit");
+        }
+        baseValues = analysis.getValues();
+        numComponents = baseValues.length;
+        numThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Sets how far (in amps and volts) the straight line between two neighboring points may be from the true
+     * solution before the interval between them is split.
+     */
+    public void setTolerances(double amps, double volts)
+    {
+        currentTolerance = amps;
+        voltageTolerance = volts;
+    }
+
+    /**
+     * @param budget  The most solves the sweep may use, including the coarse points
+     */
+    public void setSolveBudget(int budget)
+    {
+        solveBudget = budget;
+    }
+
+    /**
+     * @param log  True to space points (and take midpoints) on a logarithmic scale, which suits resistances that span
+     *             several decades
+     */
+    public void setLogarithmic(boolean log)
+    {
+        logarithmic = log;
+    }
+
+    /**
+     * @param threads  The number of threads that solve each batch of midpoints (defaults to the number of cores)
+     */
+    public void setNumThreads(int threads)
+    {
+        numThreads = Math.max(threads, 1);
+    }
+
+    /**
+     * Runs the sweep.
+     * @param low  The smallest resistance, in ohms (must be greater than 0)
+     * @param high  The largest resistance, in ohms
+     * @param coarsePoints  The number of evenly spaced points to start with (at least 2)
+     * @throws CancellationException  If the calling thread is interrupted; the thread's interrupt flag is left set
+     */
+    public void run(double low, double high, int coarsePoints)
+    {
+        points = new TreeMap<Double, double[]>();
+        numSolves = 0;
+        maxError = 0;
+        ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+        try
+        {
+            List<Double> batch = new ArrayList<Double>();
+            coarsePoints = Math.max(coarsePoints, 2);
+            for (int i = 0; i < coarsePoints; i++)
+            {
+                double fraction = i / (double)(coarsePoints - 1);
+                batch.add(between(low, high, fraction));
+            }
+            solveBatch(pool, batch);
+
+            List<Interval> pending = new ArrayList<Interval>();
+            Double prev = null;
+            for (Double r : points.keySet())
+            {
+                if (prev != null)
+                {
+                    pending.add(new Interval(prev, r, Double.MAX_VALUE));
+                }
+                prev = r;
+            }
+
+            double minSize = minWidth * (high - low);
+            while (pending.size() > 0 && numSolves < solveBudget)
+            {
+                // Spend what is left of the budget on the intervals with the largest errors
+                Collections.sort(pending, new Comparator<Interval>()
+                    {
+                        public int compare(Interval a, Interval b)
+                        {
+                            return Double.compare(b.error, a.error);
+                        }
+                    });
+                int batchSize = Math.min(pending.size(), solveBudget - numSolves);
+                List<Interval> splitting = new ArrayList<Interval>(pending.subList(0, batchSize));
+                pending = new ArrayList<Interval>(pending.subList(batchSize, pending.size()));
+                batch.clear();
+                for (Interval in : splitting)
+                {
+                    batch.add(between(in.lo, in.hi, 0.5));
+                }
+                solveBatch(pool, batch);
+
+                for (Interval in : splitting)
+                {
+                    double mid = between(in.lo, in.hi, 0.5);
+                    double error = interpolationError(in.lo, mid, in.hi);
+                    if (error > 1 && in.hi - in.lo > minSize)
+                    {
+                        pending.add(new Interval(in.lo, mid, error));
+                        pending.add(new Interval(mid, in.hi, error));
+                    }
+                }
+            }
+            maxError = 0;
+            for (Interval in : pending)
+            {
+                maxError = Math.max(maxError, in.error);
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Solves the circuit at each resistance in the batch, in parallel, and adds the results to points.
+     */
+    private void solveBatch(ExecutorService pool, List<Double> batch)
+    {
+        List<Callable<double[]>> tasks = new ArrayList<Callable<double[]>>();
+        for (final Double r : batch)
+        {
+            tasks.add(new Callable<double[]>()
+                {
+                    public double[] call()
+                    {
+                        return solveAt(r);
+                    }
+                });
+        }
+        try
+        {
+            List<Future<double[]>> results = pool.invokeAll(tasks);
+            for (int i = 0; i < batch.size(); i++)
+            {
+                points.put(batch.get(i), results.get(i).get());
+            }
+        }
+        catch (InterruptedException e)
+        {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new CancellationException("The parameter sweep was interrupted");
+        }
+        catch (ExecutionException e)
+        {
+            throw new RuntimeException(e.getCause());
+        }
+        numSolves += batch.size();
+    }
+
+    /**
+     * @return  The current through every component followed by the potential at every terminal, with the swept
+     *          resistor set to r; or null if the circuit cannot be solved.
+     */
+    private double[] solveAt(double r)
+    {
+        double[] values = baseValues.clone();
+        values[varied] = r;
+        double[] x = analysis.solve(values);
+        if (x == null)
+        {
+            return null;
+        }
+        double[] potentials = analysis.getPotentials(x);
+        double[] outputs = new double[numComponents + potentials.length];
+        for (int k = 0; k < numComponents; k++)
+        {
+            outputs[k] = analysis.getCurrent(x, values, k);
+        }
+        System.arraycopy(potentials, 0, outputs, numComponents, potentials.length);
+        return outputs;
+    }
+
+    /**
+     * @return  The largest difference between the solution at mid and the straight line from lo to hi, as a multiple
+     *          of the tolerance (so values over 1 mean the interval should be split). Intervals touching a point that
+     *          could not be solved return 0, since there is nothing to interpolate.
+     */
+    private double interpolationError(double lo, double mid, double hi)
+    {
+        double[] a = points.get(lo);
+        double[] m = points.get(mid);
+        double[] b = points.get(hi);
+        if (a == null || m == null || b == null)
+        {
+            return 0;
+        }
+        double t = 0.5;     // mid is halfway between lo and hi (on a log scale if the sweep is logarithmic)
+        double error = 0;
+        for (int i = 0; i < m.length; i++)
+        {
+            if (m[i] >= Double.MAX_VALUE / 10)
+            {
+                continue;   // terminal not connected
+            }
+            double line = a[i] + t * (b[i] - a[i]);
+            double tol = i < numComponents ? currentTolerance : voltageTolerance;
+            error = Math.max(error, Math.abs(m[i] - line) / tol);
+        }
+        return error;
+    }
+
+    /**
+     * @return  The point a given fraction of the way from lo to hi, on a linear or logarithmic scale.
+     */
+    private double between(double lo, double hi, double fraction)
+    {
+        if (logarithmic)
+        {
+            return lo * Math.pow(hi / lo, fraction);
+        }
+        return lo + fraction * (hi - lo);
+    }
+
+    /**
+     * @return  The resistances that were solved, in increasing order
+     */
+    public double[] getResistances()
+    {
+        double[] r = new double[points.size()];
+        int i = 0;
+        for (Double value : points.keySet())
+        {
+            r[i] = value;
+            i++;
+        }
+        return r;
+    }
+
+    /**
+     * @return  The current through component k (from endPt1 to endPt2) when the swept resistor is r, a value returned
+     *          by getResistances(); NaN if the circuit could not be solved there.
+     */
+    public double getCurrent(double r, int k)
+    {
+        double[] outputs = points.get(r);
+        if (outputs == null)
+        {
+            return Double.NaN;
+        }
+        return outputs[k];
+    }
+
+    /**
+     * @return  The potential at terminal number i (row * cols + col) when the swept resistor is r; NaN if the circuit
+     *          could not be solved there.
+     */
+    public double getPotential(double r, int i)
+    {
+        double[] outputs = points.get(r);
+        if (outputs == null)
+        {
+            return Double.NaN;
+        }
+        return outputs[numComponents + i];
+    }
+
+    /**
+     * @return  The number of solves used by the last run()
+     */
+    public int getNumSolves()
+    {
+        return numSolves;
+    }
+
+    /**
+     * @return  The largest interpolation error left unrefined when the solve budget ran out, as a multiple of the
+     *          tolerance; 0 if every interval met the tolerance.
+     */
+    public double getMaxError()
+    {
+        return maxError;
+    }
+}
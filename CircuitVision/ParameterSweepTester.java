@@ -0,0 +1,125 @@
+import java.util.concurrent.CancellationException;
+
+/**
+ * Checks ParameterSweep on a voltage divider, whose current V / (R + R2) is known in closed form: every point it solves
+ * must be exact, and drawing straight lines between its points must stay within the tolerance everywhere in the range,
+ * on linear and logarithmic scales. Compares its number of solves with the evenly spaced points that would be needed for
+ * the same accuracy, and checks the solve budget, an interrupted sweep and a circuit with a diode.
+ */
+public class ParameterSweepTester
+{
+    private static final double VOLTS = 10;
+    private static final int FIXED = 100;
+
+    public static void main(String[] args)
+    {
+        for (boolean log : new boolean[] {false, true})
+        {
+            Circuit circ = divider();
+            ParameterSweep sweep = new ParameterSweep(circ, circ.getComponents().get(1));
+            sweep.setTolerances(1e-4, 1e6);     // refine on the currents only, as evenlySpaced() does
+            sweep.setLogarithmic(log);
+            sweep.run(1, 10000, 5);
+            double[] r = sweep.getResistances();
+            double worstPoint = 0;
+            for (double value : r)
+            {
+                worstPoint = Math.max(worstPoint, Math.abs(sweep.getCurrent(value, 1) - current(value)));
+            }
+
+            // Straight lines between neighboring points (on the sweep's scale), checked at many resistances
+            double worstLine = 0;
+            int i = 0;
+            for (int s = 0; s <= 100000; s++)
+            {
+                double value = log ? Math.pow(10000, s / 100000.0) : 1 + (10000 - 1) * s / 100000.0;
+                while (i + 2 < r.length && r[i + 1] < value)
+                {
+                    i++;
+                }
+                double t = log ? Math.log(value / r[i]) / Math.log(r[i + 1] / r[i]) : (value - r[i]) / (r[i + 1] - r[i]);
+                double line = sweep.getCurrent(r[i], 1) + t * (sweep.getCurrent(r[i + 1], 1) - sweep.getCurrent(r[i], 1));
+                worstLine = Math.max(worstLine, Math.abs(line - current(value)));
+            }
+            System.out.println((log ? "Logarithmic" : "Linear") + " sweep from 1 to 10000 ohms: " + sweep.getNumSolves()
+                + " solves (" + evenlySpaced(log) + " evenly spaced points would be needed); solved points off by at "
+                + "most " + worstPoint + " A; straight lines between them off by at most " + worstLine
+                + " A (tolerance 1e-4 A)");
+        }
+
+        Circuit circ = divider();
+        ParameterSweep limited = new ParameterSweep(circ, circ.getComponents().get(1));
+        limited.setSolveBudget(12);
+        limited.run(1, 10000, 5);
+        System.out.println("Budget of 12 solves: " + limited.getNumSolves() + " used, error left " + limited.getMaxError()
+            + " times the tolerance");
+
+        Thread.currentThread().interrupt();
+        try
+        {
+            limited.run(1, 10000, 5);
+            System.out.println("Interrupted sweep returned: FAILED");
+        }
+        catch (CancellationException e)
+        {
+            System.out.println("Interrupted sweep throws: " + e.getMessage() + "; interrupt flag still set: "
+                + Thread.interrupted());
+        }
+
+        circ.addComponent(new Diode(), 1, 1, 1, 2);
+        try
+        {
+            new ParameterSweep(circ, circ.getComponents().get(1));
+            System.out.println("Circuit with a diode accepted: FAILED");
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println("Circuit with a diode rejected: " + e.getMessage());
+        }
+    }
+
+    private static double current(double r)
+    {
+        return VOLTS / (r + FIXED);
+    }
+
+    /**
+     * @return  How many evenly spaced points (on a linear or log scale) keep straight lines between them within 1e-4 A
+     */
+    private static int evenlySpaced(boolean log)
+    {
+        for (int n = 2; ; n++)
+        {
+            boolean ok = true;
+            for (int j = 0; j + 1 < n && ok; j++)
+            {
+                double a = log ? Math.pow(10000, j / (n - 1.0)) : 1 + 9999.0 * j / (n - 1);
+                double b = log ? Math.pow(10000, (j + 1) / (n - 1.0)) : 1 + 9999.0 * (j + 1) / (n - 1);
+                for (int q = 1; q < 10 && ok; q++)
+                {
+                    double t = q / 10.0;
+                    double inside = log ? a * Math.pow(b / a, t) : a + t * (b - a);
+                    ok = Math.abs(current(a) + t * (current(b) - current(a)) - current(inside)) <= 1e-4;
+                }
+            }
+            if (ok)
+            {
+                return n;
+            }
+        }
+    }
+
+    /**
+     * @return  A loop on a 2 x 3 grid: a 10 V battery from (1, 0) up to (0, 0), the swept resistor to (0, 1), a 100 ohm
+     *          resistor down to (1, 1), and a wire back. Components are numbered in that order.
+     */
+    private static Circuit divider()
+    {
+        Circuit circ = new Circuit(2, 3);
+        circ.addBattery(new Battery(VOLTS), 1, 0, 0, 0, 0, 0);
+        circ.addComponent(new Resistor(1000), 0, 0, 0, 1);
+        circ.addComponent(new Resistor(FIXED), 0, 1, 1, 1);
+        circ.addComponent(new Wire(), 1, 1, 1, 0);
+        return circ;
+    }
+}
@@ -0,0 +1,751 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Arrays;
+
+/**
+ * An unchangeable version of a circuit. Editing it (with(), without()) does not change it but gives a new version,
+ * and the old version stays valid, so keeping every version the editor has been through is how undo and redo work
+ * (see CircuitVisionRunner). Copying a Circuit with its copy constructor takes time and memory for every terminal and
+ * component; making a new version here takes O(log n) time, and the new version shares everything but a few small
+ * nodes with the old one, so the memory the undo history uses grows only with what each edit changed.
+ *
+ * The components are kept in a hash array mapped trie (HAMT), keyed by the two terminals they connect. Each node has
+ * up to 32 slots, picked by 5 bits of the key's hash at a time; a slot holds either a Part or a node one level down,
+ * and a 32-bit bitmap says which slots are used, so a node only has an array as long as the slots it uses. An edit
+ * copies just the nodes on the path from the root to the part that changed (about log32 n of them; 4 for a million
+ * components). The hash is the key times a large odd number, which gives different hashes for different keys, so two
+ * parts always part ways before the 64 bits run out.
+ *
+ * Because unchanged subtrees are shared, two versions can be compared by skipping every subtree they have in common:
+ * applyTo() changes a Circuit from one version to another by touching only the parts that differ.
+ *
+ * Subcircuits are not kept.
+ */
+public class PersistentCircuit
+{
+    private static final Node EMPTY = new Node(0, new Object[0]);
+
+    private final int rows;
+    private final int cols;
+    private final boolean sparse;
+    private final Node root;
+    private final int size;
+
+    /**
+     * Makes an empty version.
+     * @param sparse  Whether toCircuit() and toCompactCircuit() should make sparse circuits (see Circuit)
+     */
+    public PersistentCircuit(int numRows, int numCols, boolean sparse)
+    {
+        this(numRows, numCols, sparse, EMPTY, 0);
+    }
+
+    private PersistentCircuit(int numRows, int numCols, boolean isSparse, Node top, int n)
+    {
+        rows = numRows;
+        cols = numCols;
+        sparse = isSparse;
+        root = top;
+        size = n;
+    }
+
+    /**
+     * @return  A version holding the components of circ
+     * @throws IllegalArgumentException  If circ has subcircuits
+     */
+    public static PersistentCircuit fromCircuit(Circuit circ)
+    {
+        if (!circ.getSubcircuits().isEmpty())
+        {
+            throw new IllegalArgumentException("Circuits with subcircuits cannot be kept as a PersistentCircuit");
+        }
+        PersistentCircuit version = new PersistentCircuit(circ.getRows(), circ.getCols(), circ.isSparse());
+        for (Component c : circ.getComponents())
+        {
+            version = version.with(c);
+        }
+        return version;
+    }
+
+    /**
+     * @return  A new version with the given component (which must be in a circuit) in place of whatever was between
+     *          its two terminals. This version is unchanged.
+     */
+    public PersistentCircuit with(Component c)
+    {
+        return with(new Part(c));
+    }
+
+    /**
+     * @return  A new version with the given part in place of whatever was between its two terminals, or this version if
+     *          it already has an equal part there
+     */
+    public PersistentCircuit with(Part p)
+    {
+        long key = key(p.r1, p.c1, p.r2, p.c2);
+        boolean isNew = find(root, key, hash(key), 0) == null;
+        Node top = assoc(root, key, hash(key), 0, p);
+        if (top == root)
+        {
+            return this;
+        }
+        return new PersistentCircuit(rows, cols, sparse, top, isNew ? size + 1 : size);
+    }
+
+    /**
+     * @return  A new version without the component between the two terminals, or this version if there is none
+     */
+    public PersistentCircuit without(int r1, int c1, int r2, int c2)
+    {
+        long key = key(r1, c1, r2, c2);
+        Node top = dissoc(root, key, hash(key), 0);
+        if (top == root)
+        {
+            return this;
+        }
+        return new PersistentCircuit(rows, cols, sparse, top == null ? EMPTY : top, size - 1);
+    }
+
+    /**
+     * @return  The part between the two terminals, or null if there is none
+     */
+    public Part get(int r1, int c1, int r2, int c2)
+    {
+        long key = key(r1, c1, r2, c2);
+        return find(root, key, hash(key), 0);
+    }
+
+    /**
+     * @return  The number of components
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    public int getRows()
+    {
+        return rows;
+    }
+
+    public int getCols()
+    {
+        return cols;
+    }
+
+    /**
+     * @return  Every part, in no particular order (but the same order each time for the same version)
+     */
+    public List<Part> getParts()
+    {
+        List<Part> parts = new ArrayList<Part>(size);
+        collect(root, parts);
+        return parts;
+    }
+
+    /**
+     * @return  A new Circuit with a Component for each part, added in the order of getParts()
+     */
+    public Circuit toCircuit()
+    {
+        Circuit circ = new Circuit(rows, cols, sparse);
+        for (Part p : getParts())
+        {
+            p.addTo(circ);
+        }
+        return circ;
+    }
+
+    /**
+     * @return  A CompactCircuit with the parts in the order of getParts(). This does not touch any Circuit, so a version
+     *          can be handed to another thread and solved there while the editor goes on making new versions.
+     */
+    public CompactCircuit toCompactCircuit()
+    {
+        List<Part> parts = getParts();
+        int n = parts.size();
+        long[] keys = null;
+        if (sparse)
+        {
+            keys = new long[2 * n];
+            for (int k = 0; k < n; k++)
+            {
+                keys[2 * k] = (long)parts.get(k).r1 * cols + parts.get(k).c1;
+                keys[2 * k + 1] = (long)parts.get(k).r2 * cols + parts.get(k).c2;
+            }
+            Arrays.sort(keys);
+            int distinct = 0;
+            for (int i = 0; i < keys.length; i++)
+            {
+                if (i == 0 || keys[i] != keys[i - 1])
+                {
+                    keys[distinct] = keys[i];
+                    distinct++;
+                }
+            }
+            keys = Arrays.copyOf(keys, distinct);
+        }
+        byte[] kinds = new byte[n];
+        int[] ends = new int[2 * n];
+        double[] values = new double[n];
+        double[] emission = null;
+        int[] colors = null;
+        for (int k = 0; k < n; k++)
+        {
+            Part p = parts.get(k);
+            long a = (long)p.r1 * cols + p.c1;
+            long b = (long)p.r2 * cols + p.c2;
+            ends[2 * k] = keys == null ? (int)a : Arrays.binarySearch(keys, a);
+            ends[2 * k + 1] = keys == null ? (int)b : Arrays.binarySearch(keys, b);
+            kinds[k] = p.kind;
+            values[k] = p.value;
+            int kind = p.getKind();
+            if (kind == CompactCircuit.DIODE || kind == CompactCircuit.LED)
+            {
+                if (emission == null)
+                {
+                    emission = new double[n];
+                }
+                emission[k] = p.emission;
+            }
+            if (kind == CompactCircuit.LED)
+            {
+                if (colors == null)
+                {
+                    colors = new int[n];
+                }
+                colors[k] = p.color;
+            }
+        }
+        return new CompactCircuit(rows, cols, keys, kinds, ends, values, emission, colors);
+    }
+
+    /**
+     * Changes a circuit that looks like the version from so that it looks like this version. Only the subtrees the two
+     * versions do not share are looked at, so undoing one edit costs O(log n) however big the circuit is. Parts that
+     * are gone are removed first, then values are changed, then new parts are added; a part whose kind changed is
+     * removed and added again.
+     */
+    public void applyTo(Circuit circ, PersistentCircuit from)
+    {
+        List<Part> removed = new ArrayList<Part>();
+        List<Part> changed = new ArrayList<Part>();
+        List<Part> added = new ArrayList<Part>();
+        diff(from.root, root, 0, removed, changed, added);
+        for (Part p : removed)
+        {
+            circ.removeComponent(p.r1, p.c1, p.r2, p.c2);
+        }
+        for (Part p : changed)
+        {
+            Component c = circ.getComponent(p.r1, p.c1, p.r2, p.c2);
+            Part before = new Part(c);
+            if (before.getKind() == p.getKind() && p.getKind() == CompactCircuit.RESISTOR)
+            {
+                circ.setResistance(c, (int)Math.round(p.value));
+            }
+            else if (before.getKind() == p.getKind() && p.getKind() == CompactCircuit.BATTERY)
+            {
+                if (before.value != p.value)
+                {
+                    circ.setVoltage((Battery)c, p.value);
+                }
+                if (p.isFlipped())
+                {
+                    circ.setPosEnd((Battery)c, circ.getTerminal(p.r2, p.c2));
+                }
+                else
+                {
+                    circ.setPosEnd((Battery)c, circ.getTerminal(p.r1, p.c1));
+                }
+            }
+            else
+            {
+                circ.removeComponent(c);
+                added.add(p);
+            }
+        }
+        for (Part p : added)
+        {
+            p.addTo(circ);
+        }
+    }
+
+    /**
+     * @return  The number of trie nodes that are in this version but not in other, which is what keeping this version
+     *          as well as other costs (besides the Parts themselves)
+     */
+    public int nodesNotIn(PersistentCircuit other)
+    {
+        return unshared(root, other.root);
+    }
+
+    public String toString()
+    {
+        return "PersistentCircuit " + rows + " x " + cols + " with " + size + " components";
+    }
+
+    /**
+     * @return  The same number for a pair of terminals whichever order they are given in
+     */
+    private long key(int r1, int c1, int r2, int c2)
+    {
+        long a = (long)r1 * cols + c1;
+        long b = (long)r2 * cols + c2;
+        long cells = (long)rows * cols;
+        return Math.min(a, b) * cells + Math.max(a, b);
+    }
+
+    private static long hash(long key)
+    {
+        return key * 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * @return  The bit for the slot the hash picks at a given depth (shift is 5 times the depth)
+     */
+    private static int bit(long hash, int shift)
+    {
+        return 1 << (int)((hash >>> shift) & 31);
+    }
+
+    private static Part find(Node node, long key, long hash, int shift)
+    {
+        while (true)
+        {
+            int bit = bit(hash, shift);
+            if ((node.bitmap & bit) == 0)
+            {
+                return null;
+            }
+            Object slot = node.slots[node.position(bit)];
+            if (slot instanceof Part)
+            {
+                return ((Part)slot).key == key ? (Part)slot : null;
+            }
+            node = (Node)slot;
+            shift += 5;
+        }
+    }
+
+    /**
+     * @return  A copy of the node with the part put in, copying only the nodes on its path; or the same node if an
+     *          equal part is already there
+     */
+    private Node assoc(Node node, long key, long hash, int shift, Part p)
+    {
+        int bit = bit(hash, shift);
+        int i = node.position(bit);
+        if ((node.bitmap & bit) == 0)
+        {
+            Object[] slots = new Object[node.slots.length + 1];
+            System.arraycopy(node.slots, 0, slots, 0, i);
+            slots[i] = p.keyed(key);
+            System.arraycopy(node.slots, i, slots, i + 1, node.slots.length - i);
+            return new Node(node.bitmap | bit, slots);
+        }
+        Object slot = node.slots[i];
+        Object replacement;
+        if (slot instanceof Node)
+        {
+            replacement = assoc((Node)slot, key, hash, shift + 5, p);
+        }
+        else if (((Part)slot).key == key)
+        {
+            replacement = ((Part)slot).equals(p) ? slot : p.keyed(key);
+        }
+        else
+        {
+            // Two parts in one slot: push the one already there down into a new node, then put this one in that node
+            Part there = (Part)slot;
+            Node below = new Node(bit(hash(there.key), shift + 5), new Object[] {there});
+            replacement = assoc(below, key, hash, shift + 5, p);
+        }
+        if (replacement == slot)
+        {
+            return node;
+        }
+        Object[] slots = node.slots.clone();
+        slots[i] = replacement;
+        return new Node(node.bitmap, slots);
+    }
+
+    /**
+     * @return  A copy of the node without the part, the same node if the part is not there, or null if the node is left
+     *          empty. A node left holding a single part is replaced by that part, so a version has the same shape
+     *          however it was made.
+     */
+    private static Node dissoc(Node node, long key, long hash, int shift)
+    {
+        int bit = bit(hash, shift);
+        if ((node.bitmap & bit) == 0)
+        {
+            return node;
+        }
+        int i = node.position(bit);
+        Object slot = node.slots[i];
+        Object replacement = null;
+        if (slot instanceof Node)
+        {
+            Node child = dissoc((Node)slot, key, hash, shift + 5);
+            if (child == slot)
+            {
+                return node;
+            }
+            replacement = child;
+            if (child != null && child.slots.length == 1 && child.slots[0] instanceof Part)
+            {
+                replacement = child.slots[0];
+            }
+        }
+        else if (((Part)slot).key != key)
+        {
+            return node;
+        }
+        if (replacement != null)
+        {
+            Object[] slots = node.slots.clone();
+            slots[i] = replacement;
+            return new Node(node.bitmap, slots);
+        }
+        if (node.slots.length == 1)
+        {
+            return null;
+        }
+        Object[] slots = new Object[node.slots.length - 1];
+        System.arraycopy(node.slots, 0, slots, 0, i);
+        System.arraycopy(node.slots, i + 1, slots, i, slots.length - i);
+        return new Node(node.bitmap & ~bit, slots);
+    }
+
+    private static void collect(Object slot, List<Part> parts)
+    {
+        if (slot instanceof Part)
+        {
+            parts.add((Part)slot);
+        }
+        else if (slot != null)
+        {
+            for (Object s : ((Node)slot).slots)
+            {
+                collect(s, parts);
+            }
+        }
+    }
+
+    /**
+     * Sorts the parts under a and b (each a Node, a Part or null, at the same place in two tries) into those only under
+     * a, those under both but different, and those only under b. Subtrees the two share are skipped.
+     */
+    private static void diff(Object a, Object b, int shift, List<Part> removed, List<Part> changed, List<Part> added)
+    {
+        if (a == b)
+        {
+            return;
+        }
+        if (a instanceof Node && b instanceof Node)
+        {
+            Node na = (Node)a;
+            Node nb = (Node)b;
+            for (int i = 0; i < 32; i++)
+            {
+                int bit = 1 << i;
+                Object sa = (na.bitmap & bit) == 0 ? null : na.slots[na.position(bit)];
+                Object sb = (nb.bitmap & bit) == 0 ? null : nb.slots[nb.position(bit)];
+                diff(sa, sb, shift + 5, removed, changed, added);
+            }
+            return;
+        }
+        // One side is a single part or nothing, so there are few parts to match up
+        List<Part> before = new ArrayList<Part>();
+        List<Part> after = new ArrayList<Part>();
+        collect(a, before);
+        collect(b, after);
+        Map<Long, Part> beforeByKey = new HashMap<Long, Part>();
+        for (Part p : before)
+        {
+            beforeByKey.put(p.key, p);
+        }
+        for (Part p : after)
+        {
+            Part old = beforeByKey.remove(p.key);
+            if (old == null)
+            {
+                added.add(p);
+            }
+            else if (!old.equals(p))
+            {
+                changed.add(p);
+            }
+        }
+        removed.addAll(beforeByKey.values());
+    }
+
+    private static int unshared(Object a, Object b)
+    {
+        if (a == b || !(a instanceof Node))
+        {
+            return 0;
+        }
+        Node na = (Node)a;
+        int count = 1;
+        for (int i = 0; i < 32; i++)
+        {
+            int bit = 1 << i;
+            if ((na.bitmap & bit) != 0)
+            {
+                Object sb = null;
+                if (b instanceof Node && (((Node)b).bitmap & bit) != 0)
+                {
+                    sb = ((Node)b).slots[((Node)b).position(bit)];
+                }
+                count += unshared(na.slots[na.position(bit)], sb);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * A node of the trie. Never changed once made.
+     */
+    private static class Node
+    {
+        final int bitmap;       // bit i is set if slot i is used
+        final Object[] slots;   // the used slots in order, each a Part or a Node
+
+        Node(int bits, Object[] used)
+        {
+            bitmap = bits;
+            slots = used;
+        }
+
+        /**
+         * @return  Where the slot for a bit is (or would go) in slots[]: the number of used slots before it
+         */
+        int position(int bit)
+        {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+    }
+
+    /**
+     * One component, described by its kind (as in CompactCircuit, with FLIPPED added if a battery's positive end or a
+     * diode's anode is its second end), its two terminals and its values. Never changed once made.
+     */
+    public static class Part
+    {
+        private final int r1;
+        private final int c1;
+        private final int r2;
+        private final int c2;
+        private final byte kind;
+        private final double value;
+        private final double emission;
+        private final int color;
+        private final long key;     // set once the part is put in a trie
+
+        /**
+         * Describes a component that is in a circuit.
+         */
+        public Part(Component c)
+        {
+            r1 = c.getEndPt1().getRow();
+            c1 = c.getEndPt1().getCol();
+            r2 = c.getEndPt2().getRow();
+            c2 = c.getEndPt2().getCol();
+            double v = 0;
+            double n = 0;
+            int led = 0;
+            byte k;
+            if (c instanceof Battery)
+            {
+                k = CompactCircuit.BATTERY;
+                v = ((Battery)c).getVoltage();
+                if (!c.getEndPt1().equals(((Battery)c).getPosEnd()))
+                {
+                    k += CompactCircuit.FLIPPED;
+                }
+            }
+            else if (c instanceof Diode)
+            {
+                Diode d = (Diode)c;
+                k = c instanceof LED ? CompactCircuit.LED : CompactCircuit.DIODE;
+                v = d.getSaturationCurrent();
+                n = d.getEmissionCoefficient();
+                if (c instanceof LED)
+                {
+                    led = ((LED)c).getColor();
+                }
+                if (!c.getEndPt1().equals(d.getAnode()))
+                {
+                    k += CompactCircuit.FLIPPED;
+                }
+            }
+            else if (c instanceof Capacitor)
+            {
+                k = CompactCircuit.CAPACITOR;
+                v = ((Capacitor)c).getCapacitance();
+            }
+            else if (c instanceof Inductor)
+            {
+                k = CompactCircuit.INDUCTOR;
+                v = ((Inductor)c).getInductance();
+            }
+            else if (c instanceof Wire)
+            {
+                k = CompactCircuit.WIRE;
+            }
+            else
+            {
+                k = CompactCircuit.RESISTOR;
+                v = c.getResistance();
+            }
+            kind = k;
+            value = v;
+            emission = n;
+            color = led;
+            key = -1;
+        }
+
+        private Part(Part p, long partKey)
+        {
+            r1 = p.r1;
+            c1 = p.c1;
+            r2 = p.r2;
+            c2 = p.c2;
+            kind = p.kind;
+            value = p.value;
+            emission = p.emission;
+            color = p.color;
+            key = partKey;
+        }
+
+        /**
+         * @return  This part with its key filled in
+         */
+        private Part keyed(long partKey)
+        {
+            return key == partKey ? this : new Part(this, partKey);
+        }
+
+        /**
+         * @return  The kind of component, as in CompactCircuit, without FLIPPED
+         */
+        public int getKind()
+        {
+            return kind & ~CompactCircuit.FLIPPED;
+        }
+
+        /**
+         * @return  True if the battery's positive end, or the diode's anode, is the second end
+         */
+        public boolean isFlipped()
+        {
+            return (kind & CompactCircuit.FLIPPED) != 0;
+        }
+
+        /**
+         * @return  The resistance, voltage, capacitance, inductance or saturation current, depending on the kind
+         */
+        public double getValue()
+        {
+            return value;
+        }
+
+        public int getRow1()
+        {
+            return r1;
+        }
+
+        public int getCol1()
+        {
+            return c1;
+        }
+
+        public int getRow2()
+        {
+            return r2;
+        }
+
+        public int getCol2()
+        {
+            return c2;
+        }
+
+        /**
+         * @return  True if o is a Part describing the same component (its key is not compared)
+         */
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Part))
+            {
+                return false;
+            }
+            Part p = (Part)o;
+            return r1 == p.r1 && c1 == p.c1 && r2 == p.r2 && c2 == p.c2 && kind == p.kind
+                && Double.compare(value, p.value) == 0 && Double.compare(emission, p.emission) == 0 && color == p.color;
+        }
+
+        public int hashCode()
+        {
+            return ((r1 * 31 + c1) * 31 + r2) * 31 + c2 + 17 * kind + Double.valueOf(value).hashCode();
+        }
+
+        public String toString()
+        {
+            return "Part kind " + kind + " (" + c1 + ", " + r1 + ")-(" + c2 + ", " + r2 + ") " + value;
+        }
+
+        /**
+         * Adds a new Component like this part to a circuit.
+         */
+        private void addTo(Circuit circ)
+        {
+            int k = getKind();
+            if (k == CompactCircuit.BATTERY)
+            {
+                if (isFlipped())
+                {
+                    circ.addBattery(new Battery(value), r1, c1, r2, c2, r2, c2);
+                }
+                else
+                {
+                    circ.addBattery(new Battery(value), r1, c1, r2, c2, r1, c1);
+                }
+                return;
+            }
+            Component c;
+            if (k == CompactCircuit.DIODE)
+            {
+                c = new Diode(value, emission);
+            }
+            else if (k == CompactCircuit.LED)
+            {
+                c = new LED(color);
+            }
+            else if (k == CompactCircuit.CAPACITOR)
+            {
+                c = new Capacitor(value);
+            }
+            else if (k == CompactCircuit.INDUCTOR)
+            {
+                c = new Inductor(value);
+            }
+            else if (k == CompactCircuit.WIRE)
+            {
+                c = new Wire();
+            }
+            else
+            {
+                c = new Resistor((int)Math.round(value));
+            }
+            circ.addComponent(c, r1, c1, r2, c2);
+            if (isFlipped())
+            {
+                ((Diode)c).setAnode(circ.getTerminal(r2, c2));
+            }
+        }
+    }
+}
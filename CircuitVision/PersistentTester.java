@@ -0,0 +1,222 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Checks that every PersistentCircuit version stays as it was made while later versions are made from it, that
+ * applyTo() undoes and redoes edits on a Circuit, and measures how much memory a long undo history takes on a large
+ * grid compared with copying the Circuit for every edit.
+ * Run with the grid size as an argument (default 100, about 20,000 components).
+ */
+public class PersistentTester
+{
+    public static void main(String[] args)
+    {
+        // Random edits on a small circuit, each kept as a version along with a plain copy of its parts
+        Random random = new Random(3);
+        Circuit circ = new Circuit(6, 6);
+        PersistentCircuit version = new PersistentCircuit(6, 6, false);
+        List<PersistentCircuit> versions = new ArrayList<PersistentCircuit>();
+        List<Set<PersistentCircuit.Part>> expected = new ArrayList<Set<PersistentCircuit.Part>>();
+        for (int i = 0; i < 2000; i++)
+        {
+            version = edit(circ, version, random);
+            versions.add(version);
+            expected.add(parts(circ));
+        }
+        boolean unchanged = true;
+        for (int i = 0; i < versions.size(); i++)
+        {
+            unchanged &= new HashSet<PersistentCircuit.Part>(versions.get(i).getParts()).equals(expected.get(i))
+                && versions.get(i).size() == expected.get(i).size();
+        }
+        System.out.println("All " + versions.size() + " versions still hold what they held when made: " + unchanged);
+
+        // Undo everything back to the first version, then redo it all, checking the Circuit at each step
+        boolean undone = true;
+        for (int i = versions.size() - 2; i >= 0; i--)
+        {
+            versions.get(i).applyTo(circ, versions.get(i + 1));
+            undone &= parts(circ).equals(expected.get(i));
+        }
+        for (int i = 1; i < versions.size(); i++)
+        {
+            versions.get(i).applyTo(circ, versions.get(i - 1));
+            undone &= parts(circ).equals(expected.get(i));
+        }
+        System.out.println("Undo and redo through every version match: " + undone);
+
+        // A version solves the same as the Circuit it describes (up to the tiny leak Circuit.solve() gives capacitors)
+        Circuit solved = version.toCircuit();
+        solved.solve();
+        SolveResult result = version.toCompactCircuit().solve();
+        if (result != null && solved.getResult() != null)
+        {
+            double worst = 0;
+            for (int r = 0; r < 6; r++)
+            {
+                for (int c = 0; c < 6; c++)
+                {
+                    if (solved.getTerminal(r, c).numConnections() > 0)
+                    {
+                        worst = Math.max(worst, Math.abs(result.getPotential(r, c) - solved.getTerminal(r, c).getPotential()));
+                    }
+                }
+            }
+            System.out.println("Last version solved as a CompactCircuit: largest difference in potential " + worst);
+        }
+        else
+        {
+            System.out.println("Last version has no solution both ways: " + (result == null && solved.getResult() == null));
+        }
+
+        // Memory for a long undo history on a large grid
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int edits = 10000;
+        Circuit grid = new Circuit(size, size);
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                if (c + 1 < size)
+                {
+                    grid.addComponent(new Resistor(1 + random.nextInt(1000)), r, c, r, c + 1);
+                }
+                if (r + 1 < size)
+                {
+                    grid.addComponent(new Resistor(1 + random.nextInt(1000)), r, c, r + 1, c);
+                }
+            }
+        }
+        int n = grid.getComponents().size();
+        long start = System.nanoTime();
+        PersistentCircuit first = PersistentCircuit.fromCircuit(grid);
+        double fromMs = (System.nanoTime() - start) / 1e6;
+        long before = usedMemory();
+        List<PersistentCircuit> history = new ArrayList<PersistentCircuit>(edits + 1);
+        history.add(first);
+        version = first;
+        int nodes = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < edits; i++)
+        {
+            Component c = grid.getComponents().get(random.nextInt(n));
+            grid.setResistance(c, 1 + random.nextInt(1000));
+            PersistentCircuit next = version.with(c);
+            nodes += next.nodesNotIn(version);
+            version = next;
+            history.add(version);
+        }
+        double editUs = (System.nanoTime() - start) / 1e3 / edits;
+        long historyBytes = usedMemory() - before;
+        before = usedMemory();
+        Circuit copy = new Circuit(grid);
+        long copyBytes = usedMemory() - before;
+        start = System.nanoTime();
+        copy = new Circuit(grid);
+        double copyMs = (System.nanoTime() - start) / 1e6;
+        System.out.println(size + " x " + size + " grid, " + n + " components, " + edits + " resistance changes kept:");
+        System.out.println("   first version made in " + round(fromMs) + " ms; each edit " + round(editUs) + " us, "
+            + round((double)nodes / edits) + " new trie nodes and " + historyBytes / edits + " bytes");
+        System.out.println("   copying the Circuit instead: " + round(copyMs) + " ms and " + copyBytes / 1024
+            + " KB per edit, " + Math.round((double)copyBytes * edits / (1024 * 1024)) + " MB for the history");
+        boolean gridSame = parts(grid).equals(new HashSet<PersistentCircuit.Part>(version.getParts()))
+            && copy.getComponents().size() == n && history.get(0).size() == n;
+        System.out.println("   last version matches the grid: " + gridSame);
+    }
+
+    /**
+     * Makes one random edit to circ (adding, removing, or changing a component), and the same edit to the version.
+     * @return  The new version
+     */
+    private static PersistentCircuit edit(Circuit circ, PersistentCircuit version, Random random)
+    {
+        int r1 = random.nextInt(6);
+        int c1 = random.nextInt(6);
+        int r2 = r1;
+        int c2 = c1;
+        if (random.nextBoolean())
+        {
+            r2 = r1 + 1 < 6 ? r1 + 1 : r1 - 1;
+        }
+        else
+        {
+            c2 = c1 + 1 < 6 ? c1 + 1 : c1 - 1;
+        }
+        Component c = circ.getComponent(r1, c1, r2, c2);
+        if (c != null && random.nextInt(3) == 0)
+        {
+            circ.removeComponent(c);
+            return version.without(r1, c1, r2, c2);
+        }
+        if (c instanceof Battery)
+        {
+            if (random.nextBoolean())
+            {
+                circ.setVoltage((Battery)c, 1 + random.nextInt(12));
+            }
+            else
+            {
+                circ.setPosEnd((Battery)c, circ.getTerminal(r2, c2));
+            }
+            return version.with(c);
+        }
+        if (c instanceof Resistor)
+        {
+            circ.setResistance(c, 1 + random.nextInt(100));
+            return version.with(c);
+        }
+        if (c != null)
+        {
+            return version;
+        }
+        int kind = random.nextInt(10);
+        if (kind < 6)
+        {
+            circ.addComponent(new Resistor(1 + random.nextInt(100)), r1, c1, r2, c2);
+        }
+        else if (kind < 8)
+        {
+            circ.addComponent(new Wire(), r1, c1, r2, c2);
+        }
+        else if (kind < 9)
+        {
+            circ.addBattery(new Battery(1 + random.nextInt(12)), r1, c1, r2, c2, r1, c1);
+        }
+        else
+        {
+            circ.addComponent(new Capacitor(1e-6), r1, c1, r2, c2);
+        }
+        return version.with(circ.getComponent(r1, c1, r2, c2));
+    }
+
+    /**
+     * @return  A Part for each component of the circuit
+     */
+    private static Set<PersistentCircuit.Part> parts(Circuit circ)
+    {
+        Set<PersistentCircuit.Part> parts = new HashSet<PersistentCircuit.Part>();
+        for (Component c : circ.getComponents())
+        {
+            parts.add(new PersistentCircuit.Part(c));
+        }
+        return parts;
+    }
+
+    private static double round(double value)
+    {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
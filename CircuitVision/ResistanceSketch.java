@@ -0,0 +1,490 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.Arrays;
+
+/**
+ * Estimates the effective resistance between any two terminals of a circuit, for drawing a heatmap of resistance
+ * over a large grid. The effective resistance between terminals u and v is the resistance an ohmmeter would read
+ * between them, with every battery replaced by a wire. Finding it exactly for every pair takes one solve per node with
+ * the (once factored) conductance matrix, n - 1 solves in all (see buildExact()); this class can instead use the
+ * random projection method of Spielman and Srivastava, which takes k solves.
+ *
+ * If B is the matrix that gives the voltage across each resistor from the terminal potentials, W holds the
+ * conductances, and L = B^T W B is the circuit's conductance (Laplacian) matrix, then the effective resistance is the
+ * squared length of the vector W^(1/2) B L^-1 (e_u - e_v). By the Johnson-Lindenstrauss lemma, multiplying by a
+ * random matrix Q with k = O(log n / epsilon^2) rows of +1 and -1 keeps every such length within a factor of
+ * (1 +/- epsilon) with high probability. Each of the k rows of Q W^(1/2) B L^-1 costs one solve; after that, each pair
+ * of terminals is answered in O(k) time from the stored rows.
+ *
+ * The sketch only saves solves, and memory (n k numbers stored rather than n^2), when k is less than n - 1. With the k
+ * that build(double) picks, that happens above about 80 nodes (a 9 x 9 grid) for epsilon = 0.5, 250 nodes (16 x 16)
+ * for epsilon = 0.3 and 650 nodes (26 x 26) for epsilon = 0.2. On smaller circuits, use buildExact(), which is also
+ * faster to ask: each pair takes O(1) time rather than O(k). The conductance matrix is factored as a band, so on a grid
+ * w terminals wide each solve takes about n w operations; on a 64 x 64 grid, build(0.5) takes 134 solves and a quarter
+ * of a second, against 4095 solves and 2 seconds for buildExact() (see ResistanceSketchTester).
+ *
+ * Wires, batteries and inductors have no resistance, so the terminals at their ends are merged into one node.
+ * Capacitors and diodes are left out, as if they were breaks in the circuit.
+ */
+public class ResistanceSketch
+{
+    private Circuit circuit;
+    private int[] nodeOf;           // node for each terminal (see Circuit.getTerminalIndex()), or -1 if unconnected
+    private int[] group;            // which separate piece of the circuit each node belongs to
+    private int[] unknown;          // row of the conductance matrix for each node, or -1 for a piece's reference node
+    private int numNodes;
+    private int numUnknowns;
+    private int[] edgeA;            // the two nodes at the ends of each resistor, and its conductance
+    private int[] edgeB;
+    private double[] edgeG;
+    private BandedLU factors;       // of the conductance matrix, or null if there is nothing to solve
+    private int[] position;         // row of the band matrix for each unknown
+    private double epsilon;
+    private int numProjections;
+    private double[][] sketch;      // sketch[node][i] = row i of Q W^(1/2) B L^-1, stored node by node
+    private double[][] inverse;     // inverse[node] = the node's column of L^-1, after buildExact()
+    private int numSolves;
+    private long seed = 1;
+
+    /**
+     * Sets up the conductance matrix of a circuit and factors it. No estimates are made until build() is called.
+     * @param circ  The circuit to measure
+     */
+    public ResistanceSketch(Circuit circ)
+    {
+        circuit = circ;
+        int numTerminals = circ.getNumTerminals();
+
+        // Merge terminals joined by wires (and anything else with no resistance), and find the separate pieces
+        int[] merged = new int[numTerminals];
+        int[] piece = new int[numTerminals];
+        for (int i = 0; i < numTerminals; i++)
+        {
+            merged[i] = i;
+            piece[i] = i;
+        }
+        List<Component> resistors = new ArrayList<Component>();
+        for (Component c : circ.getComponents())
+        {
+            if (c instanceof Capacitor || c instanceof Diode)
+            {
+                continue;
+            }
+            int a = terminalIndex(c.getEndPt1());
+            int b = terminalIndex(c.getEndPt2());
+            if (c instanceof Resistor && c.getResistance() > 0)
+            {
+                resistors.add(c);
+            }
+            else
+            {
+                union(merged, a, b);
+            }
+            union(piece, a, b);
+        }
+
+        // Number the nodes; the first node found in each piece is its reference node
+        nodeOf = new int[numTerminals];
+        int[] nodeOfRoot = new int[numTerminals];
+        int[] referenceOfPiece = new int[numTerminals];
+        for (int i = 0; i < numTerminals; i++)
+        {
+            nodeOf[i] = -1;
+            nodeOfRoot[i] = -1;
+            referenceOfPiece[i] = -1;
+        }
+        List<Integer> groups = new ArrayList<Integer>();
+        List<Integer> unknowns = new ArrayList<Integer>();
+        numNodes = 0;
+        numUnknowns = 0;
+        for (Terminal t : circ.getConnectedTerminals())
+        {
+            if (t.numConnections() == 0)
+            {
+                continue;
+            }
+            int i = terminalIndex(t);
+            int root = find(merged, i);
+            if (nodeOfRoot[root] < 0)
+            {
+                nodeOfRoot[root] = numNodes;
+                int p = find(piece, i);
+                groups.add(p);
+                if (referenceOfPiece[p] < 0)
+                {
+                    referenceOfPiece[p] = numNodes;
+                    unknowns.add(-1);
+                }
+                else
+                {
+                    unknowns.add(numUnknowns);
+                    numUnknowns++;
+                }
+                numNodes++;
+            }
+            nodeOf[i] = nodeOfRoot[root];
+        }
+        group = new int[numNodes];
+        unknown = new int[numNodes];
+        for (int n = 0; n < numNodes; n++)
+        {
+            group[n] = groups.get(n);
+            unknown[n] = unknowns.get(n);
+        }
+
+        edgeA = new int[resistors.size()];
+        edgeB = new int[resistors.size()];
+        edgeG = new double[resistors.size()];
+        int[] adjacentStart = new int[numUnknowns + 1];
+        for (int e = 0; e < resistors.size(); e++)
+        {
+            Component c = resistors.get(e);
+            edgeA[e] = nodeOf[terminalIndex(c.getEndPt1())];
+            edgeB[e] = nodeOf[terminalIndex(c.getEndPt2())];
+            edgeG[e] = 1.0 / c.getResistance();
+            int a = unknown[edgeA[e]];
+            int b = unknown[edgeB[e]];
+            if (a >= 0 && b >= 0 && a != b)
+            {
+                adjacentStart[a + 1]++;
+                adjacentStart[b + 1]++;
+            }
+        }
+        if (numUnknowns > 0)
+        {
+            factor(adjacentStart);
+        }
+    }
+
+    /**
+     * Puts the unknowns in reverse Cuthill-McKee order (see BandOrdering), so that each resistor joins two unknowns
+     * close together, and factors the conductance matrix as a band (see BandedLU). With one node of each piece held at
+     * 0 V the matrix is symmetric and positive definite. For a grid w terminals wide the band is about w wide, so with n
+     * unknowns the factors take about 4 n w numbers and each solve about 6 n w operations, rather than n^2 and 2 n^2.
+     * @param adjacentStart  How many resistors join each unknown to another one, shifted up by one
+     */
+    private void factor(int[] adjacentStart)
+    {
+        for (int i = 0; i < numUnknowns; i++)
+        {
+            adjacentStart[i + 1] += adjacentStart[i];
+        }
+        int[] adjacent = new int[adjacentStart[numUnknowns]];
+        int[] next = new int[numUnknowns];
+        for (int e = 0; e < edgeA.length; e++)
+        {
+            int a = unknown[edgeA[e]];
+            int b = unknown[edgeB[e]];
+            if (a >= 0 && b >= 0 && a != b)
+            {
+                adjacent[adjacentStart[a] + next[a]] = b;
+                next[a]++;
+                adjacent[adjacentStart[b] + next[b]] = a;
+                next[b]++;
+            }
+        }
+        position = BandOrdering.reverseCuthillMcKee(numUnknowns, adjacentStart, adjacent);
+        int bandwidth = 0;
+        for (int i = 0; i < numUnknowns; i++)
+        {
+            for (int j = adjacentStart[i]; j < adjacentStart[i + 1]; j++)
+            {
+                bandwidth = Math.max(bandwidth, Math.abs(position[i] - position[adjacent[j]]));
+            }
+        }
+
+        factors = new BandedLU(numUnknowns, bandwidth, bandwidth);
+        for (int e = 0; e < edgeA.length; e++)
+        {
+            int a = unknown[edgeA[e]];
+            int b = unknown[edgeB[e]];
+            stamp(a, a, edgeG[e]);
+            stamp(b, b, edgeG[e]);
+            stamp(a, b, -edgeG[e]);
+            stamp(b, a, -edgeG[e]);
+        }
+        if (!factors.factor())
+        {
+            factors = null;
+        }
+    }
+
+    /**
+     * @return  The potential of each unknown when the given currents are pushed into the nodes
+     */
+    private double[] solve(double[] injected)
+    {
+        double[] b = new double[numUnknowns];
+        for (int u = 0; u < numUnknowns; u++)
+        {
+            b[position[u]] = injected[u];
+        }
+        factors.solve(b);
+        double[] x = new double[numUnknowns];
+        for (int u = 0; u < numUnknowns; u++)
+        {
+            x[u] = b[position[u]];
+        }
+        return x;
+    }
+
+    /**
+     * Makes enough random projections for most estimates to be within a relative error of eps, using
+     * k = 4 ln(n) / eps^2 projections for n nodes. That constant was chosen by measurement, not proven: on grids of 36
+     * to 576 terminals, all but about 1 pair in 1000 came within eps, and the worst pair was off by about 1.3 eps.
+     * (Dasgupta and Gupta's proof that every pair is within eps needs two to three times as many.) Each estimate is a sum
+     * of k squares, so its typical relative error is about sqrt(2 / k).
+     * @param eps  The relative error wanted, between 0 and 1
+     */
+    public void build(double eps)
+    {
+        build((int)Math.ceil(4 * Math.log(Math.max(numNodes, 2)) / (eps * eps)));
+        epsilon = eps;
+    }
+
+    /**
+     * Makes a given number of random projections, for when a fixed amount of work is wanted rather than an error bound.
+     * @param projections  The number of solves to use
+     */
+    public void build(int projections)
+    {
+        numProjections = projections;
+        numSolves = 0;
+        epsilon = 0;
+        inverse = null;
+        sketch = new double[numNodes][numProjections];
+        if (factors == null)
+        {
+            return;
+        }
+        Random random = new Random(seed);
+        double scale = 1 / Math.sqrt(numProjections);
+        double[] injected = new double[numUnknowns];
+        for (int i = 0; i < numProjections; i++)
+        {
+            // Row i of Q W^(1/2) B, as currents pushed into the nodes
+            for (int u = 0; u < numUnknowns; u++)
+            {
+                injected[u] = 0;
+            }
+            for (int e = 0; e < edgeA.length; e++)
+            {
+                double q = random.nextBoolean() ? scale : -scale;
+                double weight = q * Math.sqrt(edgeG[e]);
+                add(injected, unknown[edgeA[e]], weight);
+                add(injected, unknown[edgeB[e]], -weight);
+            }
+            double[] potentials = solve(injected);
+            numSolves++;
+            for (int n = 0; n < numNodes; n++)
+            {
+                sketch[n][i] = unknown[n] < 0 ? 0 : potentials[unknown[n]];
+            }
+        }
+    }
+
+    /**
+     * Finds the resistance between every pair of terminals exactly, with one solve per node (other than the reference
+     * node of each piece) and n^2 numbers stored. Cheaper than build(double) on small circuits; see the class comment.
+     */
+    public void buildExact()
+    {
+        numProjections = 0;
+        numSolves = 0;
+        epsilon = 0;
+        sketch = null;
+        inverse = new double[numNodes][];
+        double[] injected = new double[numUnknowns];
+        for (int n = 0; n < numNodes; n++)
+        {
+            if (unknown[n] < 0)
+            {
+                continue;
+            }
+            injected[unknown[n]] = 1;
+            inverse[n] = solve(injected);
+            injected[unknown[n]] = 0;
+            numSolves++;
+        }
+    }
+
+    /**
+     * @return  The resistance in ohms between two terminals, estimated or exact depending on whether build() or
+     *          buildExact() was called last; 0 if they are joined by wires, and Double.POSITIVE_INFINITY if there is no
+     *          path of resistors and wires between them.
+     */
+    public double getResistance(Terminal t1, Terminal t2)
+    {
+        int a = nodeAt(t1);
+        int b = nodeAt(t2);
+        if (a < 0 || b < 0 || group[a] != group[b])
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (a == b)
+        {
+            return 0;
+        }
+        if (inverse != null)
+        {
+            // (e_a - e_b)^T L^-1 (e_a - e_b), with the reference node's row and column left out
+            return column(a, a) + column(b, b) - 2 * column(a, b);
+        }
+        double[] za = sketch[a];
+        double[] zb = sketch[b];
+        double sum = 0;
+        for (int i = 0; i < numProjections; i++)
+        {
+            double d = za[i] - zb[i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the resistance between two terminals exactly, with one solve. Used to check the estimates.
+     */
+    public double getExactResistance(Terminal t1, Terminal t2)
+    {
+        int a = nodeAt(t1);
+        int b = nodeAt(t2);
+        if (a < 0 || b < 0 || group[a] != group[b])
+        {
+            return Double.POSITIVE_INFINITY;
+        }
+        if (a == b)
+        {
+            return 0;
+        }
+        double[] injected = new double[numUnknowns];
+        add(injected, unknown[a], 1);
+        add(injected, unknown[b], -1);
+        double[] potentials = solve(injected);
+        return entry(potentials, unknown[a]) - entry(potentials, unknown[b]);
+    }
+
+    /**
+     * @return  The resistance from one terminal to every terminal in the circuit, for drawing a heatmap, indexed as
+     *          Circuit.getTerminalIndex() numbers the terminals. Terminals with nothing connected are left at
+     *          Double.POSITIVE_INFINITY without being looked at, so a large sparse circuit costs only its terminals in use.
+     */
+    public double[] getResistancesFrom(Terminal t)
+    {
+        double[] result = new double[circuit.getNumTerminals()];
+        Arrays.fill(result, Double.POSITIVE_INFINITY);
+        for (Terminal other : circuit.getConnectedTerminals())
+        {
+            result[terminalIndex(other)] = getResistance(t, other);
+        }
+        return result;
+    }
+
+    /**
+     * @param s  The seed for the random projections, so that a build can be repeated
+     */
+    public void setSeed(long s)
+    {
+        seed = s;
+    }
+
+    /**
+     * @return  The number of random projections made by the last build(), or 0 after buildExact()
+     */
+    public int getNumProjections()
+    {
+        return numProjections;
+    }
+
+    /**
+     * @return  The number of solves used by the last build() or buildExact()
+     */
+    public int getNumSolves()
+    {
+        return numSolves;
+    }
+
+    /**
+     * @return  The error bound passed to build(), or 0 if a fixed number of projections was used
+     */
+    public double getEpsilon()
+    {
+        return epsilon;
+    }
+
+    /**
+     * @return  The number of nodes (terminals, after those joined by wires are merged)
+     */
+    public int getNumNodes()
+    {
+        return numNodes;
+    }
+
+    private void stamp(int row, int col, double value)
+    {
+        if (row >= 0 && col >= 0)
+        {
+            factors.add(position[row], position[col], value);
+        }
+    }
+
+    private void add(double[] vector, int i, double value)
+    {
+        if (i >= 0)
+        {
+            vector[i] += value;
+        }
+    }
+
+    private double entry(double[] x, int i)
+    {
+        if (i < 0)
+        {
+            return 0;
+        }
+        return x[i];
+    }
+
+    /**
+     * @return  Entry (node n's unknown) of node m's column of L^-1, or 0 if either is a reference node
+     */
+    private double column(int m, int n)
+    {
+        if (unknown[m] < 0 || unknown[n] < 0)
+        {
+            return 0;
+        }
+        return inverse[m][unknown[n]];
+    }
+
+    private int terminalIndex(Terminal t)
+    {
+        return circuit.getTerminalIndex(t);
+    }
+
+    /**
+     * @return  A terminal's node, or -1 if nothing is connected to it
+     */
+    private int nodeAt(Terminal t)
+    {
+        int i = terminalIndex(t);
+        return i < 0 ? -1 : nodeOf[i];
+    }
+
+    private static void union(int[] parent, int a, int b)
+    {
+        a = find(parent, a);
+        b = find(parent, b);
+        parent[Math.max(a, b)] = Math.min(a, b);
+    }
+
+    private static int find(int[] parent, int i)
+    {
+        while (parent[i] != i)
+        {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
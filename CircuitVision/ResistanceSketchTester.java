@@ -0,0 +1,161 @@
+import java.util.Random;
+
+/**
+ * Compares ResistanceSketch's estimates of the resistance between every pair of terminals with the exact values from
+ * buildExact(), which takes one solve per node with the same factored conductance matrix, on square grids of randomly
+ * chosen resistors. Prints the solves, time and storage each takes, so it shows the grid size above which the sketch
+ * wins: on grids up to 24 x 24 every pair is compared, and on 48 x 48 and 64 x 64 grids a random sample of pairs.
+ */
+public class ResistanceSketchTester
+{
+    public static void main(String[] args)
+    {
+        // buildExact() against one solve per pair, on a small grid
+        Circuit small = makeGrid(5, new Random(5));
+        ResistanceSketch check = new ResistanceSketch(small);
+        check.buildExact();
+        double worstExact = 0;
+        for (int a = 0; a < 25; a++)
+        {
+            for (int b = a + 1; b < 25; b++)
+            {
+                double pair = check.getExactResistance(terminal(small, a), terminal(small, b));
+                worstExact = Math.max(worstExact, Math.abs(check.getResistance(terminal(small, a), terminal(small, b))
+                    - pair) / pair);
+            }
+        }
+        System.out.println("5 x 5 grid: buildExact() against one solve per pair, largest relative difference "
+            + worstExact);
+
+        int[] sizes = {6, 10, 16, 24};
+        for (int size : sizes)
+        {
+            compare(size, 0);
+        }
+        // On larger grids, checked on a random sample of pairs, since every pair would take too long to go through
+        int[] largeSizes = {48, 64};
+        for (int size : largeSizes)
+        {
+            compare(size, 20000);
+        }
+    }
+
+    /**
+     * Builds the exact resistances and two sketches of a size x size grid, and prints the time and storage each takes
+     * and how far the sketches' estimates are from the exact values.
+     * @param samples  The number of random pairs of terminals to compare, or 0 for every pair
+     */
+    private static void compare(int size, int samples)
+    {
+        double[] errorBounds = {0.5, 0.3};
+        Circuit grid = makeGrid(size, new Random(size));
+        int n = size * size;
+        int[][] pairs = pairs(n, samples, new Random(size));
+        ResistanceSketch sketch = new ResistanceSketch(grid);
+
+        long start = System.nanoTime();
+        sketch.buildExact();
+        double buildMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        double[] exact = new double[pairs.length];
+        for (int p = 0; p < pairs.length; p++)
+        {
+            exact[p] = sketch.getResistance(terminal(grid, pairs[p][0]), terminal(grid, pairs[p][1]));
+        }
+        double queryMs = (System.nanoTime() - start) / 1e6;
+        String which = samples == 0 ? "every pair" : pairs.length + " pairs";
+        System.out.println(size + " x " + size + " grid, " + n + " terminals: exact, " + sketch.getNumSolves()
+            + " solves in " + round(buildMs) + " ms, " + (long)n * (n - 1) + " numbers kept, " + which + " in "
+            + round(queryMs) + " ms");
+
+        for (double eps : errorBounds)
+        {
+            start = System.nanoTime();
+            sketch.build(eps);
+            buildMs = (System.nanoTime() - start) / 1e6;
+            start = System.nanoTime();
+            double worst = 0;
+            double total = 0;
+            int outside = 0;
+            for (int p = 0; p < pairs.length; p++)
+            {
+                double estimate = sketch.getResistance(terminal(grid, pairs[p][0]), terminal(grid, pairs[p][1]));
+                double error = Math.abs(estimate - exact[p]) / exact[p];
+                worst = Math.max(worst, error);
+                total += error;
+                if (error > eps)
+                {
+                    outside++;
+                }
+            }
+            queryMs = (System.nanoTime() - start) / 1e6;
+            System.out.println("   epsilon " + eps + ": " + sketch.getNumSolves() + " solves ("
+                + (sketch.getNumSolves() < n - 1 ? "fewer" : "more") + " than exact) in " + round(buildMs) + " ms, "
+                + (long)n * sketch.getNumProjections() + " numbers kept, " + which + " in " + round(queryMs)
+                + " ms, mean error " + round(100 * total / pairs.length) + "%, worst " + round(100 * worst) + "%, "
+                + outside + " of " + pairs.length + " pairs outside epsilon");
+        }
+    }
+
+    /**
+     * @return  Every pair of n terminals if samples is 0; otherwise that many pairs of different terminals, at random
+     */
+    private static int[][] pairs(int n, int samples, Random random)
+    {
+        if (samples > 0)
+        {
+            int[][] pairs = new int[samples][];
+            for (int p = 0; p < samples; p++)
+            {
+                int a = random.nextInt(n);
+                int b = random.nextInt(n - 1);
+                pairs[p] = new int[] {a, b < a ? b : b + 1};
+            }
+            return pairs;
+        }
+        int[][] pairs = new int[n * (n - 1) / 2][];
+        int p = 0;
+        for (int a = 0; a < n; a++)
+        {
+            for (int b = a + 1; b < n; b++)
+            {
+                pairs[p] = new int[] {a, b};
+                p++;
+            }
+        }
+        return pairs;
+    }
+
+    /**
+     * @return  A circuit with a resistor of 1 to 100 ohms between each pair of neighboring terminals.
+     */
+    private static Circuit makeGrid(int size, Random random)
+    {
+        Circuit grid = new Circuit(size, size);
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                if (c + 1 < size)
+                {
+                    grid.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r, c + 1);
+                }
+                if (r + 1 < size)
+                {
+                    grid.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r + 1, c);
+                }
+            }
+        }
+        return grid;
+    }
+
+    private static Terminal terminal(Circuit circ, int i)
+    {
+        return circ.getTerminal(i / circ.getCols(), i % circ.getCols());
+    }
+
+    private static double round(double value)
+    {
+        return (int)(value * 100 + 0.5) / 100.0;
+    }
+}
@@ -0,0 +1,166 @@
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks that a CircuitSnapshot matches the circuit it was taken from and stays the same after the circuit is changed
+ * and solved again. Then one thread keeps changing and solving a circuit while another reads it, the way the
+ * animation window does: first straight from the Circuit, then only from published snapshots. Each reading is checked
+ * against Ohm's law for every resistor; a reading taken halfway through a change or a solve fails the check.
+ */
+public class SnapshotTester
+{
+    public static void main(String[] args) throws InterruptedException
+    {
+        Circuit circ = ladder(6);
+        circ.solve();
+        CircuitSnapshot first = CircuitSnapshot.of(circ);
+        double worst = 0;
+        List<Component> components = circ.getComponents();
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            double current = c.getCurrent();
+            if (c.getCurrentDirection() != null && c.getCurrentDirection().equals(c.getEndPt1()))
+            {
+                current = -current;
+            }
+            worst = Math.max(worst, Math.abs(first.getCurrent(k) - current));
+        }
+        for (Terminal t : circ.getConnectedTerminals())
+        {
+            worst = Math.max(worst, Math.abs(first.getPotential(t.getRow(), t.getCol()) - t.getPotential()));
+        }
+        System.out.println("Snapshot matches the solved circuit: largest difference " + worst + "; consistent: "
+            + consistent(first));
+        double before = first.getCurrent(0);
+        circ.setResistance(components.get(0), 999);
+        circ.solve();
+        System.out.println("Snapshot unchanged after the circuit is changed and solved again: "
+            + (first.getCurrent(0) == before && first.getValue(0) != 999));
+
+        System.out.println("Reading the Circuit while it is changed and solved: " + race(false) + " bad readings");
+        System.out.println("Reading published snapshots instead: " + race(true) + " bad readings");
+    }
+
+    /**
+     * Runs a writer thread that changes a resistance and re-solves, over and over, while this thread reads.
+     * @param snapshots  True to read published snapshots, false to read the Circuit's components directly
+     * @return  How many of the readings made in a second broke Ohm's law (or threw an exception), as "bad of total"
+     */
+    private static String race(final boolean snapshots) throws InterruptedException
+    {
+        final Circuit circ = ladder(6);
+        circ.solve();
+        final AtomicReference<CircuitSnapshot> published = new AtomicReference<CircuitSnapshot>(CircuitSnapshot.of(circ));
+        final long end = System.currentTimeMillis() + 1000;
+        Thread writer = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                Random random = new Random(1);
+                List<Component> components = circ.getComponents();
+                while (System.currentTimeMillis() < end)
+                {
+                    Component c = components.get(random.nextInt(components.size()));
+                    if (c instanceof Resistor)
+                    {
+                        circ.setResistance(c, 1 + random.nextInt(100));
+                        circ.solve();
+                        published.set(CircuitSnapshot.of(circ));
+                    }
+                }
+            }
+        });
+        writer.start();
+        int readings = 0;
+        int bad = 0;
+        while (System.currentTimeMillis() < end)
+        {
+            readings++;
+            try
+            {
+                boolean ok = snapshots ? consistent(published.get()) : consistent(circ);
+                if (!ok)
+                {
+                    bad++;
+                }
+            }
+            catch (RuntimeException e)
+            {
+                bad++;
+            }
+        }
+        writer.join();
+        return bad + " of " + readings;
+    }
+
+    /**
+     * @return  True if every resistor in the snapshot has the potential difference its current and resistance give
+     */
+    private static boolean consistent(CircuitSnapshot snap)
+    {
+        for (int k = 0; k < snap.size(); k++)
+        {
+            if (snap.getKind(k) == CompactCircuit.RESISTOR)
+            {
+                double drop = snap.getPotential(snap.getRow1(k), snap.getCol1(k))
+                    - snap.getPotential(snap.getRow2(k), snap.getCol2(k));
+                if (Math.abs(drop - snap.getCurrent(k) * snap.getValue(k)) > 1e-6)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return  The same check made on the Circuit's components and terminals as they are right now
+     */
+    private static boolean consistent(Circuit circ)
+    {
+        List<Component> components = circ.getComponents();
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            if (c instanceof Resistor)
+            {
+                double current = c.getCurrent();
+                if (c.getCurrentDirection() != null && c.getCurrentDirection().equals(c.getEndPt1()))
+                {
+                    current = -current;
+                }
+                double drop = c.getEndPt1().getPotential() - c.getEndPt2().getPotential();
+                if (Math.abs(drop - current * c.getResistance()) > 1e-6)
+                {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return  A ladder of resistors with a battery across its first rung
+     */
+    private static Circuit ladder(int size)
+    {
+        Random random = new Random(size);
+        Circuit circ = new Circuit(size, 2);
+        for (int i = 0; i < size; i++)
+        {
+            if (i + 1 < size)
+            {
+                circ.addComponent(new Resistor(1 + random.nextInt(100)), i, 0, i + 1, 0);
+                circ.addComponent(new Resistor(1 + random.nextInt(100)), i, 1, i + 1, 1);
+            }
+            if (i > 0)
+            {
+                circ.addComponent(new Resistor(1 + random.nextInt(100)), i, 0, i, 1);
+            }
+        }
+        circ.addBattery(new Battery(12), 0, 0, 0, 1, 0, 0);
+        return circ;
+    }
+}
@@ -0,0 +1,137 @@
+/**
+ * What changed in a circuit's solution, as sent by a SolutionPublisher: the components whose current and the terminals
+ * whose potential moved by more than the publisher's epsilon since they were last sent, with their new values. A
+ * subscriber that applies each delta to its own copy of the solution keeps it within epsilon of the circuit's.
+ *
+ * A full delta lists every component and every terminal. It is sent first to each subscriber, and again whenever
+ * components are added or removed (which renumbers them), so the subscriber should then start its copy over.
+ *
+ * Components are numbered by their place in circuit.getComponents(), and currents are from a component's endPt1 to
+ * its endPt2 (negative if the current flows the other way), or 0 if the circuit has no solution. Terminals are
+ * numbered as circuit.getTerminalIndex() numbers them; a potential of Double.MAX_VALUE means unknown.
+ */
+public class SolutionDelta
+{
+    private final long structuralVersion;
+    private final long valueVersion;
+    private final boolean full;
+    private final boolean solved;
+    private final int[] components;
+    private final double[] currents;
+    private final int[] terminals;
+    private final int[] rowsAndCols;    // row and column of each terminal in terminals
+    private final double[] potentials;
+
+    SolutionDelta(long structural, long value, boolean isFull, boolean isSolved, int[] changedComponents,
+        double[] newCurrents, int[] changedTerminals, int[] terminalRowsAndCols, double[] newPotentials)
+    {
+        structuralVersion = structural;
+        valueVersion = value;
+        full = isFull;
+        solved = isSolved;
+        components = changedComponents;
+        currents = newCurrents;
+        terminals = changedTerminals;
+        rowsAndCols = terminalRowsAndCols;
+        potentials = newPotentials;
+    }
+
+    /**
+     * @return  The circuit's structural version at the solve this delta brings the subscriber up to
+     */
+    public long getStructuralVersion()
+    {
+        return structuralVersion;
+    }
+
+    /**
+     * @return  The circuit's value version at that solve
+     */
+    public long getValueVersion()
+    {
+        return valueVersion;
+    }
+
+    /**
+     * @return  True if this lists every component and terminal, and the subscriber should discard what it had
+     */
+    public boolean isFull()
+    {
+        return full;
+    }
+
+    /**
+     * @return  True if the circuit had a solution; false after a short circuit or a circuit with no complete loop
+     */
+    public boolean isSolved()
+    {
+        return solved;
+    }
+
+    /**
+     * @return  The number of components whose current changed
+     */
+    public int numComponents()
+    {
+        return components.length;
+    }
+
+    /**
+     * @return  The place in circuit.getComponents() of the i'th changed component
+     */
+    public int getComponent(int i)
+    {
+        return components[i];
+    }
+
+    /**
+     * @return  The new current through the i'th changed component, from its endPt1 to its endPt2
+     */
+    public double getCurrent(int i)
+    {
+        return currents[i];
+    }
+
+    /**
+     * @return  The number of terminals whose potential changed
+     */
+    public int numTerminals()
+    {
+        return terminals.length;
+    }
+
+    /**
+     * @return  The number (see Circuit.getTerminalIndex()) of the i'th changed terminal
+     */
+    public int getTerminal(int i)
+    {
+        return terminals[i];
+    }
+
+    public int getTerminalRow(int i)
+    {
+        return rowsAndCols[2 * i];
+    }
+
+    public int getTerminalCol(int i)
+    {
+        return rowsAndCols[2 * i + 1];
+    }
+
+    /**
+     * @return  The new potential at the i'th changed terminal, or Double.MAX_VALUE if it is unknown
+     */
+    public double getPotential(int i)
+    {
+        return potentials[i];
+    }
+
+    /**
+     * @return  The versions and how much changed
+     */
+    public String toString()
+    {
+        return (full ? "Full" : "Delta") + " at version " + structuralVersion + "." + valueVersion + ": "
+            + components.length + " currents, " + terminals.length + " potentials" + (solved ? "" : " (no solution)");
+    }
+}
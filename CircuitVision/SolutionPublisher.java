@@ -0,0 +1,453 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tells subscribers what changed each time a Circuit is solved (see Circuit.getSolutionPublisher()), as a stream of
+ * SolutionDeltas, so a dashboard does work in proportion to what changed instead of rereading every Component and
+ * Terminal. A current or potential is sent only when it has moved by more than the epsilon since it was last sent, so
+ * small changes are held back until they add up.
+ *
+ * Subscribers are java.util.concurrent.Flow subscribers, and get their deltas on an Executor (by default the common
+ * fork/join pool), never on the thread that solves the circuit. A subscriber that asks for fewer deltas than there are
+ * solves is not sent a backlog: while it is not ready, the changes are conflated, keeping for each component and
+ * terminal only its latest value, and its next delta brings it straight up to the latest solution. The work per solve
+ * for each subscriber is in proportion to what changed.
+ *
+ * The publisher compares each solve with the last values it sent, which takes one pass over the components and
+ * terminals on the solving thread.
+ */
+public class SolutionPublisher implements Flow.Publisher<SolutionDelta>
+{
+    private Executor executor;
+
+    // Guarded by this
+    private double currentEpsilon = 1e-9;
+    private double potentialEpsilon = 1e-9;
+    private List<DeltaSubscription> subscriptions;
+    private boolean published;      // false until the first solve
+    private boolean closed;
+    private long structuralVersion;
+    private long valueVersion;
+    private boolean solved;
+    private double[] currents;      // the last current sent for each component
+    private double[] potentials;    // the last potential sent for each terminal
+    private int[] rowsAndCols;      // row and column of each terminal
+    private int[] changed;          // room for the components or terminals changed by one solve
+
+    /**
+     * Delivers to subscribers on the common fork/join pool.
+     */
+    public SolutionPublisher()
+    {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param deliverOn  Runs the calls to subscribers
+     */
+    public SolutionPublisher(Executor deliverOn)
+    {
+        executor = deliverOn;
+        subscriptions = new ArrayList<DeltaSubscription>();
+        currents = new double[0];
+        potentials = new double[0];
+        rowsAndCols = new int[0];
+        changed = new int[0];
+    }
+
+    /**
+     * Sets how far a value must move (from the last value sent) to be sent again.
+     * @param amps  For currents
+     * @param volts  For potentials
+     */
+    public synchronized void setEpsilon(double amps, double volts)
+    {
+        currentEpsilon = amps;
+        potentialEpsilon = volts;
+    }
+
+    /**
+     * Adds a subscriber. Its first delta, once it asks for one, is a full one with the latest solution (if the circuit
+     * has been solved since this publisher was made).
+     */
+    public void subscribe(Flow.Subscriber<? super SolutionDelta> subscriber)
+    {
+        DeltaSubscription s = new DeltaSubscription(subscriber);
+        synchronized (this)
+        {
+            if (!closed)
+            {
+                subscriptions.add(s);
+            }
+            s.reset = true;
+        }
+        subscriber.onSubscribe(s);
+        if (closed)
+        {
+            s.complete();
+        }
+    }
+
+    /**
+     * Ends the stream: each subscriber gets onComplete() after any delta it is owed.
+     */
+    public void close()
+    {
+        List<DeltaSubscription> ending;
+        synchronized (this)
+        {
+            closed = true;
+            ending = new ArrayList<DeltaSubscription>(subscriptions);
+            subscriptions.clear();
+        }
+        for (DeltaSubscription s : ending)
+        {
+            s.complete();
+        }
+    }
+
+    /**
+     * @return  The number of subscribers that have not cancelled
+     */
+    public synchronized int numSubscribers()
+    {
+        return subscriptions.size();
+    }
+
+    /**
+     * Called by the circuit after each solve, on the thread that solved it: finds what changed and passes it on.
+     */
+    void publish(Circuit circ)
+    {
+        List<Component> components = circ.getComponents();
+        int n = components.size();
+        int numTerminals = circ.getNumTerminals();
+        SolveResult result = circ.getResult();
+        double[] solvedPotentials = result == null ? null : result.getPotentials();
+        List<DeltaSubscription> ready = new ArrayList<DeltaSubscription>();
+        synchronized (this)
+        {
+            if (closed)
+            {
+                return;
+            }
+            boolean restart = !published || circ.getStructuralVersion() != structuralVersion
+                || currents.length != n || potentials.length != numTerminals;
+            published = true;
+            structuralVersion = circ.getStructuralVersion();
+            valueVersion = circ.getValueVersion();
+            solved = result != null;
+            if (restart)
+            {
+                currents = new double[n];
+                potentials = new double[numTerminals];
+                rowsAndCols = new int[2 * numTerminals];
+                changed = new int[Math.max(n, numTerminals)];
+                long[] keys = circ.getTerminalKeys();
+                int cols = circ.getCols();
+                for (int t = 0; t < numTerminals; t++)
+                {
+                    long key = keys == null ? t : keys[t];
+                    rowsAndCols[2 * t] = (int)(key / cols);
+                    rowsAndCols[2 * t + 1] = (int)(key % cols);
+                }
+            }
+
+            // Currents that moved, then potentials; the last values sent are updated as they are found
+            int numChanged = 0;
+            for (int k = 0; k < n; k++)
+            {
+                double current = result == null ? 0 : currentFromEnd1(components.get(k));
+                if (restart || !(Math.abs(current - currents[k]) <= currentEpsilon))
+                {
+                    currents[k] = current;
+                    changed[numChanged] = k;
+                    numChanged++;
+                }
+            }
+            for (DeltaSubscription s : subscriptions)
+            {
+                s.markComponents(changed, numChanged, restart);
+            }
+            numChanged = 0;
+            for (int t = 0; t < numTerminals; t++)
+            {
+                double v = solvedPotentials == null ? Double.MAX_VALUE : solvedPotentials[t];
+                if (restart || v != potentials[t] && !(Math.abs(v - potentials[t]) <= potentialEpsilon))
+                {
+                    potentials[t] = v;
+                    changed[numChanged] = t;
+                    numChanged++;
+                }
+            }
+            for (DeltaSubscription s : subscriptions)
+            {
+                s.markTerminals(changed, numChanged);
+                s.versionChanged = true;
+                ready.add(s);
+            }
+        }
+        for (DeltaSubscription s : ready)
+        {
+            s.schedule();
+        }
+    }
+
+    /**
+     * @return  The current through a component from its endPt1 to its endPt2
+     */
+    private static double currentFromEnd1(Component c)
+    {
+        double current = c.getCurrent();
+        if (c.getCurrentDirection() != null && c.getCurrentDirection().equals(c.getEndPt1()))
+        {
+            return -current;
+        }
+        return current;
+    }
+
+    /**
+     * One subscriber's demand, and the components and terminals that have changed since its last delta (its dirty
+     * sets). Its fields other than the subscriber are guarded by the publisher, except those noted.
+     */
+    private class DeltaSubscription implements Flow.Subscription, Runnable
+    {
+        private Flow.Subscriber<? super SolutionDelta> subscriber;
+        private long requested;
+        private boolean cancelled;
+        private boolean completing;
+        private boolean reset;              // owes a full delta
+        private boolean versionChanged;     // a solve since its last delta, even if nothing moved by epsilon
+        private boolean[] dirtyComponent = new boolean[0];
+        private int[] dirtyComponents = new int[0];
+        private int numDirtyComponents;
+        private boolean[] dirtyTerminal = new boolean[0];
+        private int[] dirtyTerminals = new int[0];
+        private int numDirtyTerminals;
+        private boolean scheduled;          // a run() is queued or running
+        private boolean done;               // onComplete or onError has been called; touched only in run()
+
+        private DeltaSubscription(Flow.Subscriber<? super SolutionDelta> s)
+        {
+            subscriber = s;
+        }
+
+        public void request(long n)
+        {
+            synchronized (SolutionPublisher.this)
+            {
+                if (n <= 0)
+                {
+                    cancelled = true;
+                    subscriptions.remove(this);
+                    requested = -1;     // run() reports the error
+                }
+                else
+                {
+                    requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;   // stays at MAX_VALUE
+                }
+            }
+            schedule();
+        }
+
+        public void cancel()
+        {
+            synchronized (SolutionPublisher.this)
+            {
+                cancelled = true;
+                subscriptions.remove(this);
+            }
+        }
+
+        private void complete()
+        {
+            synchronized (SolutionPublisher.this)
+            {
+                completing = true;
+            }
+            schedule();
+        }
+
+        private void markComponents(int[] changed, int numChanged, boolean restart)
+        {
+            if (restart || dirtyComponent.length != currents.length || dirtyTerminal.length != potentials.length)
+            {
+                numDirtyComponents = 0;
+                numDirtyTerminals = 0;
+                dirtyComponent = new boolean[currents.length];
+                dirtyComponents = new int[currents.length];
+                dirtyTerminal = new boolean[potentials.length];
+                dirtyTerminals = new int[potentials.length];
+            }
+            if (restart)
+            {
+                reset = true;
+            }
+            if (reset)
+            {
+                return;     // a full delta is owed anyway
+            }
+            for (int i = 0; i < numChanged; i++)
+            {
+                int k = changed[i];
+                if (!dirtyComponent[k])
+                {
+                    dirtyComponent[k] = true;
+                    dirtyComponents[numDirtyComponents] = k;
+                    numDirtyComponents++;
+                }
+            }
+        }
+
+        private void markTerminals(int[] changed, int numChanged)
+        {
+            if (reset)
+            {
+                return;
+            }
+            for (int i = 0; i < numChanged; i++)
+            {
+                int t = changed[i];
+                if (!dirtyTerminal[t])
+                {
+                    dirtyTerminal[t] = true;
+                    dirtyTerminals[numDirtyTerminals] = t;
+                    numDirtyTerminals++;
+                }
+            }
+        }
+
+        /**
+         * Queues a run() unless one is already queued; that one will see whatever is owed now.
+         */
+        private void schedule()
+        {
+            synchronized (SolutionPublisher.this)
+            {
+                if (scheduled)
+                {
+                    return;
+                }
+                scheduled = true;
+            }
+            executor.execute(this);
+        }
+
+        /**
+         * Sends what is owed, one delta at a time while the subscriber wants them. Only one run() of a subscription
+         * is ever queued or running, so its calls to the subscriber never overlap.
+         */
+        public void run()
+        {
+            while (true)
+            {
+                SolutionDelta delta = null;
+                boolean error = false;
+                boolean finish = false;
+                synchronized (SolutionPublisher.this)
+                {
+                    if (done)
+                    {
+                        scheduled = false;
+                        return;
+                    }
+                    if (requested < 0)
+                    {
+                        error = true;
+                    }
+                    else if (cancelled)
+                    {
+                        scheduled = false;
+                        return;
+                    }
+                    else if (requested > 0 && published && (reset || versionChanged))
+                    {
+                        delta = takeDelta();
+                        if (requested != Long.MAX_VALUE)
+                        {
+                            requested--;
+                        }
+                    }
+                    else if (completing)
+                    {
+                        finish = true;
+                    }
+                    else
+                    {
+                        scheduled = false;
+                        return;
+                    }
+                }
+                try
+                {
+                    if (error)
+                    {
+                        done = true;
+                        subscriber.onError(new IllegalArgumentException("request() needs a positive number"));
+                    }
+                    else if (finish)
+                    {
+                        done = true;
+                        subscriber.onComplete();
+                    }
+                    else
+                    {
+                        subscriber.onNext(delta);
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    // A subscriber that throws is dropped
+                    done = true;
+                    cancel();
+                }
+            }
+        }
+
+        /**
+         * Makes the subscriber's next delta from the latest values sent, and clears its dirty sets.
+         */
+        private SolutionDelta takeDelta()
+        {
+            boolean full = reset;
+            int nc = full ? currents.length : numDirtyComponents;
+            int nt = full ? potentials.length : numDirtyTerminals;
+            int[] components = new int[nc];
+            double[] newCurrents = new double[nc];
+            int[] terminals = new int[nt];
+            int[] places = new int[2 * nt];
+            double[] newPotentials = new double[nt];
+            for (int i = 0; i < nc; i++)
+            {
+                int k = full ? i : dirtyComponents[i];
+                components[i] = k;
+                newCurrents[i] = currents[k];
+                if (!full)
+                {
+                    dirtyComponent[k] = false;
+                }
+            }
+            for (int i = 0; i < nt; i++)
+            {
+                int t = full ? i : dirtyTerminals[i];
+                terminals[i] = t;
+                places[2 * i] = rowsAndCols[2 * t];
+                places[2 * i + 1] = rowsAndCols[2 * t + 1];
+                newPotentials[i] = potentials[t];
+                if (!full)
+                {
+                    dirtyTerminal[t] = false;
+                }
+            }
+            reset = false;
+            versionChanged = false;
+            numDirtyComponents = 0;
+            numDirtyTerminals = 0;
+            return new SolutionDelta(structuralVersion, valueVersion, full, solved, components, newCurrents, terminals,
+                places, newPotentials);
+        }
+    }
+}
@@ -0,0 +1,243 @@
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Flow;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks SolutionPublisher on a 30 x 30 lattice of resistors: a subscriber first gets a full delta, then after one
+ * resistance is changed only the currents and potentials that moved by more than the epsilon, and its copy of the
+ * solution stays within epsilon of the circuit's. Then a slow subscriber that asks for one delta at a time is sent a few
+ * conflated deltas, not one per solve, and still ends at the latest solution; a cancelled subscriber is sent nothing
+ * more, and one that asks for 0 deltas gets onError().
+ */
+public class SolutionPublisherTester
+{
+    private static final double AMPS = 1e-7;
+    private static final double VOLTS = 1e-5;
+
+    public static void main(String[] args) throws InterruptedException
+    {
+        Circuit circ = lattice(30);
+        SolutionPublisher publisher = circ.getSolutionPublisher();
+        publisher.setEpsilon(AMPS, VOLTS);
+        Mirror fast = new Mirror(0);
+        publisher.subscribe(fast);
+        circ.solveIncremental();
+        fast.waitFor(1);
+        System.out.println("First delta: " + fast.last + "; full: " + fast.last.isFull());
+
+        List<Component> components = circ.getComponents();
+        circ.setResistance(components.get(components.size() / 2), 90);
+        circ.solveIncremental();
+        fast.waitFor(2);
+        System.out.println("After changing one resistor: " + fast.last.numComponents() + " of " + components.size()
+            + " currents and " + fast.last.numTerminals() + " of " + circ.getNumTerminals() + " potentials sent; "
+            + "copy within epsilon: " + fast.matches(circ));
+
+        Mirror slow = new Mirror(300);
+        publisher.subscribe(slow);
+        Mirror cancelled = new Mirror(0);
+        publisher.subscribe(cancelled);
+        circ.solveIncremental();
+        cancelled.waitFor(1);
+        cancelled.subscription.cancel();
+        Random random = new Random(1);
+        int solves = 50;
+        for (int i = 0; i < solves; i++)
+        {
+            Component c = components.get(random.nextInt(components.size()));
+            if (c instanceof Resistor)
+            {
+                circ.setResistance(c, 1 + random.nextInt(100));
+            }
+            circ.solveIncremental();
+        }
+        fast.waitForVersion(circ);
+        slow.waitForVersion(circ);
+        System.out.println("Subscriber taking 300 ms per delta, over " + (solves + 1) + " solves: " + slow.received
+            + " deltas; copy within epsilon: " + slow.matches(circ));
+        System.out.println("Subscriber that cancelled after its first delta: " + cancelled.received + " delta; "
+            + publisher.numSubscribers() + " subscribers left");
+
+        Mirror bad = new Mirror(0);
+        bad.initial = 0;
+        publisher.subscribe(bad);
+        bad.waitForEnd();
+        System.out.println("request(0) gives onError: " + (bad.error instanceof IllegalArgumentException));
+
+        publisher.close();
+        fast.waitForEnd();
+        System.out.println("close() completes the stream: " + fast.completed);
+    }
+
+    /**
+     * @return  A lattice of resistors of 1 to 100 ohms, with a 9 V battery in place of its first resistor
+     */
+    private static Circuit lattice(int size)
+    {
+        Circuit circ = new Circuit(size, size);
+        Random random = new Random(2);
+        circ.addBattery(new Battery(9), 0, 0, 0, 1, 0, 1);
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                if (c + 1 < size && !(r == 0 && c == 0))
+                {
+                    circ.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r, c + 1);
+                }
+                if (r + 1 < size)
+                {
+                    circ.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r + 1, c);
+                }
+            }
+        }
+        return circ;
+    }
+
+    /**
+     * Keeps a copy of the solution by applying each delta it is sent.
+     */
+    private static class Mirror implements Flow.Subscriber<SolutionDelta>
+    {
+        private long pause;     // ms to spend on each delta, asking for one at a time; or 0 to ask for all
+        private long initial = 1;
+        private volatile Flow.Subscription subscription;
+        private volatile SolutionDelta last;
+        private volatile int received;
+        private volatile Throwable error;
+        private volatile boolean completed;
+        private CountDownLatch ended = new CountDownLatch(1);  // counted down by onError() or onComplete()
+        private double[] currents = new double[0];
+        private double[] potentials = new double[0];
+
+        private Mirror(long msPerDelta)
+        {
+            pause = msPerDelta;
+        }
+
+        public void onSubscribe(Flow.Subscription s)
+        {
+            subscription = s;
+            s.request(pause == 0 && initial > 0 ? Long.MAX_VALUE : initial);
+        }
+
+        public synchronized void onNext(SolutionDelta delta)
+        {
+            if (delta.isFull())
+            {
+                currents = new double[delta.numComponents()];
+                potentials = new double[delta.numTerminals()];
+            }
+            for (int i = 0; i < delta.numComponents(); i++)
+            {
+                currents[delta.getComponent(i)] = delta.getCurrent(i);
+            }
+            for (int i = 0; i < delta.numTerminals(); i++)
+            {
+                potentials[delta.getTerminal(i)] = delta.getPotential(i);
+            }
+            last = delta;
+            received++;
+            if (pause > 0)
+            {
+                try
+                {
+                    Thread.sleep(pause);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+                subscription.request(1);
+            }
+        }
+
+        public void onError(Throwable e)
+        {
+            error = e;
+            ended.countDown();
+        }
+
+        public void onComplete()
+        {
+            completed = true;
+            ended.countDown();
+        }
+
+        /**
+         * @return  True if every current and potential in the copy is within epsilon of the circuit's
+         */
+        private synchronized boolean matches(Circuit circ)
+        {
+            List<Component> components = circ.getComponents();
+            if (currents.length != components.size() || potentials.length != circ.getNumTerminals())
+            {
+                return false;
+            }
+            for (int k = 0; k < components.size(); k++)
+            {
+                Component c = components.get(k);
+                double current = c.getCurrent();
+                if (c.getCurrentDirection() != null && c.getCurrentDirection().equals(c.getEndPt1()))
+                {
+                    current = -current;
+                }
+                if (!(Math.abs(current - currents[k]) <= AMPS))
+                {
+                    return false;
+                }
+            }
+            double[] solved = circ.getResult().getPotentials();
+            for (int t = 0; t < potentials.length; t++)
+            {
+                if (solved[t] != potentials[t] && !(Math.abs(solved[t] - potentials[t]) <= VOLTS))
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void waitFor(int deltas) throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + 10000;
+            while (received < deltas && System.currentTimeMillis() < end)
+            {
+                Thread.sleep(1);
+            }
+        }
+
+        /**
+         * Waits (for up to 10 s) until onError() or onComplete() has been called. Both are sent from the publisher's
+         * thread, so they may come some time after the call that caused them.
+         */
+        private void waitForEnd() throws InterruptedException
+        {
+            ended.await(10, TimeUnit.SECONDS);
+        }
+
+        /**
+         * Waits (for up to 10 s) until this subscriber has been sent the delta for the circuit's latest solve. Every
+         * solve raises a delta, even if nothing moved by more than the epsilon, so the last one sent always carries the
+         * circuit's versions. Since onNext() and matches() are synchronized, a delta still being applied is finished
+         * before the copy is checked.
+         */
+        private void waitForVersion(Circuit circ) throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + 10000;
+            while (!atVersion(circ) && System.currentTimeMillis() < end)
+            {
+                Thread.sleep(1);
+            }
+        }
+
+        private boolean atVersion(Circuit circ)
+        {
+            SolutionDelta delta = last;
+            return delta != null && delta.getStructuralVersion() == circ.getStructuralVersion()
+                && delta.getValueVersion() == circ.getValueVersion();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.util.List;
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Remembers the solutions of recently solved circuits, so that solving the same circuit again (such as when the
+ * "Show Volts", "Show Amps" and "Animate Model" toggles are flipped, or when an edit is undone) just puts the
+ * stored branches and SolveResult back into the circuit instead of calling Circuit.solve().
+ *
+ * A circuit is looked up by a canonical description of it: the size of its grid, and a sorted list with one entry per
+ * component giving its type, its two terminals (lower index first) and its values. So the same circuit is found
+ * however its components were added, and any change to a component's value is a different circuit. The description
+ * itself is the key, so two different circuits can never be mistaken for each other even if their hash codes match.
+ * The least recently used circuit is dropped once the cache is full.
+ *
+ * The stored SolveResult is shared with the circuit, so potentials that have not been asked for yet are still only
+ * found when first needed. If the circuit is changed before then, they can no longer be found, and the next lookup of
+ * that circuit solves it again.
+ *
+ * Circuits with subcircuits placed in them are always solved, since the values inside a subcircuit definition are not
+ * part of the description.
+ */
+public class SolveCache
+{
+    private Map<String, Solution> solutions;
+    private int hits;
+    private int misses;
+
+    /**
+     * The state Circuit.solve() left behind, with the components in canonical order.
+     */
+    private class Solution
+    {
+        private double[] currents;      // what solve() returned
+        private SolveResult result;     // the circuit's result, which may still be waiting to find its potentials
+        private int numBranches;
+        private int[] branch;
+        private int[] direction;        // terminal index the current flows toward, or -1
+    }
+
+    /**
+     * @param capacity  The most circuits to remember
+     */
+    public SolveCache(final int capacity)
+    {
+        solutions = new LinkedHashMap<String, Solution>(16, 0.75f, true)
+        {
+            protected boolean removeEldestEntry(Map.Entry<String, Solution> eldest)
+            {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Solves a circuit, or if an identical circuit has been solved recently, sets every component's branch and current
+     * direction and the circuit's SolveResult just as Circuit.solve() would have.
+     * @return  The same array of currents solve() returns, or null for a short circuit or no complete circuit. The
+     *          returned array is shared with the cache and must not be changed.
+     */
+    public double[] solve(Circuit circ)
+    {
+        if (circ.getSubcircuits().size() > 0)
+        {
+            return circ.solve();
+        }
+        int cols = circ.getCols();
+        final List<Component> components = circ.getComponents();
+        final String[] descriptions = new String[components.size()];
+        Integer[] order = new Integer[components.size()];
+        for (int k = 0; k < descriptions.length; k++)
+        {
+            descriptions[k] = describe(components.get(k), cols);
+            order[k] = k;
+        }
+        Arrays.sort(order, new Comparator<Integer>()
+        {
+            public int compare(Integer a, Integer b)
+            {
+                return descriptions[a].compareTo(descriptions[b]);
+            }
+        });
+        StringBuilder key = new StringBuilder(circ.getRows() + "x" + cols);
+        for (int k : order)
+        {
+            key.append(';').append(descriptions[k]);
+        }
+
+        Solution sol;
+        synchronized (this)
+        {
+            sol = solutions.get(key.toString());
+            if (sol != null && sol.result != null && sol.result.potentialsLost())
+            {
+                sol = null;     // its circuit was changed before the potentials were found, so solve again
+            }
+            if (sol != null)
+            {
+                hits++;
+            }
+            else
+            {
+                misses++;
+            }
+        }
+        if (sol != null)
+        {
+            for (int i = 0; i < order.length; i++)
+            {
+                Component c = components.get(order[i]);
+                c.setBranch(sol.branch[i]);
+                c.setCurrentDirection(sol.direction[i] < 0 ? null : circ.getTerminal(sol.direction[i] / cols, sol.direction[i] % cols));
+            }
+            circ.setResult(sol.result);
+            circ.setNumBranches(sol.numBranches);
+            return sol.currents;
+        }
+
+        sol = new Solution();
+        sol.currents = circ.solve();
+        sol.result = circ.getResult();
+        sol.numBranches = circ.getNumBranches();
+        sol.branch = new int[order.length];
+        sol.direction = new int[order.length];
+        for (int i = 0; i < order.length; i++)
+        {
+            Component c = components.get(order[i]);
+            sol.branch[i] = c.getBranch();
+            Terminal toward = c.getCurrentDirection();
+            sol.direction[i] = toward == null ? -1 : toward.getRow() * cols + toward.getCol();
+        }
+        synchronized (this)
+        {
+            solutions.put(key.toString(), sol);
+        }
+        return sol.currents;
+    }
+
+    /**
+     * @return  A description of a component that does not depend on which end is endPt1, such as "R 4 9 100.0"
+     */
+    private static String describe(Component c, int cols)
+    {
+        int a = c.getEndPt1().getRow() * cols + c.getEndPt1().getCol();
+        int b = c.getEndPt2().getRow() * cols + c.getEndPt2().getCol();
+        String ends = Math.min(a, b) + " " + Math.max(a, b);
+        if (c instanceof Battery)
+        {
+            Terminal pos = ((Battery)c).getPosEnd();
+            return "B " + ends + " " + ((Battery)c).getVoltage() + " " + (pos.getRow() * cols + pos.getCol());
+        }
+        if (c instanceof Diode)
+        {
+            Diode d = (Diode)c;
+            Terminal anode = d.getAnode();
+            return (c instanceof LED ? "L " : "D ") + ends + " " + d.getSaturationCurrent() + " "
+                + d.getEmissionCoefficient() + " " + (anode.getRow() * cols + anode.getCol());
+        }
+        if (c instanceof Capacitor)
+        {
+            return "C " + ends + " " + ((Capacitor)c).getCapacitance();
+        }
+        if (c instanceof Inductor)
+        {
+            return "I " + ends + " " + ((Inductor)c).getInductance();
+        }
+        if (c instanceof Wire)
+        {
+            return "W " + ends;
+        }
+        return "R " + ends + " " + c.getResistance();
+    }
+
+    /**
+     * @return  The number of solves answered from the cache
+     */
+    public synchronized int getHits()
+    {
+        return hits;
+    }
+
+    /**
+     * @return  The number of solves that had to call Circuit.solve()
+     */
+    public synchronized int getMisses()
+    {
+        return misses;
+    }
+
+    /**
+     * @return  The number of circuits remembered
+     */
+    public synchronized int size()
+    {
+        return solutions.size();
+    }
+
+    /**
+     * Forgets every stored circuit (the hit and miss counts are kept).
+     */
+    public synchronized void clear()
+    {
+        solutions.clear();
+    }
+}
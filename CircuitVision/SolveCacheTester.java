@@ -0,0 +1,183 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Checks SolveCache: the same circuit built in a different order (and with its components turned end for end) must be
+ * found in the cache and read exactly as if it had been solved; any change to a value, or a battery turned around, must
+ * be a different circuit; potentials that were lost when a circuit changed must be found again; and the least recently
+ * used circuit must be dropped once the cache is full. Also times a lookup against a solve.
+ */
+public class SolveCacheTester
+{
+    public static void main(String[] args)
+    {
+        SolveCache cache = new SolveCache(4);
+        Circuit first = lattice(8, false, new Random(1));
+        cache.solve(first);
+        Circuit reordered = lattice(8, true, new Random(1));
+        cache.solve(reordered);
+        Circuit solved = lattice(8, false, new Random(1));
+        solved.solve();
+        System.out.println("Same circuit built backwards: " + cache.getHits() + " hit, " + cache.getMisses()
+            + " miss; " + compare(reordered, solved));
+
+        // A changed value, and a battery turned around, are different circuits; changing back finds the first again
+        Component changed = reordered.getComponents().get(5);
+        int ohms = changed.getResistance();
+        reordered.setResistance(changed, ohms + 1);
+        cache.solve(reordered);
+        Battery battery = battery(reordered);
+        Terminal pos = battery.getPosEnd();
+        reordered.setPosEnd(battery, pos.equals(battery.getEndPt1()) ? battery.getEndPt2() : battery.getEndPt1());
+        cache.solve(reordered);
+        Circuit turned = lattice(8, false, new Random(1));
+        turned.setResistance(turned.getComponent(changed.getEndPt1().getRow(), changed.getEndPt1().getCol(),
+            changed.getEndPt2().getRow(), changed.getEndPt2().getCol()), ohms + 1);
+        Battery turnedBattery = battery(turned);
+        turned.setPosEnd(turnedBattery, turnedBattery.getPosEnd().equals(turnedBattery.getEndPt1())
+            ? turnedBattery.getEndPt2() : turnedBattery.getEndPt1());
+        turned.solve();
+        String afterTurning = compare(reordered, turned);
+        reordered.setPosEnd(battery, pos);
+        reordered.setResistance(changed, ohms);
+        cache.solve(reordered);
+        System.out.println("After changing a resistance and turning a battery around: " + afterTurning
+            + "; after changing them back, " + cache.getHits() + " hits, " + cache.getMisses() + " misses, "
+            + compare(reordered, solved));
+
+        // Potentials not yet found when the circuit changed are lost, so the next lookup solves again
+        cache = new SolveCache(4);
+        Circuit lazy = lattice(8, false, new Random(2));
+        cache.solve(lazy);
+        boolean waiting = !lazy.getResult().hasPotentials();
+        lazy.setResistance(lazy.getComponents().get(3), 77);
+        Circuit again = lattice(8, false, new Random(2));
+        cache.solve(again);
+        Circuit fresh = lattice(8, false, new Random(2));
+        fresh.solve();
+        System.out.println("Potentials waiting to be found: " + waiting + "; after the circuit changed, lookup of the "
+            + "original circuit was a " + (cache.getHits() == 0 ? "miss" : "hit") + ", " + compare(again, fresh));
+
+        // Least recently used circuit is dropped
+        cache = new SolveCache(2);
+        Circuit[] circuits = new Circuit[3];
+        for (int i = 0; i < circuits.length; i++)
+        {
+            circuits[i] = lattice(5, false, new Random(10 + i));
+            cache.solve(circuits[i]);
+        }
+        cache.solve(circuits[2]);
+        int hitsBefore = cache.getHits();
+        cache.solve(circuits[0]);
+        System.out.println("Capacity 2, three circuits: " + cache.size() + " kept; the newest is found: "
+            + (hitsBefore == 1) + "; the oldest was dropped: " + (cache.getHits() == hitsBefore));
+
+        // A lookup against a solve
+        Circuit big = lattice(30, false, new Random(3));
+        cache = new SolveCache(4);
+        cache.solve(big);
+        long start = System.nanoTime();
+        big.solve();
+        double solveMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        cache.solve(big);
+        double lookupMs = (System.nanoTime() - start) / 1e6;
+        System.out.println("30 x 30 lattice (" + big.getComponents().size() + " components): solve() "
+            + Math.round(solveMs) + " ms, cache lookup " + Math.round(lookupMs) + " ms");
+    }
+
+    /**
+     * @return  How far the currents (compared by where each component sits) and potentials of a circuit are from those
+     *          of another circuit with the same components
+     */
+    private static String compare(Circuit circ, Circuit other)
+    {
+        double worstCurrent = 0;
+        for (Component c : circ.getComponents())
+        {
+            Component match = other.getComponent(c.getEndPt1().getRow(), c.getEndPt1().getCol(), c.getEndPt2().getRow(),
+                c.getEndPt2().getCol());
+            worstCurrent = Math.max(worstCurrent, Math.abs(flow(c, circ.getCols()) - flow(match, other.getCols())));
+        }
+        double worstPotential = 0;
+        for (int r = 0; r < circ.getRows(); r++)
+        {
+            for (int c = 0; c < circ.getCols(); c++)
+            {
+                worstPotential = Math.max(worstPotential, Math.abs(circ.getTerminal(r, c).getPotential()
+                    - other.getTerminal(r, c).getPotential()));
+            }
+        }
+        return "currents off by " + worstCurrent + " A, potentials by " + worstPotential + " V";
+    }
+
+    /**
+     * @return  A component's current from its lower-numbered terminal to its higher-numbered one
+     */
+    private static double flow(Component c, int cols)
+    {
+        Terminal toward = c.getCurrentDirection();
+        if (toward == null)
+        {
+            return 0;
+        }
+        int a = c.getEndPt1().getRow() * cols + c.getEndPt1().getCol();
+        int b = c.getEndPt2().getRow() * cols + c.getEndPt2().getCol();
+        int t = toward.getRow() * cols + toward.getCol();
+        return t == Math.max(a, b) ? c.getCurrent() : -c.getCurrent();
+    }
+
+    private static Battery battery(Circuit circ)
+    {
+        for (Component c : circ.getComponents())
+        {
+            if (c instanceof Battery)
+            {
+                return (Battery)c;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return  A size x size lattice of resistors of 1 to 100 ohms, with a 9 V battery in place of the first one. If
+     *          backwards, the same components are added in the opposite order, each with its ends swapped.
+     */
+    private static Circuit lattice(int size, boolean backwards, Random random)
+    {
+        Circuit circ = new Circuit(size, size);
+        List<int[]> ends = new ArrayList<int[]>();
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                if (c + 1 < size)
+                {
+                    ends.add(new int[] {r, c, r, c + 1, 1 + random.nextInt(100)});
+                }
+                if (r + 1 < size)
+                {
+                    ends.add(new int[] {r, c, r + 1, c, 1 + random.nextInt(100)});
+                }
+            }
+        }
+        for (int i = 0; i < ends.size(); i++)
+        {
+            int[] e = ends.get(backwards ? ends.size() - 1 - i : i);
+            if (backwards)
+            {
+                e = new int[] {e[2], e[3], e[0], e[1], e[4]};
+            }
+            if (e[0] == 0 && e[2] == 0 && e[1] + e[3] == 1)
+            {
+                circ.addBattery(new Battery(9), e[0], e[1], e[2], e[3], 0, 0);   // between (0, 0) and (0, 1)
+            }
+            else
+            {
+                circ.addComponent(new Resistor(e[4]), e[0], e[1], e[2], e[3]);
+            }
+        }
+        return circ;
+    }
+}
@@ -0,0 +1,106 @@
+
+/**
+ * A solver made by KernelCompiler for one circuit topology. It solves the circuit's nodal equations for any set of
+ * component values by running a fixed list of arithmetic steps, worked out in advance for that topology: which
+ * entries of the matrix are nonzero, what order to eliminate the unknowns in, and which entries fill in along the way.
+ * Nothing is searched, allocated or looked up while it runs (with the solve(values, x, work) method).
+ *
+ * The values and the solution use the same layout as NodalAnalysis: values as returned by getAnalysis().getValues(),
+ * and a solution vector that can be passed to getAnalysis().getCurrent() and getPotentials().
+ *
+ * The pivots are chosen with the values the circuit had when the kernel was made. Values that differ from those by
+ * many orders of magnitude could make a pivot too small, and give inaccurate results (or NaN for a short circuit).
+ */
+public abstract class SolveKernel
+{
+    private NodalAnalysis analysis;
+    private int workSize;
+    private int[] solutionSlot;     // the place in the work array where each unknown ends up
+    private int numOperations;
+    private boolean compiled;
+    private double[] work;
+
+    /**
+     * Kernels are made by KernelCompiler, which sets them up with setUp().
+     */
+    protected SolveKernel()
+    {
+    }
+
+    void setUp(NodalAnalysis nodal, int size, int[] slots, int operations, boolean isCompiled)
+    {
+        analysis = nodal;
+        workSize = size;
+        solutionSlot = slots;
+        numOperations = operations;
+        compiled = isCompiled;
+        work = new double[size];
+    }
+
+    /**
+     * Runs the steps: fills the work array from the values and eliminates.
+     * @param v  Component values
+     * @param w  The work array, of length getWorkSize()
+     */
+    protected abstract void run(double[] v, double[] w);
+
+    /**
+     * Solves the circuit for a set of component values.
+     * @param values  Component values, as returned by getAnalysis().getValues()
+     * @return  The solution vector (terminal potentials, then wire and battery currents), as NodalAnalysis.solve() would
+     */
+    public synchronized double[] solve(double[] values)
+    {
+        double[] x = new double[solutionSlot.length];
+        solve(values, x, work);
+        return x;
+    }
+
+    /**
+     * Solves the circuit without allocating anything. Safe to call from several threads at once as long as each uses its
+     * own work array.
+     * @param values  Component values, as returned by getAnalysis().getValues()
+     * @param x  Receives the solution vector; length getAnalysis().size()
+     * @param w  A work array from newWorkArray()
+     */
+    public void solve(double[] values, double[] x, double[] w)
+    {
+        run(values, w);
+        for (int i = 0; i < x.length; i++)
+        {
+            x[i] = w[solutionSlot[i]];
+        }
+    }
+
+    /**
+     * @return  A work array for solve(values, x, work)
+     */
+    public double[] newWorkArray()
+    {
+        return new double[workSize];
+    }
+
+    /**
+     * @return  The numbering of the unknowns, and the helpers for reading currents and potentials out of a solution
+     */
+    public NodalAnalysis getAnalysis()
+    {
+        return analysis;
+    }
+
+    /**
+     * @return  The number of arithmetic steps in one solve
+     */
+    public int getNumOperations()
+    {
+        return numOperations;
+    }
+
+    /**
+     * @return  True if the steps were compiled into Java bytecode; false if they are interpreted from a list
+     */
+    public boolean isCompiled()
+    {
+        return compiled;
+    }
+}
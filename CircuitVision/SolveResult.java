@@ -0,0 +1,160 @@
+import java.util.Arrays;
+
+/**
+ * The results of solving a Circuit, kept as two arrays: the current in each branch (so a component's current is
+ * currents[component.getBranch()]) and the potential at each terminal (indexed by row * cols + col, or for a sparse
+ * circuit, in the order of the circuit's sorted terminal keys). Component.getCurrent() and Terminal.getPotential() read
+ * from the circuit's latest result instead of having every value copied into them.
+ *
+ * The potentials can be left to be worked out the first time one is asked for, by a subclass that overrides
+ * computePotentials(), since many uses of a solution (showing currents, for example) never need them. A plain
+ * SolveResult must be given its potentials. If the circuit is changed before they are worked out (through the
+ * circuit's setters or a component's own, which both tell the circuit), they can no longer be worked out from it, and
+ * all read as Double.MAX_VALUE (unknown).
+ */
+public class SolveResult
+{
+    private double[] currents;
+    private double[] potentials;
+    private long[] keys;        // sorted keys (row * cols + col) of the terminals in potentials, or null for all of them
+    private int cols;
+    private boolean expired;
+
+    /**
+     * @param branchCurrents  The current in each branch
+     * @param terminalPotentials  The potential at each terminal (row * cols + col), or null (only in a subclass) to
+     *                            find them with computePotentials() when first needed
+     * @param numCols  The number of columns of terminals in the circuit
+     */
+    public SolveResult(double[] branchCurrents, double[] terminalPotentials, int numCols)
+    {
+        this(branchCurrents, null, terminalPotentials, numCols);
+    }
+
+    /**
+     * For a sparse circuit, whose potentials are kept only for the terminals in use.
+     * @param terminalKeys  The key (row * cols + col) of each terminal, in increasing order, or null if the potentials
+     *                      are for every position in the grid
+     * @param terminalPotentials  The potential at each terminal in terminalKeys, or null (only in a subclass) to find
+     *                            them when first needed
+     * @throws IllegalArgumentException  If the potentials are null and computePotentials() has not been overridden
+     */
+    public SolveResult(double[] branchCurrents, long[] terminalKeys, double[] terminalPotentials, int numCols)
+    {
+        if (terminalPotentials == null && getClass() == SolveResult.class)
+        {
+            throw new IllegalArgumentException("No potentials given, and no computePotentials() to find them");
+        }
+        currents = branchCurrents;
+        keys = terminalKeys;
+        potentials = terminalPotentials;
+        cols = numCols;
+    }
+
+    /**
+     * Works out the potentials, for a result made without them. Called at most once. A subclass that passes null
+     * potentials to the constructor must override this.
+     * @return  The potential at each terminal, indexed by row * cols + col (or in the order of the terminal keys)
+     */
+    protected double[] computePotentials()
+    {
+        throw new UnsupportedOperationException("No potentials were given and none can be computed");
+    }
+
+    /**
+     * @return  The current in a branch, or 0 if the branch number is not one of the solved branches (such as -1, or 999
+     *          for a dead end)
+     */
+    public double getCurrent(int branch)
+    {
+        if (branch < 0 || branch >= currents.length)
+        {
+            return 0;
+        }
+        return currents[branch];
+    }
+
+    /**
+     * @return  The current in each branch. The returned array must not be changed.
+     */
+    public double[] getCurrents()
+    {
+        return currents;
+    }
+
+    /**
+     * @return  The potential at a terminal, working out every terminal's potential if this is the first request
+     */
+    public double getPotential(int row, int col)
+    {
+        double[] all = getPotentials();
+        if (all == null)
+        {
+            return Double.MAX_VALUE;
+        }
+        if (keys == null)
+        {
+            return all[row * cols + col];
+        }
+        int i = Arrays.binarySearch(keys, (long)row * cols + col);
+        return i < 0 ? Double.MAX_VALUE : all[i];
+    }
+
+    /**
+     * @return  The potential at each terminal, indexed by row * cols + col (or in the order of getTerminalKeys()), or null
+     *          if the circuit was changed before they were worked out. The returned array must not be changed.
+     */
+    public synchronized double[] getPotentials()
+    {
+        if (potentials == null)
+        {
+            if (expired)
+            {
+                return null;
+            }
+            potentials = computePotentials();
+        }
+        return potentials;
+    }
+
+    /**
+     * @return  True if the potentials have already been found
+     */
+    public synchronized boolean hasPotentials()
+    {
+        return potentials != null;
+    }
+
+    /**
+     * @return  True if the circuit was changed before the potentials were found, so they never will be
+     */
+    public synchronized boolean potentialsLost()
+    {
+        return expired && potentials == null;
+    }
+
+    /**
+     * Called by the circuit when it is changed. Potentials that have not been worked out yet never will be, since the
+     * circuit no longer matches the currents.
+     */
+    public synchronized void expire()
+    {
+        expired = true;
+    }
+
+    /**
+     * @return  The keys of the terminals whose potentials are kept, for a sparse circuit; null if every position is kept
+     */
+    public long[] getTerminalKeys()
+    {
+        return keys;
+    }
+
+    /**
+     * @return  The number of columns of terminals in the circuit that was solved
+     */
+    public int getCols()
+    {
+        return cols;
+    }
+}
@@ -0,0 +1,464 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import com.sun.net.httpserver.HttpServer;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpExchange;
+
+/**
+ * Solves circuits sent over HTTP, so one machine can serve a classroom of clients without any windows. A client POSTs
+ * a circuit, written as CircuitFormat describes, to /solve and gets back JSON:
+ *
+ *     {"rows":3,"cols":3,"currents":[0.09,...],"potentials":[{"row":0,"col":0,"volts":9.0},...]}
+ *
+ * with the current through each component from its first end to its second (in the order the circuit listed them),
+ * and the potential at each terminal that has a component. A circuit that cannot be read gets status 400, and one that
+ * cannot be solved (a short circuit) gets 422, each with {"error":"..."}.
+ *
+ * Each request is handled on a thread of its own: a virtual thread where the runtime has them (Java 21 and later),
+ * otherwise a pooled one. Requests for circuits of the same topology (see KernelCompiler) that arrive close together
+ * are solved as a batch: the first one waits a short time (the batch window) for others to join it, then one thread
+ * solves them all with a single SolveKernel, and circuits in the batch with the same values are solved only once.
+ * Circuits with diodes are solved one at a time, as CompactCircuit.solve() does.
+ *
+ * Run main() to serve on localhost (port 8090, or the port given as an argument).
+ */
+public class SolveServer
+{
+    public static final int DEFAULT_PORT = 8090;
+    private static final double MAX_BACKWARD_ERROR = 1e-13;  // a kernel's solution is solved again above this
+
+    private HttpServer server;
+    private ExecutorService executor;
+    private KernelCompiler compiler;
+    private volatile long batchWindowMicros = 1000;
+    private volatile boolean batching = true;
+    private Map<String, Batch> open;    // batches still taking requests, by topology; guarded by itself
+
+    // Guarded by this
+    private int numRequests;
+    private int numBatches;
+    private int numSolves;
+
+    /**
+     * A circuit waiting in a batch, and its result once the batch is solved.
+     */
+    private static class Job
+    {
+        private CompactCircuit circ;
+        private SolveResult result;
+        private CountDownLatch done = new CountDownLatch(1);
+
+        private Job(CompactCircuit c)
+        {
+            circ = c;
+        }
+    }
+
+    /**
+     * Circuits of one topology to be solved together.
+     */
+    private static class Batch
+    {
+        private List<Job> jobs = new ArrayList<Job>();
+    }
+
+    /**
+     * A set of component values, as a key for finding circuits in a batch that are the same.
+     */
+    private static class Values
+    {
+        private double[] values;
+
+        private Values(double[] v)
+        {
+            values = v;
+        }
+
+        public boolean equals(Object other)
+        {
+            return other instanceof Values && Arrays.equals(values, ((Values)other).values);
+        }
+
+        public int hashCode()
+        {
+            return Arrays.hashCode(values);
+        }
+    }
+
+    /**
+     * Makes a server on localhost. It does not take requests until start() is called.
+     * @param port  The port to listen on, or 0 for any free port
+     */
+    public SolveServer(int port) throws IOException
+    {
+        compiler = new KernelCompiler(64);
+        open = new HashMap<String, Batch>();
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 256);
+        server.createContext("/solve", new HttpHandler()
+        {
+            public void handle(HttpExchange exchange) throws IOException
+            {
+                respond(exchange);
+            }
+        });
+        executor = newThreadPerRequestExecutor();
+        server.setExecutor(executor);
+    }
+
+    /**
+     * @return  An executor that runs each task on a new virtual thread, or if this runtime has no virtual threads, on a
+     *          pooled thread. Found by reflection so this class still compiles on a JDK older than 21.
+     */
+    private static ExecutorService newThreadPerRequestExecutor()
+    {
+        try
+        {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        }
+        catch (Exception e)
+        {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Starts taking requests.
+     */
+    public void start()
+    {
+        server.start();
+    }
+
+    /**
+     * Stops taking requests and stops the request threads.
+     */
+    public void stop()
+    {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return  The port the server listens on
+     */
+    public int getPort()
+    {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @param micros  How long the first request of a batch waits for others of the same topology before they are solved
+     */
+    public void setBatchWindow(long micros)
+    {
+        batchWindowMicros = micros;
+    }
+
+    /**
+     * @param on  False to solve every request on its own with CompactCircuit.solve(), for comparison
+     */
+    public void setBatching(boolean on)
+    {
+        batching = on;
+    }
+
+    /**
+     * @return  The number of circuits solved through solve() (including over HTTP)
+     */
+    public synchronized int getNumRequests()
+    {
+        return numRequests;
+    }
+
+    /**
+     * @return  The number of batches solved; each solves one or more requests of the same topology with one kernel
+     */
+    public synchronized int getNumBatches()
+    {
+        return numBatches;
+    }
+
+    /**
+     * @return  The number of distinct sets of values actually solved (fewer than the requests when some were the same)
+     */
+    public synchronized int getNumSolves()
+    {
+        return numSolves;
+    }
+
+    /**
+     * Solves a circuit, in a batch with any others of the same topology that are being solved at the same time.
+     * @return  The currents (one per component) and potentials, or null for a short circuit
+     */
+    public SolveResult solve(CompactCircuit circ) throws InterruptedException
+    {
+        synchronized (this)
+        {
+            numRequests++;
+        }
+        if (!batching || circ.hasDiodes())
+        {
+            synchronized (this)
+            {
+                numSolves++;
+            }
+            return circ.solve();
+        }
+        String key = KernelCompiler.topology(circ);
+        Job job = new Job(circ);
+        Batch batch;
+        boolean first = false;
+        synchronized (open)
+        {
+            batch = open.get(key);
+            if (batch == null)
+            {
+                batch = new Batch();
+                open.put(key, batch);
+                first = true;
+            }
+            batch.jobs.add(job);
+        }
+        if (first)
+        {
+            // Wait for others to join, then close the batch and solve everything in it. The others are waiting on this
+            // thread, so the batch is solved even if it is interrupted.
+            boolean interrupted = false;
+            try
+            {
+                if (batchWindowMicros > 0)
+                {
+                    Thread.sleep(batchWindowMicros / 1000, (int)(batchWindowMicros % 1000) * 1000);
+                }
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+            synchronized (open)
+            {
+                open.remove(key);
+            }
+            solveBatch(batch.jobs);
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+        }
+        else
+        {
+            job.done.await();
+        }
+        return job.result;
+    }
+
+    /**
+     * Solves a closed batch with one kernel, and lets each request's thread go on.
+     */
+    private void solveBatch(List<Job> jobs)
+    {
+        Map<Values, SolveResult> solved = new HashMap<Values, SolveResult>();
+        try
+        {
+            SolveKernel kernel;
+            try
+            {
+                kernel = compiler.compile(jobs.get(0).circ);
+            }
+            catch (IllegalArgumentException e)
+            {
+                kernel = null;  // a short circuit with the values it was to be made from; each is solved on its own
+            }
+            double[] work = kernel == null ? null : kernel.newWorkArray();
+            for (Job job : jobs)
+            {
+                double[] values = job.circ.getValues();
+                Values key = new Values(values);
+                if (!solved.containsKey(key))
+                {
+                    solved.put(key, kernel == null ? job.circ.solve() : solve(kernel, work, job.circ, values));
+                }
+                job.result = solved.get(key);
+            }
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                numBatches++;
+                numSolves += solved.size();
+            }
+            for (Job job : jobs)
+            {
+                job.done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Solves one circuit with a kernel made for its topology. The kernel pivots where the first circuit of the batch
+     * needed it to, so its solution is checked against this circuit's equations (see NodalAnalysis.getBackwardError())
+     * and the circuit is solved in full instead if it does not fit them closely.
+     * @return  The result, or null for a short circuit
+     */
+    private static SolveResult solve(SolveKernel kernel, double[] work, CompactCircuit circ, double[] values)
+    {
+        NodalAnalysis analysis = kernel.getAnalysis();
+        double[] x = new double[analysis.size()];
+        kernel.solve(values, x, work);
+        if (!(analysis.getBackwardError(x, values) <= MAX_BACKWARD_ERROR))
+        {
+            // The kernel's pivots were chosen for the first circuit's values and are poor ones for these
+            return circ.solve();
+        }
+        double[] currents = new double[circ.size()];
+        for (int k = 0; k < currents.length; k++)
+        {
+            currents[k] = analysis.getCurrent(x, values, k);
+        }
+        return new SolveResult(currents, circ.getTerminalKeys(), analysis.getPotentials(x), circ.getCols());
+    }
+
+    /**
+     * Handles one HTTP request, on its own thread.
+     */
+    private void respond(HttpExchange exchange) throws IOException
+    {
+        try
+        {
+            if (!exchange.getRequestMethod().equalsIgnoreCase("POST"))
+            {
+                send(exchange, 405, "{\"error\":\"POST a circuit to /solve\"}");
+                return;
+            }
+            CompactCircuit circ;
+            try
+            {
+                circ = CircuitFormat.parse(readBody(exchange));
+            }
+            catch (IllegalArgumentException e)
+            {
+                send(exchange, 400, "{\"error\":" + quote(e.getMessage()) + "}");
+                return;
+            }
+            SolveResult result = solve(circ);
+            if (result == null)
+            {
+                send(exchange, 422, "{\"error\":\"The circuit cannot be solved (is there a short circuit?)\"}");
+                return;
+            }
+            send(exchange, 200, toJson(circ, result));
+        }
+        catch (InterruptedException e)
+        {
+            send(exchange, 503, "{\"error\":\"The server is stopping\"}");
+        }
+        finally
+        {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @return  A solved circuit's currents and potentials, as JSON
+     */
+    static String toJson(CompactCircuit circ, SolveResult result)
+    {
+        int cols = circ.getCols();
+        StringBuilder json = new StringBuilder("{\"rows\":" + circ.getRows() + ",\"cols\":" + cols + ",\"currents\":[");
+        double[] currents = result.getCurrents();
+        for (int k = 0; k < circ.size(); k++)
+        {
+            if (k > 0)
+            {
+                json.append(',');
+            }
+            json.append(currents[k]);
+        }
+        json.append("],\"potentials\":[");
+        double[] potentials = result.getPotentials();
+        boolean any = false;
+        for (int t = 0; t < circ.numTerminals(); t++)
+        {
+            if (circ.numConnections(t) > 0 && potentials[t] < Double.MAX_VALUE)
+            {
+                long key = circ.getTerminalKey(t);
+                json.append(any ? "," : "").append("{\"row\":").append(key / cols).append(",\"col\":").append(key % cols)
+                    .append(",\"volts\":").append(potentials[t]).append('}');
+                any = true;
+            }
+        }
+        return json.append("]}").toString();
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException
+    {
+        InputStream in = exchange.getRequestBody();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0)
+        {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toString("UTF-8");
+    }
+
+    private static void send(HttpExchange exchange, int status, String json) throws IOException
+    {
+        byte[] bytes = json.getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(bytes);
+        out.close();
+    }
+
+    /**
+     * @return  The text as a JSON string, in quotes
+     */
+    static String quote(String text)
+    {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < text.length(); i++)
+        {
+            char ch = text.charAt(i);
+            if (ch == '"' || ch == '\\')
+            {
+                quoted.append('\\').append(ch);
+            }
+            else if (ch < ' ')
+            {
+                quoted.append(String.format("\\u%04x", (int)ch));
+            }
+            else
+            {
+                quoted.append(ch);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Serves on localhost until the program is stopped.
+     * @param args  The port (optional)
+     */
+    public static void main(String[] args) throws IOException
+    {
+        SolveServer server = new SolveServer(args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT);
+        server.start();
+        System.out.println("Solving circuits POSTed to http://localhost:" + server.getPort() + "/solve");
+    }
+}
@@ -0,0 +1,253 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.Collections;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.net.HttpURLConnection;
+
+/**
+ * A load generator for SolveServer. Starts a server on a free localhost port, checks one answer against
+ * CompactCircuit.solve(), and the answers for batches whose circuits need the kernel to pivot differently, then runs
+ * many clients at once, each posting circuits as fast as it gets answers, first with each request solved on its own
+ * and then with batching. The circuits are a few grids of resistors, with resistances drawn from a small set so that
+ * some requests are the same circuit, as they are when a class works through the same exercise. Reports throughput
+ * and the median (p50) and 99th percentile (p99) time from sending a request to reading its answer.
+ * Run with the number of clients and the seconds per run as arguments (default 64 and 5).
+ */
+public class SolveServerTester
+{
+    public static void main(String[] args) throws Exception
+    {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        SolveServer server = new SolveServer(0);
+        server.start();
+        String url = "http://localhost:" + server.getPort() + "/solve";
+
+        // The answer matches a direct solve, and bad circuits get errors
+        CompactCircuit circ = grid(8, new Random(1));
+        String json = post(url, CircuitFormat.format(circ));
+        SolveResult expected = circ.solve();
+        String currents = json.substring(json.indexOf("\"currents\":[") + 12, json.indexOf(']'));
+        String[] found = currents.split(",");
+        double worst = 0;
+        for (int k = 0; k < circ.size(); k++)
+        {
+            worst = Math.max(worst, Math.abs(Double.parseDouble(found[k]) - expected.getCurrents()[k]));
+        }
+        System.out.println("Answer matches CompactCircuit.solve(): largest difference in current " + worst);
+        System.out.println("Bad circuit: " + post(url, "grid 2 2; R 0 0 5 5 10"));
+        System.out.println("Short circuit: " + post(url, "grid 2 2; B 0 0 0 1 9; W 0 0 0 1"));
+        checkPivots(server);
+
+        System.out.println(clients + " clients, " + seconds + " s per run, 8x8 to 11x11 grids of resistors");
+        server.setBatching(false);
+        run(server, url, clients, seconds, "Each request on its own");
+        server.setBatching(true);
+        run(server, url, clients, seconds, "Batched by topology   ");
+        server.stop();
+    }
+
+    /**
+     * Sends pairs of circuits of the same topology, with resistors of 1 milliohm and 1 gigohm in different places, so
+     * that each pair is solved as a batch whose kernel pivots where only the first circuit needs it to, and checks the
+     * second circuit's answer against CompactCircuit.solve().
+     */
+    private static void checkPivots(final SolveServer server) throws InterruptedException
+    {
+        server.setBatchWindow(200000);
+        double worst = 0;
+        int batchesBefore = server.getNumBatches();
+        for (int pair = 0; pair < 10; pair++)
+        {
+            final CompactCircuit[] circs = {grid(6, new Random(2)), grid(6, new Random(2))};
+            Random random = new Random(pair);
+            for (CompactCircuit circ : circs)
+            {
+                for (int k = 0; k < circ.size(); k++)
+                {
+                    if (circ.getKind(k) == CompactCircuit.RESISTOR)
+                    {
+                        circ.setValue(k, random.nextBoolean() ? 1e-3 : 1e9);
+                    }
+                }
+            }
+            final SolveResult[] results = new SolveResult[2];
+            Thread[] threads = new Thread[2];
+            for (int i = 0; i < 2; i++)
+            {
+                final int which = i;
+                threads[i] = new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            results[which] = server.solve(circs[which]);
+                        }
+                        catch (InterruptedException e)
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                };
+                threads[i].start();
+                Thread.sleep(20);   // so the first circuit's values make the kernel
+            }
+            for (Thread t : threads)
+            {
+                t.join();
+            }
+            double[] expected = circs[1].solve().getCurrents();
+            double largest = 0;
+            double off = 0;
+            for (int k = 0; k < expected.length; k++)
+            {
+                largest = Math.max(largest, Math.abs(expected[k]));
+                off = Math.max(off, Math.abs(results[1].getCurrents()[k] - expected[k]));
+            }
+            worst = Math.max(worst, off / largest);
+        }
+        server.setBatchWindow(1000);
+        System.out.println("Batches whose circuits need different pivots (" + (server.getNumBatches() - batchesBefore)
+            + " batches of 2): largest difference in current from CompactCircuit.solve(), relative to the largest "
+            + "current, " + worst);
+    }
+
+    /**
+     * Runs the clients for a number of seconds (after a second of warming up) and prints what they saw.
+     */
+    private static void run(SolveServer server, final String url, int clients, int seconds, String label)
+        throws InterruptedException
+    {
+        // A few circuits of each of four topologies, written out ahead of time
+        final List<String> circuits = new ArrayList<String>();
+        Random random = new Random(2);
+        for (int size = 8; size < 12; size++)
+        {
+            for (int i = 0; i < 8; i++)
+            {
+                circuits.add(CircuitFormat.format(grid(size, random)));
+            }
+        }
+        final long warm = System.nanoTime() + 1000000000L;
+        final long end = warm + seconds * 1000000000L;
+        final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+        final int[] failures = new int[1];
+        Thread[] threads = new Thread[clients];
+        for (int c = 0; c < clients; c++)
+        {
+            final Random pick = new Random(c);
+            threads[c] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    List<Long> mine = new ArrayList<Long>();
+                    long now = System.nanoTime();
+                    while (now < end)
+                    {
+                        String circuit = circuits.get(pick.nextInt(circuits.size()));
+                        try
+                        {
+                            post(url, circuit);
+                            long done = System.nanoTime();
+                            if (now >= warm)
+                            {
+                                mine.add(done - now);
+                            }
+                            now = done;
+                        }
+                        catch (Exception e)
+                        {
+                            synchronized (failures)
+                            {
+                                failures[0]++;
+                            }
+                            now = System.nanoTime();
+                        }
+                    }
+                    latencies.addAll(mine);
+                }
+            });
+            threads[c].start();
+        }
+        while (System.nanoTime() < warm)
+        {
+            Thread.sleep(10);
+        }
+        int requestsBefore = server.getNumRequests();
+        int batchesBefore = server.getNumBatches();
+        int solvesBefore = server.getNumSolves();
+        for (Thread t : threads)
+        {
+            t.join();
+        }
+        int requests = server.getNumRequests() - requestsBefore;
+        int batches = server.getNumBatches() - batchesBefore;
+        int solves = server.getNumSolves() - solvesBefore;
+
+        List<Long> sorted = new ArrayList<Long>(latencies);
+        Collections.sort(sorted);
+        double p50 = sorted.get(sorted.size() / 2) / 1e6;
+        double p99 = sorted.get(sorted.size() * 99 / 100) / 1e6;
+        System.out.println(label + ": " + Math.round(sorted.size() / (double)seconds) + " requests/s, p50 " + round(p50)
+            + " ms, p99 " + round(p99) + " ms; " + solves + " solves for " + requests + " requests"
+            + (batches > 0 ? " in " + batches + " batches" : "") + (failures[0] > 0 ? "; " + failures[0] + " failed" : ""));
+    }
+
+    /**
+     * @return  A size x size grid of resistors of 10 to 40 ohms, with a 9 V battery from one corner to the other
+     */
+    private static CompactCircuit grid(int size, Random random)
+    {
+        StringBuilder text = new StringBuilder("grid " + size + " " + size + "\n");
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                if (c + 1 < size)
+                {
+                    text.append("R " + r + " " + c + " " + r + " " + (c + 1) + " " + (10 + 10 * random.nextInt(4)) + "\n");
+                }
+                if (r + 1 < size)
+                {
+                    text.append("R " + r + " " + c + " " + (r + 1) + " " + c + " " + (10 + 10 * random.nextInt(4)) + "\n");
+                }
+            }
+        }
+        text.append("B 0 0 " + (size - 1) + " " + (size - 1) + " 9\n");
+        return CircuitFormat.parse(text.toString());
+    }
+
+    /**
+     * Posts a circuit and reads the answer, whatever its status.
+     */
+    private static String post(String url, String circuit) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection)new URL(url).openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        OutputStream out = connection.getOutputStream();
+        out.write(circuit.getBytes("UTF-8"));
+        out.close();
+        InputStream in = connection.getResponseCode() < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0)
+        {
+            bytes.write(buffer, 0, n);
+        }
+        in.close();
+        return bytes.toString("UTF-8");
+    }
+
+    private static double round(double value)
+    {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,232 @@
+import java.util.List;
+
+/**
+ * Holds everything a solve needs, so that solving the same circuit again and again (in a sweep, or at every step of
+ * a slider) does not allocate anything. Circuit.solve() makes new node and loop lists, copies of the circuit, new
+ * equation arrays and commons-math matrices on every call; for many small solves the garbage collector ends up doing
+ * more work than the solver.
+ *
+ * Pass a workspace to Circuit.solve(SolveWorkspace). The first call (and the first after the circuit's parts change)
+ * solves with solve() as usual, so every component gets its branch and current direction, and then sets up the
+ * circuit's nodal equations (see NodalAnalysis) in this workspace. Later calls only re-read the component values,
+ * stamp the equations into the same matrix, factor it in place (LU with partial pivoting), and write the branch
+ * currents and terminal potentials into the same arrays. The buffers grow when a bigger circuit is solved and are
+ * never shrunk, so one workspace can be used for several circuits in turn. See WorkspaceTester, which counts the
+ * bytes allocated by each solve.
+ *
+ * The currents returned, and the SolveResult published to the circuit, are this workspace's own arrays, overwritten by
+ * its next solve. Copy them to keep them. Circuits with diodes or subcircuits are always solved with solve(). A
+ * workspace is not thread safe; give each thread its own.
+ */
+public class SolveWorkspace
+{
+    // commons-math's LUDecomposition treats a pivot smaller than this as zero
+    private static final double SINGULARITY_THRESHOLD = 1e-11;
+
+    private Circuit circuit;        // the circuit the equations were set up for, or null
+    private long structure = -1;    // its structural version at the time
+    private NodalAnalysis analysis;
+    private SolveResult result;     // published for every solve, over currents and potentials below
+
+    private double[] values = new double[0];
+    private double[][] matrix = new double[0][0];
+    private double[] x = new double[0];     // constants, then the solution
+    private int[] branch = new int[0];      // branch of each component (as solve() numbered them)
+    private int[] sign = new int[0];        // -1 if the component's current direction is its endPt1, otherwise +1
+    private double[] currents = new double[0];
+    private double[] potentials = new double[0];
+    private double[] lowest = new double[0];
+    private int numSolves;
+
+    /**
+     * @return  True if the equations for the circuit, as it is now, are set up here and its latest result came from
+     *          this workspace (so its components still have the branches they were given when it was set up)
+     */
+    public boolean isReadyFor(Circuit circ)
+    {
+        return circ == circuit && circ.getStructuralVersion() == structure && circ.getResult() == result;
+    }
+
+    /**
+     * Sets up the equations for a circuit that has just been solved with solve(), and solves it again here so that the
+     * published result is this workspace's. Nothing is set up for a circuit with diodes or subcircuits.
+     * @param solved  The currents solve() returned (only their number is used)
+     * @return  The circuit's currents, or null if they could not be found here
+     */
+    public double[] prepare(Circuit circ, double[] solved)
+    {
+        circuit = null;
+        if (solved == null || !circ.getSubcircuits().isEmpty())
+        {
+            return null;
+        }
+        List<Component> components = circ.getComponents();
+        for (Component c : components)
+        {
+            if (c instanceof Diode)
+            {
+                return null;
+            }
+        }
+        analysis = new NodalAnalysis(circ);
+        int n = components.size();
+        int size = analysis.size();
+        int numTerminals = circ.getNumTerminals();
+        if (values.length < n)
+        {
+            values = new double[n];
+            branch = new int[n];
+            sign = new int[n];
+        }
+        if (matrix.length < size)
+        {
+            matrix = new double[size][size];
+            x = new double[size];
+        }
+        for (int k = 0; k < n; k++)
+        {
+            Component c = components.get(k);
+            branch[k] = c.getBranch();
+            sign[k] = c.getCurrentDirection() != null && c.getCurrentDirection().equals(c.getEndPt1()) ? -1 : 1;
+        }
+        // The result's arrays are exactly as long as the circuit needs, since its users read their lengths
+        if (currents.length != solved.length)
+        {
+            currents = new double[solved.length];
+        }
+        if (potentials.length != numTerminals)
+        {
+            potentials = new double[numTerminals];
+            lowest = new double[numTerminals];
+        }
+        // The result is made once for each setup, and its arrays are refilled by every solve after that
+        result = new SolveResult(currents, circ.getTerminalKeys(), potentials, circ.getCols());
+        circuit = circ;
+        structure = circ.getStructuralVersion();
+        if (!solve())
+        {
+            circuit = null;
+            return null;
+        }
+        return currents;
+    }
+
+    /**
+     * Solves the circuit the workspace is ready for (see isReadyFor()) with its present values, without allocating.
+     * @return  False if the equations are singular, in which case nothing is changed
+     */
+    public boolean solve()
+    {
+        int size = analysis.size();
+        analysis.getValues(values);
+        analysis.buildMatrix(values, matrix);
+        analysis.buildConstants(values, x);
+        if (!factorAndSolve(size))
+        {
+            return false;
+        }
+        int n = circuit.getComponents().size();
+        for (int k = 0; k < n; k++)
+        {
+            if (branch[k] >= 0 && branch[k] < currents.length)
+            {
+                currents[branch[k]] = sign[k] * analysis.getCurrent(x, values, k);
+            }
+        }
+        analysis.getPotentials(x, potentials, lowest);
+        numSolves++;
+        return true;
+    }
+
+    /**
+     * @return  The result this workspace publishes to its circuit (its arrays are refilled by each solve)
+     */
+    public SolveResult getResult()
+    {
+        return result;
+    }
+
+    /**
+     * @return  The branch currents from the latest solve (refilled by each solve)
+     */
+    public double[] getCurrents()
+    {
+        return currents;
+    }
+
+    /**
+     * @return  The number of solves done here without going through solve()
+     */
+    public int getNumSolves()
+    {
+        return numSolves;
+    }
+
+    /**
+     * @return  The bytes held by the buffers
+     */
+    public long bytesUsed()
+    {
+        return 8L * (values.length + (long)matrix.length * matrix.length + x.length + currents.length
+            + potentials.length + lowest.length) + 4L * (branch.length + sign.length);
+    }
+
+    /**
+     * Solves the equations in place: Gaussian elimination with partial pivoting on the top-left size x size block of
+     * matrix, with the constants in x, then back substitution, which leaves the solution in x.
+     * @return  False if a pivot is too small (the circuit is shorted or has a part with no path through it)
+     */
+    private boolean factorAndSolve(int size)
+    {
+        for (int col = 0; col < size; col++)
+        {
+            int best = col;
+            for (int row = col + 1; row < size; row++)
+            {
+                if (Math.abs(matrix[row][col]) > Math.abs(matrix[best][col]))
+                {
+                    best = row;
+                }
+            }
+            if (Math.abs(matrix[best][col]) < SINGULARITY_THRESHOLD)
+            {
+                return false;
+            }
+            if (best != col)
+            {
+                double[] row = matrix[best];
+                matrix[best] = matrix[col];
+                matrix[col] = row;
+                double b = x[best];
+                x[best] = x[col];
+                x[col] = b;
+            }
+            double[] pivotRow = matrix[col];
+            double pivot = pivotRow[col];
+            for (int row = col + 1; row < size; row++)
+            {
+                double[] r = matrix[row];
+                double factor = r[col] / pivot;
+                if (factor != 0)
+                {
+                    for (int j = col + 1; j < size; j++)
+                    {
+                        r[j] -= factor * pivotRow[j];
+                    }
+                    x[row] -= factor * x[col];
+                }
+            }
+        }
+        for (int row = size - 1; row >= 0; row--)
+        {
+            double sum = x[row];
+            double[] r = matrix[row];
+            for (int j = row + 1; j < size; j++)
+            {
+                sum -= r[j] * x[j];
+            }
+            x[row] = sum / r[row];
+        }
+        return true;
+    }
+}
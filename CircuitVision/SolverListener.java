@@ -0,0 +1,12 @@
+/**
+ * Receives the results of a SolverService's background solves.
+ */
+public interface SolverListener
+{
+    /**
+     * Called on the solver's thread each time the newest version asked for has been solved (or found to have no
+     * solution, in which case result.isSolved() is false). Results for versions that were replaced by newer ones
+     * before they were finished are never passed on.
+     */
+    void solved(CircuitSnapshot result);
+}
@@ -0,0 +1,178 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Solves circuits on a thread of its own, so the editor's window never waits for a solve. The editor hands over each
+ * version of its circuit (a PersistentCircuit, which can be read safely from any thread) with submit(), and is told
+ * through its SolverListener when the newest one has been solved.
+ *
+ * Only the newest version matters. If several versions are submitted while the solver is busy (a burst of edits),
+ * they are coalesced: the ones that never started are skipped, and only the last is solved. If a newer version comes
+ * in while one is being solved, the one in progress is not stopped part way, since Circuit.solve() has no point at
+ * which it could give up; its result is discarded instead, once the copy of the circuit is built or once it is solved,
+ * whichever comes first after the newer version arrives, and the newest version is solved next.
+ *
+ * Each version is made into a Circuit on the solver's thread and solved with a SolveCache, so flipping back to a
+ * version solved recently (after an undo, say) costs no solve at all.
+ */
+public class SolverService
+{
+    private ExecutorService executor;
+    private SolveCache cache;
+    private SolverListener listener;
+
+    // Guarded by this
+    private Request pending;        // newest version not yet started, or null
+    private long newest;            // number of the newest request
+    private int numSolved;
+    private int numCoalesced;
+    private int numDiscarded;
+
+    /**
+     * A version waiting to be solved, with the editor's circuit versions to label the result with.
+     */
+    private class Request
+    {
+        private PersistentCircuit version;
+        private long structuralVersion;
+        private long valueVersion;
+        private long number;
+
+        private Request(PersistentCircuit circ, long structural, long value, long n)
+        {
+            version = circ;
+            structuralVersion = structural;
+            valueVersion = value;
+            number = n;
+        }
+    }
+
+    /**
+     * @param solveCache  Solutions to reuse; used only on the solver's thread from now on
+     * @param whenSolved  Told about each new result, on the solver's thread
+     */
+    public SolverService(SolveCache solveCache, SolverListener whenSolved)
+    {
+        cache = solveCache;
+        listener = whenSolved;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r, "Solver");
+                t.setDaemon(true);  // does not keep the program running once its windows are closed
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Asks for a version of the circuit to be solved, replacing any version asked for earlier that has not been
+     * finished. Returns at once.
+     * @param structuralVersion  The editor's Circuit.getStructuralVersion() for this version, copied into the result
+     * @param valueVersion  The editor's Circuit.getValueVersion() for this version
+     */
+    public synchronized void submit(PersistentCircuit version, long structuralVersion, long valueVersion)
+    {
+        newest++;
+        if (pending != null)
+        {
+            numCoalesced++;     // replaced before it started
+        }
+        boolean queued = pending != null;
+        pending = new Request(version, structuralVersion, valueVersion, newest);
+        if (!queued)
+        {
+            executor.submit(new Runnable()
+            {
+                public void run()
+                {
+                    solveNewest();
+                }
+            });
+        }
+    }
+
+    /**
+     * @return  The number of versions solved and passed to the listener
+     */
+    public synchronized int getNumSolved()
+    {
+        return numSolved;
+    }
+
+    /**
+     * @return  The number of versions skipped because a newer one was submitted before they started
+     */
+    public synchronized int getNumCoalesced()
+    {
+        return numCoalesced;
+    }
+
+    /**
+     * @return  The number of versions whose solve was started and whose result was then discarded for a newer one
+     */
+    public synchronized int getNumDiscarded()
+    {
+        return numDiscarded;
+    }
+
+    /**
+     * Stops the solver's thread. Versions waiting to be solved are dropped; a solve in progress still runs to its end.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Runs on the solver's thread: takes the newest version and solves it, unless a newer one turns up first.
+     */
+    private void solveNewest()
+    {
+        Request request;
+        synchronized (this)
+        {
+            request = pending;
+            pending = null;
+            if (request == null)
+            {
+                return;
+            }
+        }
+        Circuit circ = request.version.toCircuit();
+        if (abandoned(request))
+        {
+            return;
+        }
+        cache.solve(circ);
+        if (abandoned(request))
+        {
+            return;
+        }
+        CircuitSnapshot result = CircuitSnapshot.of(circ, request.structuralVersion, request.valueVersion);
+        synchronized (this)
+        {
+            if (abandoned(request))
+            {
+                return;
+            }
+            numSolved++;
+        }
+        listener.solved(result);
+    }
+
+    /**
+     * @return  True (and counts it as discarded) if a newer version has been submitted since this one was taken
+     */
+    private synchronized boolean abandoned(Request request)
+    {
+        if (request.number != newest)
+        {
+            numDiscarded++;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sends a SolverService a burst of edits to a large grid, the way a user clicking quickly would, and checks that the
+ * submits return at once, that the burst is coalesced into a few solves, and that the result published last is the
+ * solution of the last version submitted.
+ * Run with the grid size as an argument (default 16).
+ */
+public class SolverTester
+{
+    public static void main(String[] args) throws InterruptedException
+    {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        Random random = new Random(size);
+        Circuit grid = new Circuit(size, size);
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                if (c + 1 < size)
+                {
+                    grid.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r, c + 1);
+                }
+                if (r + 1 < size)
+                {
+                    grid.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r + 1, c);
+                }
+            }
+        }
+        grid.addBattery(new Battery(12), 0, 0, size - 1, size - 1, 0, 0);
+        PersistentCircuit version = PersistentCircuit.fromCircuit(grid);
+        long start = System.nanoTime();
+        new Circuit(grid).solve();
+        double solveMs = (System.nanoTime() - start) / 1e6;
+
+        final AtomicReference<CircuitSnapshot> latest = new AtomicReference<CircuitSnapshot>();
+        final CountDownLatch done = new CountDownLatch(1);
+        final int edits = 50;
+        SolverService solver = new SolverService(new SolveCache(8), new SolverListener()
+        {
+            public void solved(CircuitSnapshot result)
+            {
+                latest.set(result);
+                if (result.getValueVersion() == edits)
+                {
+                    done.countDown();
+                }
+            }
+        });
+
+        // A burst of edits, a few milliseconds apart, each submitted as soon as it is made
+        double longestSubmitUs = 0;
+        double totalSubmitUs = 0;
+        start = System.nanoTime();
+        for (int i = 1; i <= edits; i++)
+        {
+            Component c = grid.getComponents().get(random.nextInt(grid.getComponents().size() - 1));
+            grid.setResistance(c, 1 + random.nextInt(100));
+            version = version.with(c);
+            long before = System.nanoTime();
+            solver.submit(version, 0, i);
+            double submitUs = (System.nanoTime() - before) / 1e3;
+            longestSubmitUs = Math.max(longestSubmitUs, submitUs);
+            totalSubmitUs += submitUs;
+            Thread.sleep(2);
+        }
+        done.await();
+        double burstMs = (System.nanoTime() - start) / 1e6;
+        System.out.println(size + " x " + size + " grid, " + grid.getComponents().size() + " components; one solve takes "
+            + round(solveMs) + " ms");
+        System.out.println(edits + " edits in a burst: submit took " + round(totalSubmitUs / edits) + " us on average (longest "
+            + round(longestSubmitUs) + " us); "
+            + solver.getNumSolved() + " solved, " + solver.getNumCoalesced() + " coalesced, " + solver.getNumDiscarded()
+            + " discarded; last result " + round(burstMs) + " ms after the first edit");
+
+        // The last result is the solution of the last version
+        grid.solve();
+        CircuitSnapshot expected = CircuitSnapshot.of(grid);
+        CircuitSnapshot result = latest.get();
+        double worst = 0;
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                worst = Math.max(worst, Math.abs(result.getPotential(r, c) - expected.getPotential(r, c)));
+            }
+        }
+        System.out.println("Last result is for the last edit: " + (result.getValueVersion() == edits)
+            + "; largest difference in potential from solving it here " + worst);
+        solver.shutdown();
+    }
+
+    private static double round(double value)
+    {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,257 @@
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Checks that a sparse Circuit solves the same as an ordinary one, that TerminalMap agrees with a HashMap, and times
+ * solving a 10,000 x 10,000 sparse design canvas that holds a few thousand components. Block-by-block and incremental
+ * solves, worst-case analysis and resistance sketches must also give the same answers on a sparse canvas as on a dense
+ * grid, without looking at the canvas's empty terminals.
+ */
+public class SparseTester
+{
+    public static void main(String[] args)
+    {
+        // TerminalMap against HashMap, with many removals so that runs of keys have to be closed up
+        Random random = new Random(1);
+        TerminalMap map = new TerminalMap();
+        Map<Long, Terminal> expected = new HashMap<Long, Terminal>();
+        boolean agree = true;
+        for (int i = 0; i < 200000; i++)
+        {
+            long key = random.nextInt(5000) * 10007L;
+            if (random.nextInt(3) == 0)
+            {
+                agree &= map.remove(key) == expected.remove(key);
+            }
+            else
+            {
+                Terminal t = new Terminal((int)(key / 100), (int)(key % 100));
+                map.put(key, t);
+                expected.put(key, t);
+            }
+            if (i % 1000 == 0)
+            {
+                for (long k = 0; k < 5000; k++)
+                {
+                    agree &= map.get(k * 10007) == expected.get(k * 10007);
+                }
+            }
+        }
+        agree &= map.size() == expected.size();
+        System.out.println("TerminalMap agrees with HashMap: " + agree);
+
+        // The same circuits built dense and sparse, on the Kirchhoff, fragment, nodal and diode paths
+        compare("One piece", 12, false, false);
+        compare("Separate pieces", 30, true, false);
+        compare("With diodes", 12, false, true);
+        Circuit sparse = new Circuit(20, 20, true);
+        Circuit dense = new Circuit(20, 20);
+        Circuit inner = divider();
+        SubcircuitDefinition divider = new SubcircuitDefinition("Divider", inner, inner.getTerminal(0, 0), inner.getTerminal(2, 0));
+        for (Circuit circ : new Circuit[] {sparse, dense})
+        {
+            circ.addBattery(new Battery(10), 5, 5, 5, 6, 5, 5);
+            circ.addComponent(new Resistor(100), 5, 6, 6, 6);
+            circ.addSubcircuit(divider, new int[] {6, 5}, new int[] {6, 5});
+            circ.solve();
+        }
+        System.out.println("With a subcircuit: " + difference(sparse, dense, 0));
+
+        // Building up and tearing down leaves no terminals behind
+        Circuit canvas = new Circuit(10000, 10000, true);
+        for (int i = 0; i < 100; i++)
+        {
+            canvas.addComponent(new Resistor(10), i, 0, i, 1);
+        }
+        for (int i = 0; i < 100; i++)
+        {
+            canvas.removeComponent(i, 0, i, 1);
+        }
+        System.out.println("Terminals left after removing everything: " + canvas.getNumTerminals());
+
+        // A 10,000 x 10,000 canvas with a few thousand components in scattered pieces
+        long before = usedMemory();
+        long start = System.nanoTime();
+        canvas = new Circuit(10000, 10000, true);
+        int pieces = 300;
+        for (int p = 0; p < pieces; p++)
+        {
+            int r = random.nextInt(9990);
+            int c = random.nextInt(9990);
+            ladder(canvas, r, c, 4, random);
+        }
+        double buildMs = (System.nanoTime() - start) / 1e6;
+        long bytes = usedMemory() - before;
+        start = System.nanoTime();
+        double[] currents = canvas.solve();
+        double solveMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        double highest = 0;
+        for (Terminal t : canvas.getConnectedTerminals())
+        {
+            highest = Math.max(highest, t.getPotential());
+        }
+        double potentialMs = (System.nanoTime() - start) / 1e6;
+        System.out.println("10000 x 10000 canvas, " + canvas.getComponents().size() + " components in " + pieces
+            + " pieces, " + canvas.getNumTerminals() + " terminals in use:");
+        System.out.println("   built in " + round(buildMs) + " ms using " + bytes / 1024 + " KB; solved in " + round(solveMs)
+            + " ms (" + (currents == null ? "no solution" : currents.length + " branches") + "); all potentials in "
+            + round(potentialMs) + " ms, highest " + round(highest) + " V");
+        analyses();
+    }
+
+    /**
+     * Runs the analyses that look at every terminal on a small circuit in the far corner of a 10000 x 10000 canvas, and
+     * on the same circuit in a small dense grid. Each must only look at the terminals in use, or it runs out of memory.
+     */
+    private static void analyses()
+    {
+        int size = 10000;
+        Circuit sparse = new Circuit(size, size, true);
+        Circuit dense = new Circuit(6, 6);
+        long seed = 5;
+        ladder(sparse, size - 6, size - 6, 4, new Random(seed));
+        ladder(dense, 0, 0, 4, new Random(seed));
+        // A second loop on the ladder's last terminal, so that the circuit falls into two blocks
+        Circuit[] both = {sparse, dense};
+        for (Circuit circ : both)
+        {
+            int r = circ.getRows() - 6;
+            int c = circ.getCols() - 6;
+            circ.addBattery(new Battery(5), r + 3, c + 1, r + 5, c + 5, r + 5, c + 5);
+            circ.addComponent(new Resistor(40), r + 5, c + 5, r + 3, c + 5);
+            circ.addComponent(new Resistor(60), r + 3, c + 5, r + 3, c + 1);
+        }
+        sparse.solve();
+        dense.solve();
+        String blocks = difference(sparse, dense, size - 6);
+        sparse.solveIncremental();
+        dense.solveIncremental();
+        String incremental = difference(sparse, dense, size - 6);
+
+        WorstCaseAnalysis sparseWorst = new WorstCaseAnalysis(sparse, 0.05);
+        WorstCaseAnalysis denseWorst = new WorstCaseAnalysis(dense, 0.05);
+        sparseWorst.analyze();
+        denseWorst.analyze();
+        ResistanceSketch sparseSketch = new ResistanceSketch(sparse);
+        ResistanceSketch denseSketch = new ResistanceSketch(dense);
+        sparseSketch.buildExact();
+        denseSketch.buildExact();
+        double worstBound = 0;
+        double worstResistance = 0;
+        Terminal from = dense.getTerminal(0, 0);
+        for (Terminal t : dense.getConnectedTerminals())
+        {
+            int r = t.getRow() + size - 6;
+            int c = t.getCol() + size - 6;
+            worstBound = Math.max(worstBound, Math.max(Math.abs(sparseWorst.getMinPotential(r, c)
+                - denseWorst.getMinPotential(t.getRow(), t.getCol())), Math.abs(sparseWorst.getMaxPotential(r, c)
+                - denseWorst.getMaxPotential(t.getRow(), t.getCol()))));
+            worstResistance = Math.max(worstResistance, Math.abs(sparseSketch.getResistance(
+                sparse.getTerminal(size - 6, size - 6), sparse.getTerminal(r, c)) - denseSketch.getResistance(from, t)));
+        }
+        System.out.println("Two blocks in the corner of the canvas: solve(), " + blocks + "; solveIncremental(), "
+            + incremental);
+        System.out.println("   worst-case potentials differ from dense by " + worstBound + " V, resistances by "
+            + worstResistance + " ohms; " + sparseSketch.getResistancesFrom(sparse.getTerminal(size - 6, size - 6)).length
+            + " resistances from one terminal");
+    }
+
+    /**
+     * Builds a random ladder of resistors with a battery, in both a sparse and a dense circuit, and prints how much
+     * the solutions differ.
+     */
+    private static void compare(String name, int size, boolean scattered, boolean diodes)
+    {
+        Random random = new Random(size);
+        Circuit sparse = new Circuit(size, size, true);
+        Circuit dense = new Circuit(size, size);
+        int pieces = scattered ? 6 : 1;
+        for (int p = 0; p < pieces; p++)
+        {
+            int r = scattered ? random.nextInt(size - 4) : 0;
+            int c = scattered ? random.nextInt(size - 4) : 0;
+            long seed = random.nextLong();
+            ladder(sparse, r, c, scattered ? 4 : size, new Random(seed));
+            ladder(dense, r, c, scattered ? 4 : size, new Random(seed));
+        }
+        if (diodes)
+        {
+            sparse.addComponent(new Diode(), size - 1, 0, size - 1, 1);
+            dense.addComponent(new Diode(), size - 1, 0, size - 1, 1);
+        }
+        sparse.solve();
+        dense.solve();
+        System.out.println(name + ": " + difference(sparse, dense, 0));
+    }
+
+    /**
+     * Adds a ladder of random resistors in a square of the given size, with its corner at (r, c), and a battery across
+     * its first rung. Components that would land on ones already there are skipped.
+     */
+    private static void ladder(Circuit circ, int r, int c, int size, Random random)
+    {
+        for (int i = 0; i < size; i++)
+        {
+            if (i + 1 < size)
+            {
+                circ.addComponent(new Resistor(1 + random.nextInt(100)), r + i, c, r + i + 1, c);
+                circ.addComponent(new Resistor(1 + random.nextInt(100)), r + i, c + 1, r + i + 1, c + 1);
+            }
+            if (i > 0)
+            {
+                circ.addComponent(new Resistor(1 + random.nextInt(100)), r + i, c, r + i, c + 1);
+            }
+        }
+        circ.addBattery(new Battery(1 + random.nextInt(12)), r, c, r, c + 1, r, c);
+    }
+
+    /**
+     * @return  The largest difference in component current and terminal potential between two solved circuits with the
+     *          same components in the same order, those of a placed shift rows and columns further from (0, 0)
+     */
+    private static String difference(Circuit a, Circuit b, int shift)
+    {
+        double worst = 0;
+        List<Component> ca = a.getComponents();
+        List<Component> cb = b.getComponents();
+        for (int k = 0; k < ca.size(); k++)
+        {
+            worst = Math.max(worst, Math.abs(ca.get(k).getCurrent() - cb.get(k).getCurrent()));
+        }
+        for (Terminal t : b.getConnectedTerminals())
+        {
+            worst = Math.max(worst, Math.abs(a.getTerminal(t.getRow() + shift, t.getCol() + shift).getPotential() - t.getPotential()));
+        }
+        return "largest difference between sparse and dense " + worst + " (" + a.getNumTerminals() + " of "
+            + b.getNumTerminals() + " terminals kept)";
+    }
+
+    /**
+     * @return  Two 1 kilohm resistors in series, with their ends to be used as ports
+     */
+    private static Circuit divider()
+    {
+        Circuit circ = new Circuit(3, 1);
+        circ.addComponent(new Resistor(1000), 0, 0, 1, 0);
+        circ.addComponent(new Resistor(1000), 1, 0, 2, 0);
+        return circ;
+    }
+
+    private static double round(double value)
+    {
+        return Math.round(value * 100) / 100.0;
+    }
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
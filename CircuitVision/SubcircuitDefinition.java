@@ -0,0 +1,294 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import org.apache.commons.math3.linear.*;
+
+/**
+ * A reusable block of circuitry, such as a voltage divider or a Wheatstone bridge, that can be placed many times in a
+ * larger Circuit (see Circuit.addSubcircuit()). The block is drawn as its own small Circuit, and some of its terminals
+ * are chosen as ports: the places where it connects to the outside.
+ *
+ * Seen from outside, a block of resistors and batteries behaves exactly like a set of conductances between its ports
+ * plus a set of currents pushed out of them: the current flowing into the ports is I = Y V - J, where V holds the
+ * port potentials. Y and J are found once per definition by eliminating every internal unknown from the block's nodal
+ * equations (the Schur complement), and are kept until one of the block's component values changes. Each placed copy
+ * then adds only a ports-by-ports matrix to the larger circuit's equations, however many components are inside.
+ *
+ * Inside a block, capacitors act as breaks and inductors as wires, as in any steady (DC) solve. Diodes are not
+ * allowed, since a nonlinear block has no fixed Y and J. Two ports may not be joined directly by wires or batteries
+ * (that would take an infinite conductance), and every part of the block must be connected to at least one port.
+ */
+public class SubcircuitDefinition
+{
+    private String name;
+    private Circuit inner;
+    private List<Component> components;
+    private int cols;
+    private int numPorts;
+    private int[] portTerminal;     // terminal index (row * cols + col) of each port
+    private int[] portGroup;        // ports joined to each other inside the block share a number
+    private int[] unknownOf;        // equation for each terminal: ports first, then internal terminals; -1 if unused
+    private int[] end1;             // equation for each end of each component
+    private int[] end2;
+    private int[] sourceRow;        // extra equation for the current through each wire, battery or inductor
+    private int size;
+    private double[] reducedValues; // component values that Y and J were found with
+    private double[][] admittance;  // Y
+    private double[] sources;       // J
+
+    /**
+     * @param title  A name for the block, such as "Wheatstone bridge"
+     * @param circ  The circuit inside the block
+     * @param ports  The terminals of circ that connect to the outside, in the order they will be connected by
+     *               Circuit.addSubcircuit()
+     */
+    public SubcircuitDefinition(String title, Circuit circ, Terminal... ports)
+    {
+        name = title;
+        inner = circ;
+        components = new ArrayList<Component>(circ.getComponents());
+        cols = circ.getCols();
+        numPorts = ports.length;
+        int numTerminals = circ.getRows() * cols;
+
+        unknownOf = new int[numTerminals];
+        Arrays.fill(unknownOf, -1);
+        portTerminal = new int[numPorts];
+        for (int p = 0; p < numPorts; p++)
+        {
+            portTerminal[p] = ports[p].getRow() * cols + ports[p].getCol();
+            unknownOf[portTerminal[p]] = p;
+        }
+        size = numPorts;
+        for (int i = 0; i < numTerminals; i++)
+        {
+            if (unknownOf[i] < 0 && circ.getTerminal(i / cols, i % cols).numConnections() > 0)
+            {
+                unknownOf[i] = size;
+                size++;
+            }
+        }
+
+        int[] parent = new int[numTerminals];
+        for (int i = 0; i < numTerminals; i++)
+        {
+            parent[i] = i;
+        }
+        end1 = new int[components.size()];
+        end2 = new int[components.size()];
+        sourceRow = new int[components.size()];
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            if (c instanceof Diode)
+            {
+                throw new IllegalArgumentException("A subcircuit may not contain diodes");
+            }
+            int a = c.getEndPt1().getRow() * cols + c.getEndPt1().getCol();
+            int b = c.getEndPt2().getRow() * cols + c.getEndPt2().getCol();
+            end1[k] = unknownOf[a];
+            end2[k] = unknownOf[b];
+            sourceRow[k] = -1;
+            if (!(c instanceof Capacitor) && !(c instanceof Resistor && c.getResistance() > 0))
+            {
+                sourceRow[k] = size;
+                size++;
+            }
+            a = find(parent, a);
+            b = find(parent, b);
+            parent[Math.max(a, b)] = Math.min(a, b);
+        }
+        portGroup = new int[numPorts];
+        for (int p = 0; p < numPorts; p++)
+        {
+            portGroup[p] = find(parent, portTerminal[p]);
+        }
+    }
+
+    /**
+     * Finds Y and J by eliminating the internal unknowns, if the block's component values have changed since they
+     * were last found (or they have never been found).
+     */
+    private synchronized void reduce()
+    {
+        double[] values = new double[components.size()];
+        for (int k = 0; k < values.length; k++)
+        {
+            Component c = components.get(k);
+            if (c instanceof Battery)
+            {
+                values[k] = ((Battery)c).getVoltage() * (c.getEndPt1().equals(((Battery)c).getPosEnd()) ? 1 : -1);
+            }
+            else
+            {
+                values[k] = c.getResistance();
+            }
+        }
+        if (admittance != null && Arrays.equals(values, reducedValues))
+        {
+            return;
+        }
+
+        // Nodal equations for the whole block, with no reference terminal: rows and columns 0 to numPorts - 1 are
+        // the ports, and the rest are internal potentials and wire/battery currents
+        double[][] matrix = new double[size][size];
+        double[] constants = new double[size];
+        for (int k = 0; k < components.size(); k++)
+        {
+            int a = end1[k];
+            int b = end2[k];
+            int s = sourceRow[k];
+            if (s < 0)
+            {
+                double g = components.get(k) instanceof Capacitor ? NodalAnalysis.GMIN : 1.0 / values[k];
+                matrix[a][a] += g;
+                matrix[b][b] += g;
+                matrix[a][b] -= g;
+                matrix[b][a] -= g;
+            }
+            else
+            {
+                matrix[a][s] += 1;      // current s leaves terminal a and enters terminal b
+                matrix[b][s] -= 1;
+                matrix[s][a] += 1;      // V(a) - V(b) = battery voltage
+                matrix[s][b] -= 1;
+                if (components.get(k) instanceof Battery)
+                {
+                    constants[s] = values[k];
+                }
+            }
+        }
+
+        int internal = size - numPorts;
+        double[][] y = new double[numPorts][numPorts];
+        double[] j = new double[numPorts];
+        for (int p = 0; p < numPorts; p++)
+        {
+            System.arraycopy(matrix[p], 0, y[p], 0, numPorts);
+        }
+        if (internal > 0)
+        {
+            RealMatrix all = new Array2DRowRealMatrix(matrix, false);
+            RealMatrix aii = all.getSubMatrix(numPorts, size - 1, numPorts, size - 1);
+            RealMatrix aip = all.getSubMatrix(numPorts, size - 1, 0, numPorts - 1);
+            RealMatrix api = all.getSubMatrix(0, numPorts - 1, numPorts, size - 1);
+            DecompositionSolver solver = new LUDecomposition(aii).getSolver();
+            if (!solver.isNonSingular())
+            {
+                throw new IllegalArgumentException("Subcircuit " + name + " has a part not connected to any port, "
+                    + "or ports joined by wires or batteries alone");
+            }
+            RealMatrix schur = api.multiply(solver.solve(aip));
+            double[] internalConstants = Arrays.copyOfRange(constants, numPorts, size);
+            RealVector pushed = api.operate(solver.solve(new ArrayRealVector(internalConstants, false)));
+            for (int p = 0; p < numPorts; p++)
+            {
+                for (int q = 0; q < numPorts; q++)
+                {
+                    y[p][q] -= schur.getEntry(p, q);
+                }
+                j[p] = -pushed.getEntry(p);
+            }
+        }
+        admittance = y;
+        sources = j;
+        reducedValues = values;
+    }
+
+    /**
+     * @return  Y: entry [p][q] is the current into port p for each volt at port q. Found once, and again only after a
+     *          component inside the block changes. The returned array must not be changed.
+     */
+    public double[][] getAdmittance()
+    {
+        reduce();
+        return admittance;
+    }
+
+    /**
+     * @return  J: the current each port pushes out into the circuit when every port is at 0 V. The returned array must
+     *          not be changed.
+     */
+    public double[] getSources()
+    {
+        reduce();
+        return sources;
+    }
+
+    /**
+     * @param portPotentials  The potential at each port
+     * @return  The current flowing into the block at each port (I = Y V - J)
+     */
+    public double[] getPortCurrents(double[] portPotentials)
+    {
+        reduce();
+        double[] currents = new double[numPorts];
+        for (int p = 0; p < numPorts; p++)
+        {
+            currents[p] = -sources[p];
+            for (int q = 0; q < numPorts; q++)
+            {
+                currents[p] += admittance[p][q] * portPotentials[q];
+            }
+        }
+        return currents;
+    }
+
+    /**
+     * @return  A number shared by the ports that are connected to each other inside the block.
+     */
+    public int getPortGroup(int port)
+    {
+        return portGroup[port];
+    }
+
+    /**
+     * @return  The number of ports
+     */
+    public int numPorts()
+    {
+        return numPorts;
+    }
+
+    /**
+     * @return  The number of components inside the block
+     */
+    public int numComponents()
+    {
+        return components.size();
+    }
+
+    /**
+     * @return  The circuit inside the block
+     */
+    public Circuit getCircuit()
+    {
+        return inner;
+    }
+
+    /**
+     * @return  The name of the block
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @return  Returns the block's name and number of ports
+     */
+    public String toString()
+    {
+        return "Subcircuit " + name + " (" + numPorts + " ports)";
+    }
+
+    private static int find(int[] parent, int i)
+    {
+        while (parent[i] != i)
+        {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
@@ -0,0 +1,81 @@
+
+/**
+ * One copy of a SubcircuitDefinition placed in a Circuit, with each of its ports connected to a terminal of that
+ * circuit. Made by Circuit.addSubcircuit(). Many instances can share one definition, and so share its reduced port
+ * equations.
+ */
+public class SubcircuitInstance
+{
+    private SubcircuitDefinition definition;
+    private Terminal[] ports;
+    private double[] portCurrents;
+
+    /**
+     * @param def  The block being placed
+     * @param terminals  The terminal of the outer circuit that each port connects to, in port order
+     */
+    public SubcircuitInstance(SubcircuitDefinition def, Terminal[] terminals)
+    {
+        if (terminals.length != def.numPorts())
+        {
+            throw new IllegalArgumentException(def + " needs " + def.numPorts() + " terminals");
+        }
+        definition = def;
+        ports = terminals.clone();
+        portCurrents = new double[ports.length];
+    }
+
+    /**
+     * @return  The block this is a copy of
+     */
+    public SubcircuitDefinition getDefinition()
+    {
+        return definition;
+    }
+
+    /**
+     * @return  The terminal port p is connected to
+     */
+    public Terminal getPort(int p)
+    {
+        return ports[p];
+    }
+
+    /**
+     * @return  The number of ports
+     */
+    public int numPorts()
+    {
+        return ports.length;
+    }
+
+    /**
+     * After the circuit has been solved, this method is used to update the currents at the ports.
+     * @param potentials  The potential at each port
+     */
+    public void setPortPotentials(double[] potentials)
+    {
+        portCurrents = definition.getPortCurrents(potentials);
+    }
+
+    /**
+     * @return  The current flowing into the block through port p, found by the last solve of the circuit.
+     */
+    public double getPortCurrent(int p)
+    {
+        return portCurrents[p];
+    }
+
+    /**
+     * @return  Returns the block's name and the terminals its ports connect to
+     */
+    public String toString()
+    {
+        String result = definition.getName() + " at";
+        for (Terminal t : ports)
+        {
+            result += " (" + t.getCol() + ", " + t.getRow() + ")";
+        }
+        return result;
+    }
+}
@@ -0,0 +1,186 @@
+import java.util.List;
+
+/**
+ * Checks placed subcircuits against the same circuit drawn out flat, with a copy of every component of each block put
+ * where the block sits. The block is a small lattice of resistors with a battery inside, with two ports. The potentials
+ * of the outer terminals and the current into each port must match the flat circuit's, before and after a resistance
+ * inside the definition is changed. Also times a long chain of blocks against the flat circuit (kept under 999
+ * branches, the number Circuit.solve() uses to mark a dead end).
+ */
+public class SubcircuitTester
+{
+    public static void main(String[] args)
+    {
+        Circuit inner = block();
+        SubcircuitDefinition def = new SubcircuitDefinition("bridge with a battery", inner, inner.getTerminal(0, 0),
+            inner.getTerminal(0, 2));
+        for (int edit = 0; edit < 2; edit++)
+        {
+            if (edit == 1)
+            {
+                inner.setResistance(inner.getComponent(1, 1, 2, 1), 500);
+            }
+            Circuit placed = chain(10, def, false);
+            Circuit flat = chain(10, def, true);
+            placed.solve();
+            flat.solve();
+            System.out.println((edit == 0 ? "Ten blocks in a chain" : "After changing a resistance inside the block")
+                + ": " + compare(placed, flat));
+        }
+
+        Circuit placed = chain(60, def, false);
+        Circuit flat = chain(60, def, true);
+        placed.solve();
+        flat.solve();
+        long start = System.nanoTime();
+        placed.solve();
+        double placedMs = (System.nanoTime() - start) / 1e6;
+        start = System.nanoTime();
+        flat.solve();
+        double flatMs = (System.nanoTime() - start) / 1e6;
+        System.out.println("60 blocks of " + def.numComponents() + " components: " + compare(placed, flat) + "; solved in "
+            + Math.round(placedMs) + " ms with subcircuits, " + Math.round(flatMs) + " ms flat ("
+            + flat.getComponents().size() + " components)");
+    }
+
+    /**
+     * @return  How far the potentials of the outer terminals (measured from (0, 0)) and the port currents of a circuit
+     *          with placed blocks are from those of the flat circuit
+     */
+    private static String compare(Circuit placed, Circuit flat)
+    {
+        double worstPotential = 0;
+        for (int c = 0; c < placed.getCols(); c++)
+        {
+            for (int r = 0; r < 2; r++)
+            {
+                if (placed.getTerminal(r, c).numConnections() > 0 || r == 1)
+                {
+                    double a = placed.getTerminal(r, c).getPotential() - placed.getTerminal(0, 0).getPotential();
+                    double b = flat.getTerminal(r, c).getPotential() - flat.getTerminal(0, 0).getPotential();
+                    if (a < Double.MAX_VALUE / 10 && b < Double.MAX_VALUE / 10)
+                    {
+                        worstPotential = Math.max(worstPotential, Math.abs(a - b));
+                    }
+                }
+            }
+        }
+        double worstCurrent = 0;
+        List<SubcircuitInstance> subs = placed.getSubcircuits();
+        for (int i = 0; i < subs.size(); i++)
+        {
+            for (int p = 0; p < subs.get(i).numPorts(); p++)
+            {
+                Terminal port = subs.get(i).getPort(p);
+                double into = 0;
+                for (Component c : flat.getComponents())
+                {
+                    if (c.getEndPt1().getRow() < 1 || c.getEndPt2().getRow() < 1 || !inBlock(c, i))
+                    {
+                        continue;       // not part of block i's copy
+                    }
+                    into += leaving(c, port);
+                }
+                worstCurrent = Math.max(worstCurrent, Math.abs(subs.get(i).getPortCurrent(p) - into));
+            }
+        }
+        return "potentials off by at most " + worstPotential + " V, port currents by at most " + worstCurrent + " A";
+    }
+
+    /**
+     * @return  The current flowing out of a terminal into a component, or 0 if the component does not touch it
+     */
+    private static double leaving(Component c, Terminal t)
+    {
+        double current = c.getCurrent();
+        if (c.getCurrentDirection() != null && c.getCurrentDirection().equals(c.getEndPt1()))
+        {
+            current = -current;     // now from endPt1 to endPt2
+        }
+        if (c.getEndPt1().getRow() == t.getRow() && c.getEndPt1().getCol() == t.getCol())
+        {
+            return current;
+        }
+        if (c.getEndPt2().getRow() == t.getRow() && c.getEndPt2().getCol() == t.getCol())
+        {
+            return -current;
+        }
+        return 0;
+    }
+
+    private static boolean inBlock(Component c, int i)
+    {
+        int min = Math.min(c.getEndPt1().getCol(), c.getEndPt2().getCol());
+        int max = Math.max(c.getEndPt1().getCol(), c.getEndPt2().getCol());
+        return min >= 3 * i && max <= 3 * i + 2;
+    }
+
+    /**
+     * @return  The block: a 3 x 3 lattice of resistors with a 5 V battery in place of the top left one. Its ports are
+     *          the top corners.
+     */
+    private static Circuit block()
+    {
+        Circuit circ = new Circuit(3, 3);
+        int ohms = 10;
+        for (int r = 0; r < 3; r++)
+        {
+            for (int c = 0; c < 3; c++)
+            {
+                if (c + 1 < 3)
+                {
+                    if (r == 0 && c == 0)
+                    {
+                        circ.addBattery(new Battery(5), 0, 0, 0, 1, 0, 1);
+                    }
+                    else
+                    {
+                        circ.addComponent(new Resistor(ohms), r, c, r, c + 1);
+                    }
+                }
+                if (r + 1 < 3)
+                {
+                    circ.addComponent(new Resistor(ohms + 5), r, c, r + 1, c);
+                }
+                ohms += 7;
+            }
+        }
+        return circ;
+    }
+
+    /**
+     * @return  A chain of blocks along row 1, block i with its ports at (1, 3i) and (1, 3i + 2), joined to the next
+     *          block by a 20 ohm resistor and to a row of wires along row 0 by a 40 ohm resistor. A 9 V battery runs from
+     *          (1, 0) up to (0, 0). The blocks are placed as subcircuits, or if flat, drawn out component by component.
+     */
+    private static Circuit chain(int blocks, SubcircuitDefinition def, boolean flat)
+    {
+        Circuit circ = new Circuit(4, 3 * blocks);
+        circ.addBattery(new Battery(9), 1, 0, 0, 0, 0, 0);
+        for (int i = 0; i < blocks; i++)
+        {
+            int left = 3 * i;
+            if (flat)
+            {
+                for (Component c : def.getCircuit().getComponents())
+                {
+                    circ.addCopyOf(c, 1, left);
+                }
+            }
+            else
+            {
+                circ.addSubcircuit(def, new int[] {1, 1}, new int[] {left, left + 2});
+            }
+            if (i + 1 < blocks)
+            {
+                circ.addComponent(new Resistor(20), 1, left + 2, 1, left + 3);
+            }
+            circ.addComponent(new Resistor(40), 1, left + 2, 0, left + 2);
+        }
+        for (int c = 0; c + 1 < 3 * blocks; c++)
+        {
+            circ.addComponent(new Wire(), 0, c, 0, c + 1);
+        }
+        return circ;
+    }
+}
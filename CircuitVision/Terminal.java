@@ -11,6 +11,7 @@ public class Terminal
     private int row;
     private int col;
     private double potential;
+    private Circuit circuit;    // the circuit whose grid this terminal is in, or null
 
     /**
      * Constructs a Terminal and instantiates an arrayList to hold the Components the terminal 
@@ -28,6 +29,19 @@ public class Terminal
         potential = Double.MAX_VALUE;
     }
 
+    /**
+     * Constructs a Terminal in a circuit's grid. Once the circuit has been solved, the terminal's potential is read
+     * from the circuit's SolveResult.
+     * @param r  The row where the terminal is located
+     * @param c  The column where the terminal is located.
+     * @param circ  The circuit it belongs to
+     */
+    public Terminal(int r, int c, Circuit circ)
+    {
+        this(r, c);
+        circuit = circ;
+    }
+
     /**
      * @return  Returns true if this Terminal is connected to Component c; false otherwise.
      */
@@ -104,7 +118,7 @@ public class Terminal
     }
 
     /**
-     * Sets the potential at this Terminal
+     * Sets the potential at this Terminal, for a terminal that is not in a circuit or whose circuit has no solution yet
      * @param p  The new potential at this terminal
      */
     public void setPotential(double p)
@@ -113,10 +127,15 @@ public class Terminal
     }
 
     /**
-     * @return  The potential at this terminal
+     * @return  The potential at this terminal: from its circuit's latest SolveResult if there is one (found then if this
+     *          is the first potential asked for)
      */
     public double getPotential()
     {
+        if (circuit != null && circuit.getResult() != null)
+        {
+            return circuit.getResult().getPotential(row, col);
+        }
         return potential;
     }
 
@@ -0,0 +1,192 @@
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * Holds the Terminals of a sparse Circuit, keyed by row * cols + col as a long. A HashMap<Long, Terminal> would box
+ * every key and make an entry object for every terminal; this keeps the keys in a plain long[] and the terminals in a
+ * matching array, and finds a key by open addressing: start at the slot its hash picks and step along until the key
+ * (or an empty slot) is found. The table is doubled whenever it becomes more than half full, so the steps stay short.
+ * Removing a key moves later keys in its run back into the gap, so no "deleted" markers are needed.
+ */
+public class TerminalMap
+{
+    private static final long EMPTY = -1;   // keys are never negative
+
+    private long[] keys;
+    private Terminal[] terminals;
+    private int size;
+    private int mask;       // table length - 1 (the length is a power of 2)
+
+    public TerminalMap()
+    {
+        this(16);
+    }
+
+    /**
+     * @param expected  The number of terminals expected, so the table does not need to grow until then
+     */
+    public TerminalMap(int expected)
+    {
+        int capacity = 16;
+        while (capacity < 2 * expected)
+        {
+            capacity *= 2;
+        }
+        allocate(capacity);
+    }
+
+    /**
+     * @return  The terminal with the given key, or null if there is none
+     */
+    public Terminal get(long key)
+    {
+        int i = slot(key);
+        while (keys[i] != EMPTY)
+        {
+            if (keys[i] == key)
+            {
+                return terminals[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    /**
+     * Stores a terminal under a key, replacing any terminal already stored under it.
+     */
+    public void put(long key, Terminal t)
+    {
+        int i = slot(key);
+        while (keys[i] != EMPTY)
+        {
+            if (keys[i] == key)
+            {
+                terminals[i] = t;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        terminals[i] = t;
+        size++;
+        if (2 * size > keys.length)
+        {
+            long[] oldKeys = keys;
+            Terminal[] oldTerminals = terminals;
+            allocate(2 * keys.length);
+            for (int j = 0; j < oldKeys.length; j++)
+            {
+                if (oldKeys[j] != EMPTY)
+                {
+                    int k = slot(oldKeys[j]);
+                    while (keys[k] != EMPTY)
+                    {
+                        k = (k + 1) & mask;
+                    }
+                    keys[k] = oldKeys[j];
+                    terminals[k] = oldTerminals[j];
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the terminal stored under a key, if there is one.
+     * @return  The terminal that was removed, or null
+     */
+    public Terminal remove(long key)
+    {
+        int i = slot(key);
+        while (keys[i] != key)
+        {
+            if (keys[i] == EMPTY)
+            {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+        Terminal removed = terminals[i];
+        size--;
+        // Close the gap: a later key in the same run moves back into it if its own slot is not between the gap and it
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (keys[j] != EMPTY)
+        {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask))
+            {
+                keys[gap] = keys[j];
+                terminals[gap] = terminals[j];
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        keys[gap] = EMPTY;
+        terminals[gap] = null;
+        return removed;
+    }
+
+    /**
+     * @return  The number of terminals stored
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * @return  Every key, in no particular order
+     */
+    public long[] keys()
+    {
+        long[] found = new long[size];
+        int n = 0;
+        for (long key : keys)
+        {
+            if (key != EMPTY)
+            {
+                found[n] = key;
+                n++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * @return  Every terminal, in no particular order
+     */
+    public List<Terminal> values()
+    {
+        List<Terminal> found = new ArrayList<Terminal>(size);
+        for (Terminal t : terminals)
+        {
+            if (t != null)
+            {
+                found.add(t);
+            }
+        }
+        return found;
+    }
+
+    private void allocate(int capacity)
+    {
+        keys = new long[capacity];
+        terminals = new Terminal[capacity];
+        mask = capacity - 1;
+        for (int i = 0; i < capacity; i++)
+        {
+            keys[i] = EMPTY;
+        }
+    }
+
+    /**
+     * @return  The slot a key starts looking from. The key is multiplied by a large odd number (Fibonacci hashing) and its
+     *          high bits folded into the low ones, so keys in a row or column of the grid spread over the whole table.
+     */
+    private int slot(long key)
+    {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int)(h ^ (h >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,83 @@
+
+/**
+ * What a circuit looks like from two of its terminals: an ideal battery of voltage V_th in series with a resistance
+ * R_th. Any component connected between the two terminals will carry the same current as it would if it were connected
+ * to this simple equivalent, so the current can be predicted without solving the whole circuit again.
+ */
+public class TheveninEquivalent
+{
+    private double voltage;         // open-circuit potential of the first terminal minus the second
+    private double resistance;
+
+    /**
+     * @param volts  The potential of the first terminal minus the potential of the second, with nothing between them
+     * @param ohms  The resistance between the two terminals with every battery replaced by a wire. Use
+     *              Double.POSITIVE_INFINITY if the terminals are not connected to each other through the circuit.
+     */
+    public TheveninEquivalent(double volts, double ohms)
+    {
+        voltage = volts;
+        resistance = ohms;
+    }
+
+    /**
+     * @return  The open-circuit voltage, V_th
+     */
+    public double getVoltage()
+    {
+        return voltage;
+    }
+
+    /**
+     * @return  The equivalent resistance, R_th
+     */
+    public double getResistance()
+    {
+        return resistance;
+    }
+
+    /**
+     * @param ohms  The resistance of a resistor (or 0 for a wire) connected between the two terminals
+     * @return  The current that would flow through it, from the first terminal to the second; NaN if a wire would make
+     *          a short circuit.
+     */
+    public double currentThroughResistor(double ohms)
+    {
+        if (Double.isInfinite(resistance))
+        {
+            return 0;
+        }
+        if (resistance + ohms < 1e-12)
+        {
+            return Double.NaN;
+        }
+        return voltage / (resistance + ohms);
+    }
+
+    /**
+     * @param volts  The voltage of a battery connected between the two terminals, with its positive end on the first
+     *               terminal
+     * @return  The current that would flow through the battery, from the first terminal to the second (so a positive
+     *          value flows into its positive end); NaN if the battery would make a short circuit.
+     */
+    public double currentThroughBattery(double volts)
+    {
+        if (Double.isInfinite(resistance))
+        {
+            return 0;
+        }
+        if (resistance < 1e-12)
+        {
+            return Double.NaN;
+        }
+        return (voltage - volts) / resistance;
+    }
+
+    /**
+     * @return  Returns V_th and R_th
+     */
+    public String toString()
+    {
+        return "Thevenin " + voltage + " V   " + resistance + " ohms";
+    }
+}
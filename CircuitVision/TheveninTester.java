@@ -0,0 +1,111 @@
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks Circuit.getThevenin() by adding the component it predicts for and solving: on a lattice with two batteries,
+ * the predicted current through a new resistor, wire or battery between random pairs of terminals must match the
+ * current Circuit.solve() then finds. Also checks that equivalents are reused until the circuit changes, and times
+ * getThevenin() for a pair that was already asked for, as the hover preview does on every frame.
+ */
+public class TheveninTester
+{
+    public static void main(String[] args)
+    {
+        Random random = new Random(1);
+        Circuit circ = lattice(8, new Random(2));
+        double worst = 0;
+        int tried = 0;
+        while (tried < 60)
+        {
+            int r1 = random.nextInt(8);
+            int c1 = random.nextInt(8);
+            int r2 = random.nextInt(8);
+            int c2 = random.nextInt(8);
+            if (r1 == r2 && c1 == c2 || circ.getComponent(r1, c1, r2, c2) != null)
+            {
+                continue;
+            }
+            TheveninEquivalent thevenin = circ.getThevenin(r1, c1, r2, c2);
+            Component added;
+            double predicted;
+            int kind = tried % 3;
+            if (kind == 0)
+            {
+                added = new Resistor(10);
+                circ.addComponent(added, r1, c1, r2, c2);
+                predicted = thevenin.currentThroughResistor(10);
+            }
+            else if (kind == 1)
+            {
+                added = new Wire();
+                circ.addComponent(added, r1, c1, r2, c2);
+                predicted = thevenin.currentThroughResistor(0);
+            }
+            else
+            {
+                added = new Battery(6);
+                circ.addBattery((Battery)added, r1, c1, r2, c2, r1, c1);
+                predicted = thevenin.currentThroughBattery(6);
+            }
+            circ.solve();
+            double current = added.getCurrent();
+            if (added.getCurrentDirection() != null && added.getCurrentDirection().equals(added.getEndPt1()))
+            {
+                current = -current;
+            }
+            worst = Math.max(worst, Math.abs(current - predicted));
+            circ.removeComponent(added);
+            tried++;
+        }
+        System.out.println("Thevenin prediction against adding the component and solving, " + tried
+            + " pairs: largest difference " + worst + " A");
+
+        TheveninEquivalent first = circ.getThevenin(0, 0, 7, 7);
+        boolean reused = circ.getThevenin(0, 0, 7, 7) == first;
+        List<Component> components = circ.getComponents();
+        circ.setResistance(components.get(components.size() - 1), 77);
+        TheveninEquivalent second = circ.getThevenin(0, 0, 7, 7);
+        boolean refreshed = second != first;
+        components.get(components.size() - 2).setResistance(78);    // the component's own setter, not the circuit's
+        boolean refreshedDirectly = circ.getThevenin(0, 0, 7, 7) != second;
+        System.out.println("Reused while unchanged: " + reused + "; found again after a resistance changed: " + refreshed
+            + "; and after Component.setResistance(): " + refreshedDirectly);
+
+        Circuit big = lattice(30, new Random(3));
+        big.getThevenin(0, 0, 29, 29);
+        int calls = 200000;
+        long start = System.nanoTime();
+        for (int i = 0; i < calls; i++)
+        {
+            big.getThevenin(0, 0, 29, 29);
+        }
+        System.out.println("Asking again on a 30 x 30 lattice (" + big.getComponents().size() + " components): "
+            + (System.nanoTime() - start) / calls + " ns per call");
+    }
+
+    /**
+     * @return  A lattice of resistors of 1 to 100 ohms, with a 9 V battery in place of its first resistor and a 5 V
+     *          battery in place of its last
+     */
+    private static Circuit lattice(int size, Random random)
+    {
+        Circuit circ = new Circuit(size, size);
+        circ.addBattery(new Battery(9), 0, 0, 0, 1, 0, 1);
+        circ.addBattery(new Battery(5), size - 1, size - 2, size - 1, size - 1, size - 1, size - 2);
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                if (c + 1 < size && !(r == 0 && c == 0) && !(r == size - 1 && c == size - 2))
+                {
+                    circ.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r, c + 1);
+                }
+                if (r + 1 < size)
+                {
+                    circ.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r + 1, c);
+                }
+            }
+        }
+        return circ;
+    }
+}
@@ -79,6 +79,11 @@ public class Tower
         return h;
     }
 
+    public void setHeight(int height)
+    {
+        h = height;
+    }
+
     public String toString()
     {
         return "x: " + x + "\tz: " + z + "\th: " + h;
@@ -0,0 +1,373 @@
+import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Arrays;
+import org.apache.commons.math3.linear.*;
+
+/**
+ * Follows a circuit with capacitors and inductors through time, starting with every capacitor uncharged and no current
+ * in any inductor (or, after resetToSteadyState(), from the circuit's steady DC state). Before the first step, the
+ * circuit is solved at time 0 with those starting values, so the first step starts from consistent potentials and
+ * capacitor currents; the trapezoidal rule in particular would ring if it started from all zeros. Each time step, a capacitor is replaced by a resistor and a current source (and an inductor by a
+ * resistance in its voltage equation) whose values depend on the previous step. This "companion model" depends only on
+ * the size of the time step, so the equations are factored once for each time step size and then reused for every
+ * step of that size; only the constant terms change from step to step.
+ *
+ * Both backward Euler (very stable, slightly damped) and the trapezoidal rule (more accurate) are available.
+ */
+public class TransientAnalysis
+{
+    private Circuit circuit;
+    private NodalAnalysis analysis;
+    private List<Component> components;
+    private double[] values;
+    private boolean trapezoidal;
+    private Map<Double, DecompositionSolver> factored;     // one factorization for each time step size
+    private int numFactorizations;
+
+    private double time;
+    private double[] prevX;             // solution vector from the previous step
+    private double[] prevCurrents;      // component currents from the previous step
+    private double[] currents;
+    private double[] constants;
+    private double[] potentials;        // passed to the listener, refilled every step
+    private double[] lowest;            // room for NodalAnalysis.getPotentials()
+
+    /**
+     * Sets up a transient analysis of a circuit, using the trapezoidal rule. The circuit's components and their values
+     * are read once, here.
+     * @param circ  The circuit to simulate
+     */
+    public TransientAnalysis(Circuit circ)
+    {
+        circuit = circ;
+        analysis = new NodalAnalysis(circ);
+        components = analysis.getComponents();
+        values = analysis.getValues();
+        trapezoidal = true;
+        factored = new HashMap<Double, DecompositionSolver>();
+        currents = new double[components.size()];
+        constants = new double[analysis.size()];
+        int numTerminals = circ.getNumTerminals();
+        potentials = new double[numTerminals];
+        lowest = new double[numTerminals];
+        reset();
+    }
+
+    /**
+     * Chooses between the trapezoidal rule (true) and backward Euler (false). Changing methods discards the cached
+     * factorizations.
+     */
+    public void setTrapezoidal(boolean trap)
+    {
+        if (trap != trapezoidal)
+        {
+            factored.clear();
+        }
+        trapezoidal = trap;
+    }
+
+    /**
+     * Returns to time 0, with all capacitors uncharged and no current in any inductor, and solves the circuit at that
+     * instant: each capacitor acts as a wire (it has no voltage yet) and each inductor as a break (it has no current
+     * yet). If that cannot be solved (a capacitor straight across a battery would need an infinite current), every
+     * potential and current starts at 0 instead.
+     */
+    public void reset()
+    {
+        time = 0;
+        prevX = new double[analysis.size()];
+        prevCurrents = new double[components.size()];
+        int n = analysis.size();
+        int numCapacitors = 0;
+        for (Component c : components)
+        {
+            if (c instanceof Capacitor)
+            {
+                numCapacitors++;
+            }
+        }
+        if (n == 0)
+        {
+            return;
+        }
+
+        // The usual equations, with a row and column added for the current through each capacitor
+        double[][] small = analysis.buildMatrix(values);
+        double[][] matrix = new double[n + numCapacitors][n + numCapacitors];
+        double[] rhs = new double[n + numCapacitors];
+        System.arraycopy(analysis.buildConstants(values), 0, rhs, 0, n);
+        for (int i = 0; i < n; i++)
+        {
+            System.arraycopy(small[i], 0, matrix[i], 0, n);
+        }
+        for (int i = 0; i < analysis.getNumNodes(); i++)
+        {
+            matrix[i][i] += NodalAnalysis.GMIN;     // keeps a terminal between two inductors from floating
+        }
+        int extra = n;
+        int[] capacitorRow = new int[components.size()];
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            int[] ends = analysis.getEnds(k);
+            if (c instanceof Capacitor)
+            {
+                // V(a) - V(b) = 0, with its current leaving a and entering b
+                add(matrix, ends[0], extra, 1);
+                add(matrix, ends[1], extra, -1);
+                add(matrix, extra, ends[0], 1);
+                add(matrix, extra, ends[1], -1);
+                capacitorRow[k] = extra;
+                extra++;
+            }
+            else if (c instanceof Inductor)
+            {
+                // Its current is 0, in place of the voltage equation of a wire
+                int s = analysis.getSourceRow(k);
+                Arrays.fill(matrix[s], 0);
+                matrix[s][s] = 1;
+                rhs[s] = 0;
+            }
+        }
+        DecompositionSolver solver = new LUDecomposition(new Array2DRowRealMatrix(matrix, false)).getSolver();
+        if (!solver.isNonSingular())
+        {
+            return;
+        }
+        double[] x = solver.solve(new ArrayRealVector(rhs, false)).toArray();
+        System.arraycopy(x, 0, prevX, 0, n);
+        for (int k = 0; k < components.size(); k++)
+        {
+            if (components.get(k) instanceof Capacitor)
+            {
+                prevCurrents[k] = x[capacitorRow[k]];
+            }
+            else
+            {
+                prevCurrents[k] = analysis.getCurrent(prevX, values, k);
+            }
+        }
+    }
+
+    /**
+     * Returns to time 0 with the circuit settled: each capacitor charged to its steady voltage, with no current, and
+     * each inductor carrying its steady current. A run() from here shows nothing changing unless the circuit does.
+     * @return  False if the steady state cannot be solved (for example, a short circuit); the state is then as after
+     *          reset()
+     */
+    public boolean resetToSteadyState()
+    {
+        reset();
+        double[] x = analysis.solve(values);
+        if (x == null)
+        {
+            return false;
+        }
+        prevX = x;
+        for (int k = 0; k < components.size(); k++)
+        {
+            prevCurrents[k] = components.get(k) instanceof Capacitor ? 0 : analysis.getCurrent(x, values, k);
+        }
+        return true;
+    }
+
+    /**
+     * Advances the simulation by a number of time steps, sending the results of each step to a listener.
+     * Calling run() again continues from where the last call stopped; the time step may be changed between calls.
+     * @param timeStep  The length of each step in seconds
+     * @param numSteps  The number of steps to take
+     * @param listener  Receives the results after each step (may be null)
+     * @return  False if the circuit cannot be solved (for example, a short circuit); true otherwise.
+     */
+    public boolean run(double timeStep, int numSteps, TransientListener listener)
+    {
+        DecompositionSolver solver = getSolver(timeStep);
+        if (solver == null)
+        {
+            return false;
+        }
+        double[] batteries = analysis.buildConstants(values);
+        for (int step = 0; step < numSteps; step++)
+        {
+            // Constant terms: batteries, plus the companion current sources for capacitors and inductors
+            System.arraycopy(batteries, 0, constants, 0, constants.length);
+            for (int k = 0; k < components.size(); k++)
+            {
+                Component c = components.get(k);
+                if (c instanceof Capacitor)
+                {
+                    double g = companionConductance(k, timeStep);
+                    double source = g * voltage(prevX, k);
+                    if (trapezoidal)
+                    {
+                        source += prevCurrents[k];
+                    }
+                    int[] ends = analysis.getEnds(k);
+                    add(constants, ends[0], source);
+                    add(constants, ends[1], -source);
+                }
+                else if (c instanceof Inductor)
+                {
+                    double r = companionResistance(k, timeStep);
+                    double rhs = -r * prevCurrents[k];
+                    if (trapezoidal)
+                    {
+                        rhs -= voltage(prevX, k);
+                    }
+                    constants[analysis.getSourceRow(k)] = rhs;
+                }
+            }
+
+            double[] x = analysis.solve(solver, constants);
+            time += timeStep;
+            for (int k = 0; k < components.size(); k++)
+            {
+                Component c = components.get(k);
+                if (c instanceof Capacitor)
+                {
+                    currents[k] = companionConductance(k, timeStep) * (voltage(x, k) - voltage(prevX, k));
+                    if (trapezoidal)
+                    {
+                        currents[k] -= prevCurrents[k];
+                    }
+                }
+                else
+                {
+                    currents[k] = analysis.getCurrent(x, values, k);
+                }
+            }
+            if (listener != null)
+            {
+                listener.stepSolved(time, currents, analysis.getPotentials(x, potentials, lowest));
+            }
+            prevX = x;
+            System.arraycopy(currents, 0, prevCurrents, 0, currents.length);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the factored equations for a time step size, factoring them the first time that size is used.
+     */
+    private DecompositionSolver getSolver(double timeStep)
+    {
+        if (factored.containsKey(timeStep))
+        {
+            return factored.get(timeStep);
+        }
+        double[][] matrix = analysis.buildMatrix(values);
+        for (int k = 0; k < components.size(); k++)
+        {
+            Component c = components.get(k);
+            int[] ends = analysis.getEnds(k);
+            if (c instanceof Capacitor)
+            {
+                double g = companionConductance(k, timeStep);
+                add(matrix, ends[0], ends[0], g);
+                add(matrix, ends[1], ends[1], g);
+                add(matrix, ends[0], ends[1], -g);
+                add(matrix, ends[1], ends[0], -g);
+            }
+            else if (c instanceof Inductor)
+            {
+                int s = analysis.getSourceRow(k);
+                matrix[s][s] -= companionResistance(k, timeStep);     // V(a) - V(b) - r * i = constant
+            }
+        }
+        DecompositionSolver solver = null;
+        if (matrix.length > 0)
+        {
+            solver = new LUDecomposition(new Array2DRowRealMatrix(matrix, false)).getSolver();
+            numFactorizations++;
+            if (!solver.isNonSingular())
+            {
+                solver = null;
+            }
+        }
+        factored.put(timeStep, solver);
+        return solver;
+    }
+
+    /**
+     * @return  The conductance that replaces capacitor k for one time step: C / h (backward Euler) or 2C / h (trapezoidal)
+     */
+    private double companionConductance(int k, double timeStep)
+    {
+        if (trapezoidal)
+        {
+            return 2 * values[k] / timeStep;
+        }
+        return values[k] / timeStep;
+    }
+
+    /**
+     * @return  The resistance that appears in inductor k's equation: L / h (backward Euler) or 2L / h (trapezoidal)
+     */
+    private double companionResistance(int k, double timeStep)
+    {
+        if (trapezoidal)
+        {
+            return 2 * values[k] / timeStep;
+        }
+        return values[k] / timeStep;
+    }
+
+    /**
+     * @return  The potential difference from endPt1 to endPt2 of component k in solution x
+     */
+    private double voltage(double[] x, int k)
+    {
+        int[] ends = analysis.getEnds(k);
+        double v = 0;
+        if (ends[0] >= 0)
+        {
+            v += x[ends[0]];
+        }
+        if (ends[1] >= 0)
+        {
+            v -= x[ends[1]];
+        }
+        return v;
+    }
+
+    private void add(double[] vector, int i, double value)
+    {
+        if (i >= 0)
+        {
+            vector[i] += value;
+        }
+    }
+
+    private void add(double[][] matrix, int row, int col, double value)
+    {
+        if (row >= 0 && col >= 0)
+        {
+            matrix[row][col] += value;
+        }
+    }
+
+    /**
+     * @return  The simulated time reached so far, in seconds
+     */
+    public double getTime()
+    {
+        return time;
+    }
+
+    /**
+     * @return  The number of times the equations have been factored (once per time step size used)
+     */
+    public int getNumFactorizations()
+    {
+        return numFactorizations;
+    }
+
+    /**
+     * @return  The circuit being simulated
+     */
+    public Circuit getCircuit()
+    {
+        return circuit;
+    }
+}
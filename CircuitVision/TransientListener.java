@@ -0,0 +1,14 @@
+
+/**
+ * Receives the results of a TransientAnalysis one time step at a time, as soon as each step is solved.
+ */
+public interface TransientListener
+{
+    /**
+     * Called once for each time step. The arrays are reused for the next step, so copy them if they need to be kept.
+     * @param time  The time at the end of this step, in seconds
+     * @param currents  The current through each component, from endPt1 to endPt2, indexed as circuit.getComponents()
+     * @param potentials  The potential at each terminal, indexed by row * cols + col (Double.MAX_VALUE if unconnected)
+     */
+    void stepSolved(double time, double[] currents, double[] potentials);
+}
@@ -0,0 +1,61 @@
+import java.util.List;
+import java.util.ArrayList;
+
+/**
+ * A TransientListener that keeps every time step, so that the results can be replayed later by an Animation.
+ */
+public class TransientRecording implements TransientListener
+{
+    private List<Double> times;
+    private List<double[]> currents;
+    private List<double[]> potentials;
+
+    public TransientRecording()
+    {
+        times = new ArrayList<Double>();
+        currents = new ArrayList<double[]>();
+        potentials = new ArrayList<double[]>();
+    }
+
+    /**
+     * Stores a copy of the step's results.
+     */
+    public void stepSolved(double time, double[] stepCurrents, double[] stepPotentials)
+    {
+        times.add(time);
+        currents.add(stepCurrents.clone());
+        potentials.add(stepPotentials.clone());
+    }
+
+    /**
+     * @return  The number of time steps recorded
+     */
+    public int numSteps()
+    {
+        return times.size();
+    }
+
+    /**
+     * @return  The time at the end of step i, in seconds
+     */
+    public double getTime(int i)
+    {
+        return times.get(i);
+    }
+
+    /**
+     * @return  The current through each component during step i, from endPt1 to endPt2
+     */
+    public double[] getCurrents(int i)
+    {
+        return currents.get(i);
+    }
+
+    /**
+     * @return  The potential at each terminal (indexed by row * cols + col) during step i
+     */
+    public double[] getPotentials(int i)
+    {
+        return potentials.get(i);
+    }
+}
@@ -0,0 +1,82 @@
+/**
+ * Checks TransientAnalysis against the closed-form charging curves of an RC and an RL circuit, with the trapezoidal
+ * rule and backward Euler, and checks that a circuit started from its steady state stays there.
+ */
+public class TransientTester
+{
+    private static final double VOLTS = 10;
+
+    public static void main(String[] args)
+    {
+        for (boolean trapezoidal : new boolean[] {true, false})
+        {
+            String method = trapezoidal ? "Trapezoidal" : "Backward Euler";
+
+            // RC: 1000 ohms and 1 uF, so the capacitor's voltage is 10 (1 - e^(-t / 1 ms))
+            double tau = 1000 * 1e-6;
+            Circuit rc = loop(new Resistor(1000), new Capacitor(1e-6));
+            TransientAnalysis analysis = new TransientAnalysis(rc);
+            analysis.setTrapezoidal(trapezoidal);
+            TransientRecording rec = new TransientRecording();
+            analysis.run(tau / 20, 100, rec);
+            double worst = 0;
+            double firstStep = 0;
+            for (int i = 0; i < rec.numSteps(); i++)
+            {
+                double[] v = rec.getPotentials(i);
+                double error = Math.abs(v[1] - v[3] - VOLTS * (1 - Math.exp(-rec.getTime(i) / tau)));
+                worst = Math.max(worst, error);
+                if (i == 0)
+                {
+                    firstStep = error;
+                }
+            }
+            System.out.println(method + ", RC with 20 steps per time constant: capacitor voltage off by at most "
+                + worst + " V (" + firstStep + " V after the first step); " + analysis.getNumFactorizations()
+                + " factorization");
+
+            // RL: 10 ohms and 10 mH, so the current is 1 - e^(-t / 1 ms) amps
+            tau = 0.01 / 10;
+            Circuit rl = loop(new Resistor(10), new Inductor(0.01));
+            analysis = new TransientAnalysis(rl);
+            analysis.setTrapezoidal(trapezoidal);
+            rec = new TransientRecording();
+            analysis.run(tau / 20, 100, rec);
+            worst = 0;
+            for (int i = 0; i < rec.numSteps(); i++)
+            {
+                double current = Math.abs(rec.getCurrents(i)[2]);
+                worst = Math.max(worst, Math.abs(current - VOLTS / 10 * (1 - Math.exp(-rec.getTime(i) / tau))));
+            }
+            System.out.println(method + ", RL with 20 steps per time constant: inductor current off by at most " + worst
+                + " A");
+        }
+
+        TransientAnalysis settled = new TransientAnalysis(loop(new Resistor(1000), new Capacitor(1e-6)));
+        boolean steady = settled.resetToSteadyState();
+        TransientRecording rec = new TransientRecording();
+        settled.run(1e-5, 50, rec);
+        double drift = 0;
+        for (int i = 0; i < rec.numSteps(); i++)
+        {
+            double[] v = rec.getPotentials(i);
+            drift = Math.max(drift, Math.abs(v[1] - v[3] - VOLTS));
+        }
+        System.out.println("Started from its steady state (" + steady + "), the capacitor's voltage moves by at most "
+            + drift + " V");
+    }
+
+    /**
+     * @return  A 2 x 2 circuit: a 10 V battery from (1, 0) up to (0, 0), then first from (0, 0) to (0, 1), second from
+     *          (0, 1) to (1, 1), and a wire back to (1, 0). Components are numbered battery, first, second, wire.
+     */
+    private static Circuit loop(Component first, Component second)
+    {
+        Circuit circ = new Circuit(2, 2);
+        circ.addBattery(new Battery(VOLTS), 1, 0, 0, 0, 0, 0);
+        circ.addComponent(first, 0, 0, 0, 1);
+        circ.addComponent(second, 0, 1, 1, 1);
+        circ.addComponent(new Wire(), 1, 1, 1, 0);
+        return circ;
+    }
+}
@@ -18,6 +18,7 @@ public class Wall
     private int maxBalls;
     private Wheel myWheel;
     private Tower batteryPosEnd;
+    private int glowColor;      // color of a lit LED; 0 if the wall is not a lit LED
 
     public Wall(PApplet animationWindow, Tower upstreamTower, Tower downstreamTower, double current_)
     {
@@ -39,11 +40,16 @@ public class Wall
         maxBalls = Animation.BALLS_PER_WALL;
         myWheel = null;
         batteryPosEnd = null;
+        glowColor = 0;
     }
 
     public void display()
     {
         win2.fill(255);
+        if (glowColor != 0)
+        {
+            win2.fill(glowColor);
+        }
         win2.pushMatrix();
 
         //translate to that tower's (x, z), but to the middle of tower instead of its corner
@@ -146,12 +152,27 @@ public class Wall
     
     public void addWheel()
     {
-        int spinDirection = 1;
+        myWheel = new Wheel(win2, spinDirection() * current);
+    }
+
+    /**
+     * @return  -1 if the current flows toward the far tower, so that the wheel has to turn the other way; otherwise 1
+     */
+    private int spinDirection()
+    {
         if (farTower.equals(t2))
         {
-            spinDirection = -1;
+            return -1;
         }
-        myWheel = new Wheel(win2, spinDirection * current);
+        return 1;
+    }
+
+    /**
+     * Makes this wall glow, to show an LED that is lit.
+     */
+    public void addLight(int color)
+    {
+        glowColor = color;
     }
 
     public void addSkiLift(Tower posEnd)
@@ -169,6 +190,33 @@ public class Wall
         return current;
     }
 
+    /**
+     * Changes the current carried by this wall, e.g. while replaying a TransientRecording. Balls and the
+     * water wheel (if any) speed up or slow down to match. A negative current flows from t2 to t1, so the wall is
+     * turned around: t2 becomes the upstream tower, the balls keep their places but roll the other way, and the wheel
+     * turns the other way.
+     * @param current_  The current from t1 to t2
+     */
+    public void setCurrent(double current_)
+    {
+        if (current_ < 0)
+        {
+            Tower upstream = t2;
+            t2 = t1;
+            t1 = upstream;
+            for (Ball b : balls)
+            {
+                b.turnAround();
+            }
+            current_ = -current_;
+        }
+        current = current_;
+        if (myWheel != null)
+        {
+            myWheel.setCurrent(spinDirection() * current);
+        }
+    }
+
     public Tower getT1()
     {
         return t1;
@@ -32,4 +32,14 @@ public class Wheel
     {
         angle -= Animation.SPEED * current / 10;
     }
+
+    public double getCurrent()
+    {
+        return current;
+    }
+
+    public void setCurrent(double current_)
+    {
+        current = current_;
+    }
 }
@@ -0,0 +1,172 @@
+import java.util.List;
+import java.util.Random;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Checks that Circuit.solve(SolveWorkspace) gives the same currents and potentials as solve() while values are
+ * changed between solves, and counts the bytes each kind of solve allocates once the JIT has warmed up. A solve
+ * through a workspace should allocate nothing.
+ * Run with the grid size as an argument (default 8).
+ */
+public class WorkspaceTester
+{
+    public static void main(String[] args)
+    {
+        int size = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        Circuit reused = grid(size, false);
+        Circuit fresh = grid(size, false);
+        SolveWorkspace workspace = new SolveWorkspace();
+        Random random = new Random(2);
+        double worst = 0;
+        for (int i = 0; i < 200; i++)
+        {
+            change(reused, fresh, random);
+            reused.solve(workspace);
+            fresh.solve();
+            worst = Math.max(worst, difference(reused, fresh));
+        }
+        System.out.println(size + " x " + size + " grid, " + reused.getComponents().size() + " components: largest "
+            + "difference from solve() over 200 changes " + worst + " (" + workspace.getNumSolves() + " solves reused "
+            + "the workspace)");
+
+        // A structural change makes the workspace set up again, and a sparse circuit works the same way
+        reused.addComponent(new Resistor(47), size, 0, size, 1);
+        fresh.addComponent(new Resistor(47), size, 0, size, 1);
+        reused.solve(workspace);
+        fresh.solve();
+        System.out.println("After adding a resistor: largest difference " + difference(reused, fresh));
+        Circuit sparse = grid(size, true);
+        Circuit dense = grid(size, false);
+        for (int i = 0; i < 20; i++)
+        {
+            change(sparse, dense, random);
+            sparse.solve(workspace);
+        }
+        dense.solve();
+        System.out.println("Sparse circuit: largest difference " + difference(sparse, dense));
+
+        // Bytes allocated per solve once warmed up
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        int solves = 20000;
+        for (int pass = 0; pass < 2; pass++)    // the first pass warms up the JIT
+        {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < solves; i++)
+            {
+                change(reused, null, random);
+                reused.solve(workspace);
+            }
+            long workspaceBytes = threads.getThreadAllocatedBytes(thread) - before;
+            before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < solves / 10; i++)
+            {
+                change(fresh, null, random);
+                fresh.solve();
+            }
+            long solveBytes = threads.getThreadAllocatedBytes(thread) - before;
+            if (pass == 1)
+            {
+                System.out.println("Bytes allocated per solve: solve(workspace) " + (double)workspaceBytes / solves
+                    + ", solve() " + solveBytes / (solves / 10) + " (workspace buffers " + workspace.bytesUsed()
+                    + " bytes)");
+                System.out.println("Steady-state solves allocate nothing: " + (workspaceBytes == 0));
+            }
+        }
+
+        // Time per solve
+        long start = System.nanoTime();
+        for (int i = 0; i < solves; i++)
+        {
+            change(reused, null, random);
+            reused.solve(workspace);
+        }
+        double workspaceUs = (System.nanoTime() - start) / 1e3 / solves;
+        start = System.nanoTime();
+        for (int i = 0; i < solves / 10; i++)
+        {
+            change(fresh, null, random);
+            fresh.solve();
+        }
+        double solveUs = (System.nanoTime() - start) / 1e3 / (solves / 10);
+        System.out.println("Time per solve: solve(workspace) " + round(workspaceUs) + " us, solve() " + round(solveUs) + " us");
+    }
+
+    /**
+     * @return  A size x size grid of resistors with a battery across it, and a spare row of terminals below
+     */
+    private static Circuit grid(int size, boolean sparse)
+    {
+        Random random = new Random(size);
+        Circuit circ = new Circuit(size + 1, size, sparse);
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                if (c + 1 < size)
+                {
+                    circ.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r, c + 1);
+                }
+                if (r + 1 < size)
+                {
+                    circ.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r + 1, c);
+                }
+            }
+        }
+        circ.addBattery(new Battery(12), 0, 0, size - 1, size - 1, 0, 0);
+        return circ;
+    }
+
+    /**
+     * Changes a random resistor, or the battery's voltage, in a circuit and (if it is not null) the same in a twin.
+     */
+    private static void change(Circuit circ, Circuit twin, Random random)
+    {
+        List<Component> components = circ.getComponents();
+        int k = random.nextInt(components.size());
+        Component c = components.get(k);
+        if (c instanceof Battery)
+        {
+            double volts = 1 + random.nextInt(24);
+            circ.setVoltage((Battery)c, volts);
+            if (twin != null)
+            {
+                twin.setVoltage((Battery)twin.getComponents().get(k), volts);
+            }
+        }
+        else
+        {
+            int ohms = 1 + random.nextInt(1000);
+            circ.setResistance(c, ohms);
+            if (twin != null)
+            {
+                twin.setResistance(twin.getComponents().get(k), ohms);
+            }
+        }
+    }
+
+    /**
+     * @return  The largest difference in component current and terminal potential between two solved circuits with the
+     *          same components in the same order
+     */
+    private static double difference(Circuit a, Circuit b)
+    {
+        double worst = 0;
+        List<Component> ca = a.getComponents();
+        List<Component> cb = b.getComponents();
+        for (int k = 0; k < ca.size(); k++)
+        {
+            worst = Math.max(worst, Math.abs(ca.get(k).getCurrent() - cb.get(k).getCurrent()));
+        }
+        for (Terminal t : b.getConnectedTerminals())
+        {
+            worst = Math.max(worst, Math.abs(a.getTerminal(t.getRow(), t.getCol()).getPotential() - t.getPotential()));
+        }
+        return worst;
+    }
+
+    private static double round(double value)
+    {
+        return Math.round(value * 100) / 100.0;
+    }
+}
@@ -0,0 +1,670 @@
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.HashMap;
+import java.util.Arrays;
+import org.apache.commons.math3.linear.*;
+
+/**
+ * Finds the smallest and largest current in each branch, and the smallest and largest potential at each terminal,
+ * when every resistor may be anywhere within a tolerance of its labeled value (for example, 5% resistors). Only
+ * resistors are varied; circuits with diodes are not accepted, since their equations are not linear.
+ *
+ * Each result is monotonic in each resistance on its own (with the others held fixed, it is a ratio of two linear
+ * functions of that resistor's conductance, whose denominator cannot reach 0), so its extremes over the tolerance
+ * range are at corners, where every resistor is at its low or high end. By default every corner is tried, and the
+ * bounds are guaranteed: they are the true smallest and largest values, up to rounding. The corners are visited in
+ * Gray code order, so that each step turns just one resistor around and the solution can be updated from the last
+ * one in about n m operations for n unknowns and m resistors, rather than factored again (see tryEveryCorner()). That
+ * is still 2^m steps, about a second and a half for 20 resistors, and each one more doubles it; so above
+ * maxExactResistors resistors (20 unless changed) analyze() refuses rather than run for hours.
+ *
+ * For larger circuits, setEstimate(true) turns on a search that is much faster but only estimates the bounds. The
+ * derivative of each result with respect to each resistance (its sensitivity) is found from the nominal solution,
+ * and its sign says whether that resistor should be at its high or low end to push the result to its extreme. If the
+ * signs are the same at that corner, the corner is accepted; otherwise the resistors whose signs changed are searched
+ * with branch-and-bound, pruning on a first-order estimate of how much the remaining resistors could add, and above
+ * maxSearchResistors changed signs only a local search is done. None of these steps is sure to find the extreme: the
+ * sensitivities can change a lot across the tolerance range. WorstCaseTester shows an estimate falling short.
+ */
+public class WorstCaseAnalysis
+{
+    private Circuit circuit;
+    private NodalAnalysis analysis;
+    private double tolerance;
+    private static final int REFRESH = 256;     // corners between fresh solves when trying every corner
+    private boolean estimate;               // search from the sensitivities instead of trying every corner
+    private int maxExactResistors = 20;     // above this many resistors, only estimates are allowed
+    private int maxSearchResistors = 12;    // above this many changed signs, use a local search instead of branch-and-bound
+    private double[] nominal;
+    private int[] resistors;        // index (in circuit.getComponents()) of each resistor that is varied
+    private Map<String, Corner> corners;
+    private int numSolves;
+
+    // Outputs: branch currents first, then terminal potentials
+    private int numOutputs;
+    private int numCurrents;
+    private int[] outComponent;     // for currents: the component whose current is reported
+    private int[] outNode;          // for potentials: the unknown holding the terminal's potential
+    private int[] outRefNode;       // for potentials: the unknown of the terminal measured from
+    private Terminal[] outTerminal;
+    private double best;            // best value found so far during branch-and-bound
+
+    private double[] minCurrents;
+    private double[] maxCurrents;
+    private long[] terminalKeys;    // of a sparse circuit when analyzed, which number the potentials; null if not sparse
+    private double[] minPotentials; // indexed as circuit.getTerminalIndex() numbers the terminals
+    private double[] maxPotentials;
+
+    /**
+     * A circuit solved with each resistor at its low ('-'), nominal ('0') or high ('+') value.
+     */
+    private class Corner
+    {
+        private double[] values;
+        private DecompositionSolver solver;
+        private double[] x;
+        private double[][] dx;      // dx[i] = derivative of the solution vector with respect to resistor i
+
+        private double[][] getDerivatives()
+        {
+            if (dx == null)
+            {
+                dx = new double[resistors.length][];
+                for (int i = 0; i < resistors.length; i++)
+                {
+                    int k = resistors[i];
+                    int[] ends = analysis.getEnds(k);
+                    double r = values[k];
+                    double v = entry(x, ends[0]) - entry(x, ends[1]);
+                    double[] rhs = new double[x.length];
+                    if (ends[0] >= 0)
+                    {
+                        rhs[ends[0]] = v / (r * r);
+                    }
+                    if (ends[1] >= 0)
+                    {
+                        rhs[ends[1]] = -v / (r * r);
+                    }
+                    dx[i] = analysis.solve(solver, rhs);
+                }
+            }
+            return dx;
+        }
+    }
+
+    /**
+     * @param circ  The circuit to analyze
+     * @param tol  Resistor tolerance as a fraction, e.g. 0.05 for 5%
+     * @throws IllegalArgumentException  If tol is not at least 0 and less than 1
+     */
+    public WorstCaseAnalysis(Circuit circ, double tol)
+    {
+        if (!(tol >= 0 && tol < 1))
+        {
+            throw new IllegalArgumentException("Tolerance must be at least 0 and less than 1: " + tol);
+        }
+        circuit = circ;
+        tolerance = tol;
+    }
+
+    /**
+     * Runs the analysis. Afterward, the results can be read with getMinCurrent(), getMaxCurrent(), getMinPotential()
+     * and getMaxPotential(). Branch numbers and current directions are the ones assigned by circuit.solve().
+     * @return  False if the circuit cannot be solved (short circuit or no complete circuit); true otherwise.
+     * @throws IllegalArgumentException  If the circuit has diodes
+     * @throws IllegalStateException  If there are more than maxExactResistors resistors and estimates were not asked
+     *                                for (see setEstimate())
+     */
+    public boolean analyze()
+    {
+        if (circuit.hasDiodes())
+        {
+            throw new IllegalArgumentException("Worst-case analysis cannot vary circuits with diodes");
+        }
+        corners = new HashMap<String, Corner>();
+        numSolves = 0;
+        if (circuit.solve() == null)
+        {
+            return false;
+        }
+        analysis = new NodalAnalysis(circuit);
+        nominal = analysis.getValues();
+        List<Component> comps = analysis.getComponents();
+        List<Integer> varied = new ArrayList<Integer>();
+        for (int k = 0; k < comps.size(); k++)
+        {
+            if (comps.get(k) instanceof Resistor && analysis.getSourceRow(k) < 0)
+            {
+                varied.add(k);
+            }
+        }
+        resistors = new int[varied.size()];
+        for (int i = 0; i < resistors.length; i++)
+        {
+            resistors[i] = varied.get(i);
+        }
+        if (!estimate && resistors.length > maxExactResistors)
+        {
+            throw new IllegalStateException(resistors.length + " resistors are too many to try every corner (at most "
+                + maxExactResistors + "); use setEstimate(true) or setMaxExactResistors()");
+        }
+
+        char[] nominalState = new char[resistors.length];
+        Arrays.fill(nominalState, '0');
+        Corner center = evaluate(nominalState);
+        if (center == null)
+        {
+            return false;
+        }
+        findOutputs(center);
+
+        terminalKeys = circuit.getTerminalKeys();
+        minCurrents = new double[numCurrents];
+        maxCurrents = new double[numCurrents];
+        minPotentials = new double[circuit.getNumTerminals()];
+        maxPotentials = new double[minPotentials.length];
+        Arrays.fill(minPotentials, Double.MAX_VALUE);
+        Arrays.fill(maxPotentials, Double.MAX_VALUE);
+        if (!estimate)
+        {
+            return tryEveryCorner();
+        }
+        for (int o = 0; o < numOutputs; o++)
+        {
+            store(o, -search(center, o, -1), search(center, o, 1));
+        }
+        return true;
+    }
+
+    /**
+     * Visits every corner, keeping the smallest and largest value of each output. In Gray code order, step s turns
+     * around the resistor numbered by the lowest set bit of s. That changes the matrix M by dg a a^T, where a has 1 and
+     * -1 at the resistor's ends and dg is the change in its conductance, so with z = M^-1 a the Sherman-Morrison
+     * formula gives the new solution as
+     *     x' = x - z (a^T x) dg / (1 + dg a^T z)
+     * The z of every resistor is kept, and updated in the same way. Every REFRESH steps the corner is factored and
+     * solved from scratch instead, so that rounding cannot build up.
+     * @return  False if a corner could not be solved
+     */
+    private boolean tryEveryCorner()
+    {
+        int m = resistors.length;
+        double[] values = nominal.clone();
+        boolean[] high = new boolean[m];
+        for (int i = 0; i < m; i++)
+        {
+            values[resistors[i]] = nominal[resistors[i]] * (1 - tolerance);
+        }
+        double[] min = new double[numOutputs];
+        double[] max = new double[numOutputs];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        double[] x = null;
+        double[][] z = new double[m][];
+        for (long step = 0; step < 1L << m; step++)
+        {
+            if (step > 0)
+            {
+                int i = Long.numberOfTrailingZeros(step);
+                int k = resistors[i];
+                double before = values[k];
+                high[i] = !high[i];
+                values[k] = nominal[k] * (high[i] ? 1 + tolerance : 1 - tolerance);
+                if (step % REFRESH != 0)
+                {
+                    turnAround(x, z, i, 1 / values[k] - 1 / before);
+                }
+            }
+            if (step % REFRESH == 0)
+            {
+                DecompositionSolver solver = analysis.factor(values);
+                numSolves++;
+                if (solver == null)
+                {
+                    return false;
+                }
+                x = analysis.solve(solver, analysis.buildConstants(values));
+                for (int i = 0; i < m; i++)
+                {
+                    int[] ends = analysis.getEnds(resistors[i]);
+                    double[] a = new double[x.length];
+                    add(a, ends[0], 1);
+                    add(a, ends[1], -1);
+                    z[i] = analysis.solve(solver, a);
+                }
+            }
+            for (int o = 0; o < numOutputs; o++)
+            {
+                double value = output(x, values, o);
+                min[o] = Math.min(min[o], value);
+                max[o] = Math.max(max[o], value);
+            }
+        }
+        for (int o = 0; o < numOutputs; o++)
+        {
+            store(o, min[o], max[o]);
+        }
+        return true;
+    }
+
+    /**
+     * Updates the solution x, and z = M^-1 a for every resistor, for resistor i's conductance changing by dg.
+     */
+    private void turnAround(double[] x, double[][] z, int i, double dg)
+    {
+        int[] ends = analysis.getEnds(resistors[i]);
+        double[] zi = z[i];
+        double denominator = 1 + dg * (entry(zi, ends[0]) - entry(zi, ends[1]));
+        double scale = dg * (entry(x, ends[0]) - entry(x, ends[1])) / denominator;
+        for (int u = 0; u < x.length; u++)
+        {
+            x[u] -= scale * zi[u];
+        }
+        for (int j = 0; j < z.length; j++)
+        {
+            if (j != i)
+            {
+                double[] zj = z[j];
+                scale = dg * (entry(zj, ends[0]) - entry(zj, ends[1])) / denominator;
+                for (int u = 0; u < zj.length; u++)
+                {
+                    zj[u] -= scale * zi[u];
+                }
+            }
+        }
+        for (int u = 0; u < zi.length; u++)
+        {
+            zi[u] /= denominator;
+        }
+    }
+
+    /**
+     * Records the range found for output o.
+     */
+    private void store(int o, double min, double max)
+    {
+        if (o < numCurrents)
+        {
+            minCurrents[o] = min;
+            maxCurrents[o] = max;
+        }
+        else
+        {
+            int t = circuit.getTerminalIndex(outTerminal[o]);
+            minPotentials[t] = min;
+            maxPotentials[t] = max;
+        }
+    }
+
+    /**
+     * Lists the results to be bounded. Potentials are measured from the terminal that has the lowest potential in
+     * the nominal solution (the terminal that circuit.solve() shows as 0 V), within each piece of the circuit.
+     */
+    private void findOutputs(Corner center)
+    {
+        numCurrents = circuit.getNumBranches();
+        List<Terminal> terms = new ArrayList<Terminal>();
+        Map<Integer, Terminal> lowest = new HashMap<Integer, Terminal>();
+        for (Terminal t : circuit.getConnectedTerminals())
+        {
+            int g = analysis.getGroup(t);
+            if (g >= 0)
+            {
+                terms.add(t);
+                Terminal low = lowest.get(g);
+                if (low == null || analysis.getPotential(center.x, t) < analysis.getPotential(center.x, low))
+                {
+                    lowest.put(g, t);
+                }
+            }
+        }
+
+        numOutputs = numCurrents + terms.size();
+        outComponent = new int[numOutputs];
+        outNode = new int[numOutputs];
+        outRefNode = new int[numOutputs];
+        outTerminal = new Terminal[numOutputs];
+        List<Component> comps = analysis.getComponents();
+        for (int k = 0; k < comps.size(); k++)
+        {
+            int b = comps.get(k).getBranch();
+            if (b >= 0 && b < numCurrents)
+            {
+                outComponent[b] = k;
+            }
+        }
+        for (int i = 0; i < terms.size(); i++)
+        {
+            Terminal t = terms.get(i);
+            outTerminal[numCurrents + i] = t;
+            outNode[numCurrents + i] = analysis.getNode(t);
+            outRefNode[numCurrents + i] = analysis.getNode(lowest.get(analysis.getGroup(t)));
+        }
+    }
+
+    /**
+     * Finds the largest value of dir * output.
+     * @param center  The nominal solution
+     * @param o  The output number
+     * @param dir  1 to maximize the output, -1 to minimize it
+     */
+    private double search(Corner center, int o, int dir)
+    {
+        char[] state = new char[resistors.length];
+        for (int i = 0; i < resistors.length; i++)
+        {
+            state[i] = pickEnd(dir * derivative(center, o, i));
+        }
+        Corner corner = evaluate(state);
+        if (corner == null)
+        {
+            // The corner could not be solved; start from the nominal value and try flipping each resistor instead
+            best = dir * output(center, o);
+            List<Integer> all = new ArrayList<Integer>();
+            for (int i = 0; i < resistors.length; i++)
+            {
+                all.add(i);
+            }
+            return localSearch(state, all, o, dir);
+        }
+        best = dir * output(corner, o);
+
+        // Resistors whose sensitivity has a different sign at the corner than at the nominal values
+        List<Integer> changed = new ArrayList<Integer>();
+        for (int i = 0; i < resistors.length; i++)
+        {
+            if (pickEnd(dir * derivative(corner, o, i)) != state[i])
+            {
+                changed.add(i);
+            }
+        }
+        if (changed.size() == 0)
+        {
+            return best;
+        }
+        if (changed.size() > maxSearchResistors)
+        {
+            return localSearch(state, changed, o, dir);
+        }
+        branchAndBound(state, changed, 0, corner, o, dir);
+        return best;
+    }
+
+    /**
+     * Searches the corners formed by the resistors in "changed", starting at index "depth". The resistors before
+     * "depth" are fixed; the rest are set according to the signs of their sensitivities at the parent corner.
+     */
+    private void branchAndBound(char[] state, List<Integer> changed, int depth, Corner here, int o, int dir)
+    {
+        double value = dir * output(here, o);
+        if (value > best)
+        {
+            best = value;
+        }
+        if (depth == changed.size())
+        {
+            return;
+        }
+        // First-order bound on how much the free resistors could still improve the result
+        double bound = value;
+        for (int j = depth; j < changed.size(); j++)
+        {
+            int i = changed.get(j);
+            bound += Math.abs(derivative(here, o, i)) * 2 * tolerance * nominal[resistors[i]];
+        }
+        if (bound <= best + 1e-12 * Math.abs(best))
+        {
+            return;
+        }
+
+        int i = changed.get(depth);
+        char preferred = pickEnd(dir * derivative(here, o, i));
+        char[] order = {preferred, preferred == '+' ? '-' : '+'};
+        for (char end : order)
+        {
+            char[] child = state.clone();
+            child[i] = end;
+            for (int j = depth + 1; j < changed.size(); j++)
+            {
+                int free = changed.get(j);
+                child[free] = pickEnd(dir * derivative(here, o, free));
+            }
+            Corner next = evaluate(child);
+            if (next != null)
+            {
+                branchAndBound(child, changed, depth + 1, next, o, dir);
+            }
+        }
+    }
+
+    /**
+     * Used when too many signs change for branch-and-bound: flips one resistor at a time while that improves the result.
+     */
+    private double localSearch(char[] state, List<Integer> changed, int o, int dir)
+    {
+        boolean improved = true;
+        while (improved)
+        {
+            improved = false;
+            for (int i : changed)
+            {
+                char[] trial = state.clone();
+                trial[i] = trial[i] == '+' ? '-' : '+';
+                Corner c = evaluate(trial);
+                if (c != null && dir * output(c, o) > best)
+                {
+                    best = dir * output(c, o);
+                    state = trial;
+                    improved = true;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Solves the circuit with the resistors set as described by state, or returns the cached solution.
+     */
+    private Corner evaluate(char[] state)
+    {
+        String key = new String(state);
+        if (corners.containsKey(key))
+        {
+            return corners.get(key);
+        }
+        Corner corner = new Corner();
+        corner.values = nominal.clone();
+        for (int i = 0; i < resistors.length; i++)
+        {
+            int k = resistors[i];
+            if (state[i] == '+')
+            {
+                corner.values[k] = nominal[k] * (1 + tolerance);
+            }
+            else if (state[i] == '-')
+            {
+                corner.values[k] = nominal[k] * (1 - tolerance);
+            }
+        }
+        corner.solver = analysis.factor(corner.values);
+        numSolves++;
+        if (corner.solver == null)
+        {
+            corner = null;
+        }
+        else
+        {
+            corner.x = analysis.solve(corner.solver, analysis.buildConstants(corner.values));
+        }
+        corners.put(key, corner);
+        return corner;
+    }
+
+    private double output(Corner c, int o)
+    {
+        return output(c.x, c.values, o);
+    }
+
+    private double output(double[] x, double[] values, int o)
+    {
+        if (o < numCurrents)
+        {
+            return analysis.getCurrentInDirection(x, values, outComponent[o]);
+        }
+        return entry(x, outNode[o]) - entry(x, outRefNode[o]);
+    }
+
+    /**
+     * @return  The derivative of output o with respect to the resistance of resistor i, at corner c.
+     */
+    private double derivative(Corner c, int o, int i)
+    {
+        double[] dx = c.getDerivatives()[i];
+        if (o >= numCurrents)
+        {
+            return entry(dx, outNode[o]) - entry(dx, outRefNode[o]);
+        }
+        int k = outComponent[o];
+        double d;
+        if (analysis.getSourceRow(k) >= 0)
+        {
+            d = dx[analysis.getSourceRow(k)];
+        }
+        else
+        {
+            int[] ends = analysis.getEnds(k);
+            double r = c.values[k];
+            d = (entry(dx, ends[0]) - entry(dx, ends[1])) / r;
+            if (k == resistors[i])
+            {
+                d -= (entry(c.x, ends[0]) - entry(c.x, ends[1])) / (r * r);
+            }
+        }
+        Component comp = analysis.getComponents().get(k);
+        if (comp.getCurrentDirection() != null && comp.getCurrentDirection().equals(comp.getEndPt1()))
+        {
+            d = -d;
+        }
+        return d;
+    }
+
+    /**
+     * @return  '+' (high resistance) if a positive derivative means increasing resistance helps, otherwise '-'.
+     */
+    private char pickEnd(double derivative)
+    {
+        if (derivative >= 0)
+        {
+            return '+';
+        }
+        return '-';
+    }
+
+    private double entry(double[] x, int i)
+    {
+        if (i < 0)
+        {
+            return 0;
+        }
+        return x[i];
+    }
+
+    private void add(double[] vector, int i, double value)
+    {
+        if (i >= 0)
+        {
+            vector[i] += value;
+        }
+    }
+
+    /**
+     * @return  The smallest current in a branch, in the direction labeled by circuit.solve(); an estimate after
+     *          setEstimate(true).
+     */
+    public double getMinCurrent(int branch)
+    {
+        return minCurrents[branch];
+    }
+
+    /**
+     * @return  The largest current in a branch, in the direction labeled by circuit.solve(); an estimate after
+     *          setEstimate(true).
+     */
+    public double getMaxCurrent(int branch)
+    {
+        return maxCurrents[branch];
+    }
+
+    /**
+     * @return  The lowest potential at a terminal, or Double.MAX_VALUE if the terminal is not connected; an estimate
+     *          after setEstimate(true).
+     */
+    public double getMinPotential(int row, int col)
+    {
+        int t = indexOf(row, col);
+        return t < 0 ? Double.MAX_VALUE : minPotentials[t];
+    }
+
+    /**
+     * @return  The highest potential at a terminal, or Double.MAX_VALUE if the terminal is not connected; an estimate
+     *          after setEstimate(true).
+     */
+    public double getMaxPotential(int row, int col)
+    {
+        int t = indexOf(row, col);
+        return t < 0 ? Double.MAX_VALUE : maxPotentials[t];
+    }
+
+    /**
+     * @return  Where a terminal's potentials are kept, or -1 for a terminal that was not in use in a sparse circuit
+     */
+    private int indexOf(int row, int col)
+    {
+        if (row < 0 || row >= circuit.getRows() || col < 0 || col >= circuit.getCols())
+        {
+            throw new ArrayIndexOutOfBoundsException("No terminal at (" + col + ", " + row + ")");
+        }
+        long key = (long)row * circuit.getCols() + col;
+        if (terminalKeys == null)
+        {
+            return (int)key;
+        }
+        return Math.max(Arrays.binarySearch(terminalKeys, key), -1);
+    }
+
+    /**
+     * @param on  True to search from the sensitivities, which is far faster on large circuits but only estimates the
+     *            bounds and can fall short of the true extremes (see the class comment); false (the default) to try
+     *            every corner, for guaranteed bounds
+     */
+    public void setEstimate(boolean on)
+    {
+        estimate = on;
+    }
+
+    /**
+     * @param n  The most resistors for which every corner may be tried, 2^n in all (20 unless changed)
+     */
+    public void setMaxExactResistors(int n)
+    {
+        maxExactResistors = n;
+    }
+
+    /**
+     * @return  The number of times the circuit equations were factored and solved, including the nominal solve. When
+     *          every corner is tried, most corners are found by updating the last one instead, and are not counted.
+     */
+    public int getNumSolves()
+    {
+        return numSolves;
+    }
+
+    /**
+     * @return  The number of resistors that were varied.
+     */
+    public int getNumResistors()
+    {
+        return resistors.length;
+    }
+}
@@ -0,0 +1,184 @@
+import java.util.List;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks WorstCaseAnalysis against solving every corner (every resistor at its low or high end) from scratch on small
+ * lattices, for a small and a large tolerance: its bounds must be the true extremes, while the estimates made with
+ * setEstimate(true) may fall short of them. Then checks that a bad tolerance, a circuit with a diode, and a circuit with
+ * too many resistors to try every corner (unless estimates are asked for) are turned away.
+ */
+public class WorstCaseTester
+{
+    public static void main(String[] args)
+    {
+        for (int seed = 1; seed <= 3; seed++)
+        {
+            for (double tol : new double[] {0.05, 0.3})
+            {
+                Circuit circ = lattice(3, new Random(seed));
+                WorstCaseAnalysis wca = new WorstCaseAnalysis(circ, tol);
+                wca.analyze();
+                double[] off = compare(circ, tol, wca);
+                WorstCaseAnalysis estimated = new WorstCaseAnalysis(circ, tol);
+                estimated.setEstimate(true);
+                estimated.analyze();
+                System.out.println("Lattice " + seed + ", " + Math.round(tol * 100) + "% resistors, "
+                    + (1 << wca.getNumResistors()) + " corners: bounds from " + wca.getNumSolves() + " factorizations, "
+                    + "short of the true extremes by " + off[0] + " and beyond them by " + off[1] + ": "
+                    + (Math.max(off[0], off[1]) < 1e-12 ? "ok" : "WRONG") + "; estimate from " + estimated.getNumSolves()
+                    + " solves short by " + compare(circ, tol, estimated)[0]);
+            }
+        }
+
+        Circuit large = lattice(4, new Random(1));
+        try
+        {
+            new WorstCaseAnalysis(large, 0.05).analyze();
+            System.out.println("Too many resistors to try every corner accepted: FAILED");
+        }
+        catch (IllegalStateException e)
+        {
+            WorstCaseAnalysis estimated = new WorstCaseAnalysis(large, 0.05);
+            estimated.setEstimate(true);
+            System.out.println("Too many resistors to try every corner rejected: " + e.getMessage()
+                + "; estimated instead: " + estimated.analyze());
+        }
+
+        try
+        {
+            new WorstCaseAnalysis(lattice(3, new Random(1)), 1);
+            System.out.println("Tolerance of 1 accepted: FAILED");
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println("Tolerance of 1 rejected: " + e.getMessage());
+        }
+        Circuit withDiode = lattice(3, new Random(1));
+        withDiode.addComponent(new Diode(), 2, 0, 2, 2);
+        try
+        {
+            new WorstCaseAnalysis(withDiode, 0.05).analyze();
+            System.out.println("Circuit with a diode accepted: FAILED");
+        }
+        catch (IllegalArgumentException e)
+        {
+            System.out.println("Circuit with a diode rejected: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Solves every corner, and finds how far inside the true range of each current and potential the analysis's bounds
+     * are (0 if it found every extreme), and how far outside it.
+     * @return  The largest shortfall and the largest overshoot
+     */
+    private static double[] compare(Circuit circ, double tol, WorstCaseAnalysis wca)
+    {
+        NodalAnalysis analysis = new NodalAnalysis(circ);
+        double[] nominal = analysis.getValues();
+        List<Component> comps = analysis.getComponents();
+        int numResistors = wca.getNumResistors();
+        int[] resistors = new int[numResistors];
+        int n = 0;
+        for (int k = 0; k < comps.size(); k++)
+        {
+            if (comps.get(k) instanceof Resistor)
+            {
+                resistors[n] = k;
+                n++;
+            }
+        }
+        int[] branchComponent = new int[circ.getNumBranches()];
+        for (int k = 0; k < comps.size(); k++)
+        {
+            if (comps.get(k).getBranch() >= 0)
+            {
+                branchComponent[comps.get(k).getBranch()] = k;
+            }
+        }
+        Terminal lowest = null;
+        double[] nominalX = analysis.solve(nominal);
+        for (Terminal t : circ.getConnectedTerminals())
+        {
+            if (lowest == null || analysis.getPotential(nominalX, t) < analysis.getPotential(nominalX, lowest))
+            {
+                lowest = t;
+            }
+        }
+
+        double[] minCurrent = new double[branchComponent.length];
+        double[] maxCurrent = new double[branchComponent.length];
+        Arrays.fill(minCurrent, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxCurrent, Double.NEGATIVE_INFINITY);
+        List<Terminal> terminals = circ.getConnectedTerminals();
+        double[] minPotential = new double[terminals.size()];
+        double[] maxPotential = new double[terminals.size()];
+        Arrays.fill(minPotential, Double.POSITIVE_INFINITY);
+        Arrays.fill(maxPotential, Double.NEGATIVE_INFINITY);
+        double[] values = nominal.clone();
+        for (int corner = 0; corner < 1 << numResistors; corner++)
+        {
+            for (int i = 0; i < numResistors; i++)
+            {
+                int k = resistors[i];
+                values[k] = nominal[k] * ((corner >> i & 1) == 1 ? 1 + tol : 1 - tol);
+            }
+            double[] x = analysis.solve(values);
+            for (int b = 0; b < branchComponent.length; b++)
+            {
+                double current = analysis.getCurrentInDirection(x, values, branchComponent[b]);
+                minCurrent[b] = Math.min(minCurrent[b], current);
+                maxCurrent[b] = Math.max(maxCurrent[b], current);
+            }
+            for (int j = 0; j < terminals.size(); j++)
+            {
+                double v = analysis.getPotential(x, terminals.get(j)) - analysis.getPotential(x, lowest);
+                minPotential[j] = Math.min(minPotential[j], v);
+                maxPotential[j] = Math.max(maxPotential[j], v);
+            }
+        }
+
+        double shortfall = 0;
+        double overshoot = 0;
+        for (int b = 0; b < branchComponent.length; b++)
+        {
+            shortfall = Math.max(shortfall, Math.max(maxCurrent[b] - wca.getMaxCurrent(b),
+                wca.getMinCurrent(b) - minCurrent[b]));
+            overshoot = Math.max(overshoot, Math.max(wca.getMaxCurrent(b) - maxCurrent[b],
+                minCurrent[b] - wca.getMinCurrent(b)));
+        }
+        for (int j = 0; j < terminals.size(); j++)
+        {
+            Terminal t = terminals.get(j);
+            double min = wca.getMinPotential(t.getRow(), t.getCol());
+            double max = wca.getMaxPotential(t.getRow(), t.getCol());
+            shortfall = Math.max(shortfall, Math.max(maxPotential[j] - max, min - minPotential[j]));
+            overshoot = Math.max(overshoot, Math.max(max - maxPotential[j], minPotential[j] - min));
+        }
+        return new double[] {shortfall, overshoot};
+    }
+
+    /**
+     * @return  A size x size lattice of resistors of 1 to 100 ohms, with a 9 V battery in place of its first resistor
+     */
+    private static Circuit lattice(int size, Random random)
+    {
+        Circuit circ = new Circuit(size, size);
+        circ.addBattery(new Battery(9), 0, 0, 0, 1, 0, 1);
+        for (int r = 0; r < size; r++)
+        {
+            for (int c = 0; c < size; c++)
+            {
+                if (c + 1 < size && !(r == 0 && c == 0))
+                {
+                    circ.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r, c + 1);
+                }
+                if (r + 1 < size)
+                {
+                    circ.addComponent(new Resistor(1 + random.nextInt(100)), r, c, r + 1, c);
+                }
+            }
+        }
+        return circ;
+    }
+}